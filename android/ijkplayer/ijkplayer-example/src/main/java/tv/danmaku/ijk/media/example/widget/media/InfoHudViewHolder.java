@@ -12,6 +12,7 @@ import java.util.Locale;
 import tv.danmaku.ijk.media.player.IMediaPlayer;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
 import tv.danmaku.ijk.media.player.MediaPlayerProxy;
+import tv.danmaku.ijk.media.player.PlayerStats;
 import tv.danmaku.ijk.media.example.R;
 
 public class InfoHudViewHolder {
@@ -20,6 +21,7 @@ public class InfoHudViewHolder {
     private IMediaPlayer mMediaPlayer;
     private long mLoadCost = 0;
     private long mSeekCost = 0;
+    private PlayerStats mPlayerStats = new PlayerStats();
 
     public InfoHudViewHolder(Context context, TableLayout tableLayout) {
         mTableLayoutBinder = new TableLayoutBinder(context, tableLayout);
@@ -119,7 +121,10 @@ public class InfoHudViewHolder {
                     if (mp == null)
                         break;
 
-                    int vdec = mp.getVideoDecoder();
+                    PlayerStats stats = mPlayerStats;
+                    mp.getStatsSnapshot(stats);
+
+                    int vdec = stats.getVideoDecoder();
                     switch (vdec) {
                         case IjkMediaPlayer.FFP_PROPV_DECODER_AVCODEC:
                             setRowValue(R.string.vdec, "avcodec");
@@ -132,17 +137,17 @@ public class InfoHudViewHolder {
                             break;
                     }
 
-                    float fpsOutput = mp.getVideoOutputFramesPerSecond();
-                    float fpsDecode = mp.getVideoDecodeFramesPerSecond();
+                    float fpsOutput = stats.getVideoOutputFramesPerSecond();
+                    float fpsDecode = stats.getVideoDecodeFramesPerSecond();
                     setRowValue(R.string.fps, String.format(Locale.US, "%.2f / %.2f", fpsDecode, fpsOutput));
 
-                    long videoCachedDuration = mp.getVideoCachedDuration();
-                    long audioCachedDuration = mp.getAudioCachedDuration();
-                    long videoCachedBytes    = mp.getVideoCachedBytes();
-                    long audioCachedBytes    = mp.getAudioCachedBytes();
-                    long tcpSpeed            = mp.getTcpSpeed();
-                    long bitRate             = mp.getBitRate();
-                    long seekLoadDuration    = mp.getSeekLoadDuration();
+                    long videoCachedDuration = stats.getVideoCachedDuration();
+                    long audioCachedDuration = stats.getAudioCachedDuration();
+                    long videoCachedBytes    = stats.getVideoCachedBytes();
+                    long audioCachedBytes    = stats.getAudioCachedBytes();
+                    long tcpSpeed            = stats.getTcpSpeed();
+                    long bitRate             = stats.getBitRate();
+                    long seekLoadDuration    = stats.getSeekLoadDuration();
 
                     setRowValue(R.string.v_cache, String.format(Locale.US, "%s, %s", formatedDurationMilli(videoCachedDuration), formatedSize(videoCachedBytes)));
                     setRowValue(R.string.a_cache, String.format(Locale.US, "%s, %s", formatedDurationMilli(audioCachedDuration), formatedSize(audioCachedBytes)));
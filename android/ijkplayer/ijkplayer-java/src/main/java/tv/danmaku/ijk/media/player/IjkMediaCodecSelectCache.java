@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * Decisions of DefaultMediaCodecSelector, keyed by (mime, profile, level).
+ *
+ * Codec list only changes with system updates, so the file is dropped
+ * whenever Build.FINGERPRINT differs from the one it was written with.
+ */
+final class IjkMediaCodecSelectCache {
+    private final static String TAG = "IjkMediaCodecSelectCache";
+
+    private static final String KEY_FINGERPRINT = "build.fingerprint";
+    // stands for "no acceptable codec", as Properties can not hold null
+    private static final String NO_CODEC = "";
+
+    private final Map<String, String> mDecisions = new HashMap<String, String>();
+    private File mFile;
+    private boolean mLoaded;
+
+    public static String makeKey(String mimeType, int profile, int level) {
+        // called on every codec open, avoid String.format()
+        return mimeType.toLowerCase(Locale.US) + '/' + profile + '/' + level;
+    }
+
+    public synchronized void setFile(File file) {
+        if (file == null ? mFile == null : file.equals(mFile))
+            return;
+
+        mFile = file;
+        mLoaded = false;
+    }
+
+    public synchronized boolean contains(String key) {
+        load();
+        return mDecisions.containsKey(key);
+    }
+
+    /*
+     * @return codec name, or null if no codec is acceptable
+     */
+    public synchronized String get(String key) {
+        load();
+        String codecName = mDecisions.get(key);
+        return TextUtils.isEmpty(codecName) ? null : codecName;
+    }
+
+    public synchronized void put(String key, String codecName) {
+        mDecisions.put(key, codecName == null ? NO_CODEC : codecName);
+        save();
+    }
+
+    public synchronized void clear() {
+        mDecisions.clear();
+        if (mFile != null && !mFile.delete() && mFile.exists())
+            Log.w(TAG, "failed to delete " + mFile);
+    }
+
+    private void load() {
+        if (mLoaded)
+            return;
+        mLoaded = true;
+
+        if (mFile == null || !mFile.exists())
+            return;
+
+        Properties props = new Properties();
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(mFile);
+            props.load(is);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to load " + mFile, e);
+            return;
+        } finally {
+            IjkIOUtils.closeQuietly(is);
+        }
+
+        if (!Build.FINGERPRINT.equals(props.getProperty(KEY_FINGERPRINT))) {
+            Log.i(TAG, "build changed, drop " + mFile);
+            return;
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            if (KEY_FINGERPRINT.equals(key))
+                continue;
+            if (!mDecisions.containsKey(key))
+                mDecisions.put(key, props.getProperty(key));
+        }
+    }
+
+    private void save() {
+        if (mFile == null)
+            return;
+
+        Properties props = new Properties();
+        props.setProperty(KEY_FINGERPRINT, Build.FINGERPRINT);
+        for (Map.Entry<String, String> entry : mDecisions.entrySet())
+            props.setProperty(entry.getKey(), entry.getValue());
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(tmpFile);
+            props.store(os, null);
+            os.close();
+            os = null;
+            if (!tmpFile.renameTo(mFile))
+                Log.w(TAG, "failed to rename " + tmpFile);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save " + mFile, e);
+        } finally {
+            IjkIOUtils.closeQuietly(os);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
@@ -42,6 +43,7 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -55,6 +57,8 @@ import java.util.Map;
 import tv.danmaku.ijk.media.player.annotations.AccessedByNative;
 import tv.danmaku.ijk.media.player.annotations.CalledByNative;
 import tv.danmaku.ijk.media.player.misc.IAndroidIO;
+import tv.danmaku.ijk.media.player.misc.IAndroidIO2;
+import tv.danmaku.ijk.media.player.misc.IDirectMediaDataSource;
 import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
 import tv.danmaku.ijk.media.player.misc.ITrackInfo;
 import tv.danmaku.ijk.media.player.misc.IjkTrackInfo;
@@ -109,6 +113,7 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static final int PROP_FLOAT_VIDEO_OUTPUT_FRAMES_PER_SECOND       = 10002;
     public static final int FFP_PROP_FLOAT_PLAYBACK_RATE                    = 10003;
     public static final int FFP_PROP_FLOAT_DROP_FRAME_RATE                  = 10007;
+    public static final int FFP_PROP_FLOAT_LIVE_CATCHUP_RATE                = 10008;
 
     public static final int FFP_PROP_INT64_SELECTED_VIDEO_STREAM            = 20001;
     public static final int FFP_PROP_INT64_SELECTED_AUDIO_STREAM            = 20002;
@@ -140,6 +145,25 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static final int FFP_PROP_INT64_TCP_SPEED                        = 20200;
     public static final int FFP_PROP_INT64_LATEST_SEEK_LOAD_DURATION        = 20300;
     public static final int FFP_PROP_INT64_IMMEDIATE_RECONNECT              = 20211;
+    public static final int FFP_PROP_INT64_STARTUP_HTTP_OPEN                = 20400;
+    public static final int FFP_PROP_INT64_STARTUP_TCP_CONNECT              = 20401;
+    public static final int FFP_PROP_INT64_STARTUP_TCP_CONNECTED            = 20402;
+    public static final int FFP_PROP_INT64_STARTUP_HTTP_OPENED              = 20403;
+    public static final int FFP_PROP_INT64_STARTUP_OPEN_INPUT               = 20404;
+    public static final int FFP_PROP_INT64_STARTUP_FIND_STREAM_INFO         = 20405;
+    public static final int FFP_PROP_INT64_STARTUP_COMPONENT_OPEN           = 20406;
+    public static final int FFP_PROP_INT64_STARTUP_PREPARED                 = 20407;
+    public static final int FFP_PROP_INT64_STARTUP_FIRST_PACKET             = 20408;
+    public static final int FFP_PROP_INT64_STARTUP_VIDEO_DECODED            = 20409;
+    public static final int FFP_PROP_INT64_STARTUP_AUDIO_DECODED            = 20410;
+    public static final int FFP_PROP_INT64_STARTUP_VIDEO_RENDERED           = 20411;
+    public static final int FFP_PROP_INT64_STARTUP_AUDIO_RENDERED           = 20412;
+    public static final int FFP_PROP_INT64_LIVE_CATCHUP_STATE               = 20500;
+    public static final int     FFP_PROPV_LIVE_CATCHUP_IDLE                 = 0;
+    public static final int     FFP_PROPV_LIVE_CATCHUP_SPEEDING             = 1;
+    public static final int     FFP_PROPV_LIVE_CATCHUP_SKIPPING             = 2;
+    public static final int FFP_PROP_INT64_LIVE_LATENCY                     = 20501;
+    public static final int FFP_PROP_INT64_LIVE_CATCHUP_SKIP_COUNT          = 20502;
     //----------------------------------------
 
     @AccessedByNative
@@ -150,6 +174,22 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     @AccessedByNative
     private long mNativeAndroidIO;
 
+    // keeps java side of the next player alive until it is started
+    private IjkMediaPlayer mNextMediaPlayer;
+
+    /*
+     * Parsed meta, valid from MEDIA_PREPARED until stream or decoder changes.
+     * Guarded by mMetaCacheLock, as invalidated from native threads.
+     */
+    private final Object mMetaCacheLock = new Object();
+    private boolean mMetaCacheEnabled;
+    private IjkMediaMeta mCachedMediaMeta;
+    private IjkTrackInfo[] mCachedTrackInfo;
+    private MediaInfo mCachedMediaInfo;
+
+    // captured once per session on first rendering start, see getStartupTimeline()
+    private volatile StartupTimeline mStartupTimeline;
+
     @AccessedByNative
     private int mNativeSurfaceTexture;
 
@@ -245,6 +285,7 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
          * create it here than in C++.
          */
         native_setup(new WeakReference<IjkMediaPlayer>(this));
+        applyDefaultOptionProfile();
     }
 
     private native void _setFrameAtTime(String imgCachePath, long startTime, long endTime, int num, int imgDefinition)
@@ -483,14 +524,32 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         setDataSource(fd);
     }
 
+    /**
+     * Sets a custom data source.
+     * An {@link IDirectMediaDataSource} is read through its ByteBuffer variant,
+     * which writes into native memory without an extra copy.
+     */
     public void setDataSource(IMediaDataSource mediaDataSource)
             throws IllegalArgumentException, SecurityException, IllegalStateException {
-        _setDataSource(mediaDataSource);
+        if (mediaDataSource instanceof IDirectMediaDataSource) {
+            _setDataSource((IDirectMediaDataSource) mediaDataSource);
+        } else {
+            _setDataSource(mediaDataSource);
+        }
     }
 
+    /**
+     * Sets a custom IO for "ijkio:androidio:" urls.
+     * An {@link IAndroidIO2} is read through its ByteBuffer variant,
+     * which writes into a native buffer without a byte[] copy.
+     */
     public void setAndroidIOCallback(IAndroidIO androidIO)
             throws IllegalArgumentException, SecurityException, IllegalStateException {
-        _setAndroidIOCallback(androidIO);
+        if (androidIO instanceof IAndroidIO2) {
+            _setAndroidIOCallback((IAndroidIO2) androidIO);
+        } else {
+            _setAndroidIOCallback(androidIO);
+        }
     }
 
     private native void _setDataSource(String path, String[] keys, String[] values)
@@ -502,9 +561,15 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     private native void _setDataSource(IMediaDataSource mediaDataSource)
             throws IllegalArgumentException, SecurityException, IllegalStateException;
 
+    private native void _setDataSource(IDirectMediaDataSource mediaDataSource)
+            throws IllegalArgumentException, SecurityException, IllegalStateException;
+
     private native void _setAndroidIOCallback(IAndroidIO androidIO)
             throws IllegalArgumentException, SecurityException, IllegalStateException;
 
+    private native void _setAndroidIOCallback(IAndroidIO2 androidIO)
+            throws IllegalArgumentException, SecurityException, IllegalStateException;
+
     @Override
     public String getDataSource() {
         return mDataSource;
@@ -512,6 +577,8 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
 
     @Override
     public void prepareAsync() throws IllegalStateException {
+        invalidateMetaCache(false);
+        mStartupTimeline = null;
         _prepareAsync();
     }
 
@@ -594,16 +661,29 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         }
     }
 
+    /**
+     * The returned array is cached once prepared, do not modify it.
+     */
     @Override
     public IjkTrackInfo[] getTrackInfo() {
-        Bundle bundle = getMediaMeta();
-        if (bundle == null)
-            return null;
+        synchronized (mMetaCacheLock) {
+            if (mCachedTrackInfo != null)
+                return mCachedTrackInfo;
+        }
 
-        IjkMediaMeta mediaMeta = IjkMediaMeta.parse(bundle);
+        IjkMediaMeta mediaMeta = getParsedMediaMeta();
         if (mediaMeta == null || mediaMeta.mStreams == null)
             return null;
 
+        IjkTrackInfo[] trackInfos = buildTrackInfo(mediaMeta);
+        synchronized (mMetaCacheLock) {
+            if (mMetaCacheEnabled && mCachedMediaMeta == mediaMeta)
+                mCachedTrackInfo = trackInfos;
+        }
+        return trackInfos;
+    }
+
+    private static IjkTrackInfo[] buildTrackInfo(IjkMediaMeta mediaMeta) {
         ArrayList<IjkTrackInfo> trackInfos = new ArrayList<IjkTrackInfo>();
         for (IjkMediaMeta.IjkStreamMeta streamMeta: mediaMeta.mStreams) {
             IjkTrackInfo trackInfo = new IjkTrackInfo(streamMeta);
@@ -637,12 +717,14 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     // experimental, should set DEFAULT_MIN_FRAMES and MAX_MIN_FRAMES to 25
     // TODO: @Override
     public void selectTrack(int track) {
+        invalidateMetaCache(true);
         _setStreamSelected(track, true);
     }
 
     // experimental, should set DEFAULT_MIN_FRAMES and MAX_MIN_FRAMES to 25
     // TODO: @Override
     public void deselectTrack(int track) {
+        invalidateMetaCache(true);
         _setStreamSelected(track, false);
     }
 
@@ -701,7 +783,11 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         stayAwake(false);
         updateSurfaceScreenOn();
         resetListeners();
+        setOnLasStatisticsListener(null, 0);
         _release();
+        mNextMediaPlayer = null;
+        invalidateMetaCache(false);
+        mStartupTimeline = null;
     }
 
     private native void _release();
@@ -709,7 +795,12 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     @Override
     public void reset() {
         stayAwake(false);
+        setOnLasStatisticsListener(null, 0);
         _reset();
+        mNextMediaPlayer = null;
+        invalidateMetaCache(false);
+        mStartupTimeline = null;
+        applyDefaultOptionProfile();
         // make sure none of the listeners get called anymore
         mEventHandler.removeCallbacksAndMessages(null);
 
@@ -719,6 +810,28 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
 
     private native void _reset();
 
+    /*
+     * Same as reset(), but keeps the native player, video output, audio output
+     * and decoder pipeline for the next data source.
+     * May block until playback threads exit, used by IjkMediaPlayerPool.
+     */
+    /* package */ void resetForReuse() {
+        stayAwake(false);
+        setOnLasStatisticsListener(null, 0);
+        _resetForReuse();
+        mNextMediaPlayer = null;
+        invalidateMetaCache(false);
+        mStartupTimeline = null;
+        applyDefaultOptionProfile();
+        // make sure none of the listeners get called anymore
+        mEventHandler.removeCallbacksAndMessages(null);
+
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+    }
+
+    private native void _resetForReuse();
+
     /**
      * Sets the player to be looping or non-looping.
      *
@@ -733,6 +846,29 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
 
     private native void _setLoopCount(int loopCount);
 
+    /**
+     * Sets the player to start when this player completes, without waiting
+     * for a new prepare.
+     *
+     * If next has only a data source set, it is prepared here with
+     * "start-on-prepared" disabled, so demuxer, decoders and first packets are
+     * ready in background. Otherwise next must be preparing with
+     * "start-on-prepared" disabled, or paused after prepared.
+     *
+     * At completion the surface of this player is moved to next, next is
+     * started and reports {@link #MEDIA_INFO_STARTED_AS_NEXT}, then this player
+     * reports completion. Audio output of next is already open at that point.
+     *
+     * @param next the player to start next, or null to clear
+     * @throws IllegalStateException if next is in a state it can not be chained
+     */
+    public void setNextMediaPlayer(IjkMediaPlayer next) {
+        _setNextMediaPlayer(next);
+        mNextMediaPlayer = next;
+    }
+
+    private native void _setNextMediaPlayer(IjkMediaPlayer next);
+
     /**
      * Checks whether the MediaPlayer is looping or non-looping.
      *
@@ -838,23 +974,117 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         return _getPropertyLong(FFP_PROP_INT64_LATEST_SEEK_LOAD_DURATION, 0);
     }
 
+    /**
+     * Reads all statistics into a caller-owned holder with a single native call.
+     * Nothing is allocated, so it is safe to call from a HUD or QoE poller.
+     *
+     * @param stats reusable holder, filled in place
+     */
+    public void getStatsSnapshot(PlayerStats stats) {
+        stats.reset();
+        _getPropertySnapshot(PlayerStats.INT64_PROPERTIES, stats.mInt64Values,
+                PlayerStats.FLOAT_PROPERTIES, stats.mFloatValues);
+    }
+
+    /**
+     * Reads all int64 statistics into a primitive array with a single native call.
+     * Values are laid out by PlayerStats.INDEX_xxx; entries keep their current
+     * content when the property is not available.
+     *
+     * @param values array of at least {@link PlayerStats#INT64_PROPERTY_COUNT} elements
+     */
+    public void getStatsSnapshot(long[] values) {
+        if (values == null || values.length < PlayerStats.INT64_PROPERTY_COUNT)
+            throw new IllegalArgumentException("getStatsSnapshot: values too small");
+
+        _getPropertySnapshot(PlayerStats.INT64_PROPERTIES, values, null, null);
+    }
+
+    /**
+     * Startup stages of the current session, in ms since prepareAsync().
+     *
+     * Captured when MEDIA_INFO_VIDEO_RENDERING_START is reported, or
+     * MEDIA_INFO_AUDIO_RENDERING_START without a video stream.
+     *
+     * @return null before the first frame is rendered
+     */
+    public StartupTimeline getStartupTimeline() {
+        return mStartupTimeline;
+    }
+
+    private void captureStartupTimeline() {
+        StartupTimeline timeline = new StartupTimeline();
+        _getPropertySnapshot(StartupTimeline.INT64_PROPERTIES, timeline.mValues, null, null);
+        mStartupTimeline = timeline;
+    }
+
+    /**
+     * Reads the las demuxer statistics and its rate adaptation state into a
+     * caller-owned holder with a single native call.
+     *
+     * @param stats reusable holder, filled in place
+     * @return false if the current data source is not played by ijklas,
+     *         stats is left untouched then
+     */
+    public boolean getLasStatistics(LasStatistics stats) {
+        return _getLasStatistics(stats.mValues, stats.mFlvBitrates, stats.mStrings);
+    }
+
+    private native boolean _getLasStatistics(long[] values, int[] flvBitrates, String[] strings);
+
     private native float _getPropertyFloat(int property, float defaultValue);
     private native void  _setPropertyFloat(int property, float value);
     private native long  _getPropertyLong(int property, long defaultValue);
     private native void  _setPropertyLong(int property, long value);
+    private native void  _getPropertySnapshot(int[] int64Properties, long[] int64Values,
+                                              int[] floatProperties, float[] floatValues);
 
     public float getDropFrameRate() {
         return _getPropertyFloat(FFP_PROP_FLOAT_DROP_FRAME_RATE, .0f);
     }
 
+    /*
+     * Live catch-up, enabled by the player option "live-catchup".
+     */
+
+    public float getLiveCatchupRate() {
+        return _getPropertyFloat(FFP_PROP_FLOAT_LIVE_CATCHUP_RATE, 1.0f);
+    }
+
+    /**
+     * @return FFP_PROPV_LIVE_CATCHUP_xxx
+     */
+    public int getLiveCatchupState() {
+        return (int) _getPropertyLong(FFP_PROP_INT64_LIVE_CATCHUP_STATE, FFP_PROPV_LIVE_CATCHUP_IDLE);
+    }
+
+    /**
+     * @return buffered duration in ms the live catch-up controller last saw
+     */
+    public long getLiveLatency() {
+        return _getPropertyLong(FFP_PROP_INT64_LIVE_LATENCY, 0);
+    }
+
+    public long getLiveCatchupSkipCount() {
+        return _getPropertyLong(FFP_PROP_INT64_LIVE_CATCHUP_SKIP_COUNT, 0);
+    }
+
     @Override
     public native void setVolume(float leftVolume, float rightVolume);
 
     @Override
     public native int getAudioSessionId();
 
+    /**
+     * The returned object is cached once prepared, do not modify it.
+     */
     @Override
     public MediaInfo getMediaInfo() {
+        synchronized (mMetaCacheLock) {
+            if (mCachedMediaInfo != null)
+                return mCachedMediaInfo;
+        }
+
         MediaInfo mediaInfo = new MediaInfo();
         mediaInfo.mMediaPlayerName = "ijkplayer";
 
@@ -883,13 +1113,44 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         }
 
         try {
-            mediaInfo.mMeta = IjkMediaMeta.parse(_getMediaMeta());
+            mediaInfo.mMeta = getParsedMediaMeta();
         } catch (Throwable e) {
             e.printStackTrace();
         }
+
+        synchronized (mMetaCacheLock) {
+            if (mMetaCacheEnabled && mCachedMediaMeta == mediaInfo.mMeta)
+                mCachedMediaInfo = mediaInfo;
+        }
         return mediaInfo;
     }
 
+    private IjkMediaMeta getParsedMediaMeta() {
+        synchronized (mMetaCacheLock) {
+            if (mCachedMediaMeta != null)
+                return mCachedMediaMeta;
+        }
+
+        IjkMediaMeta mediaMeta = IjkMediaMeta.parse(_getMediaMeta());
+        synchronized (mMetaCacheLock) {
+            if (mMetaCacheEnabled && mCachedMediaMeta == null && mediaMeta != null)
+                mCachedMediaMeta = mediaMeta;
+        }
+        return mediaMeta;
+    }
+
+    /*
+     * @param enable false until next MEDIA_PREPARED
+     */
+    private void invalidateMetaCache(boolean enable) {
+        synchronized (mMetaCacheLock) {
+            mMetaCacheEnabled = enable;
+            mCachedMediaMeta = null;
+            mCachedTrackInfo = null;
+            mCachedMediaInfo = null;
+        }
+    }
+
     @Override
     public void setLogEnabled(boolean enable) {
         // do nothing
@@ -916,6 +1177,34 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     private native void _setOption(int category, String name, String value);
     private native void _setOption(int category, String name, long value);
 
+    /**
+     * Sets all options of profile in one native call.
+     * Options set later, in any way, override options of the profile.
+     */
+    public void applyOptionProfile(IjkOptionProfile profile)
+    {
+        _setOptions(profile.getSerialized());
+    }
+
+    /**
+     * @param name a profile registered with {@link IjkOptionProfile#register(IjkOptionProfile)}
+     */
+    public void applyOptionProfile(String name)
+    {
+        IjkOptionProfile profile = IjkOptionProfile.get(name);
+        if (profile == null)
+            throw new IllegalArgumentException("unknown profile: " + name);
+        applyOptionProfile(profile);
+    }
+
+    private void applyDefaultOptionProfile() {
+        IjkOptionProfile profile = IjkOptionProfile.getDefault();
+        if (profile != null)
+            applyOptionProfile(profile);
+    }
+
+    private native void _setOptions(byte[] serializedOptions);
+
     public Bundle getMediaMeta() {
         return _getMediaMeta();
     }
@@ -927,6 +1216,95 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
 
     private static native String _getColorFormatName(int mediaCodecColorFormat);
 
+    /**
+     * Resolves hosts into the shared DNS cache in background, so that a later
+     * open does not wait for the lookup.
+     *
+     * The cache is only used by players with format option
+     * "ijkhttphook-dns-cache" set to 1, and only for plain http. Hosts that
+     * redirect to other hosts are always looked up by the system instead.
+     */
+    public static void prefetchHosts(String... hosts) {
+        if (hosts == null || hosts.length == 0)
+            return;
+
+        loadLibrariesOnce(sLocalLibLoader);
+        native_prefetchHosts(hosts);
+    }
+
+    /**
+     * @param ttlMs how long a resolved address is reused, 0 to restore the default
+     */
+    public static void setDnsCacheTtl(long ttlMs) {
+        loadLibrariesOnce(sLocalLibLoader);
+        native_setDnsCacheTtl(ttlMs);
+    }
+
+    public static void clearDnsCache() {
+        loadLibrariesOnce(sLocalLibLoader);
+        native_clearDnsCache();
+    }
+
+    /**
+     * Limits the shared pool of idle keep-alive connections, used by players
+     * with format option "ijkhttphook-keepalive" set to 1.
+     *
+     * @param maxIdlePerHost idle connections kept per scheme, host and port, 0 to disable the pool
+     * @param idleTimeoutMs  how long an idle connection is kept, 0 to restore the default
+     */
+    public static void setHttpPoolLimits(int maxIdlePerHost, long idleTimeoutMs) {
+        loadLibrariesOnce(sLocalLibLoader);
+        native_setHttpPoolLimits(maxIdlePerHost, idleTimeoutMs);
+    }
+
+    public static void clearHttpPool() {
+        loadLibrariesOnce(sLocalLibLoader);
+        native_clearHttpPool();
+    }
+
+    /**
+     * Shrinks the read ahead buffers of players opened with format option
+     * "async-adaptive-capacity" set to 1, typically called from
+     * ComponentCallbacks2.onTrimMemory().
+     */
+    public static void setLowMemory(boolean lowMemory) {
+        loadLibrariesOnce(sLocalLibLoader);
+        native_setLowMemory(lowMemory);
+    }
+
+    /**
+     * Limits the total size of the files in dir, the directory holding the
+     * "cache_file_path" and "cache_map_path" files of all players.
+     *
+     * Least recently used files are evicted first, the files of a playing
+     * cache are kept until its player is released.
+     *
+     * @param maxBytes budget in bytes, 0 to only track usage
+     * @return false if dir cannot be read
+     */
+    public static boolean setCacheBudget(String dir, long maxBytes) {
+        loadLibrariesOnce(sLocalLibLoader);
+        return native_setCacheBudget(dir, maxBytes);
+    }
+
+    /**
+     * @return bytes used by the directory given to setCacheBudget()
+     */
+    public static long getCacheUsage() {
+        loadLibrariesOnce(sLocalLibLoader);
+        return native_getCacheUsage();
+    }
+
+    /**
+     * Evicts least recently used files until usage is at most maxBytes.
+     *
+     * @return bytes freed
+     */
+    public static long trimCache(long maxBytes) {
+        loadLibrariesOnce(sLocalLibLoader);
+        return native_trimCache(maxBytes);
+    }
+
     @Override
     public void setAudioStreamType(int streamtype) {
         // do nothing
@@ -1075,6 +1453,31 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
             return;
         }
 
+        if (what == MEDIA_PREPARED) {
+            mp.invalidateMetaCache(true);
+        } else if (what == MEDIA_INFO) {
+            switch (arg1) {
+                case MEDIA_INFO_VIDEO_DECODED_START:
+                case MEDIA_INFO_AUDIO_DECODED_START:
+                case MEDIA_INFO_COMPONENT_OPEN:
+                case MEDIA_INFO_METADATA_UPDATE:
+                    // codec info or stream meta may have changed
+                    synchronized (mp.mMetaCacheLock) {
+                        mp.invalidateMetaCache(mp.mMetaCacheEnabled);
+                    }
+                    break;
+                case MEDIA_INFO_VIDEO_RENDERING_START:
+                    if (mp.mStartupTimeline == null)
+                        mp.captureStartupTimeline();
+                    break;
+                case MEDIA_INFO_AUDIO_RENDERING_START:
+                    if (mp.mStartupTimeline == null &&
+                            mp._getPropertyLong(FFP_PROP_INT64_SELECTED_VIDEO_STREAM, -1) < 0)
+                        mp.captureStartupTimeline();
+                    break;
+            }
+        }
+
         if (what == MEDIA_INFO && arg1 == MEDIA_INFO_STARTED_AS_NEXT) {
             // this acquires the wakelock if needed, and sets the client side
             // state
@@ -1099,6 +1502,116 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         String onControlResolveSegmentUrl(int segment);
     }
 
+    /*
+     * LasAbr
+     */
+
+    private OnLasAbrListener mOnLasAbrListener;
+    public void setOnLasAbrListener(OnLasAbrListener listener) {
+        mOnLasAbrListener = listener;
+    }
+
+    public interface OnLasAbrListener {
+        /*
+         * Called from the las demuxer thread before each gop, when the format
+         * option "las_abr_policy" is "callback".
+         *
+         * @param bitrates          kbps, ascending
+         * @param suggestedIndex    choice of the default "las" policy
+         * @return index in bitrates of the next gop, negative to keep suggestedIndex
+         */
+        int onLasAbrSelect(int[] bitrates, int currentIndex, int speedKbps, int bufferMs, int suggestedIndex);
+    }
+
+    /*
+     * LasStatistics
+     */
+
+    private final Object mLasStatisticsLock = new Object();
+    private LasStatisticsPoller mLasStatisticsPoller;
+
+    /**
+     * Pushes {@link LasStatistics} every intervalMs while the data source is
+     * played by ijklas, from a background thread owned by this player.
+     * Cleared by reset() and release().
+     *
+     * @param listener null to stop, returns once no poll is running
+     */
+    public void setOnLasStatisticsListener(OnLasStatisticsListener listener, long intervalMs) {
+        synchronized (mLasStatisticsLock) {
+            if (mLasStatisticsPoller != null) {
+                mLasStatisticsPoller.stop();
+                mLasStatisticsPoller = null;
+            }
+            if (listener != null) {
+                if (intervalMs <= 0)
+                    throw new IllegalArgumentException("setOnLasStatisticsListener: intervalMs must be positive");
+
+                mLasStatisticsPoller = new LasStatisticsPoller(this, listener, intervalMs);
+            }
+        }
+    }
+
+    public interface OnLasStatisticsListener {
+        /*
+         * Called from the statistics thread, stats is reused by the next call.
+         */
+        void onLasStatistics(IjkMediaPlayer mp, LasStatistics stats);
+    }
+
+    private static class LasStatisticsPoller implements Runnable {
+        private final WeakReference<IjkMediaPlayer> mWeakPlayer;
+        private final OnLasStatisticsListener mListener;
+        private final long mIntervalMs;
+        private final LasStatistics mStats = new LasStatistics();
+        private final HandlerThread mThread;
+        private final Handler mHandler;
+        // held across the native call, so stop() does not return while it
+        // still reads the las demuxer being closed by _reset() or _release()
+        private final Object mPollLock = new Object();
+        private volatile boolean mStopped;
+
+        public LasStatisticsPoller(IjkMediaPlayer mp, OnLasStatisticsListener listener, long intervalMs) {
+            mWeakPlayer = new WeakReference<IjkMediaPlayer>(mp);
+            mListener = listener;
+            mIntervalMs = intervalMs;
+            mThread = new HandlerThread("IjkLasStatistics");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mHandler.postDelayed(this, intervalMs);
+        }
+
+        @Override
+        public void run() {
+            IjkMediaPlayer mp = mWeakPlayer.get();
+            if (mp == null) {
+                // player collected without release()
+                mThread.quit();
+                return;
+            }
+
+            boolean valid;
+            synchronized (mPollLock) {
+                if (mStopped)
+                    return;
+                valid = mp.getLasStatistics(mStats);
+            }
+
+            // outside of mPollLock, the listener may stop this poller
+            if (valid && !mStopped)
+                mListener.onLasStatistics(mp, mStats);
+            mHandler.postDelayed(this, mIntervalMs);
+        }
+
+        public void stop() {
+            synchronized (mPollLock) {
+                mStopped = true;
+            }
+            mHandler.removeCallbacks(this);
+            mThread.quit();
+        }
+    }
+
     /*
      * NativeInvoke
      */
@@ -1116,6 +1629,7 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         int CTRL_WILL_HTTP_OPEN = 0x20003;              // ARG_URL, ARG_SEGMENT_INDEX, ARG_RETRY_COUNTER
         int CTRL_WILL_LIVE_OPEN = 0x20005;              // ARG_URL, ARG_RETRY_COUNTER
         int CTRL_WILL_CONCAT_RESOLVE_SEGMENT = 0x20007; // ARG_URL, ARG_SEGMENT_INDEX, ARG_RETRY_COUNTER
+        int CTRL_LAS_ABR_SELECT_REPRESENTATION = 0x20101; // ARG_BITRATE_COUNT, ARG_BITRATE_PREFIX + i, ARG_CURRENT_INDEX, ARG_SPEED_KBPS, ARG_BUFFER_MS, ARG_NEXT_INDEX
 
         int EVENT_WILL_HTTP_OPEN = 0x1;                 // ARG_URL
         int EVENT_DID_HTTP_OPEN = 0x2;                  // ARG_URL, ARG_ERROR, ARG_HTTP_CODE
@@ -1136,6 +1650,13 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
         String ARG_HTTP_CODE = "http_code";
         String ARG_FILE_SIZE = "file_size";
 
+        String ARG_BITRATE_COUNT = "bitrate_count";
+        String ARG_BITRATE_PREFIX = "bitrate_";
+        String ARG_CURRENT_INDEX = "current_index";
+        String ARG_SPEED_KBPS = "speed_kbps";
+        String ARG_BUFFER_MS = "buffer_ms";
+        String ARG_NEXT_INDEX = "next_index";
+
         /*
          * @return true if invoke is handled
          * @throws Exception on any error
@@ -1176,6 +1697,26 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
                 args.putString(OnNativeInvokeListener.ARG_URL, newUrl);
                 return true;
             }
+            case OnNativeInvokeListener.CTRL_LAS_ABR_SELECT_REPRESENTATION: {
+                OnLasAbrListener onLasAbrListener = player.mOnLasAbrListener;
+                if (onLasAbrListener == null)
+                    return false;
+
+                int[] bitrates = new int[args.getInt(OnNativeInvokeListener.ARG_BITRATE_COUNT, 0)];
+                for (int i = 0; i < bitrates.length; i++)
+                    bitrates[i] = args.getInt(OnNativeInvokeListener.ARG_BITRATE_PREFIX + i, 0);
+
+                int nextIndex = onLasAbrListener.onLasAbrSelect(bitrates,
+                        args.getInt(OnNativeInvokeListener.ARG_CURRENT_INDEX, 0),
+                        args.getInt(OnNativeInvokeListener.ARG_SPEED_KBPS, 0),
+                        args.getInt(OnNativeInvokeListener.ARG_BUFFER_MS, 0),
+                        args.getInt(OnNativeInvokeListener.ARG_NEXT_INDEX, 0));
+                if (nextIndex < 0 || nextIndex >= bitrates.length)
+                    return false;
+
+                args.putInt(OnNativeInvokeListener.ARG_NEXT_INDEX, nextIndex);
+                return true;
+            }
             default:
                 return false;
         }
@@ -1219,8 +1760,23 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static class DefaultMediaCodecSelector implements OnMediaCodecSelectListener {
         public static final DefaultMediaCodecSelector sInstance = new DefaultMediaCodecSelector();
 
-        @SuppressWarnings("deprecation")
-        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private static final IjkMediaCodecSelectCache sCache = new IjkMediaCodecSelectCache();
+
+        /**
+         * Persists selections across processes, in the cache dir of context.
+         * Selections are always memoized in memory.
+         */
+        public static void setPersistentCache(Context context) {
+            sCache.setFile(context == null ? null : new File(context.getCacheDir(), "ijkmediacodec.cache"));
+        }
+
+        /**
+         * Forgets all selections, e.g. after changing IjkMediaCodecInfo ranks.
+         */
+        public static void clearCache() {
+            sCache.clear();
+        }
+
         public String onMediaCodecSelect(IMediaPlayer mp, String mimeType, int profile, int level) {
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
                 return null;
@@ -1228,6 +1784,21 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
             if (TextUtils.isEmpty(mimeType))
                 return null;
 
+            String key = IjkMediaCodecSelectCache.makeKey(mimeType, profile, level);
+            if (sCache.contains(key)) {
+                String codecName = sCache.get(key);
+                Log.i(TAG, "onSelectCodec: cached " + key + " -> " + codecName);
+                return codecName;
+            }
+
+            String codecName = selectCodec(mimeType, profile, level);
+            sCache.put(key, codecName);
+            return codecName;
+        }
+
+        @SuppressWarnings("deprecation")
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private static String selectCodec(String mimeType, int profile, int level) {
             Log.i(TAG, String.format(Locale.US, "onSelectCodec: mime=%s, profile=%d, level=%d", mimeType, profile, level));
             ArrayList<IjkMediaCodecInfo> candidateCodecList = new ArrayList<IjkMediaCodecInfo>();
             int numCodecs = MediaCodecList.getCodecCount();
@@ -1284,4 +1855,13 @@ public final class IjkMediaPlayer extends AbstractMediaPlayer {
     public static native void native_profileBegin(String libName);
     public static native void native_profileEnd();
     public static native void native_setLogLevel(int level);
+    private static native void native_prefetchHosts(String[] hosts);
+    private static native void native_setDnsCacheTtl(long ttlMs);
+    private static native void native_clearDnsCache();
+    private static native void native_setHttpPoolLimits(int maxIdlePerHost, long idleTimeoutMs);
+    private static native void native_clearHttpPool();
+    private static native void native_setLowMemory(boolean lowMemory);
+    private static native boolean native_setCacheBudget(String dir, long maxBytes);
+    private static native long native_getCacheUsage();
+    private static native long native_trimCache(long maxBytes);
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Pool of idle IjkMediaPlayer instances whose native player, video output,
+ * audio output and decoder pipeline are kept across data sources.
+ *
+ * Players are reset on a background thread when given back with
+ * {@link #release(IjkMediaPlayer)}, so acquire() never waits for the previous
+ * playback to shut down. Options set on a player are cleared by the reset,
+ * like {@link IjkMediaPlayer#reset()}.
+ *
+ * Instances created by the pool deliver their events on the main looper.
+ * The audio output is kept as well, so all users of a pool should agree on
+ * the "opensles" option.
+ */
+public final class IjkMediaPlayerPool {
+    private static final String TAG = IjkMediaPlayerPool.class.getName();
+
+    private final int mMaxSize;
+    private final IjkLibLoader mLibLoader;
+    private final ArrayDeque<IjkMediaPlayer> mIdlePlayers = new ArrayDeque<IjkMediaPlayer>();
+    private final ExecutorService mExecutor;
+    private boolean mClosed;
+
+    public IjkMediaPlayerPool(int maxSize) {
+        this(maxSize, null);
+    }
+
+    public IjkMediaPlayerPool(int maxSize, IjkLibLoader libLoader) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize < 0");
+
+        mMaxSize = maxSize;
+        mLibLoader = libLoader;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "IjkMediaPlayerPool");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    private IjkMediaPlayer createPlayer() {
+        return mLibLoader != null ? new IjkMediaPlayer(mLibLoader) : new IjkMediaPlayer();
+    }
+
+    /**
+     * @return an idle player if any, or a new one
+     */
+    public IjkMediaPlayer acquire() {
+        IjkMediaPlayer mp;
+        synchronized (this) {
+            if (mClosed)
+                throw new IllegalStateException("pool closed");
+            mp = mIdlePlayers.pollFirst();
+        }
+
+        if (mp == null) {
+            DebugLog.i(TAG, "acquire: pool empty, create player");
+            mp = createPlayer();
+        }
+        return mp;
+    }
+
+    /**
+     * Gives a player back to the pool.
+     * The player must not be used by the caller after this call.
+     */
+    public void release(final IjkMediaPlayer mp) {
+        if (mp == null)
+            return;
+
+        // stop callbacks to the previous owner right away
+        mp.resetListeners();
+        mp.setDisplay(null);
+
+        synchronized (this) {
+            if (!mClosed) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mp.resetForReuse();
+                        if (!offer(mp))
+                            mp.release();
+                    }
+                });
+                return;
+            }
+        }
+
+        mp.release();
+    }
+
+    /**
+     * Creates players in background until the pool holds count of them.
+     */
+    public void prefill(final int count) {
+        synchronized (this) {
+            if (mClosed)
+                return;
+
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        synchronized (IjkMediaPlayerPool.this) {
+                            if (mClosed || mIdlePlayers.size() >= Math.min(count, mMaxSize))
+                                return;
+                        }
+
+                        IjkMediaPlayer mp = createPlayer();
+                        if (!offer(mp)) {
+                            mp.release();
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean offer(IjkMediaPlayer mp) {
+        synchronized (this) {
+            if (mClosed || mIdlePlayers.size() >= mMaxSize)
+                return false;
+            mIdlePlayers.addLast(mp);
+            return true;
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    /**
+     * Releases idle players until at most maxIdle are left.
+     */
+    public void trimToSize(int maxIdle) {
+        final ArrayDeque<IjkMediaPlayer> evicted = new ArrayDeque<IjkMediaPlayer>();
+        synchronized (this) {
+            while (mIdlePlayers.size() > Math.max(maxIdle, 0))
+                evicted.addLast(mIdlePlayers.pollLast());
+
+            if (evicted.isEmpty())
+                return;
+
+            DebugLog.i(TAG, "trimToSize: evict " + evicted.size());
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (IjkMediaPlayer mp : evicted)
+                        mp.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Call from {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(mMaxSize / 2);
+        }
+    }
+
+    /**
+     * Call from {@link ComponentCallbacks2#onLowMemory()}.
+     */
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    /**
+     * Releases all idle players, and players given back later.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            trimToSize(0);
+            mExecutor.shutdown();
+        }
+    }
+}
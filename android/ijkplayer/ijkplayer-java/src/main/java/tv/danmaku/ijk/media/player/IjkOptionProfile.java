@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, named set of options, applied by
+ * {@link IjkMediaPlayer#applyOptionProfile(IjkOptionProfile)} in one native call.
+ *
+ * Options are serialized once, when the profile is built.
+ * Profiles registered with {@link #register(IjkOptionProfile)} can be looked up
+ * by name; the one set with {@link #setDefault(String)} is applied to every
+ * IjkMediaPlayer on creation and after reset().
+ *
+ * Built-in profiles are starting points, override them by registering a
+ * profile with the same name.
+ */
+public final class IjkOptionProfile {
+    public static final String LOW_LATENCY_LIVE = "LowLatencyLive";
+    public static final String VOD_FAST_START   = "VodFastStart";
+    public static final String FEED_PREVIEW     = "FeedPreview";
+
+    private static final Map<String, IjkOptionProfile> sProfiles = new HashMap<String, IjkOptionProfile>();
+    private static IjkOptionProfile sDefault;
+
+    static {
+        register(new Builder(LOW_LATENCY_LIVE)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "fflags", "nobuffer")
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "analyzeduration", 100000)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "probesize", 32 * 1024)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "flush_packets", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "infbuf", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "packet-buffering", 0)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 5)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "sync-av-start", 0)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 48)
+                .build());
+
+        register(new Builder(VOD_FAST_START)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 0)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "analyzeduration", 1000000)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "first-high-water-mark-ms", 100)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 1)
+                .build());
+
+        register(new Builder(FEED_PREVIEW)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 0)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "analyzeduration", 500000)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "an", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "loop", 0)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "max-buffer-size", 2 * 1024 * 1024)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "first-high-water-mark-ms", 100)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 1)
+                .setOption(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 48)
+                .build());
+    }
+
+    private final String mName;
+    private final List<String[]> mOptions;
+    // "category\0name\0value\0" for each option, in UTF-8
+    private final byte[] mSerialized;
+
+    private IjkOptionProfile(String name, List<String[]> options, byte[] serialized) {
+        mName = name;
+        mOptions = options;
+        mSerialized = serialized;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getOptionCount() {
+        return mOptions.size();
+    }
+
+    /* package */ byte[] getSerialized() {
+        return mSerialized;
+    }
+
+    public static void register(IjkOptionProfile profile) {
+        synchronized (sProfiles) {
+            sProfiles.put(profile.getName(), profile);
+            if (sDefault != null && sDefault.getName().equals(profile.getName()))
+                sDefault = profile;
+        }
+    }
+
+    /**
+     * @return registered profile, or null
+     */
+    public static IjkOptionProfile get(String name) {
+        synchronized (sProfiles) {
+            return sProfiles.get(name);
+        }
+    }
+
+    /**
+     * @param name registered profile to apply to new players, or null for none
+     */
+    public static void setDefault(String name) {
+        synchronized (sProfiles) {
+            if (name == null) {
+                sDefault = null;
+                return;
+            }
+
+            IjkOptionProfile profile = sProfiles.get(name);
+            if (profile == null)
+                throw new IllegalArgumentException("unknown profile: " + name);
+            sDefault = profile;
+        }
+    }
+
+    /* package */ static IjkOptionProfile getDefault() {
+        synchronized (sProfiles) {
+            return sDefault;
+        }
+    }
+
+    public static final class Builder {
+        private final String mName;
+        private final List<String[]> mOptions = new ArrayList<String[]>();
+
+        public Builder(String name) {
+            if (name == null)
+                throw new IllegalArgumentException("null name");
+            mName = name;
+        }
+
+        /**
+         * Starts with all options of base, later options override earlier ones.
+         */
+        public Builder(String name, IjkOptionProfile base) {
+            this(name);
+            mOptions.addAll(base.mOptions);
+        }
+
+        public Builder setOption(int category, String name, String value) {
+            if (category < IjkMediaPlayer.OPT_CATEGORY_FORMAT || category > IjkMediaPlayer.OPT_CATEGORY_PLAYER)
+                throw new IllegalArgumentException("invalid category: " + category);
+            if (name == null || value == null)
+                throw new IllegalArgumentException("null option");
+
+            mOptions.add(new String[] {String.valueOf(category), name, value});
+            return this;
+        }
+
+        public Builder setOption(int category, String name, long value) {
+            return setOption(category, name, String.valueOf(value));
+        }
+
+        public IjkOptionProfile build() {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                for (String[] option : mOptions) {
+                    for (String field : option) {
+                        byte[] bytes = field.getBytes("UTF-8");
+                        os.write(bytes, 0, bytes.length);
+                        os.write(0);
+                    }
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+
+            return new IjkOptionProfile(mName, new ArrayList<String[]>(mOptions), os.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+/**
+ * Reusable holder of the las demuxer statistics and rate adaptation state,
+ * filled by {@link IjkMediaPlayer#getLasStatistics(LasStatistics)} in a single
+ * native call.
+ *
+ * Times are in milliseconds, bitrates and bandwidth in kbps.
+ */
+public final class LasStatistics {
+    // must be the same as MAX_STREAM_NUM in ijklas.h
+    public static final int MAX_FLV_COUNT = 10;
+
+    // index in getValues(), keep in sync with ijkplayer_jni.c
+    public static final int INDEX_FLV_COUNT                 = 0;
+    public static final int INDEX_CURRENT_REP_INDEX         = 1;
+    public static final int INDEX_NEXT_REP_INDEX            = 2;
+    public static final int INDEX_BANDWIDTH_FRAGMENT        = 3;
+    public static final int INDEX_BITRATE_DOWNLOADING       = 4;
+    public static final int INDEX_CURRENT_BUFFER            = 5;
+    public static final int INDEX_CACHED_AUDIO_DURATION     = 6;
+    public static final int INDEX_CACHED_VIDEO_DURATION     = 7;
+    public static final int INDEX_CACHED_TAG_DURATION       = 8;
+    public static final int INDEX_SWITCH_POINT_AUDIO_BUFFER = 9;
+    public static final int INDEX_SWITCH_POINT_VIDEO_BUFFER = 10;
+    public static final int INDEX_REP_READ_START_TIME       = 11;
+    public static final int INDEX_REP_HTTP_OPEN_TIME        = 12;
+    public static final int INDEX_REP_READ_HEADER_TIME      = 13;
+    public static final int INDEX_REP_FIRST_DATA_TIME       = 14;
+    public static final int INDEX_REP_START_TIME            = 15;
+    public static final int INDEX_REP_SWITCH_GAP_TIME       = 16;
+    public static final int INDEX_REP_SWITCH_COUNT          = 17;
+    public static final int INDEX_REP_HTTP_READING_ERROR    = 18;
+    public static final int INDEX_TOTAL_BYTES_READ          = 19;
+    public static final int INDEX_TAG_POOL_HITS             = 20;
+    public static final int INDEX_TAG_POOL_MISSES           = 21;
+    public static final int VALUE_COUNT                     = 22;
+
+    // index in mStrings, flv urls follow in manifest order
+    private static final int STRING_CURRENT_URL  = 0;
+    private static final int STRING_ABR_POLICY   = 1;
+    private static final int STRING_FLV_URL_BASE = 2;
+
+    /* package */ final long[]   mValues      = new long[VALUE_COUNT];
+    /* package */ final int[]    mFlvBitrates = new int[MAX_FLV_COUNT];
+    /* package */ final String[] mStrings     = new String[STRING_FLV_URL_BASE + MAX_FLV_COUNT];
+
+    /**
+     * @return raw values, indexed by INDEX_xxx, valid until the next snapshot
+     */
+    public long[] getValues() {
+        return mValues;
+    }
+
+    public int getFlvCount() {
+        return (int) mValues[INDEX_FLV_COUNT];
+    }
+
+    /**
+     * @return kbps of the flv in manifest order
+     */
+    public int getFlvBitrate(int index) {
+        return mFlvBitrates[index];
+    }
+
+    public String getFlvUrl(int index) {
+        return mStrings[STRING_FLV_URL_BASE + index];
+    }
+
+    /**
+     * @return flv index of the packets being demuxed
+     */
+    public int getCurrentRepIndex() {
+        return (int) mValues[INDEX_CURRENT_REP_INDEX];
+    }
+
+    /**
+     * @return flv index picked by the rate adaptation for the next gop
+     */
+    public int getNextRepIndex() {
+        return (int) mValues[INDEX_NEXT_REP_INDEX];
+    }
+
+    public String getCurrentUrl() {
+        return mStrings[STRING_CURRENT_URL];
+    }
+
+    public String getAbrPolicy() {
+        return mStrings[STRING_ABR_POLICY];
+    }
+
+    /**
+     * @return smoothed download speed estimated by the rate adaptation
+     */
+    public long getBandwidthFragment() {
+        return mValues[INDEX_BANDWIDTH_FRAGMENT];
+    }
+
+    public long getBitrateDownloading() {
+        return mValues[INDEX_BITRATE_DOWNLOADING];
+    }
+
+    /**
+     * @return buffer seen by the rate adaptation at its last check, in seconds
+     */
+    public long getCurrentBuffer() {
+        return mValues[INDEX_CURRENT_BUFFER];
+    }
+
+    public long getCachedAudioDuration() {
+        return mValues[INDEX_CACHED_AUDIO_DURATION];
+    }
+
+    public long getCachedVideoDuration() {
+        return mValues[INDEX_CACHED_VIDEO_DURATION];
+    }
+
+    /**
+     * @return duration of the tags downloaded but not demuxed yet
+     */
+    public long getCachedTagDuration() {
+        return mValues[INDEX_CACHED_TAG_DURATION];
+    }
+
+    public long getSwitchPointAudioBuffer() {
+        return mValues[INDEX_SWITCH_POINT_AUDIO_BUFFER];
+    }
+
+    public long getSwitchPointVideoBuffer() {
+        return mValues[INDEX_SWITCH_POINT_VIDEO_BUFFER];
+    }
+
+    public long getRepReadStartTime() {
+        return mValues[INDEX_REP_READ_START_TIME];
+    }
+
+    public long getRepHttpOpenTime() {
+        return mValues[INDEX_REP_HTTP_OPEN_TIME];
+    }
+
+    public long getRepReadHeaderTime() {
+        return mValues[INDEX_REP_READ_HEADER_TIME];
+    }
+
+    public long getRepFirstDataTime() {
+        return mValues[INDEX_REP_FIRST_DATA_TIME];
+    }
+
+    public long getRepStartTime() {
+        return mValues[INDEX_REP_START_TIME];
+    }
+
+    public long getRepSwitchGapTime() {
+        return mValues[INDEX_REP_SWITCH_GAP_TIME];
+    }
+
+    public long getRepSwitchCount() {
+        return mValues[INDEX_REP_SWITCH_COUNT];
+    }
+
+    public int getRepHttpReadingError() {
+        return (int) mValues[INDEX_REP_HTTP_READING_ERROR];
+    }
+
+    public long getTotalBytesRead() {
+        return mValues[INDEX_TOTAL_BYTES_READ];
+    }
+
+    public long getTagPoolHits() {
+        return mValues[INDEX_TAG_POOL_HITS];
+    }
+
+    public long getTagPoolMisses() {
+        return mValues[INDEX_TAG_POOL_MISSES];
+    }
+}
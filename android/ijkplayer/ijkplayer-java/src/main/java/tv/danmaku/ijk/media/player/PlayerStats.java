@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+/**
+ * Reusable holder of player statistics, filled by
+ * {@link IjkMediaPlayer#getStatsSnapshot(PlayerStats)} in a single native call.
+ *
+ * Keep one instance per poller and pass it in again on every tick; nothing is
+ * allocated once the object exists.
+ */
+public final class PlayerStats {
+    // index in getInt64Values()
+    public static final int INDEX_SELECTED_VIDEO_STREAM         = 0;
+    public static final int INDEX_SELECTED_AUDIO_STREAM         = 1;
+    public static final int INDEX_SELECTED_TIMEDTEXT_STREAM     = 2;
+    public static final int INDEX_VIDEO_DECODER                 = 3;
+    public static final int INDEX_AUDIO_DECODER                 = 4;
+    public static final int INDEX_VIDEO_CACHED_DURATION         = 5;
+    public static final int INDEX_AUDIO_CACHED_DURATION         = 6;
+    public static final int INDEX_VIDEO_CACHED_BYTES            = 7;
+    public static final int INDEX_AUDIO_CACHED_BYTES            = 8;
+    public static final int INDEX_VIDEO_CACHED_PACKETS          = 9;
+    public static final int INDEX_AUDIO_CACHED_PACKETS          = 10;
+    public static final int INDEX_ASYNC_STATISTIC_BUF_BACKWARDS = 11;
+    public static final int INDEX_ASYNC_STATISTIC_BUF_FORWARDS  = 12;
+    public static final int INDEX_ASYNC_STATISTIC_BUF_CAPACITY  = 13;
+    public static final int INDEX_TRAFFIC_STATISTIC_BYTE_COUNT  = 14;
+    public static final int INDEX_CACHE_STATISTIC_PHYSICAL_POS  = 15;
+    public static final int INDEX_CACHE_STATISTIC_FILE_FORWARDS = 16;
+    public static final int INDEX_CACHE_STATISTIC_FILE_POS      = 17;
+    public static final int INDEX_CACHE_STATISTIC_COUNT_BYTES   = 18;
+    public static final int INDEX_LOGICAL_FILE_SIZE             = 19;
+    public static final int INDEX_BIT_RATE                      = 20;
+    public static final int INDEX_TCP_SPEED                     = 21;
+    public static final int INDEX_LATEST_SEEK_LOAD_DURATION     = 22;
+
+    // index in getFloatValues()
+    public static final int INDEX_VIDEO_DECODE_FRAMES_PER_SECOND = 0;
+    public static final int INDEX_VIDEO_OUTPUT_FRAMES_PER_SECOND = 1;
+    public static final int INDEX_PLAYBACK_RATE                  = 2;
+    public static final int INDEX_DROP_FRAME_RATE                = 3;
+
+    /* package */ static final int[] INT64_PROPERTIES = {
+            IjkMediaPlayer.FFP_PROP_INT64_SELECTED_VIDEO_STREAM,
+            IjkMediaPlayer.FFP_PROP_INT64_SELECTED_AUDIO_STREAM,
+            IjkMediaPlayer.FFP_PROP_INT64_SELECTED_TIMEDTEXT_STREAM,
+            IjkMediaPlayer.FFP_PROP_INT64_VIDEO_DECODER,
+            IjkMediaPlayer.FFP_PROP_INT64_AUDIO_DECODER,
+            IjkMediaPlayer.FFP_PROP_INT64_VIDEO_CACHED_DURATION,
+            IjkMediaPlayer.FFP_PROP_INT64_AUDIO_CACHED_DURATION,
+            IjkMediaPlayer.FFP_PROP_INT64_VIDEO_CACHED_BYTES,
+            IjkMediaPlayer.FFP_PROP_INT64_AUDIO_CACHED_BYTES,
+            IjkMediaPlayer.FFP_PROP_INT64_VIDEO_CACHED_PACKETS,
+            IjkMediaPlayer.FFP_PROP_INT64_AUDIO_CACHED_PACKETS,
+            IjkMediaPlayer.FFP_PROP_INT64_ASYNC_STATISTIC_BUF_BACKWARDS,
+            IjkMediaPlayer.FFP_PROP_INT64_ASYNC_STATISTIC_BUF_FORWARDS,
+            IjkMediaPlayer.FFP_PROP_INT64_ASYNC_STATISTIC_BUF_CAPACITY,
+            IjkMediaPlayer.FFP_PROP_INT64_TRAFFIC_STATISTIC_BYTE_COUNT,
+            IjkMediaPlayer.FFP_PROP_INT64_CACHE_STATISTIC_PHYSICAL_POS,
+            IjkMediaPlayer.FFP_PROP_INT64_CACHE_STATISTIC_FILE_FORWARDS,
+            IjkMediaPlayer.FFP_PROP_INT64_CACHE_STATISTIC_FILE_POS,
+            IjkMediaPlayer.FFP_PROP_INT64_CACHE_STATISTIC_COUNT_BYTES,
+            IjkMediaPlayer.FFP_PROP_INT64_LOGICAL_FILE_SIZE,
+            IjkMediaPlayer.FFP_PROP_INT64_BIT_RATE,
+            IjkMediaPlayer.FFP_PROP_INT64_TCP_SPEED,
+            IjkMediaPlayer.FFP_PROP_INT64_LATEST_SEEK_LOAD_DURATION,
+    };
+
+    /* package */ static final int[] FLOAT_PROPERTIES = {
+            IjkMediaPlayer.PROP_FLOAT_VIDEO_DECODE_FRAMES_PER_SECOND,
+            IjkMediaPlayer.PROP_FLOAT_VIDEO_OUTPUT_FRAMES_PER_SECOND,
+            IjkMediaPlayer.FFP_PROP_FLOAT_PLAYBACK_RATE,
+            IjkMediaPlayer.FFP_PROP_FLOAT_DROP_FRAME_RATE,
+    };
+
+    public static final int INT64_PROPERTY_COUNT = INT64_PROPERTIES.length;
+    public static final int FLOAT_PROPERTY_COUNT = FLOAT_PROPERTIES.length;
+
+    private static final long[] INT64_DEFAULTS = new long[INT64_PROPERTIES.length];
+    private static final float[] FLOAT_DEFAULTS = new float[FLOAT_PROPERTIES.length];
+    static {
+        INT64_DEFAULTS[INDEX_SELECTED_VIDEO_STREAM] = -1;
+        INT64_DEFAULTS[INDEX_SELECTED_AUDIO_STREAM] = -1;
+        INT64_DEFAULTS[INDEX_SELECTED_TIMEDTEXT_STREAM] = -1;
+        INT64_DEFAULTS[INDEX_VIDEO_DECODER] = IjkMediaPlayer.FFP_PROPV_DECODER_UNKNOWN;
+    }
+
+    /* package */ final long[]  mInt64Values = new long[INT64_PROPERTIES.length];
+    /* package */ final float[] mFloatValues = new float[FLOAT_PROPERTIES.length];
+
+    public PlayerStats() {
+        reset();
+    }
+
+    /*
+     * native side reads the current values as defaults
+     */
+    /* package */ void reset() {
+        System.arraycopy(INT64_DEFAULTS, 0, mInt64Values, 0, mInt64Values.length);
+        System.arraycopy(FLOAT_DEFAULTS, 0, mFloatValues, 0, mFloatValues.length);
+    }
+
+    /**
+     * @return raw int64 values, indexed by INDEX_xxx, valid until the next snapshot
+     */
+    public long[] getInt64Values() {
+        return mInt64Values;
+    }
+
+    /**
+     * @return raw float values, indexed by INDEX_xxx, valid until the next snapshot
+     */
+    public float[] getFloatValues() {
+        return mFloatValues;
+    }
+
+    public int getSelectedVideoStream() {
+        return (int) mInt64Values[INDEX_SELECTED_VIDEO_STREAM];
+    }
+
+    public int getSelectedAudioStream() {
+        return (int) mInt64Values[INDEX_SELECTED_AUDIO_STREAM];
+    }
+
+    public int getSelectedTimedTextStream() {
+        return (int) mInt64Values[INDEX_SELECTED_TIMEDTEXT_STREAM];
+    }
+
+    public int getVideoDecoder() {
+        return (int) mInt64Values[INDEX_VIDEO_DECODER];
+    }
+
+    public int getAudioDecoder() {
+        return (int) mInt64Values[INDEX_AUDIO_DECODER];
+    }
+
+    public long getVideoCachedDuration() {
+        return mInt64Values[INDEX_VIDEO_CACHED_DURATION];
+    }
+
+    public long getAudioCachedDuration() {
+        return mInt64Values[INDEX_AUDIO_CACHED_DURATION];
+    }
+
+    public long getVideoCachedBytes() {
+        return mInt64Values[INDEX_VIDEO_CACHED_BYTES];
+    }
+
+    public long getAudioCachedBytes() {
+        return mInt64Values[INDEX_AUDIO_CACHED_BYTES];
+    }
+
+    public long getVideoCachedPackets() {
+        return mInt64Values[INDEX_VIDEO_CACHED_PACKETS];
+    }
+
+    public long getAudioCachedPackets() {
+        return mInt64Values[INDEX_AUDIO_CACHED_PACKETS];
+    }
+
+    public long getAsyncStatisticBufBackwards() {
+        return mInt64Values[INDEX_ASYNC_STATISTIC_BUF_BACKWARDS];
+    }
+
+    public long getAsyncStatisticBufForwards() {
+        return mInt64Values[INDEX_ASYNC_STATISTIC_BUF_FORWARDS];
+    }
+
+    public long getAsyncStatisticBufCapacity() {
+        return mInt64Values[INDEX_ASYNC_STATISTIC_BUF_CAPACITY];
+    }
+
+    public long getTrafficStatisticByteCount() {
+        return mInt64Values[INDEX_TRAFFIC_STATISTIC_BYTE_COUNT];
+    }
+
+    public long getCacheStatisticPhysicalPos() {
+        return mInt64Values[INDEX_CACHE_STATISTIC_PHYSICAL_POS];
+    }
+
+    public long getCacheStatisticFileForwards() {
+        return mInt64Values[INDEX_CACHE_STATISTIC_FILE_FORWARDS];
+    }
+
+    public long getCacheStatisticFilePos() {
+        return mInt64Values[INDEX_CACHE_STATISTIC_FILE_POS];
+    }
+
+    public long getCacheStatisticCountBytes() {
+        return mInt64Values[INDEX_CACHE_STATISTIC_COUNT_BYTES];
+    }
+
+    public long getFileSize() {
+        return mInt64Values[INDEX_LOGICAL_FILE_SIZE];
+    }
+
+    public long getBitRate() {
+        return mInt64Values[INDEX_BIT_RATE];
+    }
+
+    public long getTcpSpeed() {
+        return mInt64Values[INDEX_TCP_SPEED];
+    }
+
+    public long getSeekLoadDuration() {
+        return mInt64Values[INDEX_LATEST_SEEK_LOAD_DURATION];
+    }
+
+    public float getVideoDecodeFramesPerSecond() {
+        return mFloatValues[INDEX_VIDEO_DECODE_FRAMES_PER_SECOND];
+    }
+
+    public float getVideoOutputFramesPerSecond() {
+        return mFloatValues[INDEX_VIDEO_OUTPUT_FRAMES_PER_SECOND];
+    }
+
+    public float getSpeed() {
+        return mFloatValues[INDEX_PLAYBACK_RATE];
+    }
+
+    public float getDropFrameRate() {
+        return mFloatValues[INDEX_DROP_FRAME_RATE];
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the first-frame time of one playback session went.
+ *
+ * Every stage is the monotonic time in milliseconds since prepareAsync(), or
+ * {@link #NOT_REACHED}. Network stages only cover the first connection, they
+ * are not reached for local files and for protocols without app events.
+ */
+public final class StartupTimeline {
+    public static final long NOT_REACHED = -1;
+
+    // index in getValues()
+    public static final int INDEX_HTTP_OPEN        = 0;
+    public static final int INDEX_TCP_CONNECT      = 1;
+    public static final int INDEX_TCP_CONNECTED    = 2;
+    public static final int INDEX_HTTP_OPENED      = 3;
+    public static final int INDEX_OPEN_INPUT       = 4;
+    public static final int INDEX_FIND_STREAM_INFO = 5;
+    public static final int INDEX_COMPONENT_OPEN   = 6;
+    public static final int INDEX_PREPARED         = 7;
+    public static final int INDEX_FIRST_PACKET     = 8;
+    public static final int INDEX_VIDEO_DECODED    = 9;
+    public static final int INDEX_AUDIO_DECODED    = 10;
+    public static final int INDEX_VIDEO_RENDERED   = 11;
+    public static final int INDEX_AUDIO_RENDERED   = 12;
+
+    /* package */ static final int[] INT64_PROPERTIES = {
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_HTTP_OPEN,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_TCP_CONNECT,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_TCP_CONNECTED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_HTTP_OPENED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_OPEN_INPUT,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_FIND_STREAM_INFO,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_COMPONENT_OPEN,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_PREPARED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_FIRST_PACKET,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_VIDEO_DECODED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_AUDIO_DECODED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_VIDEO_RENDERED,
+            IjkMediaPlayer.FFP_PROP_INT64_STARTUP_AUDIO_RENDERED,
+    };
+
+    private static final String[] NAMES = {
+            "http_open", "tcp_connect", "tcp_connected", "http_opened",
+            "open_input", "find_stream_info", "component_open", "prepared",
+            "first_packet", "video_decoded", "audio_decoded",
+            "video_rendered", "audio_rendered",
+    };
+
+    /* package */ final long[] mValues = new long[INT64_PROPERTIES.length];
+
+    /* package */ StartupTimeline() {
+        Arrays.fill(mValues, NOT_REACHED);
+    }
+
+    /**
+     * @return raw stage times, indexed by INDEX_xxx
+     */
+    public long[] getValues() {
+        return mValues;
+    }
+
+    public long getHttpOpenMs() {
+        return mValues[INDEX_HTTP_OPEN];
+    }
+
+    public long getTcpConnectMs() {
+        return mValues[INDEX_TCP_CONNECT];
+    }
+
+    public long getTcpConnectedMs() {
+        return mValues[INDEX_TCP_CONNECTED];
+    }
+
+    public long getHttpOpenedMs() {
+        return mValues[INDEX_HTTP_OPENED];
+    }
+
+    public long getOpenInputMs() {
+        return mValues[INDEX_OPEN_INPUT];
+    }
+
+    public long getFindStreamInfoMs() {
+        return mValues[INDEX_FIND_STREAM_INFO];
+    }
+
+    public long getComponentOpenMs() {
+        return mValues[INDEX_COMPONENT_OPEN];
+    }
+
+    public long getPreparedMs() {
+        return mValues[INDEX_PREPARED];
+    }
+
+    public long getFirstPacketMs() {
+        return mValues[INDEX_FIRST_PACKET];
+    }
+
+    public long getVideoDecodedMs() {
+        return mValues[INDEX_VIDEO_DECODED];
+    }
+
+    public long getAudioDecodedMs() {
+        return mValues[INDEX_AUDIO_DECODED];
+    }
+
+    public long getVideoRenderedMs() {
+        return mValues[INDEX_VIDEO_RENDERED];
+    }
+
+    public long getAudioRenderedMs() {
+        return mValues[INDEX_AUDIO_RENDERED];
+    }
+
+    /**
+     * Host resolution time, inferred as the span from http open to tcp connect:
+     * the lookup is not timed by itself, so the span also holds the http setup
+     * before it, and is near 0 when the address came from a cache.
+     *
+     * @return inferred lookup time, or NOT_REACHED
+     */
+    public long getDnsDurationMs() {
+        return span(INDEX_HTTP_OPEN, INDEX_TCP_CONNECT);
+    }
+
+    public long getTcpConnectDurationMs() {
+        return span(INDEX_TCP_CONNECT, INDEX_TCP_CONNECTED);
+    }
+
+    /**
+     * @return request and response header time, or NOT_REACHED
+     */
+    public long getHttpResponseDurationMs() {
+        return span(INDEX_TCP_CONNECTED, INDEX_HTTP_OPENED);
+    }
+
+    public long getFindStreamInfoDurationMs() {
+        return span(INDEX_OPEN_INPUT, INDEX_FIND_STREAM_INFO);
+    }
+
+    public long getDecoderOpenDurationMs() {
+        return span(INDEX_FIND_STREAM_INFO, INDEX_COMPONENT_OPEN);
+    }
+
+    private long span(int from, int to) {
+        if (mValues[from] < 0 || mValues[to] < 0)
+            return NOT_REACHED;
+        return mValues[to] - mValues[from];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("StartupTimeline{");
+        for (int i = 0; i < mValues.length; ++i) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(String.format(Locale.US, "%s=%d", NAMES[i], mValues[i]));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * Two level LRU of thumbnails, keyed by (url, timestamp, size).
+ *
+ * Memory level holds Bitmaps, disk level holds raw RGBA files named by the
+ * md5 of the key, with their last modified time as access time.
+ */
+final class ThumbnailCache {
+    private final static String TAG = "ThumbnailCache";
+
+    private static final int    FILE_MAGIC  = 0x494a4b54; // "IJKT"
+    private static final String FILE_SUFFIX = ".thumb";
+
+    private final LinkedHashMap<String, Bitmap> mMemory = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private int mMemoryBytes;
+    private int mMaxMemoryBytes;
+
+    private final LinkedHashMap<String, Long> mDisk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mDiskBytes;
+    private long mMaxDiskBytes;
+    private File mDiskDir;
+    private boolean mDiskLoaded;
+
+    public ThumbnailCache(int maxMemoryBytes) {
+        mMaxMemoryBytes = maxMemoryBytes;
+    }
+
+    public static String makeKey(String url, long timeMs, int width, int height) {
+        return String.format(Locale.US, "%s@%d/%dx%d", url, timeMs, width, height);
+    }
+
+    public synchronized void setMaxMemoryBytes(int maxBytes) {
+        mMaxMemoryBytes = maxBytes;
+        trimMemory();
+    }
+
+    /*
+     * @param dir null to disable the disk level
+     */
+    public synchronized void setDiskCache(File dir, long maxBytes) {
+        if (dir == null ? mDiskDir != null : !dir.equals(mDiskDir)) {
+            mDiskDir = dir;
+            mDisk.clear();
+            mDiskBytes = 0;
+            mDiskLoaded = false;
+        }
+        mMaxDiskBytes = maxBytes;
+        if (mDiskLoaded)
+            trimDisk();
+    }
+
+    public synchronized void clear() {
+        mMemory.clear();
+        mMemoryBytes = 0;
+
+        loadDisk();
+        for (String name : mDisk.keySet())
+            deleteFile(new File(mDiskDir, name));
+        mDisk.clear();
+        mDiskBytes = 0;
+    }
+
+    public Bitmap get(String key) {
+        File file;
+        synchronized (this) {
+            Bitmap bitmap = mMemory.get(key);
+            if (bitmap != null)
+                return bitmap;
+
+            loadDisk();
+            String name = fileName(key);
+            if (mDisk.get(name) == null)
+                return null;
+            file = new File(mDiskDir, name);
+        }
+
+        Bitmap bitmap = readFile(file);
+        synchronized (this) {
+            if (bitmap == null) {
+                removeDisk(file.getName());
+                return null;
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            putMemory(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /*
+     * @param pixels RGBA of bitmap, written to disk level if not null
+     */
+    public void put(String key, Bitmap bitmap, ByteBuffer pixels) {
+        File dir;
+        synchronized (this) {
+            putMemory(key, bitmap);
+            loadDisk();
+            dir = mDiskDir;
+        }
+        if (dir == null || pixels == null)
+            return;
+
+        String name = fileName(key);
+        long size = writeFile(new File(dir, name), bitmap.getWidth(), bitmap.getHeight(), pixels);
+        if (size <= 0)
+            return;
+
+        synchronized (this) {
+            if (dir != mDiskDir)
+                return;
+
+            Long oldSize = mDisk.put(name, size);
+            if (oldSize != null)
+                mDiskBytes -= oldSize;
+            mDiskBytes += size;
+            trimDisk();
+        }
+    }
+
+    private void putMemory(String key, Bitmap bitmap) {
+        int size = sizeOf(bitmap);
+        if (size > mMaxMemoryBytes)
+            return;
+
+        Bitmap old = mMemory.put(key, bitmap);
+        if (old != null)
+            mMemoryBytes -= sizeOf(old);
+        mMemoryBytes += size;
+        trimMemory();
+    }
+
+    private void trimMemory() {
+        Iterator<Bitmap> it = mMemory.values().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && it.hasNext()) {
+            mMemoryBytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> it = mDisk.entrySet().iterator();
+        while (mDiskBytes > mMaxDiskBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            mDiskBytes -= entry.getValue();
+            deleteFile(new File(mDiskDir, entry.getKey()));
+            it.remove();
+        }
+    }
+
+    private void removeDisk(String name) {
+        Long size = mDisk.remove(name);
+        if (size != null)
+            mDiskBytes -= size;
+        deleteFile(new File(mDiskDir, name));
+    }
+
+    private void loadDisk() {
+        if (mDiskLoaded || mDiskDir == null)
+            return;
+        mDiskLoaded = true;
+
+        if (!mDiskDir.isDirectory() && !mDiskDir.mkdirs()) {
+            Log.w(TAG, "failed to create " + mDiskDir);
+            return;
+        }
+
+        File[] files = mDiskDir.listFiles();
+        if (files == null)
+            return;
+
+        // oldest first, matching access order of mDisk
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_SUFFIX))
+                continue;
+            mDisk.put(file.getName(), file.length());
+            mDiskBytes += file.length();
+        }
+        trimDisk();
+    }
+
+    private static Bitmap readFile(File file) {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new FileInputStream(file));
+            if (is.readInt() != FILE_MAGIC)
+                return null;
+
+            int width = is.readInt();
+            int height = is.readInt();
+            if (width <= 0 || height <= 0)
+                return null;
+
+            byte[] pixels = new byte[width * height * 4];
+            is.readFully(pixels);
+
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read " + file, e);
+            return null;
+        } finally {
+            IjkIOUtils.closeQuietly(is);
+        }
+    }
+
+    /*
+     * @return file size, or -1
+     */
+    private static long writeFile(File file, int width, int height, ByteBuffer pixels) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new FileOutputStream(tmpFile));
+            os.writeInt(FILE_MAGIC);
+            os.writeInt(width);
+            os.writeInt(height);
+
+            ByteBuffer src = pixels.duplicate();
+            src.rewind();
+            byte[] chunk = new byte[Math.min(src.remaining(), 64 * 1024)];
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, n);
+                os.write(chunk, 0, n);
+            }
+            os.close();
+            os = null;
+
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "failed to rename " + tmpFile);
+                deleteFile(tmpFile);
+                return -1;
+            }
+            return file.length();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            IjkIOUtils.closeQuietly(os);
+            deleteFile(tmpFile);
+            return -1;
+        }
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b : digest)
+                sb.append(String.format(Locale.US, "%02x", b & 0xff));
+            return sb.append(FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete() && file.exists())
+            Log.w(TAG, "failed to delete " + file);
+    }
+}
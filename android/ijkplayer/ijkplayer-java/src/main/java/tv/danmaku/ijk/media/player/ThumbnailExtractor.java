@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Extracts video frames of one url at arbitrary sizes, without a player.
+ *
+ * Frames are taken from the nearest keyframe at or before the requested time,
+ * so nearby timestamps are cheap to decode. Results are kept in a process wide
+ * memory LRU and, once {@link #setDiskCache(File, long)} is called, a disk LRU,
+ * both keyed by (url, timestamp, size). Bitmaps returned may be shared by the
+ * cache, do not recycle or modify them.
+ *
+ * A width or height <= 0 is derived from the other one and the display
+ * aspect ratio of the video, both <= 0 stands for the display size.
+ */
+public final class ThumbnailExtractor {
+    private static final String TAG = ThumbnailExtractor.class.getName();
+
+    private static final int DEFAULT_MEMORY_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final ThumbnailCache sCache = new ThumbnailCache(DEFAULT_MEMORY_CACHE_BYTES);
+
+    public interface OnFrameListener {
+        /**
+         * Not called for cancelled requests.
+         *
+         * @param bitmap null if extraction failed
+         */
+        void onFrame(ThumbnailExtractor extractor, long timeMs, Bitmap bitmap);
+    }
+
+    public final class Request {
+        private final long mTimeMs;
+        private final int mWidth;
+        private final int mHeight;
+        private volatile boolean mCancelled;
+
+        private Request(long timeMs, int width, int height) {
+            mTimeMs = timeMs;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public long getTimeMs() {
+            return mTimeMs;
+        }
+
+        /**
+         * Drops the request if pending, aborts decoding if in progress.
+         */
+        public void cancel() {
+            mCancelled = true;
+            synchronized (ThumbnailExtractor.this) {
+                mPending.remove(this);
+                if (mCurrent == this && mNativeHandle != 0)
+                    _interrupt(mNativeHandle, true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private final String mUrl;
+    private final Handler mHandler;
+    private final ExecutorService mExecutor;
+
+    // guards native calls but _interrupt(), and mOpened
+    private final Object mNativeLock = new Object();
+    private volatile long mNativeHandle;
+    private boolean mOpened;
+
+    // guarded by this
+    private final LinkedHashSet<Request> mPending = new LinkedHashSet<Request>();
+    private Request mCurrent;
+    private boolean mReleased;
+
+    public ThumbnailExtractor(String url) {
+        this(url, null);
+    }
+
+    /**
+     * @param libLoader custom library loader, can be null.
+     */
+    public ThumbnailExtractor(String url, IjkLibLoader libLoader) {
+        if (url == null)
+            throw new IllegalArgumentException("null url");
+
+        IjkMediaPlayer.loadLibrariesOnce(libLoader);
+
+        mUrl = url;
+        mNativeHandle = _create();
+
+        Looper looper = Looper.myLooper();
+        mHandler = new Handler(looper != null ? looper : Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ThumbnailExtractor");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public static void setMemoryCacheSize(int maxBytes) {
+        sCache.setMaxMemoryBytes(maxBytes);
+    }
+
+    /**
+     * @param dir null to disable the disk cache
+     */
+    public static void setDiskCache(File dir, long maxBytes) {
+        sCache.setDiskCache(dir, maxBytes);
+    }
+
+    public static void clearCache() {
+        sCache.clear();
+    }
+
+    /**
+     * Blocks until the frame is decoded, do not call on the main thread.
+     *
+     * @throws InterruptedIOException if cancelled by {@link #cancelAll()}
+     */
+    public Bitmap getFrameAtTime(long timeMs, int width, int height) throws IOException {
+        return extract(new Request(timeMs, width, height));
+    }
+
+    /**
+     * Same as {@link #getFrameAtTime(long, int, int)}, as a direct buffer of
+     * RGBA pixels, row by row without padding.
+     */
+    public ByteBuffer getFrameBufferAtTime(long timeMs, int width, int height) throws IOException {
+        Bitmap bitmap = getFrameAtTime(timeMs, width, height);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bitmap.getRowBytes() * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Extracts a frame in background, listener is called on the looper of the
+     * calling thread, or the main looper. Requests run one at a time, in order;
+     * when scrubbing, cancel the previous request before making a new one.
+     */
+    public Request requestFrameAtTime(long timeMs, int width, int height, final OnFrameListener listener) {
+        final Request request = new Request(timeMs, width, height);
+        synchronized (this) {
+            if (mReleased)
+                throw new IllegalStateException("released");
+
+            mPending.add(request);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ThumbnailExtractor.this) {
+                        if (!mPending.remove(request))
+                            return;
+                    }
+
+                    Bitmap bitmap = null;
+                    try {
+                        bitmap = extract(request);
+                    } catch (InterruptedIOException e) {
+                        return;
+                    } catch (IOException e) {
+                        DebugLog.w(TAG, "requestFrameAtTime: " + e.getMessage());
+                    } catch (IllegalStateException e) {
+                        return;
+                    }
+
+                    final Bitmap result = bitmap;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!request.isCancelled() && listener != null)
+                                listener.onFrame(ThumbnailExtractor.this, request.getTimeMs(), result);
+                        }
+                    });
+                }
+            });
+        }
+        return request;
+    }
+
+    /**
+     * Cancels all pending requests and the one in progress.
+     */
+    public void cancelAll() {
+        Request[] requests;
+        synchronized (this) {
+            requests = mPending.toArray(new Request[mPending.size()]);
+            mPending.clear();
+            if (mCurrent != null)
+                mCurrent.cancel();
+        }
+
+        for (Request request : requests)
+            request.cancel();
+    }
+
+    /**
+     * Cancels all requests and frees the native extractor in background.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased)
+                return;
+            mReleased = true;
+        }
+        cancelAll();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mNativeLock) {
+                    long handle = mNativeHandle;
+                    mNativeHandle = 0;
+                    _destroy(handle);
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private Bitmap extract(Request request) throws IOException {
+        String key = ThumbnailCache.makeKey(mUrl, request.mTimeMs, request.mWidth, request.mHeight);
+        Bitmap bitmap = sCache.get(key);
+        if (bitmap != null)
+            return bitmap;
+
+        synchronized (this) {
+            if (mReleased)
+                throw new IllegalStateException("released");
+            mCurrent = request;
+        }
+
+        ByteBuffer pixels;
+        try {
+            synchronized (mNativeLock) {
+                long handle = mNativeHandle;
+                if (handle == 0)
+                    throw new IllegalStateException("released");
+
+                // a cancel() after this point interrupts us again
+                _interrupt(handle, false);
+                if (request.isCancelled())
+                    throw new InterruptedIOException("cancelled");
+
+                if (!mOpened) {
+                    int ret = _open(handle, mUrl);
+                    if (ret < 0)
+                        throw request.isCancelled() ? new InterruptedIOException("cancelled") : new IOException("open failed: " + ret);
+                    mOpened = true;
+                }
+
+                int width = request.mWidth;
+                int height = request.mHeight;
+                int videoWidth = _getVideoWidth(handle);
+                int videoHeight = _getVideoHeight(handle);
+                if (videoWidth <= 0 || videoHeight <= 0)
+                    throw new IOException("unknown video size");
+
+                if (width <= 0 && height <= 0) {
+                    width = videoWidth;
+                    height = videoHeight;
+                } else if (width <= 0) {
+                    width = Math.max((int) ((long) height * videoWidth / videoHeight), 1);
+                } else if (height <= 0) {
+                    height = Math.max((int) ((long) width * videoHeight / videoWidth), 1);
+                }
+
+                pixels = ByteBuffer.allocateDirect(width * height * 4);
+                long pts = _getFrameAtTime(handle, request.mTimeMs, width, height, pixels);
+                if (pts < 0)
+                    throw request.isCancelled() ? new InterruptedIOException("cancelled") : new IOException("decode failed: " + pts);
+
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                bitmap.copyPixelsFromBuffer(pixels);
+            }
+        } finally {
+            synchronized (this) {
+                if (mCurrent == request)
+                    mCurrent = null;
+            }
+        }
+
+        sCache.put(key, bitmap, pixels);
+        return bitmap;
+    }
+
+    private static native long _create();
+    private static native void _destroy(long handle);
+    private static native int _open(long handle, String url);
+    private static native void _interrupt(long handle, boolean abort);
+    private static native int _getVideoWidth(long handle);
+    private static native int _getVideoHeight(long handle);
+    private static native long _getFrameAtTime(long handle, long timeMs, int width, int height, ByteBuffer buffer);
+}
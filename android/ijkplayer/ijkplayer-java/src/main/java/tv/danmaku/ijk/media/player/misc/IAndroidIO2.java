@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * IAndroidIO which reads into a direct ByteBuffer owned by the native side.
+ *
+ * The same buffer is passed on every call for the lifetime of the connection.
+ * Data must be written starting at index 0; position and limit are undefined on
+ * entry, so call {@link ByteBuffer#clear()} before using relative puts.
+ *
+ * read(byte[], int) is never called by IjkMediaPlayer for this type.
+ */
+@SuppressWarnings("RedundantThrows")
+public interface IAndroidIO2 extends IAndroidIO {
+    /**
+     * returned by readv() to fall back to read(ByteBuffer, int) for this connection
+     */
+    int READV_UNSUPPORTED = Integer.MIN_VALUE;
+
+    /**
+     * @return bytes written, 0 to retry, or -1 on end of stream
+     */
+    int  read(ByteBuffer buffer, int size) throws IOException;
+
+    /**
+     * Batch read for large sequential reads, enabled by option "androidio-readv".
+     * Fill as much of buffer as is available, up to its capacity, in one call.
+     * Surplus data is kept by the native side and served to the following reads;
+     * SEEK_CUR offsets are adjusted accordingly.
+     *
+     * @return bytes written, 0 to retry, -1 on end of stream, or READV_UNSUPPORTED
+     */
+    int  readv(ByteBuffer buffer) throws IOException;
+}
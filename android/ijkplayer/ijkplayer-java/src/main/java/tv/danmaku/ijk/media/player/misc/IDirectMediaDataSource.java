@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2017 Bilibili
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * IMediaDataSource which writes straight into the native demuxer buffer.
+ *
+ * directBuffer wraps native memory: position is 0, limit is the requested size.
+ * It is only valid during the call, do not keep a reference to it.
+ * A zero-limit buffer is passed when the player only checks that position is readable.
+ *
+ * readAt(long, byte[], int, int) is never called by IjkMediaPlayer for this type.
+ */
+@SuppressWarnings("RedundantThrows")
+public interface IDirectMediaDataSource extends IMediaDataSource {
+    /**
+     * @return bytes written to directBuffer, 0 to retry, or -1 on end of stream
+     */
+    int  readAt(long position, ByteBuffer directBuffer) throws IOException;
+}
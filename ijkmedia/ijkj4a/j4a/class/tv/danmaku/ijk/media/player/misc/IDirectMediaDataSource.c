@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * https://github.com/Bilibili/jni4android
+ * This file is automatically generated by jni4android, do not modify.
+ */
+
+#include "IDirectMediaDataSource.h"
+
+typedef struct J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource {
+    jclass id;
+
+    jmethodID method_readAt;
+} J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource;
+static J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource;
+
+jint J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt(JNIEnv *env, jobject thiz, jlong position, jobject directBuffer)
+{
+    return (*env)->CallIntMethod(env, thiz, class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.method_readAt, position, directBuffer);
+}
+
+jint J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt__catchAll(JNIEnv *env, jobject thiz, jlong position, jobject directBuffer)
+{
+    jint ret_value = J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt(env, thiz, position, directBuffer);
+    if (J4A_ExceptionCheck__catchAll(env)) {
+        return 0;
+    }
+
+    return ret_value;
+}
+
+int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource(JNIEnv *env)
+{
+    int         ret                   = -1;
+    const char *J4A_UNUSED(name)      = NULL;
+    const char *J4A_UNUSED(sign)      = NULL;
+    jclass      J4A_UNUSED(class_id)  = NULL;
+    int         J4A_UNUSED(api_level) = 0;
+
+    if (class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.id != NULL)
+        return 0;
+
+    sign = "tv/danmaku/ijk/media/player/misc/IDirectMediaDataSource";
+    class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.id = J4A_FindClass__asGlobalRef__catchAll(env, sign);
+    if (class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.id == NULL)
+        goto fail;
+
+    class_id = class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.id;
+    name     = "readAt";
+    sign     = "(JLjava/nio/ByteBuffer;)I";
+    class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.method_readAt = J4A_GetMethodID__catchAll(env, class_id, name, sign);
+    if (class_J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource.method_readAt == NULL)
+        goto fail;
+
+    J4A_ALOGD("J4ALoader: OK: '%s' loaded\n", "tv.danmaku.ijk.media.player.misc.IDirectMediaDataSource");
+    ret = 0;
+fail:
+    return ret;
+}
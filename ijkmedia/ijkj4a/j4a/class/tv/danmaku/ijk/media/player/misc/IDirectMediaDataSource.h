@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * https://github.com/Bilibili/jni4android
+ * This file is automatically generated by jni4android, do not modify.
+ */
+
+#ifndef J4A__tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__H
+#define J4A__tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__H
+
+#include "j4a/j4a_base.h"
+
+jint J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt(JNIEnv *env, jobject thiz, jlong position, jobject directBuffer);
+jint J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt__catchAll(JNIEnv *env, jobject thiz, jlong position, jobject directBuffer);
+int J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource(JNIEnv *env);
+
+#define J4A_HAVE_SIMPLE__J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource
+
+#define J4AC_IDirectMediaDataSource__readAt J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt
+#define J4AC_IDirectMediaDataSource__readAt__catchAll J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__readAt__catchAll
+#define J4A_loadClass__J4AC_IDirectMediaDataSource J4A_loadClass__J4AC_tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource
+
+#endif//J4A__tv_danmaku_ijk_media_player_misc_IDirectMediaDataSource__H
@@ -0,0 +1,8 @@
+package tv.danmaku.ijk.media.player.misc;
+
+import java.nio.ByteBuffer;
+
+@SimpleCClassName
+public interface IDirectMediaDataSource {
+    int  readAt(long position, ByteBuffer directBuffer);
+}
@@ -39,6 +39,8 @@ LOCAL_SRC_FILES += ff_ffplay.c
 LOCAL_SRC_FILES += ff_ffpipeline.c
 LOCAL_SRC_FILES += ff_ffpipenode.c
 LOCAL_SRC_FILES += ijkmeta.c
+LOCAL_SRC_FILES += ijkprobecache.c
+LOCAL_SRC_FILES += ijkthumbnail.c
 LOCAL_SRC_FILES += ijkplayer.c
 
 LOCAL_SRC_FILES += pipeline/ffpipeline_ffplay.c
@@ -47,6 +49,7 @@ LOCAL_SRC_FILES += pipeline/ffpipenode_ffplay_vdec.c
 LOCAL_SRC_FILES += android/ffmpeg_api_jni.c
 LOCAL_SRC_FILES += android/ijkplayer_android.c
 LOCAL_SRC_FILES += android/ijkplayer_jni.c
+LOCAL_SRC_FILES += android/ijkthumbnail_jni.c
 
 LOCAL_SRC_FILES += android/pipeline/ffpipeline_android.c
 LOCAL_SRC_FILES += android/pipeline/ffpipenode_android_mediacodec_vdec.c
@@ -54,12 +57,15 @@ LOCAL_SRC_FILES += android/pipeline/ffpipenode_android_mediacodec_vdec.c
 LOCAL_SRC_FILES += ijkavformat/allformats.c
 LOCAL_SRC_FILES += ijkavformat/cJSON.c
 LOCAL_SRC_FILES += ijkavformat/ijklas.c
+LOCAL_SRC_FILES += ijkavformat/ijklasabr.c
 LOCAL_SRC_FILES += ijkavformat/ijklivehook.c
 LOCAL_SRC_FILES += ijkavformat/ijkmediadatasource.c
 LOCAL_SRC_FILES += ijkavformat/ijkio.c
 LOCAL_SRC_FILES += ijkavformat/ijkiomanager.c
 LOCAL_SRC_FILES += ijkavformat/ijkiocache.c
+LOCAL_SRC_FILES += ijkavformat/ijkiocacheindex.c
 LOCAL_SRC_FILES += ijkavformat/ijkioffio.c
+LOCAL_SRC_FILES += ijkavformat/ijkioparallel.c
 LOCAL_SRC_FILES += ijkavformat/ijkioandroidio.c
 LOCAL_SRC_FILES += ijkavformat/ijkioprotocol.c
 LOCAL_SRC_FILES += ijkavformat/ijkioapplication.c
@@ -67,8 +73,11 @@ LOCAL_SRC_FILES += ijkavformat/ijkiourlhook.c
 
 LOCAL_SRC_FILES  += ijkavformat/ijkasync.c
 LOCAL_SRC_FILES  += ijkavformat/ijkurlhook.c
+LOCAL_SRC_FILES  += ijkavformat/ijkdns.c
+LOCAL_SRC_FILES  += ijkavformat/ijkhttppool.c
 LOCAL_SRC_FILES  += ijkavformat/ijklongurl.c
 LOCAL_SRC_FILES  += ijkavformat/ijksegment.c
+LOCAL_SRC_FILES  += ijkavformat/ijksegmentprefetch.c
 
 LOCAL_SRC_FILES += ijkavutil/ijkdict.c
 LOCAL_SRC_FILES += ijkavutil/ijkutils.c
@@ -75,6 +75,27 @@ void ijkmp_android_set_surface(JNIEnv *env, IjkMediaPlayer *mp, jobject android_
     MPTRACE("ijkmp_set_android_surface(surface=%p)=void", (void*)android_surface);
 }
 
+void ijkmp_android_handoff_surface(JNIEnv *env, IjkMediaPlayer *mp, IjkMediaPlayer *next)
+{
+    if (!mp || !next)
+        return;
+
+    MPTRACE("ijkmp_android_handoff_surface(%p)", (void*)next);
+    pthread_mutex_lock(&mp->mutex);
+    jobject surface = NULL;
+    if (mp->ffplayer && mp->ffplayer->pipeline)
+        surface = ffpipeline_get_surface_as_global_ref(env, mp->ffplayer->pipeline);
+    // detach first, a surface can be connected to only one producer
+    ijkmp_android_set_surface_l(env, mp, NULL);
+    pthread_mutex_unlock(&mp->mutex);
+
+    if (surface) {
+        ijkmp_android_set_surface(env, next, surface);
+        SDL_JNI_DeleteGlobalRefP(env, &surface);
+    }
+    MPTRACE("ijkmp_android_handoff_surface(%p)=void", (void*)next);
+}
+
 void ijkmp_android_set_volume(JNIEnv *env, IjkMediaPlayer *mp, float left, float right)
 {
     if (!mp)
@@ -34,11 +34,16 @@
 #include "ijksdl/ijksdl_log.h"
 #include "../ff_ffplay.h"
 #include "ffmpeg_api_jni.h"
+#include "ijkthumbnail_jni.h"
 #include "ijkplayer_android_def.h"
 #include "ijkplayer_android.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 #include "ijksdl/android/ijksdl_codec_android_mediadef.h"
 #include "ijkavformat/ijkavformat.h"
+#include "ijkavformat/ijkdns.h"
+#include "ijkavformat/ijkhttppool.h"
+#include "ijkavformat/ijkiomanager.h"
+#include "ijkavformat/ijklasabr.h"
 
 #define JNI_MODULE_PACKAGE      "tv/danmaku/ijk/media/player"
 #define JNI_CLASS_IJKPLAYER     "tv/danmaku/ijk/media/player/IjkMediaPlayer"
@@ -198,7 +203,7 @@ LABEL_RETURN:
 }
 
 static void
-IjkMediaPlayer_setDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback)
+IjkMediaPlayer_setDataSourceCallbackEx(JNIEnv *env, jobject thiz, jobject callback, bool direct)
 {
     MPTRACE("%s\n", __func__);
     int retval = 0;
@@ -211,8 +216,8 @@ IjkMediaPlayer_setDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback
     nativeMediaDataSource = jni_set_media_data_source(env, thiz, callback);
     JNI_CHECK_GOTO(nativeMediaDataSource, env, "java/lang/IllegalStateException", "mpjni: jni_set_media_data_source: NewGlobalRef", LABEL_RETURN);
 
-    ALOGV("setDataSourceCallback: %"PRId64"\n", nativeMediaDataSource);
-    snprintf(uri, sizeof(uri), "ijkmediadatasource:%"PRId64, nativeMediaDataSource);
+    ALOGV("setDataSourceCallback: %"PRId64", direct=%d\n", nativeMediaDataSource, direct);
+    snprintf(uri, sizeof(uri), "ijkmediadatasource:%s%"PRId64, direct ? "direct:" : "", nativeMediaDataSource);
 
     retval = ijkmp_set_data_source(mp, uri);
 
@@ -223,7 +228,19 @@ LABEL_RETURN:
 }
 
 static void
-IjkMediaPlayer_setAndroidIOCallback(JNIEnv *env, jobject thiz, jobject callback) {
+IjkMediaPlayer_setDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback)
+{
+    IjkMediaPlayer_setDataSourceCallbackEx(env, thiz, callback, false);
+}
+
+static void
+IjkMediaPlayer_setDirectDataSourceCallback(JNIEnv *env, jobject thiz, jobject callback)
+{
+    IjkMediaPlayer_setDataSourceCallbackEx(env, thiz, callback, true);
+}
+
+static void
+IjkMediaPlayer_setAndroidIOCallbackEx(JNIEnv *env, jobject thiz, jobject callback, bool direct) {
     MPTRACE("%s\n", __func__);
     int64_t nativeAndroidIO = 0;
 
@@ -235,11 +252,24 @@ IjkMediaPlayer_setAndroidIOCallback(JNIEnv *env, jobject thiz, jobject callback)
     JNI_CHECK_GOTO(nativeAndroidIO, env, "java/lang/IllegalStateException", "mpjni: jni_set_ijkio_androidio: NewGlobalRef", LABEL_RETURN);
 
     ijkmp_set_option_int(mp, FFP_OPT_CATEGORY_FORMAT, "androidio-inject-callback", nativeAndroidIO);
+    ijkmp_set_option_int(mp, FFP_OPT_CATEGORY_FORMAT, "androidio-direct", direct ? 1 : 0);
 
 LABEL_RETURN:
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_setAndroidIOCallback(JNIEnv *env, jobject thiz, jobject callback)
+{
+    IjkMediaPlayer_setAndroidIOCallbackEx(env, thiz, callback, false);
+}
+
+static void
+IjkMediaPlayer_setDirectAndroidIOCallback(JNIEnv *env, jobject thiz, jobject callback)
+{
+    IjkMediaPlayer_setAndroidIOCallbackEx(env, thiz, callback, true);
+}
+
 static void
 IjkMediaPlayer_setVideoSurface(JNIEnv *env, jobject thiz, jobject jsurface)
 {
@@ -398,6 +428,44 @@ IjkMediaPlayer_reset(JNIEnv *env, jobject thiz)
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_resetForReuse(JNIEnv *env, jobject thiz)
+{
+    MPTRACE("%s\n", __func__);
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    if (!mp)
+        return;
+
+    ijkmp_android_set_surface(env, mp, NULL);
+    ijkmp_reset(mp);
+    jni_set_media_data_source(env, thiz, NULL);
+
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setNextMediaPlayer(JNIEnv *env, jobject thiz, jobject next)
+{
+    MPTRACE("%s\n", __func__);
+    int retval = 0;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    IjkMediaPlayer *next_mp = NULL;
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setNextMediaPlayer: null mp", LABEL_RETURN);
+
+    if (next) {
+        next_mp = jni_get_media_player(env, next);
+        JNI_CHECK_GOTO(next_mp, env, "java/lang/IllegalArgumentException", "mpjni: setNextMediaPlayer: released next", LABEL_RETURN);
+        JNI_CHECK_GOTO(next_mp != mp, env, "java/lang/IllegalArgumentException", "mpjni: setNextMediaPlayer: next is self", LABEL_RETURN);
+    }
+
+    retval = ijkmp_set_next_player(mp, next_mp);
+    IJK_CHECK_MPRET_GOTO(retval, env, LABEL_RETURN);
+
+LABEL_RETURN:
+    ijkmp_dec_ref_p(&next_mp);
+    ijkmp_dec_ref_p(&mp);
+}
+
 static void
 IjkMediaPlayer_setLoopCount(JNIEnv *env, jobject thiz, jint loop_count)
 {
@@ -480,6 +548,179 @@ LABEL_RETURN:
     return;
 }
 
+#define IJKMP_PROPERTY_SNAPSHOT_MAX 64
+
+static void
+ijkMediaPlayer_getPropertySnapshot(JNIEnv *env, jobject thiz,
+    jintArray int64_ids, jlongArray int64_values,
+    jintArray float_ids, jfloatArray float_values)
+{
+    jint    c_int64_ids[IJKMP_PROPERTY_SNAPSHOT_MAX];
+    jlong   c_int64_values[IJKMP_PROPERTY_SNAPSHOT_MAX];
+    jint    c_float_ids[IJKMP_PROPERTY_SNAPSHOT_MAX];
+    jfloat  c_float_values[IJKMP_PROPERTY_SNAPSHOT_MAX];
+    jsize   int64_count = 0;
+    jsize   float_count = 0;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getPropertySnapshot: null mp", LABEL_RETURN);
+
+    if (int64_ids && int64_values) {
+        int64_count = (*env)->GetArrayLength(env, int64_ids);
+        JNI_CHECK_GOTO(int64_count <= IJKMP_PROPERTY_SNAPSHOT_MAX, env, "java/lang/IllegalArgumentException", "mpjni: getPropertySnapshot: too many int64 properties", LABEL_RETURN);
+        JNI_CHECK_GOTO(int64_count <= (*env)->GetArrayLength(env, int64_values), env, "java/lang/IllegalArgumentException", "mpjni: getPropertySnapshot: int64 values too small", LABEL_RETURN);
+
+        (*env)->GetIntArrayRegion(env, int64_ids, 0, int64_count, c_int64_ids);
+        (*env)->GetLongArrayRegion(env, int64_values, 0, int64_count, c_int64_values);
+        if (J4A_ExceptionCheck__throwAny(env))
+            goto LABEL_RETURN;
+    }
+
+    if (float_ids && float_values) {
+        float_count = (*env)->GetArrayLength(env, float_ids);
+        JNI_CHECK_GOTO(float_count <= IJKMP_PROPERTY_SNAPSHOT_MAX, env, "java/lang/IllegalArgumentException", "mpjni: getPropertySnapshot: too many float properties", LABEL_RETURN);
+        JNI_CHECK_GOTO(float_count <= (*env)->GetArrayLength(env, float_values), env, "java/lang/IllegalArgumentException", "mpjni: getPropertySnapshot: float values too small", LABEL_RETURN);
+
+        (*env)->GetIntArrayRegion(env, float_ids, 0, float_count, c_float_ids);
+        (*env)->GetFloatArrayRegion(env, float_values, 0, float_count, c_float_values);
+        if (J4A_ExceptionCheck__throwAny(env))
+            goto LABEL_RETURN;
+    }
+
+    ijkmp_get_property_snapshot(mp,
+                                (const int *) c_int64_ids, (int64_t *) c_int64_values, int64_count,
+                                (const int *) c_float_ids, (float *) c_float_values, float_count);
+
+    if (int64_count > 0)
+        (*env)->SetLongArrayRegion(env, int64_values, 0, int64_count, c_int64_values);
+    if (float_count > 0)
+        (*env)->SetFloatArrayRegion(env, float_values, 0, float_count, c_float_values);
+
+LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return;
+}
+
+// index in LasStatistics.mValues, keep in sync with LasStatistics.java
+enum {
+    LAS_STAT_FLV_COUNT = 0,
+    LAS_STAT_CUR_REP_INDEX,
+    LAS_STAT_NEXT_REP_INDEX,
+    LAS_STAT_BANDWIDTH_FRAGMENT,
+    LAS_STAT_BITRATE_DOWNLOADING,
+    LAS_STAT_CURRENT_BUFFER,
+    LAS_STAT_CACHED_AUDIO_DURATION,
+    LAS_STAT_CACHED_VIDEO_DURATION,
+    LAS_STAT_CACHED_TAG_DURATION,
+    LAS_STAT_SWITCH_POINT_AUDIO_BUFFER,
+    LAS_STAT_SWITCH_POINT_VIDEO_BUFFER,
+    LAS_STAT_REP_READ_START_TIME,
+    LAS_STAT_REP_HTTP_OPEN_TIME,
+    LAS_STAT_REP_READ_HEADER_TIME,
+    LAS_STAT_REP_FIRST_DATA_TIME,
+    LAS_STAT_REP_START_TIME,
+    LAS_STAT_REP_SWITCH_GAP_TIME,
+    LAS_STAT_REP_SWITCH_COUNT,
+    LAS_STAT_REP_HTTP_READING_ERROR,
+    LAS_STAT_TOTAL_BYTES_READ,
+    LAS_STAT_TAG_POOL_HITS,
+    LAS_STAT_TAG_POOL_MISSES,
+    LAS_STAT_COUNT,
+};
+
+// index in LasStatistics.mStrings, flv urls follow in manifest order
+#define LAS_STAT_STRING_CUR_URL         0
+#define LAS_STAT_STRING_ABR_POLICY      1
+#define LAS_STAT_STRING_FLV_URL_BASE    2
+
+static void
+ijkMediaPlayer_setLasString(JNIEnv *env, jobjectArray jstrings, jsize index, const char *value)
+{
+    jstring jvalue = (*env)->NewStringUTF(env, value);
+    if (J4A_ExceptionCheck__throwAny(env))
+        return;
+
+    (*env)->SetObjectArrayElement(env, jstrings, index, jvalue);
+    J4A_DeleteLocalRef__p(env, &jvalue);
+}
+
+static jboolean
+ijkMediaPlayer_getLasStatistics(JNIEnv *env, jobject thiz,
+    jlongArray jvalues, jintArray jflv_bitrates, jobjectArray jstrings)
+{
+    jboolean        ret = JNI_FALSE;
+    jlong           values[LAS_STAT_COUNT];
+    jint            flv_bitrates[MAX_STREAM_NUM];
+    int             flv_nb = 0;
+    LasStatistic   *stat = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getLasStatistics: null mp", LABEL_RETURN);
+    JNI_CHECK_GOTO(jvalues && (*env)->GetArrayLength(env, jvalues) >= LAS_STAT_COUNT, env, "java/lang/IllegalArgumentException", "mpjni: getLasStatistics: values too small", LABEL_RETURN);
+    JNI_CHECK_GOTO(jflv_bitrates && (*env)->GetArrayLength(env, jflv_bitrates) >= MAX_STREAM_NUM, env, "java/lang/IllegalArgumentException", "mpjni: getLasStatistics: flv bitrates too small", LABEL_RETURN);
+    JNI_CHECK_GOTO(jstrings && (*env)->GetArrayLength(env, jstrings) >= LAS_STAT_STRING_FLV_URL_BASE + MAX_STREAM_NUM, env, "java/lang/IllegalArgumentException", "mpjni: getLasStatistics: strings too small", LABEL_RETURN);
+
+    // too large for the stack, with a MAX_URL_SIZE url per flv
+    stat = calloc(1, sizeof(LasStatistic));
+    JNI_CHECK_GOTO(stat, env, "java/lang/OutOfMemoryError", "mpjni: getLasStatistics: calloc failed", LABEL_RETURN);
+
+    if (ijkmp_get_las_statistic(mp, stat) < 0)
+        goto LABEL_RETURN;
+
+    flv_nb = stat->flv_nb;
+    if (flv_nb < 0)
+        flv_nb = 0;
+    else if (flv_nb > MAX_STREAM_NUM)
+        flv_nb = MAX_STREAM_NUM;
+    values[LAS_STAT_FLV_COUNT]                  = flv_nb;
+    values[LAS_STAT_CUR_REP_INDEX]              = stat->cur_decoding_flv_index;
+    values[LAS_STAT_NEXT_REP_INDEX]             = stat->next_rep_index;
+    values[LAS_STAT_BANDWIDTH_FRAGMENT]         = stat->bandwidth_fragment;
+    values[LAS_STAT_BITRATE_DOWNLOADING]        = stat->bitrate_downloading;
+    values[LAS_STAT_CURRENT_BUFFER]             = stat->current_buffer_ms;
+    values[LAS_STAT_CACHED_AUDIO_DURATION]      = stat->cached_a_dur_ms;
+    values[LAS_STAT_CACHED_VIDEO_DURATION]      = stat->cached_v_dur_ms;
+    values[LAS_STAT_CACHED_TAG_DURATION]        = stat->cached_tag_dur_ms;
+    values[LAS_STAT_SWITCH_POINT_AUDIO_BUFFER]  = stat->switch_point_a_buffer_ms;
+    values[LAS_STAT_SWITCH_POINT_VIDEO_BUFFER]  = stat->switch_point_v_buffer_ms;
+    values[LAS_STAT_REP_READ_START_TIME]        = stat->cur_rep_read_start_time;
+    values[LAS_STAT_REP_HTTP_OPEN_TIME]         = stat->cur_rep_http_open_time;
+    values[LAS_STAT_REP_READ_HEADER_TIME]       = stat->cur_rep_read_header_time;
+    values[LAS_STAT_REP_FIRST_DATA_TIME]        = stat->cur_rep_first_data_time;
+    values[LAS_STAT_REP_START_TIME]             = stat->cur_rep_start_time;
+    values[LAS_STAT_REP_SWITCH_GAP_TIME]        = stat->rep_switch_gap_time;
+    values[LAS_STAT_REP_SWITCH_COUNT]           = stat->rep_switch_cnt;
+    values[LAS_STAT_REP_HTTP_READING_ERROR]     = stat->cur_rep_http_reading_error;
+    values[LAS_STAT_TOTAL_BYTES_READ]           = stat->total_bytes_read;
+    values[LAS_STAT_TAG_POOL_HITS]              = stat->tag_pool_hits;
+    values[LAS_STAT_TAG_POOL_MISSES]            = stat->tag_pool_misses;
+    (*env)->SetLongArrayRegion(env, jvalues, 0, LAS_STAT_COUNT, values);
+
+    memset(flv_bitrates, 0, sizeof(flv_bitrates));
+    for (int i = 0; i < flv_nb; ++i)
+        flv_bitrates[i] = stat->flvs[i].total_bandwidth_kbps;
+    (*env)->SetIntArrayRegion(env, jflv_bitrates, 0, MAX_STREAM_NUM, flv_bitrates);
+    if (J4A_ExceptionCheck__throwAny(env))
+        goto LABEL_RETURN;
+
+    ijkMediaPlayer_setLasString(env, jstrings, LAS_STAT_STRING_CUR_URL, stat->cur_playing_url);
+    ijkMediaPlayer_setLasString(env, jstrings, LAS_STAT_STRING_ABR_POLICY, stat->abr_policy);
+    for (int i = 0; i < MAX_STREAM_NUM; ++i) {
+        if (i < flv_nb) {
+            stat->flvs[i].url[MAX_URL_SIZE - 1] = '\0';
+            ijkMediaPlayer_setLasString(env, jstrings, LAS_STAT_STRING_FLV_URL_BASE + i, stat->flvs[i].url);
+        } else {
+            (*env)->SetObjectArrayElement(env, jstrings, LAS_STAT_STRING_FLV_URL_BASE + i, NULL);
+        }
+    }
+    if (J4A_ExceptionCheck__throwAny(env))
+        goto LABEL_RETURN;
+
+    ret = JNI_TRUE;
+LABEL_RETURN:
+    free(stat);
+    ijkmp_dec_ref_p(&mp);
+    return ret;
+}
+
 static void
 ijkMediaPlayer_setStreamSelected(JNIEnv *env, jobject thiz, jint stream, jboolean selected)
 {
@@ -577,6 +818,34 @@ LABEL_RETURN:
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_setOptions(JNIEnv *env, jobject thiz, jbyteArray options)
+{
+    MPTRACE("%s\n", __func__);
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    char *c_options = NULL;
+    jsize size = 0;
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setOptions: null mp", LABEL_RETURN);
+    JNI_CHECK_GOTO(options, env, "java/lang/IllegalArgumentException", "mpjni: setOptions: null options", LABEL_RETURN);
+
+    size = (*env)->GetArrayLength(env, options);
+    if (size <= 0)
+        goto LABEL_RETURN;
+
+    c_options = malloc(size);
+    JNI_CHECK_GOTO(c_options, env, "java/lang/OutOfMemoryError", "mpjni: setOptions: oom", LABEL_RETURN);
+
+    (*env)->GetByteArrayRegion(env, options, 0, size, (jbyte *)c_options);
+    if (J4A_ExceptionCheck__throwAny(env))
+        goto LABEL_RETURN;
+
+    JNI_CHECK_GOTO(ijkmp_set_options(mp, c_options, size) >= 0, env, "java/lang/IllegalArgumentException", "mpjni: setOptions: malformed options", LABEL_RETURN);
+
+LABEL_RETURN:
+    free(c_options);
+    ijkmp_dec_ref_p(&mp);
+}
+
 static jstring
 IjkMediaPlayer_getColorFormatName(JNIEnv *env, jclass clazz, jint mediaCodecColorFormat)
 {
@@ -849,6 +1118,35 @@ inject_callback(void *opaque, int what, void *data, size_t data_size)
             ret = 0;
             break;
         }
+        case LAS_ABR_CTRL_SELECT_REPRESENTATION: {
+            LasAbrDecision *real_data = (LasAbrDecision *)data;
+            char key[32];
+            real_data->is_handled = 0;
+
+            jbundle = J4AC_Bundle__Bundle__catchAll(env);
+            if (!jbundle) {
+                ALOGE("%s: J4AC_Bundle__Bundle__catchAll failed for case %d\n", __func__, what);
+                goto fail;
+            }
+            J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, "bitrate_count", real_data->n_bitrates);
+            for (int i = 0; i < real_data->n_bitrates; i++) {
+                snprintf(key, sizeof(key), "bitrate_%d", i);
+                J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, key, real_data->bitrates[i]);
+            }
+            J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, "current_index", real_data->current);
+            J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, "speed_kbps", real_data->speed_kbps);
+            J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, "buffer_ms", real_data->buffered_ms);
+            J4AC_Bundle__putInt__withCString__catchAll(env, jbundle, "next_index", real_data->next);
+            real_data->is_handled = J4AC_IjkMediaPlayer__onNativeInvoke(env, weak_thiz, what, jbundle);
+            if (J4A_ExceptionCheck__catchAll(env)) {
+                real_data->is_handled = 0;
+                goto fail;
+            }
+
+            real_data->next = J4AC_Bundle__getInt__withCString__catchAll(env, jbundle, "next_index", real_data->next);
+            ret = 0;
+            break;
+        }
         default: {
             ret = 0;
         }
@@ -921,10 +1219,20 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
             MPTRACE("FFP_MSG_PREPARED:\n");
             post_event(env, weak_thiz, MEDIA_PREPARED, 0, 0);
             break;
-        case FFP_MSG_COMPLETED:
+        case FFP_MSG_COMPLETED: {
             MPTRACE("FFP_MSG_COMPLETED:\n");
+            IjkMediaPlayer *next_mp = ijkmp_take_next_player(mp);
+            if (next_mp) {
+                // start next from this thread, before the completion goes through java handler
+                ijkmp_android_handoff_surface(env, mp, next_mp);
+                jobject next_weak_thiz = (jobject) ijkmp_get_weak_thiz(next_mp);
+                if (next_weak_thiz)
+                    post_event(env, next_weak_thiz, MEDIA_INFO, MEDIA_INFO_STARTED_AS_NEXT, 0);
+                ijkmp_dec_ref_p(&next_mp);
+            }
             post_event(env, weak_thiz, MEDIA_PLAYBACK_COMPLETE, 0, 0);
             break;
+        }
         case FFP_MSG_VIDEO_SIZE_CHANGED:
             MPTRACE("FFP_MSG_VIDEO_SIZE_CHANGED: %d, %d\n", msg.arg1, msg.arg2);
             post_event(env, weak_thiz, MEDIA_SET_VIDEO_SIZE, msg.arg1, msg.arg2);
@@ -965,6 +1273,10 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
             MPTRACE("FFP_MSG_COMPONENT_OPEN:\n");
             post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_COMPONENT_OPEN, 0);
             break;
+        case FFP_MSG_METADATA_UPDATE:
+            MPTRACE("FFP_MSG_METADATA_UPDATE:\n");
+            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_METADATA_UPDATE, 0);
+            break;
         case FFP_MSG_BUFFERING_START:
             MPTRACE("FFP_MSG_BUFFERING_START:\n");
             post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_BUFFERING_START, msg.arg1);
@@ -1108,6 +1420,86 @@ IjkMediaPlayer_native_setLogLevel(JNIEnv *env, jclass clazz, jint level)
     ALOGD("moncleanup\n");
 }
 
+static void
+IjkMediaPlayer_native_prefetchHosts(JNIEnv *env, jclass clazz, jobjectArray hosts)
+{
+    jsize count = 0;
+    jsize i;
+    JNI_CHECK_RET_VOID(hosts, env, "java/lang/IllegalArgumentException", "mpjni: prefetchHosts: null hosts");
+
+    count = (*env)->GetArrayLength(env, hosts);
+    for (i = 0; i < count; ++i) {
+        jstring     host   = (jstring) (*env)->GetObjectArrayElement(env, hosts, i);
+        const char *c_host = NULL;
+        if (J4A_ExceptionCheck__catchAll(env) || !host)
+            continue;
+
+        c_host = (*env)->GetStringUTFChars(env, host, NULL);
+        if (c_host) {
+            ijkdns_prefetch(c_host);
+            (*env)->ReleaseStringUTFChars(env, host, c_host);
+        }
+        SDL_JNI_DeleteLocalRefP(env, &host);
+    }
+}
+
+static void
+IjkMediaPlayer_native_setDnsCacheTtl(JNIEnv *env, jclass clazz, jlong ttl_ms)
+{
+    ijkdns_set_ttl(ttl_ms);
+}
+
+static void
+IjkMediaPlayer_native_clearDnsCache(JNIEnv *env, jclass clazz)
+{
+    ijkdns_clear();
+}
+
+static void
+IjkMediaPlayer_native_setHttpPoolLimits(JNIEnv *env, jclass clazz, jint max_idle_per_host, jlong idle_timeout_ms)
+{
+    ijkhttppool_set_limits(max_idle_per_host, idle_timeout_ms);
+}
+
+static void
+IjkMediaPlayer_native_clearHttpPool(JNIEnv *env, jclass clazz)
+{
+    ijkhttppool_clear();
+}
+
+static void
+IjkMediaPlayer_native_setLowMemory(JNIEnv *env, jclass clazz, jboolean low_memory)
+{
+    ijkav_async_set_low_memory(low_memory ? 1 : 0);
+}
+
+static jboolean
+IjkMediaPlayer_native_setCacheBudget(JNIEnv *env, jclass clazz, jstring dir, jlong max_bytes)
+{
+    const char *c_dir = NULL;
+    int         ret   = -1;
+    JNI_CHECK_RET(dir, env, "java/lang/IllegalArgumentException", "mpjni: setCacheBudget: null dir", JNI_FALSE);
+
+    c_dir = (*env)->GetStringUTFChars(env, dir, NULL);
+    JNI_CHECK_RET(c_dir, env, "java/lang/OutOfMemoryError", "mpjni: setCacheBudget: dir.string oom", JNI_FALSE);
+
+    ret = ijkio_cache_manager_set_budget(c_dir, max_bytes);
+    (*env)->ReleaseStringUTFChars(env, dir, c_dir);
+    return ret == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+static jlong
+IjkMediaPlayer_native_getCacheUsage(JNIEnv *env, jclass clazz)
+{
+    return ijkio_cache_manager_get_usage();
+}
+
+static jlong
+IjkMediaPlayer_native_trimCache(JNIEnv *env, jclass clazz, jlong max_bytes)
+{
+    return ijkio_cache_manager_trim(max_bytes);
+}
+
 static void
 IjkMediaPlayer_setFrameAtTime(JNIEnv *env, jobject thiz, jstring path, jlong start_time, jlong end_time, jint num, jint definition) {
     IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
@@ -1141,7 +1533,9 @@ static JNINativeMethod g_methods[] = {
     },
     { "_setDataSourceFd",       "(I)V",     (void *) IjkMediaPlayer_setDataSourceFd },
     { "_setDataSource",         "(Ltv/danmaku/ijk/media/player/misc/IMediaDataSource;)V", (void *)IjkMediaPlayer_setDataSourceCallback },
+    { "_setDataSource",         "(Ltv/danmaku/ijk/media/player/misc/IDirectMediaDataSource;)V", (void *)IjkMediaPlayer_setDirectDataSourceCallback },
     { "_setAndroidIOCallback",  "(Ltv/danmaku/ijk/media/player/misc/IAndroidIO;)V", (void *)IjkMediaPlayer_setAndroidIOCallback },
+    { "_setAndroidIOCallback",  "(Ltv/danmaku/ijk/media/player/misc/IAndroidIO2;)V", (void *)IjkMediaPlayer_setDirectAndroidIOCallback },
 
     { "_setVideoSurface",       "(Landroid/view/Surface;)V", (void *) IjkMediaPlayer_setVideoSurface },
     { "_prepareAsync",          "()V",      (void *) IjkMediaPlayer_prepareAsync },
@@ -1154,6 +1548,8 @@ static JNINativeMethod g_methods[] = {
     { "getDuration",            "()J",      (void *) IjkMediaPlayer_getDuration },
     { "_release",               "()V",      (void *) IjkMediaPlayer_release },
     { "_reset",                 "()V",      (void *) IjkMediaPlayer_reset },
+    { "_resetForReuse",         "()V",      (void *) IjkMediaPlayer_resetForReuse },
+    { "_setNextMediaPlayer",    "(Ltv/danmaku/ijk/media/player/IjkMediaPlayer;)V", (void *) IjkMediaPlayer_setNextMediaPlayer },
     { "setVolume",              "(FF)V",    (void *) IjkMediaPlayer_setVolume },
     { "getAudioSessionId",      "()I",      (void *) IjkMediaPlayer_getAudioSessionId },
     { "native_init",            "()V",      (void *) IjkMediaPlayer_native_init },
@@ -1161,6 +1557,7 @@ static JNINativeMethod g_methods[] = {
     { "native_finalize",        "()V",      (void *) IjkMediaPlayer_native_finalize },
 
     { "_setOption",             "(ILjava/lang/String;Ljava/lang/String;)V", (void *) IjkMediaPlayer_setOption },
+    { "_setOptions",            "([B)V",    (void *) IjkMediaPlayer_setOptions },
     { "_setOption",             "(ILjava/lang/String;J)V",                  (void *) IjkMediaPlayer_setOptionLong },
 
     { "_getColorFormatName",    "(I)Ljava/lang/String;",    (void *) IjkMediaPlayer_getColorFormatName },
@@ -1174,11 +1571,22 @@ static JNINativeMethod g_methods[] = {
     { "_getPropertyLong",       "(IJ)J",                    (void *) ijkMediaPlayer_getPropertyLong },
     { "_setPropertyLong",       "(IJ)V",                    (void *) ijkMediaPlayer_setPropertyLong },
     { "_setStreamSelected",     "(IZ)V",                    (void *) ijkMediaPlayer_setStreamSelected },
+    { "_getPropertySnapshot",   "([I[J[I[F)V",              (void *) ijkMediaPlayer_getPropertySnapshot },
+    { "_getLasStatistics",      "([J[I[Ljava/lang/String;)Z", (void *) ijkMediaPlayer_getLasStatistics },
 
     { "native_profileBegin",    "(Ljava/lang/String;)V",    (void *) IjkMediaPlayer_native_profileBegin },
     { "native_profileEnd",      "()V",                      (void *) IjkMediaPlayer_native_profileEnd },
 
     { "native_setLogLevel",     "(I)V",                     (void *) IjkMediaPlayer_native_setLogLevel },
+    { "native_prefetchHosts",   "([Ljava/lang/String;)V",   (void *) IjkMediaPlayer_native_prefetchHosts },
+    { "native_setDnsCacheTtl",  "(J)V",                     (void *) IjkMediaPlayer_native_setDnsCacheTtl },
+    { "native_clearDnsCache",   "()V",                      (void *) IjkMediaPlayer_native_clearDnsCache },
+    { "native_setHttpPoolLimits", "(IJ)V",                  (void *) IjkMediaPlayer_native_setHttpPoolLimits },
+    { "native_clearHttpPool",   "()V",                      (void *) IjkMediaPlayer_native_clearHttpPool },
+    { "native_setLowMemory",    "(Z)V",                     (void *) IjkMediaPlayer_native_setLowMemory },
+    { "native_setCacheBudget",  "(Ljava/lang/String;J)Z",   (void *) IjkMediaPlayer_native_setCacheBudget },
+    { "native_getCacheUsage",   "()J",                      (void *) IjkMediaPlayer_native_getCacheUsage },
+    { "native_trimCache",       "(J)J",                     (void *) IjkMediaPlayer_native_trimCache },
     { "_setFrameAtTime",        "(Ljava/lang/String;JJII)V", (void *) IjkMediaPlayer_setFrameAtTime },
 };
 
@@ -1202,6 +1610,7 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
     ijkmp_global_set_inject_callback(inject_callback);
 
     FFmpegApi_global_init(env);
+    ThumbnailExtractor_global_init(env);
 
     return JNI_VERSION_1_4;
 }
@@ -0,0 +1,133 @@
+/*
+ * ijkthumbnail_jni.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkthumbnail_jni.h"
+
+#include <assert.h>
+#include <string.h>
+#include <jni.h>
+#include "../ff_ffinc.h"
+#include "../ijkthumbnail.h"
+#include "ijksdl/ijksdl_log.h"
+#include "ijksdl/android/ijksdl_android_jni.h"
+
+#define JNI_CLASS_THUMBNAIL_EXTRACTOR "tv/danmaku/ijk/media/player/ThumbnailExtractor"
+
+typedef struct thumbnail_extractor_fields_t {
+    jclass clazz;
+} thumbnail_extractor_fields_t;
+static thumbnail_extractor_fields_t g_clazz;
+
+static jlong
+ThumbnailExtractor_create(JNIEnv *env, jclass clazz)
+{
+    IjkThumbnail *th = ijkthumb_create();
+    JNI_CHECK_RET(th, env, "java/lang/OutOfMemoryError", "thumbjni: create: ijkthumb_create() failed", 0);
+
+    return (jlong) (intptr_t) th;
+}
+
+static void
+ThumbnailExtractor_destroy(JNIEnv *env, jclass clazz, jlong handle)
+{
+    IjkThumbnail *th = (IjkThumbnail *) (intptr_t) handle;
+    ijkthumb_destroy_p(&th);
+}
+
+static jint
+ThumbnailExtractor_open(JNIEnv *env, jclass clazz, jlong handle, jstring url)
+{
+    IjkThumbnail *th    = (IjkThumbnail *) (intptr_t) handle;
+    const char   *c_url = NULL;
+    int           ret   = AVERROR(EINVAL);
+
+    JNI_CHECK_GOTO(th, env, "java/lang/IllegalStateException", "thumbjni: open: null handle", LABEL_RETURN);
+    JNI_CHECK_GOTO(url, env, "java/lang/IllegalArgumentException", "thumbjni: open: null url", LABEL_RETURN);
+
+    c_url = (*env)->GetStringUTFChars(env, url, NULL);
+    JNI_CHECK_GOTO(c_url, env, "java/lang/OutOfMemoryError", "thumbjni: open: url.string oom", LABEL_RETURN);
+
+    ret = ijkthumb_open(th, c_url);
+
+LABEL_RETURN:
+    if (c_url)
+        (*env)->ReleaseStringUTFChars(env, url, c_url);
+    return ret;
+}
+
+static void
+ThumbnailExtractor_interrupt(JNIEnv *env, jclass clazz, jlong handle, jboolean abort)
+{
+    IjkThumbnail *th = (IjkThumbnail *) (intptr_t) handle;
+    ijkthumb_interrupt(th, abort ? 1 : 0);
+}
+
+static jint
+ThumbnailExtractor_getVideoWidth(JNIEnv *env, jclass clazz, jlong handle)
+{
+    return ijkthumb_get_video_width((IjkThumbnail *) (intptr_t) handle);
+}
+
+static jint
+ThumbnailExtractor_getVideoHeight(JNIEnv *env, jclass clazz, jlong handle)
+{
+    return ijkthumb_get_video_height((IjkThumbnail *) (intptr_t) handle);
+}
+
+static jlong
+ThumbnailExtractor_getFrameAtTime(JNIEnv *env, jclass clazz, jlong handle, jlong time_ms, jint width, jint height, jobject buffer)
+{
+    IjkThumbnail *th       = (IjkThumbnail *) (intptr_t) handle;
+    uint8_t      *dst      = NULL;
+    jlong         capacity = 0;
+
+    JNI_CHECK_RET(th, env, "java/lang/IllegalStateException", "thumbjni: getFrameAtTime: null handle", AVERROR(EINVAL));
+    JNI_CHECK_RET(buffer, env, "java/lang/IllegalArgumentException", "thumbjni: getFrameAtTime: null buffer", AVERROR(EINVAL));
+
+    dst      = (*env)->GetDirectBufferAddress(env, buffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    JNI_CHECK_RET(dst, env, "java/lang/IllegalArgumentException", "thumbjni: getFrameAtTime: not a direct buffer", AVERROR(EINVAL));
+    JNI_CHECK_RET(width > 0 && height > 0 && capacity >= (jlong) width * height * 4,
+        env, "java/lang/IllegalArgumentException", "thumbjni: getFrameAtTime: buffer too small", AVERROR(EINVAL));
+
+    return ijkthumb_get_frame_at_time(th, time_ms, width, height, dst, width * 4);
+}
+
+static JNINativeMethod g_methods[] = {
+    { "_create",            "()J",                              (void *) ThumbnailExtractor_create },
+    { "_destroy",           "(J)V",                             (void *) ThumbnailExtractor_destroy },
+    { "_open",              "(JLjava/lang/String;)I",           (void *) ThumbnailExtractor_open },
+    { "_interrupt",         "(JZ)V",                            (void *) ThumbnailExtractor_interrupt },
+    { "_getVideoWidth",     "(J)I",                             (void *) ThumbnailExtractor_getVideoWidth },
+    { "_getVideoHeight",    "(J)I",                             (void *) ThumbnailExtractor_getVideoHeight },
+    { "_getFrameAtTime",    "(JJIILjava/nio/ByteBuffer;)J",     (void *) ThumbnailExtractor_getFrameAtTime },
+};
+
+int ThumbnailExtractor_global_init(JNIEnv *env)
+{
+    int ret = 0;
+
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz, JNI_CLASS_THUMBNAIL_EXTRACTOR);
+    (*env)->RegisterNatives(env, g_clazz.clazz, g_methods, NELEM(g_methods));
+
+    return ret;
+}
@@ -41,6 +41,7 @@
 #define FFP_MSG_COMPONENT_OPEN              409
 #define FFP_MSG_VIDEO_SEEK_RENDERING_START  410
 #define FFP_MSG_AUDIO_SEEK_RENDERING_START  411
+#define FFP_MSG_METADATA_UPDATE             412
 
 #define FFP_MSG_BUFFERING_START             500
 #define FFP_MSG_BUFFERING_END               501
@@ -66,6 +67,7 @@
 #define FFP_PROP_FLOAT_AVDELAY                          10004
 #define FFP_PROP_FLOAT_AVDIFF                           10005
 #define FFP_PROP_FLOAT_DROP_FRAME_RATE                  10007
+#define FFP_PROP_FLOAT_LIVE_CATCHUP_RATE                10008
 
 #define FFP_PROP_INT64_SELECTED_VIDEO_STREAM            20001
 #define FFP_PROP_INT64_SELECTED_AUDIO_STREAM            20002
@@ -106,4 +108,28 @@
 #define FFP_PROP_INT64_SHARE_CACHE_DATA                 20210
 #define FFP_PROP_INT64_IMMEDIATE_RECONNECT              20211
 
+// startup timeline, ms since prepare, default_value until reached
+// no stage times the host lookup itself, TCP_CONNECT - HTTP_OPEN includes it
+#define FFP_PROP_INT64_STARTUP_HTTP_OPEN                20400
+#define FFP_PROP_INT64_STARTUP_TCP_CONNECT              20401
+#define FFP_PROP_INT64_STARTUP_TCP_CONNECTED            20402
+#define FFP_PROP_INT64_STARTUP_HTTP_OPENED              20403
+#define FFP_PROP_INT64_STARTUP_OPEN_INPUT               20404
+#define FFP_PROP_INT64_STARTUP_FIND_STREAM_INFO         20405
+#define FFP_PROP_INT64_STARTUP_COMPONENT_OPEN           20406
+#define FFP_PROP_INT64_STARTUP_PREPARED                 20407
+#define FFP_PROP_INT64_STARTUP_FIRST_PACKET             20408
+#define FFP_PROP_INT64_STARTUP_VIDEO_DECODED            20409
+#define FFP_PROP_INT64_STARTUP_AUDIO_DECODED            20410
+#define FFP_PROP_INT64_STARTUP_VIDEO_RENDERED           20411
+#define FFP_PROP_INT64_STARTUP_AUDIO_RENDERED           20412
+
+// live catch-up controller, see "live-catchup"
+#define FFP_PROP_INT64_LIVE_CATCHUP_STATE               20500
+#define     FFP_PROPV_LIVE_CATCHUP_IDLE                 0
+#define     FFP_PROPV_LIVE_CATCHUP_SPEEDING             1
+#define     FFP_PROPV_LIVE_CATCHUP_SKIPPING             2
+#define FFP_PROP_INT64_LIVE_LATENCY                     20501
+#define FFP_PROP_INT64_LIVE_CATCHUP_SKIP_COUNT          20502
+
 #endif
@@ -36,6 +36,7 @@
 #include <fcntl.h>
 #include <sys/types.h>
 #include <unistd.h>
+#include <sched.h>
 
 #include "libavutil/avstring.h"
 #include "libavutil/eval.h"
@@ -65,12 +66,14 @@
 
 #include "ijksdl/ijksdl_log.h"
 #include "ijkavformat/ijkavformat.h"
+#include "ijkavformat/ijklas.h"
 #include "ff_cmdutils.h"
 #include "ff_fferror.h"
 #include "ff_ffpipeline.h"
 #include "ff_ffpipenode.h"
 #include "ff_ffplay_debug.h"
 #include "ijkmeta.h"
+#include "ijkprobecache.h"
 #include "ijkversion.h"
 #include "ijkplayer.h"
 #include <stdatomic.h>
@@ -112,6 +115,17 @@ static AVPacket flush_pkt;
 // FFP_MERGE: opt_add_vfilter
 #endif
 
+// keeps the first time a stage is reached, whichever thread gets there first
+static void ffp_timeline_mark_tick(int64_t *stage)
+{
+    int64_t unset = 0;
+
+    if (!__atomic_load_n(stage, memory_order_seq_cst))
+        __atomic_compare_exchange_n(stage, &unset, SDL_GetTickHR(), false, memory_order_seq_cst, memory_order_seq_cst);
+}
+
+#define ffp_timeline_mark(ffp, stage) ffp_timeline_mark_tick(&(ffp)->timeline.stage)
+
 #define IJKVERSION_GET_MAJOR(x)     ((x >> 16) & 0xFF)
 #define IJKVERSION_GET_MINOR(x)     ((x >>  8) & 0xFF)
 #define IJKVERSION_GET_MICRO(x)     ((x      ) & 0xFF)
@@ -188,13 +202,192 @@ static int packet_queue_put_private(PacketQueue *q, AVPacket *pkt)
     return 0;
 }
 
-static int packet_queue_put(PacketQueue *q, AVPacket *pkt)
+static int packet_ring_ready(PacketQueue *q, int consumer)
 {
-    int ret;
+    unsigned int head = __atomic_load_n(&q->ring_head, memory_order_seq_cst);
+    unsigned int tail = __atomic_load_n(&q->ring_tail, memory_order_seq_cst);
+
+    return consumer ? tail != head : tail - head < q->ring_capacity;
+}
+
+/*
+ * Marks the calling side as inside the ring, after any flush or start running
+ * on another thread. Paired with the store and load of packet_ring_lock_exclusive(),
+ * one of both always sees the other.
+ */
+static void packet_ring_enter(PacketQueue *q, int *inside)
+{
+    for (;;) {
+        __atomic_store_n(inside, 1, memory_order_seq_cst);
+        if (!__atomic_load_n(&q->ring_exclusive, memory_order_seq_cst))
+            return;
+
+        __atomic_store_n(inside, 0, memory_order_seq_cst);
+        while (__atomic_load_n(&q->ring_exclusive, memory_order_seq_cst))
+            sched_yield();
+    }
+}
+
+static void packet_ring_leave(int *inside)
+{
+    __atomic_store_n(inside, 0, memory_order_seq_cst);
+}
+
+static void packet_ring_lock_exclusive(PacketQueue *q)
+{
+    SDL_LockMutex(q->mutex);
+    __atomic_store_n(&q->ring_exclusive, 1, memory_order_seq_cst);
+    while (__atomic_load_n(&q->ring_producing, memory_order_seq_cst) ||
+           __atomic_load_n(&q->ring_consuming, memory_order_seq_cst))
+        sched_yield();
+}
+
+static void packet_ring_unlock_exclusive(PacketQueue *q)
+{
+    __atomic_store_n(&q->ring_exclusive, 0, memory_order_seq_cst);
+    SDL_CondBroadcast(q->cond);
+    SDL_UnlockMutex(q->mutex);
+}
+
+/*
+ * Never called inside the ring, packet_ring_lock_exclusive() holds the mutex
+ * while waiting. Each side has its own flag, the consumer may still be waking
+ * up when the producer starts to wait.
+ */
+static void packet_ring_wait(PacketQueue *q, int consumer)
+{
+    int *waiting = consumer ? &q->ring_consumer_waiting : &q->ring_producer_waiting;
 
     SDL_LockMutex(q->mutex);
-    ret = packet_queue_put_private(q, pkt);
+    __atomic_store_n(waiting, 1, memory_order_seq_cst);
+    if (!q->abort_request && !packet_ring_ready(q, consumer))
+        SDL_CondWait(q->cond, q->mutex);
+    __atomic_store_n(waiting, 0, memory_order_seq_cst);
     SDL_UnlockMutex(q->mutex);
+}
+
+static void packet_ring_wake(PacketQueue *q, int *waiting)
+{
+    if (__atomic_load_n(waiting, memory_order_seq_cst)) {
+        SDL_LockMutex(q->mutex);
+        SDL_CondBroadcast(q->cond);
+        SDL_UnlockMutex(q->mutex);
+    }
+}
+
+/* inside the ring as producer, or exclusive */
+static void packet_ring_push_l(PacketQueue *q, AVPacket *pkt)
+{
+    unsigned int    tail = __atomic_load_n(&q->ring_tail, memory_order_relaxed);
+    MyAVPacketList *slot = &q->ring[tail & (q->ring_capacity - 1)];
+
+    slot->pkt = *pkt;
+    if (pkt == &flush_pkt)
+        q->serial++;
+    slot->serial = q->serial;
+
+    __atomic_add_fetch(&q->nb_packets, 1, memory_order_relaxed);
+    __atomic_add_fetch(&q->size, slot->pkt.size + (int)sizeof(*slot), memory_order_relaxed);
+    __atomic_add_fetch(&q->duration, FFMAX(slot->pkt.duration, MIN_PKT_DURATION), memory_order_relaxed);
+    __atomic_store_n(&q->ring_tail, tail + 1, memory_order_seq_cst);
+}
+
+static int packet_ring_put(PacketQueue *q, AVPacket *pkt)
+{
+    for (;;) {
+        if (q->abort_request)
+            return -1;
+
+        packet_ring_enter(q, &q->ring_producing);
+        if (packet_ring_ready(q, 0))
+            break;
+        packet_ring_leave(&q->ring_producing);
+        packet_ring_wait(q, 0);
+    }
+
+    packet_ring_push_l(q, pkt);
+    packet_ring_leave(&q->ring_producing);
+    packet_ring_wake(q, &q->ring_consumer_waiting);
+    return 0;
+}
+
+/* return < 0 if aborted, 0 if no packet and > 0 if packet.  */
+static int packet_ring_get(PacketQueue *q, AVPacket *pkt, int block, int *serial)
+{
+    unsigned int    head;
+    MyAVPacketList *slot;
+
+    for (;;) {
+        if (q->abort_request)
+            return -1;
+
+        packet_ring_enter(q, &q->ring_consuming);
+        if (packet_ring_ready(q, 1))
+            break;
+        packet_ring_leave(&q->ring_consuming);
+        if (!block)
+            return 0;
+        packet_ring_wait(q, 1);
+    }
+
+    head = __atomic_load_n(&q->ring_head, memory_order_relaxed);
+    slot = &q->ring[head & (q->ring_capacity - 1)];
+    *pkt = slot->pkt;
+    if (serial)
+        *serial = slot->serial;
+
+    __atomic_sub_fetch(&q->nb_packets, 1, memory_order_relaxed);
+    __atomic_sub_fetch(&q->size, slot->pkt.size + (int)sizeof(*slot), memory_order_relaxed);
+    __atomic_sub_fetch(&q->duration, FFMAX(slot->pkt.duration, MIN_PKT_DURATION), memory_order_relaxed);
+    __atomic_store_n(&q->ring_head, head + 1, memory_order_seq_cst);
+
+    packet_ring_leave(&q->ring_consuming);
+    packet_ring_wake(q, &q->ring_producer_waiting);
+    return 1;
+}
+
+/* exclusive, packet_queue_is_full() still reads head without the mutex */
+static void packet_ring_flush_l(PacketQueue *q)
+{
+    unsigned int head = q->ring_head;
+    unsigned int tail = q->ring_tail;
+
+    for (; head != tail; head++)
+        av_packet_unref(&q->ring[head & (q->ring_capacity - 1)].pkt);
+    __atomic_store_n(&q->nb_packets, 0, memory_order_relaxed);
+    __atomic_store_n(&q->size, 0, memory_order_relaxed);
+    __atomic_store_n(&q->duration, 0, memory_order_relaxed);
+    __atomic_store_n(&q->ring_head, head, memory_order_seq_cst);
+}
+
+static void packet_ring_flush(PacketQueue *q)
+{
+    packet_ring_lock_exclusive(q);
+    packet_ring_flush_l(q);
+    packet_ring_unlock_exclusive(q);
+}
+
+/* lets read_thread wait for room instead of blocking in packet_queue_put() */
+static int packet_queue_is_full(PacketQueue *q)
+{
+    if (!q->ring || q->abort_request)
+        return 0;
+
+    return __atomic_load_n(&q->ring_tail, memory_order_relaxed) - __atomic_load_n(&q->ring_head, memory_order_relaxed)
+           + PACKET_RING_HEADROOM > q->ring_capacity;
+}
+
+static int packet_queue_put(PacketQueue *q, AVPacket *pkt)
+{
+    int ret;
+
+    if (q->ring) {
+        ret = packet_ring_put(q, pkt);
+    } else {
+        SDL_LockMutex(q->mutex);
+        ret = packet_queue_put_private(q, pkt);
+        SDL_UnlockMutex(q->mutex);
+    }
 
     if (pkt != &flush_pkt && ret < 0)
         av_packet_unref(pkt);
@@ -230,10 +423,32 @@ static int packet_queue_init(PacketQueue *q)
     return 0;
 }
 
+static int packet_queue_init_ring(PacketQueue *q, int capacity)
+{
+    int ret = packet_queue_init(q);
+    if (ret < 0 || capacity <= 0)
+        return ret;
+
+    q->ring_capacity = PACKET_RING_MIN_SIZE;
+    while (q->ring_capacity < capacity)
+        q->ring_capacity <<= 1;
+    q->ring = av_mallocz_array(q->ring_capacity, sizeof(MyAVPacketList));
+    if (!q->ring) {
+        av_log(NULL, AV_LOG_FATAL, "packet_queue_init_ring(%u): out of memory\n", q->ring_capacity);
+        return AVERROR(ENOMEM);
+    }
+    return 0;
+}
+
 static void packet_queue_flush(PacketQueue *q)
 {
     MyAVPacketList *pkt, *pkt1;
 
+    if (q->ring) {
+        packet_ring_flush(q);
+        return;
+    }
+
     SDL_LockMutex(q->mutex);
     for (pkt = q->first_pkt; pkt; pkt = pkt1) {
         pkt1 = pkt->next;
@@ -266,6 +481,7 @@ static void packet_queue_destroy(PacketQueue *q)
     }
     SDL_UnlockMutex(q->mutex);
 
+    av_freep(&q->ring);
     SDL_DestroyMutex(q->mutex);
     SDL_DestroyCond(q->cond);
 }
@@ -283,6 +499,20 @@ static void packet_queue_abort(PacketQueue *q)
 
 static void packet_queue_start(PacketQueue *q)
 {
+    if (q->ring) {
+        packet_ring_lock_exclusive(q);
+        q->abort_request = 0;
+        if (q->ring_tail - q->ring_head >= q->ring_capacity) {
+            // the decoder drops them anyway once it sees the new serial
+            av_log(NULL, AV_LOG_WARNING, "packet_queue_start: ring full, drop %u packets\n",
+                   q->ring_tail - q->ring_head);
+            packet_ring_flush_l(q);
+        }
+        packet_ring_push_l(q, &flush_pkt);
+        packet_ring_unlock_exclusive(q);
+        return;
+    }
+
     SDL_LockMutex(q->mutex);
     q->abort_request = 0;
     packet_queue_put_private(q, &flush_pkt);
@@ -295,6 +525,9 @@ static int packet_queue_get(PacketQueue *q, AVPacket *pkt, int block, int *seria
     MyAVPacketList *pkt1;
     int ret;
 
+    if (q->ring)
+        return packet_ring_get(q, pkt, block, serial);
+
     SDL_LockMutex(q->mutex);
 
     for (;;) {
@@ -902,6 +1135,7 @@ static void video_image_display2(FFPlayer *ffp)
         if (ffp->render_wait_start && !ffp->start_on_prepared && is->pause_req) {
             if (!ffp->first_video_frame_rendered) {
                 ffp->first_video_frame_rendered = 1;
+                ffp_timeline_mark(ffp, video_rendered);
                 ffp_notify_msg1(ffp, FFP_MSG_VIDEO_RENDERING_START);
             }
             while (is->pause_req && !is->abort_request) {
@@ -912,6 +1146,7 @@ static void video_image_display2(FFPlayer *ffp)
         ffp->stat.vfps = SDL_SpeedSamplerAdd(&ffp->vfps_sampler, FFP_SHOW_VFPS_FFPLAY, "vfps[ffplay]");
         if (!ffp->first_video_frame_rendered) {
             ffp->first_video_frame_rendered = 1;
+            ffp_timeline_mark(ffp, video_rendered);
             ffp_notify_msg1(ffp, FFP_MSG_VIDEO_RENDERING_START);
         }
 
@@ -1011,7 +1246,13 @@ static void stream_close(FFPlayer *ffp)
     if (is->subtitle_stream >= 0)
         stream_component_close(ffp, is->subtitle_stream);
 
+    SDL_LockMutex(ffp->las_statistic_mutex);
     avformat_close_input(&is->ic);
+    SDL_UnlockMutex(ffp->las_statistic_mutex);
+
+    // workers call the interrupt callback of is
+    ijksegment_prefetcher_destroyp(&ffp->segment_prefetcher);
+    av_dict_set(&ffp->format_opts, "ijksegment-prefetcher", NULL, 0);
 
     av_log(NULL, AV_LOG_DEBUG, "wait for video_refresh_tid\n");
     SDL_WaitThread(is->video_refresh_tid, NULL);
@@ -1052,8 +1293,10 @@ static void stream_close(FFPlayer *ffp)
         av_freep(&ffp->get_img_info);
     }
     av_free(is->filename);
+    SDL_LockMutex(ffp->las_statistic_mutex);
     av_free(is);
     ffp->is = NULL;
+    SDL_UnlockMutex(ffp->las_statistic_mutex);
 }
 
 // FFP_MERGE: do_exit
@@ -1349,6 +1592,8 @@ retry:
             /* compute nominal last_duration */
             last_duration = vp_duration(is, lastvp, vp);
             delay = compute_target_delay(ffp, last_duration, is);
+            if (ffp->max_speed)
+                delay = 0;
 
             time= av_gettime_relative()/1000000.0;
             if (isnan(is->frame_timer) || time < is->frame_timer)
@@ -1401,6 +1646,8 @@ retry:
 
             frame_queue_next(&is->pictq);
             is->force_refresh = 1;
+            if (ffp->max_speed)
+                *remaining_time = 0.0;
 
             SDL_LockMutex(ffp->is->play_mutex);
             if (is->step) {
@@ -1677,6 +1924,7 @@ static int queue_picture(FFPlayer *ffp, AVFrame *src_frame, double pts, double d
         frame_queue_push(&is->pictq);
         if (!is->viddec.first_frame_decoded) {
             ALOGD("Video: first frame decoded\n");
+            ffp_timeline_mark(ffp, video_decoded);
             ffp_notify_msg1(ffp, FFP_MSG_VIDEO_DECODED_START);
             is->viddec.first_frame_decoded_time = SDL_GetTickHR();
             is->viddec.first_frame_decoded = 1;
@@ -2620,6 +2868,7 @@ reload:
 #endif
     if (!is->auddec.first_frame_decoded) {
         ALOGD("avcodec/Audio: first frame decoded\n");
+        ffp_timeline_mark(ffp, audio_decoded);
         ffp_notify_msg1(ffp, FFP_MSG_AUDIO_DECODED_START);
         is->auddec.first_frame_decoded_time = SDL_GetTickHR();
         is->auddec.first_frame_decoded = 1;
@@ -2699,6 +2948,7 @@ static void sdl_audio_callback(void *opaque, Uint8 *stream, int len)
     }
     if (!ffp->first_audio_frame_rendered) {
         ffp->first_audio_frame_rendered = 1;
+        ffp_timeline_mark(ffp, audio_rendered);
         ffp_notify_msg1(ffp, FFP_MSG_AUDIO_RENDERING_START);
     }
 
@@ -3031,6 +3281,111 @@ static int decode_interrupt_cb(void *ctx)
     return is->abort_request;
 }
 
+static void live_catchup_set_rate(FFPlayer *ffp, float rate)
+{
+    FFLiveCatchup *live = &ffp->live;
+
+    // avoid reconfiguring the audio output for no audible change
+    if (rate != 1.0f && fabsf(rate - live->rate) < 0.01f)
+        return;
+    if (rate == live->rate)
+        return;
+
+    live->rate = rate;
+    ffp->pf_playback_rate = rate;
+    ffp->pf_playback_rate_changed = 1;
+}
+
+/* called by read_thread, see FFLiveCatchup */
+static void live_catchup_check(FFPlayer *ffp)
+{
+    VideoState    *is   = ffp->is;
+    FFLiveCatchup *live = &ffp->live;
+    int64_t        now  = SDL_GetTickHR();
+    int64_t        excess;
+    float          rate;
+
+    if (!ffp->live_catchup || live->state == FFP_PROPV_LIVE_CATCHUP_SKIPPING)
+        return;
+    if (now - live->last_check_tick < LIVE_CATCHUP_CHECK_INTERVAL_MS)
+        return;
+    live->last_check_tick = now;
+
+    live->latency_ms = is->audio_st ? ffp->stat.audio_cache.duration : ffp->stat.video_cache.duration;
+    if (is->buffering_on || is->paused)
+        return;
+
+    if (ffp->live_latency_skip_ms > 0 && live->latency_ms > ffp->live_latency_skip_ms) {
+        av_log(ffp, AV_LOG_INFO, "live-catchup: latency %"PRId64" ms, skip to the next key frame\n", live->latency_ms);
+        live->state = FFP_PROPV_LIVE_CATCHUP_SKIPPING;
+        return;
+    }
+
+    // the rate only moves the clock when audio drives it
+    if (get_master_sync_type(is) != AV_SYNC_AUDIO_MASTER)
+        return;
+
+    excess = live->latency_ms - ffp->live_latency_target_ms;
+    if (live->state == FFP_PROPV_LIVE_CATCHUP_IDLE) {
+        if (excess <= ffp->live_latency_tolerance_ms)
+            return;
+        av_log(ffp, AV_LOG_INFO, "live-catchup: latency %"PRId64" ms, speed up\n", live->latency_ms);
+        live->state = FFP_PROPV_LIVE_CATCHUP_SPEEDING;
+    }
+
+    rate = 1.0f;
+    if (excess > 0)
+        rate += (float)(ffp->live_catchup_max_rate - 1.0) * FFMIN(excess / (3.0 * ffp->live_latency_tolerance_ms), 1.0);
+    rate = av_clipf(rate, live->rate - LIVE_CATCHUP_RATE_STEP, live->rate + LIVE_CATCHUP_RATE_STEP);
+    if (rate < 1.0f + LIVE_CATCHUP_RATE_STEP / 10)
+        rate = 1.0f;
+    live_catchup_set_rate(ffp, rate);
+
+    if (excess <= 0 && live->rate == 1.0f) {
+        av_log(ffp, AV_LOG_INFO, "live-catchup: latency %"PRId64" ms, back to normal speed\n", live->latency_ms);
+        live->state = FFP_PROPV_LIVE_CATCHUP_IDLE;
+    }
+}
+
+/*
+ * While skipping, drops packets up to the next video key frame, then flushes
+ * the queues as a seek does and lets that key frame through.
+ *
+ * @return 1 if pkt has to be dropped
+ */
+static int live_catchup_drop_packet(FFPlayer *ffp, AVPacket *pkt)
+{
+    VideoState    *is   = ffp->is;
+    FFLiveCatchup *live = &ffp->live;
+
+    if (live->state != FFP_PROPV_LIVE_CATCHUP_SKIPPING)
+        return 0;
+    if (is->video_stream >= 0 && (pkt->stream_index != is->video_stream || !(pkt->flags & AV_PKT_FLAG_KEY)))
+        return 1;
+
+    if (is->audio_stream >= 0) {
+        packet_queue_flush(&is->audioq);
+        packet_queue_put(&is->audioq, &flush_pkt);
+    }
+    if (is->subtitle_stream >= 0) {
+        packet_queue_flush(&is->subtitleq);
+        packet_queue_put(&is->subtitleq, &flush_pkt);
+    }
+    if (is->video_stream >= 0) {
+        if (ffp->node_vdec) {
+            ffpipenode_flush(ffp->node_vdec);
+        }
+        packet_queue_flush(&is->videoq);
+        packet_queue_put(&is->videoq, &flush_pkt);
+    }
+    set_clock(&is->extclk, NAN, 0);
+
+    live->skip_count++;
+    live->state = FFP_PROPV_LIVE_CATCHUP_IDLE;
+    live_catchup_set_rate(ffp, 1.0f);
+    return 0;
+}
+
 static int stream_has_enough_packets(AVStream *st, int stream_id, PacketQueue *queue, int min_frames) {
     return stream_id < 0 ||
            queue->abort_request ||
@@ -3077,6 +3432,8 @@ static int read_thread(void *arg)
     int64_t prev_io_tick_counter = 0;
     int64_t io_tick_counter = 0;
     int init_ijkmeta = 0;
+    int probe_cache_hit = 0;
+    const char *probe_cache_key = NULL;
 
     if (!wait_mutex) {
         av_log(NULL, AV_LOG_FATAL, "SDL_CreateMutex(): %s\n", SDL_GetError());
@@ -3125,6 +3482,7 @@ static int read_thread(void *arg)
         ret = -1;
         goto fail;
     }
+    ffp_timeline_mark(ffp, open_input);
     ffp_notify_msg1(ffp, FFP_MSG_OPEN_INPUT);
 
     if (scan_all_pmts_set)
@@ -3150,11 +3508,20 @@ static int read_thread(void *arg)
     //orig_nb_streams = ic->nb_streams;
 
 
+    if (ffp->probe_cache_dir && *ffp->probe_cache_dir)
+        probe_cache_key = (ffp->probe_cache_key && *ffp->probe_cache_key) ? ffp->probe_cache_key : is->filename;
+
     if (ffp->find_stream_info) {
         AVDictionary **opts = setup_find_stream_info_opts(ic, ffp->codec_opts);
         int orig_nb_streams = ic->nb_streams;
 
         do {
+            if (probe_cache_key && ijkprobecache_restore(ffp->probe_cache_dir, probe_cache_key, ic) == 0) {
+                av_log(ffp, AV_LOG_INFO, "probe cache hit, skip avformat_find_stream_info\n");
+                probe_cache_hit = 1;
+                err = 0;
+                break;
+            }
             if (av_stristart(is->filename, "data:", NULL) && orig_nb_streams > 0) {
                 for (i = 0; i < orig_nb_streams; i++) {
                     if (!ic->streams[i] || !ic->streams[i]->codecpar || ic->streams[i]->codecpar->profile == FF_PROFILE_UNKNOWN) {
@@ -3167,7 +3534,10 @@ static int read_thread(void *arg)
                 }
             }
             err = avformat_find_stream_info(ic, opts);
+            if (err >= 0 && probe_cache_key)
+                ijkprobecache_store(ffp->probe_cache_dir, probe_cache_key, ic);
         } while(0);
+        ffp_timeline_mark(ffp, find_stream_info);
         ffp_notify_msg1(ffp, FFP_MSG_FIND_STREAM_INFO);
 
         for (i = 0; i < orig_nb_streams; i++)
@@ -3290,6 +3660,7 @@ static int read_thread(void *arg)
     if (st_index[AVMEDIA_TYPE_SUBTITLE] >= 0) {
         stream_component_open(ffp, st_index[AVMEDIA_TYPE_SUBTITLE]);
     }
+    ffp_timeline_mark(ffp, component_open);
     ffp_notify_msg1(ffp, FFP_MSG_COMPONENT_OPEN);
 
     if (!ffp->ijkmeta_delay_init) {
@@ -3307,6 +3678,8 @@ static int read_thread(void *arg)
     if (is->video_stream < 0 && is->audio_stream < 0) {
         av_log(NULL, AV_LOG_FATAL, "Failed to open file '%s' or configure filtergraph\n",
                is->filename);
+        if (probe_cache_hit)
+            ijkprobecache_remove(ffp->probe_cache_dir, probe_cache_key);
         ret = -1;
         goto fail;
     }
@@ -3331,6 +3704,7 @@ static int read_thread(void *arg)
         ffp_notify_msg3(ffp, FFP_MSG_SAR_CHANGED, codecpar->sample_aspect_ratio.num, codecpar->sample_aspect_ratio.den);
     }
     ffp->prepared = true;
+    ffp_timeline_mark(ffp, prepared);
     ffp_notify_msg1(ffp, FFP_MSG_PREPARED);
     if (!ffp->render_wait_start && !ffp->start_on_prepared) {
         while (is->pause_req && !is->abort_request) {
@@ -3460,7 +3834,7 @@ static int read_thread(void *arg)
         }
 
         /* if the queue are full, no need to read more */
-        if (ffp->infinite_buffer<1 && !is->seek_req &&
+        if ((ffp->infinite_buffer<1 && !is->seek_req &&
 #ifdef FFP_MERGE
               (is->audioq.size + is->videoq.size + is->subtitleq.size > MAX_QUEUE_SIZE
 #else
@@ -3468,10 +3842,14 @@ static int read_thread(void *arg)
 #endif
             || (   stream_has_enough_packets(is->audio_st, is->audio_stream, &is->audioq, MIN_FRAMES)
                 && stream_has_enough_packets(is->video_st, is->video_stream, &is->videoq, MIN_FRAMES)
-                && stream_has_enough_packets(is->subtitle_st, is->subtitle_stream, &is->subtitleq, MIN_FRAMES)))) {
+                && stream_has_enough_packets(is->subtitle_st, is->subtitle_stream, &is->subtitleq, MIN_FRAMES))))
+            || packet_queue_is_full(&is->audioq)
+            || packet_queue_is_full(&is->videoq)
+            || packet_queue_is_full(&is->subtitleq)) {
             if (!is->eof) {
                 ffp_toggle_buffering(ffp, 0);
             }
+            live_catchup_check(ffp);
             /* wait 10 ms */
             SDL_LockMutex(wait_mutex);
             SDL_CondWaitTimeout(is->continue_read_thread, wait_mutex, 10);
@@ -3567,6 +3945,7 @@ static int read_thread(void *arg)
             continue;
         } else {
             is->eof = 0;
+            ffp_timeline_mark(ffp, first_packet);
         }
 
         if (pkt->flags & AV_PKT_FLAG_DISCONTINUITY) {
@@ -3589,7 +3968,9 @@ static int read_thread(void *arg)
                 av_q2d(ic->streams[pkt->stream_index]->time_base) -
                 (double)(ffp->start_time != AV_NOPTS_VALUE ? ffp->start_time : 0) / 1000000
                 <= ((double)ffp->duration / 1000000);
-        if (pkt->stream_index == is->audio_stream && pkt_in_play_range) {
+        if (live_catchup_drop_packet(ffp, pkt)) {
+            av_packet_unref(pkt);
+        } else if (pkt->stream_index == is->audio_stream && pkt_in_play_range) {
             packet_queue_put(&is->audioq, pkt);
         } else if (pkt->stream_index == is->video_stream && pkt_in_play_range
                    && !(is->video_st && (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC))) {
@@ -3601,11 +3982,13 @@ static int read_thread(void *arg)
         }
 
         ffp_statistic_l(ffp);
+        live_catchup_check(ffp);
 
         if (ffp->ijkmeta_delay_init && !init_ijkmeta &&
                 (ffp->first_video_frame_rendered || !is->video_st) && (ffp->first_audio_frame_rendered || !is->audio_st)) {
             ijkmeta_set_avformat_context_l(ffp->meta, ic);
             init_ijkmeta = 1;
+            ffp_notify_msg1(ffp, FFP_MSG_METADATA_UPDATE);
         }
 
         if (ffp->packet_buffering) {
@@ -3667,9 +4050,9 @@ static VideoState *stream_open(FFPlayer *ffp, const char *filename, AVInputForma
     if (frame_queue_init(&is->sampq, &is->audioq, SAMPLE_QUEUE_SIZE, 1) < 0)
         goto fail;
 
-    if (packet_queue_init(&is->videoq) < 0 ||
-        packet_queue_init(&is->audioq) < 0 ||
-        packet_queue_init(&is->subtitleq) < 0)
+    if (packet_queue_init_ring(&is->videoq, ffp->packet_ring_size) < 0 ||
+        packet_queue_init_ring(&is->audioq, ffp->packet_ring_size) < 0 ||
+        packet_queue_init_ring(&is->subtitleq, ffp->packet_ring_size) < 0)
         goto fail;
 
     if (!(is->continue_read_thread = SDL_CreateCond())) {
@@ -3990,6 +4373,7 @@ FFPlayer *ffp_create()
     msg_queue_init(&ffp->msg_queue);
     ffp->af_mutex = SDL_CreateMutex();
     ffp->vf_mutex = SDL_CreateMutex();
+    ffp->las_statistic_mutex = SDL_CreateMutex();
 
     ffp_reset_internal(ffp);
     ffp->av_class = &ffp_context_class;
@@ -4019,6 +4403,7 @@ void ffp_destroy(FFPlayer *ffp)
 
     SDL_DestroyMutexP(&ffp->af_mutex);
     SDL_DestroyMutexP(&ffp->vf_mutex);
+    SDL_DestroyMutexP(&ffp->las_statistic_mutex);
 
     msg_queue_destroy(&ffp->msg_queue);
 
@@ -4035,6 +4420,36 @@ void ffp_destroy_p(FFPlayer **pffp)
     *pffp = NULL;
 }
 
+/*
+ * reset to the state right after ffp_create() plus platform setup,
+ * keep vout/aout/pipeline and inject opaques for next ffp_prepare_async_l()
+ * must be called after ffp_wait_stop_l()
+ */
+void ffp_reset(FFPlayer *ffp)
+{
+    if (!ffp)
+        return;
+
+    assert(!ffp->is);
+
+    SDL_Aout       *aout                = ffp->aout;
+    SDL_Vout       *vout                = ffp->vout;
+    IJKFF_Pipeline *pipeline            = ffp->pipeline;
+    void           *inject_opaque       = ffp->inject_opaque;
+    void           *ijkio_inject_opaque = ffp->ijkio_inject_opaque;
+
+    ffpipenode_free_p(&ffp->node_vdec);
+    ffp_reset_internal(ffp);
+
+    ffp->aout                = aout;
+    ffp->vout                = vout;
+    ffp->pipeline            = pipeline;
+    ffp->inject_opaque       = inject_opaque;
+    ffp->ijkio_inject_opaque = ijkio_inject_opaque;
+
+    av_opt_set_defaults(ffp);
+}
+
 static AVDictionary **ffp_get_opt_dict(FFPlayer *ffp, int opt_category)
 {
     assert(ffp);
@@ -4057,6 +4472,23 @@ static int app_func_event(AVApplicationContext *h, int message ,void *data, size
         return 0;
 
     FFPlayer *ffp = (FFPlayer *)h->opaque;
+    switch (message) {
+        case AVAPP_EVENT_WILL_HTTP_OPEN:
+            ffp_timeline_mark(ffp, http_open);
+            break;
+        case AVAPP_CTRL_WILL_TCP_OPEN:
+            ffp_timeline_mark(ffp, tcp_connect);
+            break;
+        case AVAPP_CTRL_DID_TCP_OPEN:
+            if (sizeof(AVAppTcpIOControl) == size && !((AVAppTcpIOControl *)data)->error)
+                ffp_timeline_mark(ffp, tcp_connected);
+            break;
+        case AVAPP_EVENT_DID_HTTP_OPEN:
+            if (sizeof(AVAppHttpEvent) == size && !((AVAppHttpEvent *)data)->error)
+                ffp_timeline_mark(ffp, http_opened);
+            break;
+    }
+
     if (!ffp->inject_opaque)
         return 0;
     if (message == AVAPP_EVENT_IO_TRAFFIC && sizeof(AVAppIOTraffic) == size) {
@@ -4309,6 +4741,16 @@ int ffp_prepare_async_l(FFPlayer *ffp, const char *file_name)
     }
 #endif
 
+    ijksegment_prefetcher_destroyp(&ffp->segment_prefetcher);
+    av_dict_set(&ffp->format_opts, "ijksegment-prefetcher", NULL, 0);
+    if (ffp->segment_prefetch_count > 0 &&
+        ijksegment_prefetcher_create(&ffp->segment_prefetcher, ffp->segment_prefetch_count,
+                                     ffp->segment_prefetch_size, ffp->segment_prefetch_max_rate) == 0)
+        ffp_set_option_intptr(ffp, FFP_OPT_CATEGORY_FORMAT, "ijksegment-prefetcher", (uintptr_t)ffp->segment_prefetcher);
+
+    // no thread of the previous session is left to mark a stage
+    memset(&ffp->timeline, 0, sizeof(ffp->timeline));
+    __atomic_store_n(&ffp->timeline.prepare, SDL_GetTickHR(), memory_order_seq_cst);
     VideoState *is = stream_open(ffp, file_name, NULL);
     if (!is) {
         av_log(NULL, AV_LOG_WARNING, "ffp_prepare_async_l: stream_open failed OOM");
@@ -4908,6 +5350,8 @@ float ffp_get_property_float(FFPlayer *ffp, int id, float default_value)
             return ffp ? ffp->pf_playback_volume : default_value;
         case FFP_PROP_FLOAT_DROP_FRAME_RATE:
             return ffp ? ffp->stat.drop_frame_rate : default_value;
+        case FFP_PROP_FLOAT_LIVE_CATCHUP_RATE:
+            return ffp ? ffp->live.rate : default_value;
         default:
             return default_value;
     }
@@ -4927,6 +5371,16 @@ void ffp_set_property_float(FFPlayer *ffp, int id, float value)
     }
 }
 
+static int64_t ffp_timeline_elapsed(FFPlayer *ffp, int64_t *stage, int64_t default_value)
+{
+    int64_t prepare = __atomic_load_n(&ffp->timeline.prepare, memory_order_seq_cst);
+    int64_t tick    = __atomic_load_n(stage, memory_order_seq_cst);
+
+    if (!tick || !prepare)
+        return default_value;
+    return tick - prepare;
+}
+
 int64_t ffp_get_property_int64(FFPlayer *ffp, int id, int64_t default_value)
 {
     switch (id) {
@@ -5013,6 +5467,38 @@ int64_t ffp_get_property_int64(FFPlayer *ffp, int id, int64_t default_value)
             if (!ffp)
                 return default_value;
             return ffp->stat.logical_file_size;
+        case FFP_PROP_INT64_STARTUP_HTTP_OPEN:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.http_open, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_TCP_CONNECT:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.tcp_connect, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_TCP_CONNECTED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.tcp_connected, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_HTTP_OPENED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.http_opened, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_OPEN_INPUT:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.open_input, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_FIND_STREAM_INFO:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.find_stream_info, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_COMPONENT_OPEN:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.component_open, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_PREPARED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.prepared, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_FIRST_PACKET:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.first_packet, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_VIDEO_DECODED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.video_decoded, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_AUDIO_DECODED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.audio_decoded, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_VIDEO_RENDERED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.video_rendered, default_value) : default_value;
+        case FFP_PROP_INT64_STARTUP_AUDIO_RENDERED:
+            return ffp ? ffp_timeline_elapsed(ffp, &ffp->timeline.audio_rendered, default_value) : default_value;
+        case FFP_PROP_INT64_LIVE_CATCHUP_STATE:
+            return ffp ? ffp->live.state : default_value;
+        case FFP_PROP_INT64_LIVE_LATENCY:
+            return ffp ? ffp->live.latency_ms : default_value;
+        case FFP_PROP_INT64_LIVE_CATCHUP_SKIP_COUNT:
+            return ffp ? ffp->live.skip_count : default_value;
         default:
             return default_value;
     }
@@ -5048,3 +5534,18 @@ IjkMediaMeta *ffp_get_meta_l(FFPlayer *ffp)
 
     return ffp->meta;
 }
+
+int ffp_get_las_statistic(FFPlayer *ffp, LasStatistic *stat)
+{
+    int ret = -1;
+
+    if (!ffp)
+        return -1;
+
+    // stream_close() does not take mp->mutex
+    SDL_LockMutex(ffp->las_statistic_mutex);
+    if (ffp->is && ffp->is->ic)
+        ret = las_get_statistic(ffp->is->ic, stat);
+    SDL_UnlockMutex(ffp->las_statistic_mutex);
+    return ret;
+}
@@ -119,4 +119,8 @@ void      ffp_set_property_int64(FFPlayer *ffp, int id, int64_t value);
 // must be freed with free();
 struct IjkMediaMeta *ffp_get_meta_l(FFPlayer *ffp);
 
+// @return -1 if the current input is not played by ijklas
+struct LasStatistic;
+int       ffp_get_las_statistic(FFPlayer *ffp, struct LasStatistic *stat);
+
 #endif
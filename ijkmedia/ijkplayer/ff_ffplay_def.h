@@ -61,6 +61,7 @@
 #include <stdbool.h>
 #include "ijkavformat/ijkiomanager.h"
 #include "ijkavformat/ijkioapplication.h"
+#include "ijkavformat/ijksegmentprefetch.h"
 #include "ff_ffinc.h"
 #include "ff_ffmsg_queue.h"
 #include "ff_ffpipenode.h"
@@ -177,8 +178,29 @@ typedef struct PacketQueue {
     int alloc_count;
 
     int is_buffer_indicator;
+
+    /*
+     * Bounded single producer single consumer ring, replaces first_pkt and
+     * recycle_pkt when allocated. read_thread is the producer, the decoder the
+     * consumer; flush and start exclude both, mutex and cond are only taken to
+     * block on an empty or full ring.
+     */
+    MyAVPacketList *ring;
+    unsigned int ring_capacity;     // power of 2
+    unsigned int ring_head;         // next slot to get, moved by the consumer
+    unsigned int ring_tail;         // next slot to put, moved by the producer
+    int ring_producing;
+    int ring_consuming;
+    int ring_exclusive;
+    int ring_producer_waiting;
+    int ring_consumer_waiting;
 } PacketQueue;
 
+#define PACKET_RING_MIN_SIZE    16
+#define PACKET_RING_MAX_SIZE    65536
+// read_thread stops reading this many slots before a ring is full
+#define PACKET_RING_HEADROOM    4
+
 // #define VIDEO_PICTURE_QUEUE_SIZE 3
 #define VIDEO_PICTURE_QUEUE_SIZE_MIN        (3)
 #define VIDEO_PICTURE_QUEUE_SIZE_MAX        (16)
@@ -525,6 +547,30 @@ inline static void ffp_reset_statistic(FFStatistic *dcc)
     SDL_SpeedSampler2Reset(&dcc->tcp_read_sampler, FFP_TCP_READ_SAMPLE_RANGE);
 }
 
+/*
+ * SDL_GetTickHR() of the first occurrence of each startup stage, 0 until reached.
+ * Reported relative to prepare by FFP_PROP_INT64_STARTUP_xxx.
+ * Marked from the read, decoder, render and network threads and read by
+ * property getters, only accessed atomically, see ffp_timeline_mark().
+ */
+typedef struct FFStartupTimeline
+{
+    int64_t prepare;
+    int64_t http_open;          // AVAPP_EVENT_WILL_HTTP_OPEN
+    int64_t tcp_connect;        // AVAPP_CTRL_WILL_TCP_OPEN, after the host lookup
+    int64_t tcp_connected;      // AVAPP_CTRL_DID_TCP_OPEN
+    int64_t http_opened;        // AVAPP_EVENT_DID_HTTP_OPEN
+    int64_t open_input;         // avformat_open_input() returned
+    int64_t find_stream_info;   // avformat_find_stream_info() returned
+    int64_t component_open;     // decoders opened
+    int64_t prepared;
+    int64_t first_packet;
+    int64_t video_decoded;
+    int64_t audio_decoded;
+    int64_t video_rendered;
+    int64_t audio_rendered;
+} FFStartupTimeline;
+
 typedef struct FFDemuxCacheControl
 {
     int min_frames;
@@ -549,6 +595,27 @@ inline static void ffp_reset_demux_cache_control(FFDemuxCacheControl *dcc)
     dcc->current_high_water_mark_in_ms  = DEFAULT_FIRST_HIGH_WATER_MARK_IN_MS;
 }
 
+/*
+ * Live catch-up controller, driven by read_thread.
+ *
+ * latency_ms is the buffered duration of the master stream. Above target +
+ * tolerance, rate ramps towards 1 + (max_rate - 1) * excess / (3 * tolerance)
+ * by at most LIVE_CATCHUP_RATE_STEP per check, and back to 1.0 once latency
+ * is down to target. Above skip_ms, packets are dropped up to the next video
+ * key frame and the queues are flushed like a seek.
+ */
+#define LIVE_CATCHUP_CHECK_INTERVAL_MS  200
+#define LIVE_CATCHUP_RATE_STEP          0.05f
+
+typedef struct FFLiveCatchup
+{
+    int     state;              // FFP_PROPV_LIVE_CATCHUP_xxx
+    float   rate;
+    int64_t latency_ms;
+    int64_t skip_count;
+    int64_t last_check_tick;
+} FFLiveCatchup;
+
 /* ffplayer */
 struct IjkMediaMeta;
 struct IJKFF_Pipeline;
@@ -660,6 +727,7 @@ typedef struct FFPlayer {
     int64_t playable_duration_ms;
 
     int packet_buffering;
+    int packet_ring_size;
     int pictq_size;
     int max_fps;
     int startup_volume;
@@ -682,15 +750,30 @@ typedef struct FFPlayer {
     int soundtouch_enable;
 
     char *iformat_name;
+    char *probe_cache_dir;
+    char *probe_cache_key;
+
+    int segment_prefetch_count;
+    int64_t segment_prefetch_size;
+    int64_t segment_prefetch_max_rate;
 
     int no_time_adjust;
     double preset_5_1_center_mix_level;
 
+    int live_catchup;
+    int live_latency_target_ms;
+    int live_latency_tolerance_ms;
+    int live_latency_skip_ms;
+    double live_catchup_max_rate;
+
     struct IjkMediaMeta *meta;
 
     SDL_SpeedSampler vfps_sampler;
     SDL_SpeedSampler vdps_sampler;
 
+    /* guards is and is->ic against stream_close() for ffp_get_las_statistic() */
+    SDL_mutex  *las_statistic_mutex;
+
     /* filters */
     SDL_mutex  *vf_mutex;
     SDL_mutex  *af_mutex;
@@ -704,10 +787,13 @@ typedef struct FFPlayer {
     void               *inject_opaque;
     void               *ijkio_inject_opaque;
     FFStatistic         stat;
+    FFStartupTimeline   timeline;
     FFDemuxCacheControl dcc;
+    FFLiveCatchup       live;
 
     AVApplicationContext *app_ctx;
     IjkIOManagerContext *ijkio_manager_ctx;
+    IjkSegmentPrefetcher *segment_prefetcher;
 
     int enable_accurate_seek;
     int accurate_seek_timeout;
@@ -720,6 +806,7 @@ typedef struct FFPlayer {
     char *mediacodec_default_name;
     int ijkmeta_delay_init;
     int render_wait_start;
+    int max_speed;
 } FFPlayer;
 
 #define fftime_to_milliseconds(ts) (av_rescale(ts, 1000, AV_TIME_BASE))
@@ -803,6 +890,7 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->playable_duration_ms           = 0;
 
     ffp->packet_buffering               = 1;
+    ffp->packet_ring_size               = 0; // option
     ffp->pictq_size                     = VIDEO_PICTURE_QUEUE_SIZE_DEFAULT; // option
     ffp->max_fps                        = 31; // option
 
@@ -823,13 +911,25 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->soundtouch_enable              = 0; // option
 
     ffp->iformat_name                   = NULL; // option
+    ffp->probe_cache_dir                = NULL; // option
+    ffp->probe_cache_key                = NULL; // option
+
+    ffp->segment_prefetch_count         = 0; // option
+    ffp->segment_prefetch_size          = IJKSEGMENT_PREFETCH_DEFAULT_SIZE; // option
+    ffp->segment_prefetch_max_rate      = 0; // option
 
     ffp->no_time_adjust                 = 0; // option
+    ffp->live_catchup                   = 0; // option
+    ffp->live_latency_target_ms         = 3000; // option
+    ffp->live_latency_tolerance_ms      = 1000; // option
+    ffp->live_latency_skip_ms           = 10000; // option
+    ffp->live_catchup_max_rate          = 1.5; // option
     ffp->async_init_decoder             = 0; // option
     ffp->video_mime_type                = NULL; // option
     ffp->mediacodec_default_name        = NULL; // option
     ffp->ijkmeta_delay_init             = 0; // option
     ffp->render_wait_start              = 0;
+    ffp->max_speed                      = 0; // option
 
     ijkmeta_reset(ffp->meta);
 
@@ -844,6 +944,7 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->pf_playback_volume             = 1.0f;
     ffp->pf_playback_volume_changed     = 0;
 
+    ijksegment_prefetcher_destroyp(&ffp->segment_prefetcher);
     av_application_closep(&ffp->app_ctx);
     ijkio_manager_destroyp(&ffp->ijkio_manager_ctx);
 
@@ -852,7 +953,10 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->inject_opaque = NULL;
     ffp->ijkio_inject_opaque = NULL;
     ffp_reset_statistic(&ffp->stat);
+    memset(&ffp->timeline, 0, sizeof(ffp->timeline));
     ffp_reset_demux_cache_control(&ffp->dcc);
+    memset(&ffp->live, 0, sizeof(ffp->live));
+    ffp->live.rate = 1.0f;
 }
 
 inline static void ffp_notify_msg1(FFPlayer *ffp, int what) {
@@ -143,10 +143,32 @@ static const AVOption ffp_context_options[] = {
 
     { "packet-buffering",                   "pause output until enough packets have been read after stalling",
         OPTION_OFFSET(packet_buffering),    OPTION_INT(1, 0, 1) },
+    { "live-catchup",                       "hold live latency by speeding up playback or skipping to a key frame, overrides the playback rate",
+        OPTION_OFFSET(live_catchup),        OPTION_INT(0, 0, 1) },
+    { "live-latency-target-ms",             "buffered duration live catch-up aims at",
+        OPTION_OFFSET(live_latency_target_ms),      OPTION_INT(3000, 0, 60000) },
+    { "live-latency-tolerance-ms",          "buffered duration above the target before speeding up",
+        OPTION_OFFSET(live_latency_tolerance_ms),   OPTION_INT(1000, 100, 60000) },
+    { "live-latency-skip-ms",               "buffered duration skipped to the next key frame, 0 to never skip",
+        OPTION_OFFSET(live_latency_skip_ms),        OPTION_INT(10000, 0, 600000) },
+    { "live-catchup-max-rate",              "playback rate while catching up at the largest excess",
+        OPTION_OFFSET(live_catchup_max_rate),       OPTION_DOUBLE(1.5, 1.0, 2.0) },
+    { "packet-ring-size",                   "packets per lock-free packet queue, 0 for the locked list",
+        OPTION_OFFSET(packet_ring_size),    OPTION_INT(0, 0, PACKET_RING_MAX_SIZE) },
     { "sync-av-start",                      "synchronise a/v start time",
         OPTION_OFFSET(sync_av_start),       OPTION_INT(1, 0, 1) },
     { "iformat",                            "force format",
         OPTION_OFFSET(iformat_name),        OPTION_STR(NULL) },
+    { "probe-cache-dir",                    "reuse find_stream_info results stored in this directory, for mp4/mov only",
+        OPTION_OFFSET(probe_cache_dir),     OPTION_STR(NULL) },
+    { "probe-cache-key",                    "key of the probe cache entry, url by default",
+        OPTION_OFFSET(probe_cache_key),     OPTION_STR(NULL) },
+    { "segment-prefetch-count",             "concat segments opened and buffered ahead, 0 to disable",
+        OPTION_OFFSET(segment_prefetch_count),      OPTION_INT(0, 0, IJKSEGMENT_PREFETCH_MAX_COUNT) },
+    { "segment-prefetch-size",              "bytes buffered per prefetched segment",
+        OPTION_OFFSET(segment_prefetch_size),       OPTION_INT64(IJKSEGMENT_PREFETCH_DEFAULT_SIZE, 0, INT64_MAX) },
+    { "segment-prefetch-max-rate",          "bytes per second spent on prefetching segments, 0 for no limit",
+        OPTION_OFFSET(segment_prefetch_max_rate),   OPTION_INT64(0, 0, INT64_MAX) },
     { "no-time-adjust",                     "return player's real time from the media stream instead of the adjusted time",
         OPTION_OFFSET(no_time_adjust),      OPTION_INT(0, 0, 1) },
     { "preset-5-1-center-mix-level",        "preset center-mix-level for 5.1 channel",
@@ -206,6 +228,8 @@ static const AVOption ffp_context_options[] = {
         OPTION_OFFSET(ijkmeta_delay_init),      OPTION_INT(0, 0, 1) },
     { "render-wait-start",          "render wait start",
         OPTION_OFFSET(render_wait_start),      OPTION_INT(0, 0, 1) },
+    { "max-speed",                  "consume frames as soon as decoded, ignoring presentation time (benchmark)",
+        OPTION_OFFSET(max_speed),              OPTION_INT(0, 0, 1) },
     { NULL }
 };
 
@@ -40,12 +40,17 @@
 #include <stdint.h>
 
 #include "libavutil/application.h"
+#include "ijkavformat.h"
 
 #if HAVE_UNISTD_H
 #include <unistd.h>
 #endif
 
 #define SHORT_SEEK_THRESHOLD    (256 * 1024)
+#define ADAPT_INTERVAL_US       (1000 * 1000)
+
+// set by the app, adaptive rings shrink while it is non-zero
+static volatile int g_async_low_memory = 0;
 
 typedef struct RingBuffer
 {
@@ -81,9 +86,20 @@ typedef struct Context {
     int             abort_request;
     AVIOInterruptCB interrupt_callback;
 
+    /* async-adaptive-capacity, ring size follows the consumed byte rate */
+    int64_t         cur_forwards_capacity;
+    int64_t         cur_backwards_capacity;
+    int64_t         consumed_bytes;
+    int64_t         byte_rate;
+    int64_t         adapt_time;
+
     /* options */
     int64_t         forwards_capacity;
     int64_t         backwards_capacity;
+    int             adaptive_capacity;
+    int64_t         target_buffer_ms;
+    int64_t         min_capacity;
+    int64_t         max_capacity;
     char *          app_ctx_intptr;
     AVApplicationContext *app_ctx;
 } Context;
@@ -142,6 +158,39 @@ static int ring_generic_write(RingBuffer *ring, void *src, int size, int (*func)
     return av_fifo_generic_write(ring->fifo, src, size, func);
 }
 
+static void fifo_write_func(void *dest, void *src, int size)
+{
+    av_fifo_generic_write(dest, src, size, NULL);
+}
+
+/*
+ * Moves the buffered data into a fifo of the new size, read back data that
+ * does not fit is dropped.
+ * @return AVERROR(EAGAIN) if the unread data does not fit yet
+ */
+static int ring_resize(RingBuffer *ring, int64_t capacity, int64_t read_back_capacity)
+{
+    AVFifoBuffer *fifo = NULL;
+    int           drop = FFMAX(ring->read_pos - (int)read_back_capacity, 0);
+    int           size = av_fifo_size(ring->fifo) - drop;
+
+    if (size > capacity + read_back_capacity)
+        return AVERROR(EAGAIN);
+
+    fifo = av_fifo_alloc((unsigned int)(capacity + read_back_capacity));
+    if (!fifo)
+        return AVERROR(ENOMEM);
+
+    av_fifo_drain(ring->fifo, drop);
+    av_fifo_generic_read(ring->fifo, fifo, size, fifo_write_func);
+    av_fifo_freep(&ring->fifo);
+
+    ring->fifo               = fifo;
+    ring->read_pos          -= drop;
+    ring->read_back_capacity = (int)read_back_capacity;
+    return 0;
+}
+
 static int ring_size_of_read_back(RingBuffer *ring)
 {
     return ring->read_pos;
@@ -190,7 +239,7 @@ static void call_inject_statistic(URLContext *h)
         statistic.size = sizeof(statistic);
         statistic.buf_forwards  = ring_size(&c->ring);
         statistic.buf_backwards = ring_size_of_read_back(&c->ring);
-        statistic.buf_capacity  = c->forwards_capacity + c->backwards_capacity;
+        statistic.buf_capacity  = c->cur_forwards_capacity + c->cur_backwards_capacity;
         av_application_on_async_statistic(c->app_ctx, &statistic);
     }
 }
@@ -210,6 +259,57 @@ static void call_inject_async_fill_speed(URLContext *h, int is_full_speed, int64
     }
 }
 
+/*
+ * Sizes the ring for target_buffer_ms of the rate the reader consumed, only
+ * called by the buffer thread with mutex held, as it writes to the fifo
+ * without the lock.
+ */
+static void async_adapt_capacity(URLContext *h)
+{
+    Context *c         = h->priv_data;
+    int64_t  now       = av_gettime_relative();
+    int64_t  elapsed   = now - c->adapt_time;
+    int64_t  forwards  = 0;
+    int64_t  backwards = 0;
+    int      ret       = 0;
+
+    if (!c->adaptive_capacity || elapsed < ADAPT_INTERVAL_US)
+        return;
+
+    // a paused reader consumes nothing, keep the last rate
+    if (c->consumed_bytes > 0) {
+        int64_t rate = c->consumed_bytes * 1000000 / elapsed;
+        c->byte_rate = c->byte_rate > 0 ? (c->byte_rate * 3 + rate) / 4 : rate;
+    }
+    c->consumed_bytes = 0;
+    c->adapt_time     = now;
+    if (c->byte_rate <= 0 && !g_async_low_memory)
+        return;
+
+    forwards  = c->byte_rate * c->target_buffer_ms / 1000;
+    backwards = c->backwards_capacity;
+    if (g_async_low_memory) {
+        forwards  /= 4;
+        backwards  = FFMIN(backwards, c->min_capacity);
+    }
+    forwards = av_clip64(forwards, c->min_capacity, c->max_capacity);
+
+    // grow early, shrink late, each resize copies the buffered data
+    if (backwards == c->cur_backwards_capacity &&
+        forwards <= c->cur_forwards_capacity + c->cur_forwards_capacity / 4 &&
+        forwards >= c->cur_forwards_capacity / 2)
+        return;
+
+    ret = ring_resize(&c->ring, forwards, backwards);
+    if (ret < 0)
+        return;
+
+    av_log(h, AV_LOG_DEBUG, "async capacity %"PRId64" -> %"PRId64", byte rate %"PRId64"\n",
+           c->cur_forwards_capacity, forwards, c->byte_rate);
+    c->cur_forwards_capacity  = forwards;
+    c->cur_backwards_capacity = backwards;
+}
+
 static void *async_buffer_task(void *arg)
 {
     URLContext   *h    = arg;
@@ -256,10 +356,21 @@ static void *async_buffer_task(void *arg)
             continue;
         }
 
+        async_adapt_capacity(h);
+
         fifo_space = ring_space(ring);
         if (c->io_eof_reached || fifo_space <= 0) {
             pthread_cond_signal(&c->cond_wakeup_main);
-            pthread_cond_wait(&c->cond_wakeup_background, &c->mutex);
+            if (c->adaptive_capacity) {
+                // wake up to adapt even if the reader is paused
+                struct timespec ts;
+                int64_t wakeup_us = av_gettime() + ADAPT_INTERVAL_US;
+                ts.tv_sec  = wakeup_us / 1000000;
+                ts.tv_nsec = (wakeup_us % 1000000) * 1000;
+                pthread_cond_timedwait(&c->cond_wakeup_background, &c->mutex, &ts);
+            } else {
+                pthread_cond_wait(&c->cond_wakeup_background, &c->mutex);
+            }
             pthread_mutex_unlock(&c->mutex);
             is_full_speed = 0;
             continue;
@@ -270,7 +381,7 @@ static void *async_buffer_task(void *arg)
         ret = ring_generic_write(ring, (void *)h, to_copy, (void *)wrapped_url_read);
         if (ret > 0) {
             count_bytes += ret;
-            if (count_bytes > FFMIN((1 * 1024 * 1024), c->forwards_capacity)) {
+            if (count_bytes > FFMIN((1 * 1024 * 1024), c->cur_forwards_capacity)) {
                 int64_t now = av_gettime_relative();
                 call_inject_async_fill_speed(h, is_full_speed, count_bytes, now - count_start_time_micro);
                 is_full_speed = 1;
@@ -303,7 +414,15 @@ static int async_open(URLContext *h, const char *arg, int flags, AVDictionary **
 
     av_strstart(arg, "async:", &arg);
 
-    ret = ring_init(&c->ring, c->forwards_capacity, c->backwards_capacity);
+    c->cur_forwards_capacity  = c->forwards_capacity;
+    c->cur_backwards_capacity = c->backwards_capacity;
+    if (c->adaptive_capacity) {
+        c->max_capacity          = FFMAX(c->max_capacity, c->min_capacity);
+        c->cur_forwards_capacity = av_clip64(c->forwards_capacity, c->min_capacity, c->max_capacity);
+        c->adapt_time            = av_gettime_relative();
+    }
+
+    ret = ring_init(&c->ring, c->cur_forwards_capacity, c->cur_backwards_capacity);
     if (ret < 0)
         goto fifo_fail;
 
@@ -408,6 +527,7 @@ static int async_read_internal(URLContext *h, void *dest, int size, int read_com
             if (!func)
                 dest = (uint8_t *)dest + to_copy;
             c->logical_pos += to_copy;
+            c->consumed_bytes += to_copy;
             to_read        -= to_copy;
             ret             = size - to_read;
 
@@ -466,10 +586,13 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
     if (new_logical_pos < 0)
         return AVERROR(EINVAL);
 
+    // the buffer thread may replace the fifo while adapting its capacity
+    pthread_mutex_lock(&c->mutex);
     fifo_size = ring_size(ring);
     fifo_size_of_read_back = ring_size_of_read_back(ring);
     if (new_logical_pos == c->logical_pos) {
         /* current position */
+        pthread_mutex_unlock(&c->mutex);
         return c->logical_pos;
     } else if ((new_logical_pos >= (c->logical_pos - fifo_size_of_read_back)) &&
                (new_logical_pos < (c->logical_pos + fifo_size + SHORT_SEEK_THRESHOLD))) {
@@ -481,25 +604,27 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
 
         if (pos_delta > 0) {
             // fast seek forwards
+            pthread_mutex_unlock(&c->mutex);
             async_read_internal(h, NULL, pos_delta, 1, fifo_do_not_copy_func);
         } else {
             // fast seek backwards
             ring_drain(ring, pos_delta);
-            call_inject_statistic(h);
             c->logical_pos = new_logical_pos;
+            pthread_mutex_unlock(&c->mutex);
+            call_inject_statistic(h);
         }
 
         return c->logical_pos;
     } else if (c->logical_size <= 0) {
         /* can not seek */
+        pthread_mutex_unlock(&c->mutex);
         return AVERROR(EINVAL);
     } else if (new_logical_pos > c->logical_size) {
         /* beyond end */
+        pthread_mutex_unlock(&c->mutex);
         return AVERROR(EINVAL);
     }
 
-    pthread_mutex_lock(&c->mutex);
-
     c->seek_request   = 1;
     c->seek_pos       = new_logical_pos;
     c->seek_whence    = SEEK_SET;
@@ -527,6 +652,11 @@ static int64_t async_seek(URLContext *h, int64_t pos, int whence)
     return ret;
 }
 
+void ijkav_async_set_low_memory(int low_memory)
+{
+    g_async_low_memory = low_memory;
+}
+
 #define OFFSET(x) offsetof(Context, x)
 #define D AV_OPT_FLAG_DECODING_PARAM
 
@@ -535,6 +665,14 @@ static const AVOption options[] = {
         OFFSET(forwards_capacity),  AV_OPT_TYPE_INT64, {.i64 = 128 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
     { "async-backwards-capacity",   "max bytes that may be seek backward without seeking in inner protocol",
         OFFSET(backwards_capacity), AV_OPT_TYPE_INT64, {.i64 = 128 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
+    { "async-adaptive-capacity",    "size forward capacity from the consumed byte rate",
+        OFFSET(adaptive_capacity),  AV_OPT_TYPE_INT, {.i64 = 0}, 0, 1, D },
+    { "async-target-buffer-ms",     "duration of data buffered forward with async-adaptive-capacity",
+        OFFSET(target_buffer_ms),   AV_OPT_TYPE_INT64, {.i64 = 10 * 1000}, 500, 10 * 60 * 1000, D },
+    { "async-min-capacity",         "min forward capacity with async-adaptive-capacity",
+        OFFSET(min_capacity),       AV_OPT_TYPE_INT64, {.i64 = 128 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
+    { "async-max-capacity",         "max forward capacity with async-adaptive-capacity",
+        OFFSET(max_capacity),       AV_OPT_TYPE_INT64, {.i64 = 32 * 1024 * 1024}, 128 * 1024, 128 * 1024 * 1024, D },
     { "ijkapplication", "AVApplicationContext", OFFSET(app_ctx_intptr), AV_OPT_TYPE_STRING, { .str = 0 }, 0, 0, .flags = D },
     {NULL},
 };
@@ -27,4 +27,7 @@
 
 #define AV_PKT_FLAG_DISCONTINUITY 0x0100
 
+// shrinks the rings of async protocols opened with "async-adaptive-capacity"
+void ijkav_async_set_low_memory(int low_memory);
+
 #endif
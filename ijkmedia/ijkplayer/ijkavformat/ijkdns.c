@@ -0,0 +1,369 @@
+/*
+ * ijkdns.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkdns.h"
+
+#include <errno.h>
+#include <pthread.h>
+#include <string.h>
+#include <sys/time.h>
+#include <sys/types.h>
+#include <sys/socket.h>
+#include <arpa/inet.h>
+#include <netdb.h>
+#include "libavutil/avstring.h"
+#include "libavutil/common.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/time.h"
+#include "ijkplayer/ijkavutil/ijkthreadpool.h"
+
+#define IJKDNS_MAX_ENTRIES          64
+#define IJKDNS_NEGATIVE_TTL_MS      (5 * 1000)
+#define IJKDNS_WORKERS              2
+#define IJKDNS_QUEUE_SIZE           64
+#define IJKDNS_WAIT_SLICE_MS        100
+
+typedef enum IjkDnsState {
+    IJKDNS_STATE_EMPTY = 0,
+    IJKDNS_STATE_PENDING,
+    IJKDNS_STATE_RESOLVED,
+    IJKDNS_STATE_FAILED,
+} IjkDnsState;
+
+typedef struct IjkDnsEntry {
+    char        host[256];
+    char        ip[INET6_ADDRSTRLEN];
+    IjkDnsState state;
+    int         error;
+    int         redirecting;
+    int64_t     expire_time;
+    int64_t     last_used;
+} IjkDnsEntry;
+
+static struct {
+    pthread_mutex_t       mutex;
+    pthread_cond_t        cond;
+    IjkDnsEntry           entries[IJKDNS_MAX_ENTRIES];
+    IjkThreadPoolContext *pool;
+    IjkDnsResolver        resolver;
+    void                 *resolver_opaque;
+    int64_t               ttl_us;
+    int64_t               lookup_timeout_us;
+} g_dns = {
+    .mutex             = PTHREAD_MUTEX_INITIALIZER,
+    .cond              = PTHREAD_COND_INITIALIZER,
+    .ttl_us            = IJKDNS_DEFAULT_TTL_MS * 1000LL,
+    .lookup_timeout_us = IJKDNS_DEFAULT_LOOKUP_TIMEOUT_MS * 1000LL,
+};
+
+static int dns_getaddrinfo(void *opaque, const char *host, char *ip, size_t ip_size)
+{
+    struct addrinfo  hints = {0};
+    struct addrinfo *ai    = NULL;
+    int              ret;
+
+    hints.ai_family   = AF_UNSPEC;
+    hints.ai_socktype = SOCK_STREAM;
+    ret = getaddrinfo(host, NULL, &hints, &ai);
+    if (ret) {
+        av_log(NULL, AV_LOG_WARNING, "ijkdns: getaddrinfo(%s): %s\n", host, gai_strerror(ret));
+        return AVERROR(EIO);
+    }
+
+    ret = getnameinfo(ai->ai_addr, ai->ai_addrlen, ip, (socklen_t) ip_size, NULL, 0, NI_NUMERICHOST);
+    freeaddrinfo(ai);
+    return ret ? AVERROR(EIO) : 0;
+}
+
+static int is_numeric_host(const char *host)
+{
+    struct in6_addr addr;
+    return inet_pton(AF_INET, host, &addr) == 1 || inet_pton(AF_INET6, host, &addr) == 1;
+}
+
+static IjkDnsEntry *find_entry_l(const char *host)
+{
+    int i;
+    for (i = 0; i < IJKDNS_MAX_ENTRIES; ++i) {
+        IjkDnsEntry *entry = &g_dns.entries[i];
+        if (entry->state != IJKDNS_STATE_EMPTY && !strcmp(entry->host, host))
+            return entry;
+    }
+    return NULL;
+}
+
+// reuses an empty slot, or the least recently used finished or given up one
+static IjkDnsEntry *alloc_entry_l(const char *host)
+{
+    IjkDnsEntry *victim = NULL;
+    int64_t      now    = av_gettime_relative();
+    int          i;
+
+    for (i = 0; i < IJKDNS_MAX_ENTRIES; ++i) {
+        IjkDnsEntry *entry = &g_dns.entries[i];
+        if (entry->state == IJKDNS_STATE_EMPTY) {
+            victim = entry;
+            break;
+        }
+        if ((entry->state != IJKDNS_STATE_PENDING || entry->expire_time <= now) &&
+            (!victim || entry->last_used < victim->last_used))
+            victim = entry;
+    }
+    if (!victim)
+        return NULL;
+
+    memset(victim, 0, sizeof(*victim));
+    av_strlcpy(victim->host, host, sizeof(victim->host));
+    return victim;
+}
+
+static void dns_task(void *in_arg, void *out_arg)
+{
+    char           *host = in_arg;
+    char            ip[INET6_ADDRSTRLEN] = {0};
+    IjkDnsResolver  resolver;
+    void           *opaque;
+    IjkDnsEntry    *entry;
+    int64_t         begin = av_gettime_relative();
+    int             ret;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    resolver = g_dns.resolver ? g_dns.resolver : dns_getaddrinfo;
+    opaque   = g_dns.resolver_opaque;
+    pthread_mutex_unlock(&g_dns.mutex);
+
+    ret = resolver(opaque, host, ip, sizeof(ip));
+
+    pthread_mutex_lock(&g_dns.mutex);
+    entry = find_entry_l(host);
+    if (entry && entry->state == IJKDNS_STATE_PENDING) {
+        int64_t now = av_gettime_relative();
+        if (ret == 0 && ip[0]) {
+            av_strlcpy(entry->ip, ip, sizeof(entry->ip));
+            entry->state       = IJKDNS_STATE_RESOLVED;
+            entry->expire_time = now + g_dns.ttl_us;
+        } else {
+            entry->state       = IJKDNS_STATE_FAILED;
+            entry->error       = ret < 0 ? ret : AVERROR(EIO);
+            entry->expire_time = now + IJKDNS_NEGATIVE_TTL_MS * 1000LL;
+        }
+        av_log(NULL, AV_LOG_INFO, "ijkdns: %s -> %s (%"PRId64" ms)\n",
+               host, entry->state == IJKDNS_STATE_RESOLVED ? entry->ip : "failed", (now - begin) / 1000);
+    }
+    pthread_cond_broadcast(&g_dns.cond);
+    pthread_mutex_unlock(&g_dns.mutex);
+
+    av_free(host);
+}
+
+/*
+ * Returns the entry of host, starting a lookup when missing, expired,
+ * or pending for longer than the lookup timeout.
+ * A lookup given up on keeps its worker until the resolver returns,
+ * its answer still fills the entry if that is pending again.
+ */
+static IjkDnsEntry *lookup_l(const char *host)
+{
+    IjkDnsEntry *entry = find_entry_l(host);
+    int64_t      now   = av_gettime_relative();
+    char        *task_host;
+
+    if (entry && entry->expire_time <= now) {
+        if (entry->state == IJKDNS_STATE_PENDING)
+            av_log(NULL, AV_LOG_WARNING, "ijkdns: %s lookup timed out, starting over\n", host);
+        entry->state = IJKDNS_STATE_EMPTY;
+    } else if (entry) {
+        entry->last_used = now;
+        return entry;
+    }
+
+    if (!g_dns.pool) {
+        g_dns.pool = ijk_threadpool_create(IJKDNS_WORKERS, IJKDNS_QUEUE_SIZE, 0);
+        if (!g_dns.pool)
+            return NULL;
+    }
+
+    entry = alloc_entry_l(host);
+    if (!entry)
+        return NULL;
+
+    task_host = av_strdup(host);
+    if (!task_host || ijk_threadpool_add(g_dns.pool, dns_task, task_host, NULL, 0)) {
+        av_free(task_host);
+        entry->state = IJKDNS_STATE_EMPTY;
+        return NULL;
+    }
+
+    entry->state       = IJKDNS_STATE_PENDING;
+    entry->expire_time = now + g_dns.lookup_timeout_us;
+    entry->last_used   = now;
+    return entry;
+}
+
+void ijkdns_set_resolver(IjkDnsResolver resolver, void *opaque)
+{
+    pthread_mutex_lock(&g_dns.mutex);
+    g_dns.resolver        = resolver;
+    g_dns.resolver_opaque = opaque;
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+void ijkdns_set_ttl(int64_t ttl_ms)
+{
+    pthread_mutex_lock(&g_dns.mutex);
+    g_dns.ttl_us = ttl_ms > 0 ? ttl_ms * 1000 : IJKDNS_DEFAULT_TTL_MS * 1000LL;
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+void ijkdns_set_lookup_timeout(int64_t timeout_ms)
+{
+    pthread_mutex_lock(&g_dns.mutex);
+    g_dns.lookup_timeout_us = timeout_ms > 0 ? timeout_ms * 1000 : IJKDNS_DEFAULT_LOOKUP_TIMEOUT_MS * 1000LL;
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+void ijkdns_prefetch(const char *host)
+{
+    if (!host || !*host || strlen(host) >= sizeof(g_dns.entries[0].host) || is_numeric_host(host))
+        return;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    lookup_l(host);
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+int ijkdns_resolve(const char *host, int timeout_ms, const AVIOInterruptCB *int_cb, char *ip, size_t ip_size)
+{
+    IjkDnsEntry *entry;
+    int64_t      deadline;
+    int          ret = AVERROR(ETIMEDOUT);
+
+    if (!host || !*host || !ip || !ip_size || strlen(host) >= sizeof(entry->host))
+        return AVERROR(EINVAL);
+
+    if (is_numeric_host(host)) {
+        av_strlcpy(ip, host, ip_size);
+        return 0;
+    }
+
+    if (timeout_ms <= 0)
+        timeout_ms = IJKDNS_DEFAULT_TIMEOUT_MS;
+    deadline = av_gettime_relative() + timeout_ms * 1000LL;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    while (1) {
+        struct timeval  now;
+        struct timespec ts;
+        int64_t         wait_us;
+
+        entry = lookup_l(host);
+        if (!entry) {
+            ret = AVERROR(ENOMEM);
+            break;
+        }
+        if (entry->state == IJKDNS_STATE_RESOLVED) {
+            av_strlcpy(ip, entry->ip, ip_size);
+            ret = 0;
+            break;
+        }
+        if (entry->state == IJKDNS_STATE_FAILED) {
+            ret = entry->error;
+            break;
+        }
+
+        wait_us = deadline - av_gettime_relative();
+        if (wait_us <= 0) {
+            ret = AVERROR(ETIMEDOUT);
+            break;
+        }
+        if (int_cb && int_cb->callback && int_cb->callback(int_cb->opaque)) {
+            ret = AVERROR_EXIT;
+            break;
+        }
+
+        wait_us = FFMIN(wait_us, IJKDNS_WAIT_SLICE_MS * 1000LL);
+        gettimeofday(&now, NULL);
+        ts.tv_sec  = now.tv_sec + (now.tv_usec + wait_us) / 1000000;
+        ts.tv_nsec = ((now.tv_usec + wait_us) % 1000000) * 1000;
+        pthread_cond_timedwait(&g_dns.cond, &g_dns.mutex, &ts);
+    }
+    pthread_mutex_unlock(&g_dns.mutex);
+
+    return ret;
+}
+
+void ijkdns_invalidate(const char *host)
+{
+    IjkDnsEntry *entry;
+
+    if (!host)
+        return;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    entry = find_entry_l(host);
+    if (entry && entry->state != IJKDNS_STATE_PENDING)
+        entry->state = IJKDNS_STATE_EMPTY;
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+void ijkdns_set_redirecting(const char *host)
+{
+    IjkDnsEntry *entry;
+
+    if (!host)
+        return;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    entry = find_entry_l(host);
+    if (entry)
+        entry->redirecting = 1;
+    pthread_mutex_unlock(&g_dns.mutex);
+}
+
+int ijkdns_is_redirecting(const char *host)
+{
+    IjkDnsEntry *entry;
+    int          redirecting = 0;
+
+    if (!host)
+        return 0;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    entry = find_entry_l(host);
+    if (entry && entry->expire_time > av_gettime_relative())
+        redirecting = entry->redirecting;
+    pthread_mutex_unlock(&g_dns.mutex);
+    return redirecting;
+}
+
+void ijkdns_clear(void)
+{
+    int i;
+
+    pthread_mutex_lock(&g_dns.mutex);
+    for (i = 0; i < IJKDNS_MAX_ENTRIES; ++i) {
+        if (g_dns.entries[i].state != IJKDNS_STATE_PENDING)
+            g_dns.entries[i].state = IJKDNS_STATE_EMPTY;
+    }
+    pthread_mutex_unlock(&g_dns.mutex);
+}
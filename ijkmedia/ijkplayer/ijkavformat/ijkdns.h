@@ -0,0 +1,73 @@
+/*
+ * ijkdns.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKDNS_H
+#define IJKAVFORMAT_IJKDNS_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include "libavformat/avio.h"
+
+/*
+ * Process-wide host name cache, shared by all players.
+ * Lookups run on a small worker pool, so a caller never waits longer
+ * than its timeout, and a slow lookup still fills the cache for the next one.
+ */
+
+#define IJKDNS_DEFAULT_TTL_MS       (5 * 60 * 1000)
+#define IJKDNS_DEFAULT_TIMEOUT_MS   (3 * 1000)
+#define IJKDNS_DEFAULT_LOOKUP_TIMEOUT_MS (30 * 1000)
+
+/*
+ * Resolves host to one numeric address, written to ip.
+ * @return 0 on success, <0 as AVERROR
+ */
+typedef int (*IjkDnsResolver)(void *opaque, const char *host, char *ip, size_t ip_size);
+
+// NULL restores getaddrinfo(), for tests against a stub resolver
+void    ijkdns_set_resolver(IjkDnsResolver resolver, void *opaque);
+void    ijkdns_set_ttl(int64_t ttl_ms);
+// a lookup still running after this long is given up, the next resolve starts over
+void    ijkdns_set_lookup_timeout(int64_t timeout_ms);
+
+// starts a lookup in the background if host is not cached yet
+void    ijkdns_prefetch(const char *host);
+
+/*
+ * @param int_cb  checked while waiting, may be NULL
+ * @return 0 with a numeric address in ip, AVERROR(ETIMEDOUT) or another AVERROR
+ */
+int     ijkdns_resolve(const char *host, int timeout_ms, const AVIOInterruptCB *int_cb, char *ip, size_t ip_size);
+
+// forgets host, e.g. after a connect failure on the cached address
+void    ijkdns_invalidate(const char *host);
+
+/*
+ * Marks host as answering with redirects to other hosts, until its entry expires.
+ * A request sent to a cached address carries a fixed Host header, which the
+ * redirected request would keep, so such hosts must be asked for by name.
+ */
+void    ijkdns_set_redirecting(const char *host);
+int     ijkdns_is_redirecting(const char *host);
+void    ijkdns_clear(void);
+
+#endif
@@ -0,0 +1,467 @@
+/*
+ * ijkhttppool.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkhttppool.h"
+
+#include <pthread.h>
+#include <string.h>
+#include "libavformat/avformat.h"
+#include "libavformat/http.h"
+#include "libavutil/avstring.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/opt.h"
+#include "libavutil/time.h"
+
+#define IJKHTTPPOOL_MAX_IDLE    16
+#define IJKHTTPPOOL_KEY_SIZE    320
+
+struct IjkHttpConn {
+    URLContext           *url;
+    char                  key[IJKHTTPPOOL_KEY_SIZE];
+    int                   reused;
+    int64_t               idle_since;
+    IjkHttpConn          *next;
+
+    /*
+     * ffmpeg keeps copies of int_cb and app in the http and tcp contexts,
+     * they forward to the current owner, which is NULL while parked.
+     */
+    AVIOInterruptCB       int_cb;
+    AVApplicationContext *app;
+
+    pthread_mutex_t       mutex;
+    AVIOInterruptCB       owner_cb;
+    AVApplicationContext *owner_app;
+};
+
+static struct {
+    pthread_mutex_t  mutex;
+    IjkHttpConn     *idle;      // most recently parked first
+    int              max_idle_per_host;
+    int64_t          idle_timeout_us;
+} g_pool = {
+    .mutex             = PTHREAD_MUTEX_INITIALIZER,
+    .max_idle_per_host = IJKHTTPPOOL_DEFAULT_MAX_IDLE_PER_HOST,
+    .idle_timeout_us   = IJKHTTPPOOL_DEFAULT_IDLE_TIMEOUT_MS * 1000LL,
+};
+
+/*
+ * Options of the http context a previous owner may have set, or http.c
+ * updated from its responses: Set-Cookie is merged into "cookies" once the
+ * response header has been read. Reset to their defaults before the next
+ * owner sends a request, so that nothing leaks between players.
+ */
+static const char *const g_owner_options[] = {
+    "headers",
+    "user_agent",
+    "referer",
+    "cookies",
+    "content_type",
+    "method",
+    "icy",
+    "seekable",
+    "end_offset",
+    "send_expect_100",
+};
+
+static int make_key(const char *url, char *key, size_t key_size)
+{
+    char proto[16];
+    char auth[256];
+    char host[256];
+    int  port = -1;
+
+    av_url_split(proto, sizeof(proto), auth, sizeof(auth), host, sizeof(host), &port, NULL, 0, url);
+    if (!host[0])
+        return AVERROR(EINVAL);
+    // the auth state of http.c would follow the connection
+    if (auth[0])
+        return AVERROR(ENOSYS);
+
+    if (!strcmp(proto, "http"))
+        port = port > 0 ? port : 80;
+    else if (!strcmp(proto, "https"))
+        port = port > 0 ? port : 443;
+    else
+        return AVERROR(ENOSYS);
+
+    snprintf(key, key_size, "%s://%s:%d", proto, host, port);
+    return 0;
+}
+
+static int conn_interrupt_cb(void *opaque)
+{
+    IjkHttpConn *conn = opaque;
+    int          ret  = 0;
+
+    pthread_mutex_lock(&conn->mutex);
+    if (conn->owner_cb.callback)
+        ret = conn->owner_cb.callback(conn->owner_cb.opaque);
+    pthread_mutex_unlock(&conn->mutex);
+    return ret;
+}
+
+static int conn_app_event(AVApplicationContext *h, int event_type, void *obj, size_t size)
+{
+    IjkHttpConn *conn = h->opaque;
+    int          ret  = 0;
+
+    pthread_mutex_lock(&conn->mutex);
+    if (conn->owner_app && conn->owner_app->func_on_app_event)
+        ret = conn->owner_app->func_on_app_event(conn->owner_app, event_type, obj, size);
+    pthread_mutex_unlock(&conn->mutex);
+    return ret;
+}
+
+static void conn_attach(IjkHttpConn *conn, const AVIOInterruptCB *int_cb, AVApplicationContext *app_ctx)
+{
+    pthread_mutex_lock(&conn->mutex);
+    if (int_cb)
+        conn->owner_cb = *int_cb;
+    else
+        memset(&conn->owner_cb, 0, sizeof(conn->owner_cb));
+    conn->owner_app = app_ctx;
+    pthread_mutex_unlock(&conn->mutex);
+}
+
+static void conn_detach(IjkHttpConn *conn)
+{
+    conn_attach(conn, NULL, NULL);
+}
+
+static IjkHttpConn *conn_alloc(const char *key)
+{
+    IjkHttpConn *conn = av_mallocz(sizeof(IjkHttpConn));
+    if (!conn)
+        return NULL;
+
+    if (av_application_open(&conn->app, conn)) {
+        av_free(conn);
+        return NULL;
+    }
+    conn->app->func_on_app_event = conn_app_event;
+    conn->int_cb.callback        = conn_interrupt_cb;
+    conn->int_cb.opaque          = conn;
+    pthread_mutex_init(&conn->mutex, NULL);
+    av_strlcpy(conn->key, key, sizeof(conn->key));
+    return conn;
+}
+
+static void conn_free(IjkHttpConn *conn)
+{
+    if (!conn)
+        return;
+
+    ffurl_closep(&conn->url);
+    av_application_closep(&conn->app);
+    pthread_mutex_destroy(&conn->mutex);
+    av_free(conn);
+}
+
+static void conn_free_list(IjkHttpConn *list)
+{
+    while (list) {
+        IjkHttpConn *next = list->next;
+        conn_free(list);
+        list = next;
+    }
+}
+
+// moves idle connections past the timeout to *dead
+static void prune_l(int64_t now, IjkHttpConn **dead)
+{
+    IjkHttpConn **pp = &g_pool.idle;
+
+    while (*pp) {
+        IjkHttpConn *conn = *pp;
+        if (now - conn->idle_since >= g_pool.idle_timeout_us) {
+            *pp        = conn->next;
+            conn->next = *dead;
+            *dead      = conn;
+        } else {
+            pp = &conn->next;
+        }
+    }
+}
+
+static IjkHttpConn *take_idle(const char *key)
+{
+    IjkHttpConn  *dead = NULL;
+    IjkHttpConn  *conn = NULL;
+    IjkHttpConn **pp;
+
+    pthread_mutex_lock(&g_pool.mutex);
+    prune_l(av_gettime_relative(), &dead);
+    for (pp = &g_pool.idle; *pp; pp = &(*pp)->next) {
+        if (!strcmp((*pp)->key, key)) {
+            conn       = *pp;
+            *pp        = conn->next;
+            conn->next = NULL;
+            break;
+        }
+    }
+    pthread_mutex_unlock(&g_pool.mutex);
+
+    conn_free_list(dead);
+    return conn;
+}
+
+static void park(IjkHttpConn *conn)
+{
+    IjkHttpConn  *dead = NULL;
+    IjkHttpConn **oldest_same = NULL;
+    IjkHttpConn **oldest      = NULL;
+    IjkHttpConn **pp;
+    int64_t       now   = av_gettime_relative();
+    int           same  = 0;
+    int           total = 0;
+
+    pthread_mutex_lock(&g_pool.mutex);
+    if (g_pool.max_idle_per_host <= 0) {
+        pthread_mutex_unlock(&g_pool.mutex);
+        conn_free(conn);
+        return;
+    }
+
+    prune_l(now, &dead);
+    for (pp = &g_pool.idle; *pp; pp = &(*pp)->next) {
+        total++;
+        oldest = pp;
+        if (!strcmp((*pp)->key, conn->key)) {
+            same++;
+            oldest_same = pp;
+        }
+    }
+
+    if (same >= g_pool.max_idle_per_host)
+        oldest = oldest_same;
+    else if (total < IJKHTTPPOOL_MAX_IDLE)
+        oldest = NULL;
+    if (oldest) {
+        IjkHttpConn *victim = *oldest;
+        *oldest      = victim->next;
+        victim->next = dead;
+        dead         = victim;
+    }
+
+    conn->idle_since = now;
+    conn->next       = g_pool.idle;
+    g_pool.idle      = conn;
+    pthread_mutex_unlock(&g_pool.mutex);
+
+    conn_free_list(dead);
+}
+
+static void conn_reset_owner_options(IjkHttpConn *conn)
+{
+    void *priv = conn->url->priv_data;
+    int   i;
+
+    for (i = 0; i < FF_ARRAY_ELEMS(g_owner_options); ++i) {
+        const AVOption *o = av_opt_find(priv, g_owner_options[i], NULL, 0, 0);
+        if (!o)
+            continue;
+
+        switch (o->type) {
+        case AV_OPT_TYPE_STRING:
+            av_opt_set(priv, o->name, o->default_val.str, 0);
+            break;
+        case AV_OPT_TYPE_INT:
+        case AV_OPT_TYPE_INT64:
+        case AV_OPT_TYPE_BOOL:
+            av_opt_set_int(priv, o->name, o->default_val.i64, 0);
+            break;
+        default:
+            break;
+        }
+    }
+}
+
+/*
+ * Sends a request for url on a parked connection, with the options of the
+ * new owner only and a range starting at offset.
+ */
+static int conn_new_request(IjkHttpConn *conn, const char *url, int64_t offset, AVDictionary *options)
+{
+    AVDictionary      *opts    = NULL;
+    AVDictionaryEntry *e       = NULL;
+    const char        *base    = "";
+    const char        *crlf    = "";
+    char              *headers = NULL;
+    int                ret     = 0;
+
+    av_dict_copy(&opts, options, 0);
+    av_dict_set(&opts, "ijkapplication", NULL, 0);
+    av_dict_set(&opts, "offset", NULL, 0);
+
+    e = av_dict_get(opts, "headers", NULL, 0);
+    if (e && e->value[0]) {
+        size_t len = strlen(e->value);
+        base = e->value;
+        if (len < 2 || strcmp(e->value + len - 2, "\r\n"))
+            crlf = "\r\n";
+    }
+    if (offset > 0)
+        headers = av_asprintf("%s%sRange: bytes=%"PRId64"-\r\n", base, crlf, offset);
+    else
+        headers = av_asprintf("%s%s", base, crlf);
+    if (!headers) {
+        ret = AVERROR(ENOMEM);
+        goto end;
+    }
+    av_dict_set(&opts, "headers", headers, AV_DICT_DONT_STRDUP_VAL);
+
+    // user agent, cookies and headers of the new owner, defaults for the others
+    conn_reset_owner_options(conn);
+    av_opt_set_dict(conn->url->priv_data, &opts);
+    ret = ff_http_do_new_request(conn->url, url);
+
+    // later seeks of the http context must not repeat this range
+    av_opt_set(conn->url->priv_data, "headers", base[0] ? base : NULL, 0);
+end:
+    av_dict_free(&opts);
+    return ret;
+}
+
+int ijkhttppool_open(IjkHttpConn **pconn, const char *url, int flags, int64_t offset,
+                     const AVIOInterruptCB *int_cb, AVApplicationContext *app_ctx,
+                     AVDictionary **options, const char *whitelist, const char *blacklist,
+                     URLContext *parent)
+{
+    IjkHttpConn *conn = NULL;
+    char         key[IJKHTTPPOOL_KEY_SIZE];
+    int          ret  = 0;
+
+    *pconn = NULL;
+    if (make_key(url, key, sizeof(key)) < 0)
+        key[0] = '\0';
+
+    while (key[0] && (conn = take_idle(key))) {
+        conn_attach(conn, int_cb, app_ctx);
+        ret = conn_new_request(conn, url, offset, options ? *options : NULL);
+        if (!ret) {
+            av_log(NULL, AV_LOG_INFO, "ijkhttppool: reuse connection to %s\n", key);
+            conn->reused = 1;
+            *pconn = conn;
+            return 0;
+        }
+
+        // closed by the server while parked
+        av_log(NULL, AV_LOG_INFO, "ijkhttppool: stale connection to %s: %s\n", key, av_err2str(ret));
+        conn_detach(conn);
+        conn_free(conn);
+        if (ret == AVERROR_EXIT)
+            return ret;
+    }
+
+    conn = conn_alloc(key);
+    if (!conn)
+        return AVERROR(ENOMEM);
+    conn_attach(conn, int_cb, app_ctx);
+
+    av_dict_set_intptr(options, "ijkapplication", (uintptr_t) conn->app, 0);
+    av_dict_set_int(options, "multiple_requests", 1, 0);
+    ret = ffurl_open_whitelist(&conn->url, url, flags, &conn->int_cb, options, whitelist, blacklist, parent);
+    if (ret < 0) {
+        conn_detach(conn);
+        conn_free(conn);
+        return ret;
+    }
+
+    *pconn = conn;
+    return 0;
+}
+
+URLContext *ijkhttppool_get_url(IjkHttpConn *conn)
+{
+    return conn ? conn->url : NULL;
+}
+
+int ijkhttppool_is_reused(IjkHttpConn *conn)
+{
+    return conn ? conn->reused : 0;
+}
+
+static int64_t conn_drain(IjkHttpConn *conn, int64_t remaining)
+{
+    unsigned char buf[4096];
+
+    while (remaining > 0) {
+        int ret = ffurl_read(conn->url, buf, (int) FFMIN(remaining, sizeof(buf)));
+        if (ret <= 0)
+            return -1;
+        remaining -= ret;
+    }
+    return remaining;
+}
+
+void ijkhttppool_release(IjkHttpConn **pconn, int64_t remaining)
+{
+    IjkHttpConn *conn;
+
+    if (!pconn || !*pconn)
+        return;
+
+    conn   = *pconn;
+    *pconn = NULL;
+
+    if (remaining > 0 && remaining <= IJKHTTPPOOL_DRAIN_SIZE)
+        remaining = conn_drain(conn, remaining);
+    conn_detach(conn);
+
+    if (remaining != 0 || !conn->key[0] || !conn->url) {
+        conn_free(conn);
+        return;
+    }
+    park(conn);
+}
+
+void ijkhttppool_set_limits(int max_idle_per_host, int64_t idle_timeout_ms)
+{
+    IjkHttpConn *dead = NULL;
+
+    pthread_mutex_lock(&g_pool.mutex);
+    g_pool.max_idle_per_host = max_idle_per_host >= 0 ? max_idle_per_host : IJKHTTPPOOL_DEFAULT_MAX_IDLE_PER_HOST;
+    g_pool.idle_timeout_us   = (idle_timeout_ms > 0 ? idle_timeout_ms : IJKHTTPPOOL_DEFAULT_IDLE_TIMEOUT_MS) * 1000LL;
+    if (g_pool.max_idle_per_host == 0) {
+        dead        = g_pool.idle;
+        g_pool.idle = NULL;
+    } else {
+        prune_l(av_gettime_relative(), &dead);
+    }
+    pthread_mutex_unlock(&g_pool.mutex);
+
+    conn_free_list(dead);
+}
+
+void ijkhttppool_clear(void)
+{
+    IjkHttpConn *dead;
+
+    pthread_mutex_lock(&g_pool.mutex);
+    dead        = g_pool.idle;
+    g_pool.idle = NULL;
+    pthread_mutex_unlock(&g_pool.mutex);
+
+    conn_free_list(dead);
+}
@@ -0,0 +1,82 @@
+/*
+ * ijkhttppool.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKHTTPPOOL_H
+#define IJKAVFORMAT_IJKHTTPPOOL_H
+
+#include <stdint.h>
+#include "libavformat/url.h"
+#include "libavutil/application.h"
+
+/*
+ * Process-wide pool of idle keep-alive http(s) connections, keyed by
+ * scheme, host and port and shared by all players.
+ *
+ * A connection is parked when its response body has been read to the end,
+ * and the next request to the same server is sent on it instead of
+ * opening a new socket.
+ *
+ * Responses are open ended ranges, so a seek in the middle of one only
+ * parks its connection when at most IJKHTTPPOOL_DRAIN_SIZE is left to read;
+ * other seeks close it and open a new socket. Reuse mostly happens across
+ * consecutive urls of a host: segments, playlists, a new data source.
+ *
+ * Urls with credentials are never pooled, and the options of a previous
+ * owner, including cookies set by the server, are reset before reuse.
+ */
+
+#define IJKHTTPPOOL_DEFAULT_MAX_IDLE_PER_HOST   4
+#define IJKHTTPPOOL_DEFAULT_IDLE_TIMEOUT_MS     (15 * 1000)
+// unread body up to this size is drained on release to keep the connection
+#define IJKHTTPPOOL_DRAIN_SIZE                  (64 * 1024)
+
+typedef struct IjkHttpConn IjkHttpConn;
+
+/*
+ * Opens url on an idle connection of the pool, or on a new one.
+ *
+ * int_cb and app_ctx are only used until ijkhttppool_release(), so the
+ * connection may outlive its caller.
+ *
+ * @param offset  start of the requested range, also expected in options for a new connection
+ * @return 0 on success, <0 as AVERROR
+ */
+int         ijkhttppool_open(IjkHttpConn **pconn, const char *url, int flags, int64_t offset,
+                             const AVIOInterruptCB *int_cb, AVApplicationContext *app_ctx,
+                             AVDictionary **options, const char *whitelist, const char *blacklist,
+                             URLContext *parent);
+
+URLContext *ijkhttppool_get_url(IjkHttpConn *conn);
+int         ijkhttppool_is_reused(IjkHttpConn *conn);
+
+/*
+ * Parks conn when the response has been read to the end, closes it otherwise.
+ *
+ * @param remaining  unread bytes of the response, <0 if unknown
+ */
+void        ijkhttppool_release(IjkHttpConn **pconn, int64_t remaining);
+
+// max_idle_per_host 0 disables parking, <0 and idle_timeout_ms <=0 restore the defaults
+void        ijkhttppool_set_limits(int max_idle_per_host, int64_t idle_timeout_ms);
+void        ijkhttppool_clear(void);
+
+#endif
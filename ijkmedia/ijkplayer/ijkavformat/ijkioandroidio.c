@@ -30,16 +30,62 @@
 #include "ijkplayer/ijkavutil/ijkutils.h"
 
 #include "j4a/class/tv/danmaku/ijk/media/player/misc/IAndroidIO.h"
+#include "j4a/class/tv/danmaku/ijk/media/player/misc/IAndroidIO2.h"
+#include "j4a/class/java/nio/ByteBuffer.h"
+#include "j4au/class/java/nio/ByteBuffer.util.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 #include <assert.h>
 
+#define DIRECT_BUFFER_DEFAULT_SIZE  (256 * 1024)
+#define DIRECT_BUFFER_MIN_SIZE      (4 * 1024)
+#define DIRECT_BUFFER_MAX_SIZE      (16 * 1024 * 1024)
+
+/* IAndroidIO2.READV_UNSUPPORTED */
+#define READV_UNSUPPORTED           INT32_MIN
+
 typedef struct IjkIOAndroidioContext {
     jobject         ijkio_androidio;
     jbyteArray      jbuffer;
     int             jbuffer_capacity;
     URLContext *inner;
+
+    /* IAndroidIO2 */
+    int             direct;
+    int             readv;
+    jobject         jdirect_buffer;
+    uint8_t        *direct_buffer;
+    int             direct_buffer_capacity;
+    /* readv() data not consumed yet, in direct_buffer[readv_pos, readv_end) */
+    int             readv_pos;
+    int             readv_end;
 } IjkIOAndroidioContext;
 
+static int64_t dict_get_int(IjkAVDictionary *options, const char *key, int64_t default_value)
+{
+    IjkAVDictionaryEntry *t = ijk_av_dict_get(options, key, NULL, 0);
+    if (!t || !t->value)
+        return default_value;
+
+    return strtoll(t->value, NULL, 10);
+}
+
+static int direct_buffer_alloc(JNIEnv *env, IjkURLContext *h)
+{
+    IjkIOAndroidioContext *c = h->priv_data;
+
+    c->jdirect_buffer = J4AC_ByteBuffer__allocateDirect__asGlobalRef__catchAll(env, c->direct_buffer_capacity);
+    if (!c->jdirect_buffer)
+        return AVERROR(ENOMEM);
+
+    c->direct_buffer = J4AC_ByteBuffer__getDirectBufferAddress__catchAll(env, c->jdirect_buffer);
+    if (!c->direct_buffer) {
+        J4A_DeleteGlobalRef__p(env, &c->jdirect_buffer);
+        return AVERROR(ENOMEM);
+    }
+
+    return 0;
+}
+
 static int ijkio_androidio_open(IjkURLContext *h, const char *url, int flags, IjkAVDictionary **options) {
     IjkIOAndroidioContext *c= h->priv_data;
     JNIEnv *env = NULL;
@@ -82,6 +128,19 @@ static int ijkio_androidio_open(IjkURLContext *h, const char *url, int flags, Ij
         return ret;
     }
 
+    c->direct = (int) dict_get_int(*options, "androidio-direct", 0);
+    if (c->direct) {
+        c->readv = (int) dict_get_int(*options, "androidio-readv", 0);
+        c->direct_buffer_capacity = (int) av_clip64(
+            dict_get_int(*options, "androidio-direct-buffer-size", DIRECT_BUFFER_DEFAULT_SIZE),
+            DIRECT_BUFFER_MIN_SIZE, DIRECT_BUFFER_MAX_SIZE);
+
+        if (direct_buffer_alloc(env, h)) {
+            av_log(h, AV_LOG_WARNING, "%s: direct buffer unavailable, fallback to read(byte[])\n", __func__);
+            c->direct = 0;
+        }
+    }
+
     return 0;
 }
 
@@ -108,6 +167,51 @@ static jobject jbuffer_grow(JNIEnv *env, IjkURLContext *h, int new_capacity) {
     return c->jbuffer;
 }
 
+static int ijkio_androidio_read_direct(JNIEnv *env, IjkURLContext *h, unsigned char *buf, int size) {
+    IjkIOAndroidioContext *c = h->priv_data;
+    jint ret = 0;
+
+    if (c->readv_pos < c->readv_end) {
+        ret = FFMIN(size, c->readv_end - c->readv_pos);
+        memcpy(buf, c->direct_buffer + c->readv_pos, ret);
+        c->readv_pos += ret;
+        return ret;
+    }
+
+    if (c->readv) {
+        ret = J4AC_IAndroidIO2__readv(env, c->ijkio_androidio, c->jdirect_buffer);
+        if (J4A_ExceptionCheck__catchAll(env))
+            return AVERROR(EIO);
+
+        if (ret == READV_UNSUPPORTED) {
+            c->readv = 0;
+        } else if (ret < 0) {
+            return AVERROR_EOF;
+        } else if (ret == 0) {
+            return AVERROR(EAGAIN);
+        } else {
+            ret = FFMIN(ret, c->direct_buffer_capacity);
+            c->readv_pos = FFMIN(size, ret);
+            c->readv_end = ret;
+            memcpy(buf, c->direct_buffer, c->readv_pos);
+            return c->readv_pos;
+        }
+    }
+
+    size = FFMIN(size, c->direct_buffer_capacity);
+    ret = J4AC_IAndroidIO2__read(env, c->ijkio_androidio, c->jdirect_buffer, size);
+    if (J4A_ExceptionCheck__catchAll(env))
+        return AVERROR(EIO);
+    else if (ret < 0)
+        return AVERROR_EOF;
+    else if (ret == 0)
+        return AVERROR(EAGAIN);
+
+    ret = FFMIN(ret, size);
+    memcpy(buf, c->direct_buffer, ret);
+    return ret;
+}
+
 static int ijkio_androidio_read(IjkURLContext *h, unsigned char *buf, int size) {
     IjkIOAndroidioContext    *c = h->priv_data;
     JNIEnv     *env = NULL;
@@ -122,6 +226,9 @@ static int ijkio_androidio_read(IjkURLContext *h, unsigned char *buf, int size)
         return AVERROR(EINVAL);
     }
 
+    if (c->direct)
+        return ijkio_androidio_read_direct(env, h, buf, size);
+
     jbuffer = jbuffer_grow(env, h, size);
     if (!jbuffer)
         return AVERROR(ENOMEM);
@@ -154,6 +261,14 @@ static int64_t ijkio_androidio_seek(IjkURLContext *h, int64_t offset, int whence
         return AVERROR(EINVAL);
     }
 
+    if (whence != AVSEEK_SIZE) {
+        /* java side is ahead of us by the unconsumed readv() data */
+        if (whence == SEEK_CUR)
+            offset -= c->readv_end - c->readv_pos;
+        c->readv_pos = 0;
+        c->readv_end = 0;
+    }
+
     ret = J4AC_IAndroidIO__seek(env, c->ijkio_androidio, offset, whence);
     if (J4A_ExceptionCheck__catchAll(env))
         return AVERROR(EIO);
@@ -174,6 +289,8 @@ static int ijkio_androidio_close(IjkURLContext *h) {
         return AVERROR(EINVAL);
 
     J4A_DeleteGlobalRef__p(env, &c->jbuffer);
+    J4A_DeleteGlobalRef__p(env, &c->jdirect_buffer);
+    c->direct_buffer = NULL;
 
     if (c->ijkio_androidio) {
         J4AC_IAndroidIO__close__catchAll(env, c->ijkio_androidio);
@@ -44,6 +44,8 @@ typedef struct IjkCacheEntry {
     int64_t size;
 } IjkCacheEntry;
 
+struct IjkIOCacheJournal;
+
 typedef struct IjkIOApplicationContext IjkIOApplicationContext;
 struct IjkIOApplicationContext {
     IjkThreadPoolContext *threadpool_ctx;
@@ -57,6 +59,8 @@ struct IjkIOApplicationContext {
     pthread_mutex_t mutex;
     int shared;
     int active_reconnect;
+    volatile int cache_generation;  // bumped before cached file content is rewritten
+    struct IjkIOCacheJournal *cache_journal;
     int (*func_ijkio_on_app_event)(IjkIOApplicationContext *h, int event_type ,void *obj, int size);
 };
 
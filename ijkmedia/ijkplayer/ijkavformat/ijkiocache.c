@@ -21,6 +21,7 @@
 #include "ijkiourl.h"
 #include "ijkioprotocol.h"
 #include "ijkioapplication.h"
+#include "ijkiocacheindex.h"
 #include "ijkplayer/ijkavutil/ijktree.h"
 #include "ijkplayer/ijkavutil/ijkutils.h"
 #include "ijkplayer/ijkavutil/ijkthreadpool.h"
@@ -34,6 +35,7 @@
 #include <string.h>
 #include <fcntl.h>
 #include <sys/stat.h>
+#include <sys/mman.h>
 #include <unistd.h>
 #include <assert.h>
 
@@ -44,6 +46,16 @@
 #   endif
 #define FILE_RW_ERROR  (-100)
 
+// cache_mmap: reads copy out of windows of the cache file mapped at window aligned offsets
+#define MMAP_WINDOW_SIZE   (4 * 1024 * 1024)
+#define MMAP_WINDOW_COUNT  4
+
+typedef struct IjkIOCacheMapWindow {
+    uint8_t *addr;
+    int64_t  index;
+    int64_t  last_used;
+} IjkIOCacheMapWindow;
+
 typedef struct IjkIOCacheContext {
     char *cache_file_path;
     int fd;
@@ -92,6 +104,25 @@ typedef struct IjkIOCacheContext {
     char inner_url[4096];
     int inner_flags;
     int only_read_file;
+
+    /*
+     * cache_mmap, only touched by the reading thread.
+     * hit_xxx is a cached run found under file_mutex, read again without it
+     * while cache_generation is unchanged.
+     */
+    int cache_mmap;
+    IjkIOCacheMapWindow map_windows[MMAP_WINDOW_COUNT];
+    int64_t map_use_counter;
+    int map_generation;
+    int64_t hit_logical_pos;
+    int64_t hit_logical_end;
+    int64_t hit_physical_pos;
+    int hit_generation;
+
+    // last entry state appended to the cache journal, stale once cache_generation moves
+    IjkCacheEntry *journal_entry;
+    int64_t journal_size;
+    int journal_generation;
 } IjkIOCacheContext;
 
 static int cmp(const void *key, const void *node)
@@ -134,6 +165,173 @@ static int ijkio_cache_check_interrupt(IjkURLContext *h)
     return c->abort_request;
 }
 
+static void ijkio_cache_bump_generation(IjkIOCacheContext *c)
+{
+    __sync_add_and_fetch(&c->ijkio_app_ctx->cache_generation, 1);
+    ijkio_cache_journal_append_reset(c->ijkio_app_ctx->cache_journal);
+}
+
+static void ijkio_cache_journal_flush(IjkIOCacheContext *c)
+{
+    IjkCacheEntry *entry = c->journal_entry;
+
+    if (!entry || !c->tree_info || c->journal_generation != c->ijkio_app_ctx->cache_generation)
+        return;
+    if (entry->size != c->journal_size) {
+        ijkio_cache_journal_append_range(c->ijkio_app_ctx->cache_journal, c->cur_file_no, c->tree_info, entry);
+        c->journal_size = entry->size;
+    }
+}
+
+static void ijkio_cache_journal_entry(IjkIOCacheContext *c, IjkCacheEntry *entry)
+{
+    IjkIOCacheJournal *journal = c->ijkio_app_ctx->cache_journal;
+
+    if (!journal)
+        return;
+
+    if (entry == c->journal_entry &&
+        c->journal_generation == c->ijkio_app_ctx->cache_generation &&
+        entry->size - c->journal_size < IJKIO_CACHE_JOURNAL_INTERVAL)
+        return;
+
+    // the previous entry stopped growing, record its tail
+    if (entry != c->journal_entry)
+        ijkio_cache_journal_flush(c);
+
+    ijkio_cache_journal_append_range(journal, c->cur_file_no, c->tree_info, entry);
+    c->journal_entry      = entry;
+    c->journal_size       = entry->size;
+    c->journal_generation = c->ijkio_app_ctx->cache_generation;
+
+    if (ijkio_cache_journal_should_compact(journal)) {
+        pthread_mutex_lock(&c->ijkio_app_ctx->mutex);
+        if (!c->ijkio_app_ctx->shared)
+            ijkio_cache_journal_compact(journal, c->cache_info_map);
+        pthread_mutex_unlock(&c->ijkio_app_ctx->mutex);
+    }
+}
+
+static void ijkio_cache_mmap_unmap_all(IjkIOCacheContext *c)
+{
+    int i;
+    for (i = 0; i < MMAP_WINDOW_COUNT; i++) {
+        IjkIOCacheMapWindow *window = &c->map_windows[i];
+        if (window->addr) {
+            munmap(window->addr, MMAP_WINDOW_SIZE);
+            window->addr = NULL;
+        }
+    }
+    c->hit_logical_end = 0;
+}
+
+/*
+ * Copies cached bytes at physical_pos, up to the end of their window.
+ * Windows belong to one cache_generation, a new one is mapped under
+ * ijkio_app_ctx->mutex, which the writer holds while it swaps the fd.
+ * @return bytes copied, <0 if the window could not be mapped
+ */
+static int ijkio_cache_mmap_copy(IjkIOCacheContext *c, int64_t physical_pos, void *dst, int size)
+{
+    IjkIOCacheMapWindow *window = NULL;
+    int64_t index     = physical_pos / MMAP_WINDOW_SIZE;
+    int64_t in_window = physical_pos % MMAP_WINDOW_SIZE;
+    int     generation = __atomic_load_n(&c->ijkio_app_ctx->cache_generation, __ATOMIC_SEQ_CST);
+    int     i;
+
+    if (size <= 0)
+        return -1;
+
+    // the file may have been truncated or recreated under the old mappings
+    if (generation != c->map_generation) {
+        ijkio_cache_mmap_unmap_all(c);
+        c->map_generation = generation;
+    }
+
+    for (i = 0; i < MMAP_WINDOW_COUNT; i++) {
+        IjkIOCacheMapWindow *w = &c->map_windows[i];
+        if (w->addr && w->index == index) {
+            window = w;
+            break;
+        }
+        if (!window || !w->addr || (window->addr && w->last_used < window->last_used))
+            window = w;
+    }
+
+    if (!window->addr || window->index != index) {
+        void *addr  = MAP_FAILED;
+        int   stale = 1;
+
+        if (window->addr) {
+            munmap(window->addr, MMAP_WINDOW_SIZE);
+            window->addr = NULL;
+        }
+
+        // the fd is only closed or replaced under this lock, after the generation moved
+        pthread_mutex_lock(&c->ijkio_app_ctx->mutex);
+        if (c->fd >= 0 && c->ijkio_app_ctx->cache_generation == generation) {
+            stale = 0;
+            addr  = mmap(NULL, MMAP_WINDOW_SIZE, PROT_READ, MAP_SHARED, c->fd, (off_t)(index * MMAP_WINDOW_SIZE));
+        }
+        pthread_mutex_unlock(&c->ijkio_app_ctx->mutex);
+        if (stale)
+            return -1;
+        if (addr == MAP_FAILED) {
+            av_log(NULL, AV_LOG_WARNING, "ijkio cache mmap at %lld failed\n", index * MMAP_WINDOW_SIZE);
+            return -1;
+        }
+        window->addr  = addr;
+        window->index = index;
+    }
+    window->last_used = ++c->map_use_counter;
+
+    size = (int)FFMIN(size, MMAP_WINDOW_SIZE - in_window);
+    memcpy(dst, window->addr + in_window, size);
+    return size;
+}
+
+static void ijkio_cache_mmap_set_hit(IjkIOCacheContext *c, IjkCacheEntry *entry)
+{
+    c->hit_logical_pos  = entry->logical_pos;
+    c->hit_logical_end  = entry->logical_pos + entry->size;
+    c->hit_physical_pos = entry->physical_pos;
+    c->hit_generation   = c->ijkio_app_ctx->cache_generation;
+}
+
+/*
+ * Reads from the last cached run without file_mutex, and without syscalls
+ * while its window stays mapped.
+ * The copy is dropped if the file content was rewritten meanwhile.
+ */
+static int ijkio_cache_mmap_read_hit(IjkIOCacheContext *c, unsigned char *buf, int size)
+{
+    int copied = 0;
+
+    while (copied < size &&
+           c->read_logical_pos + copied >= c->hit_logical_pos &&
+           c->read_logical_pos + copied <  c->hit_logical_end) {
+        int64_t in_run     = c->read_logical_pos + copied - c->hit_logical_pos;
+        int     generation = c->ijkio_app_ctx->cache_generation;
+        int     to_copy    = (int)FFMIN(size - copied, c->hit_logical_end - c->read_logical_pos - copied);
+        int     ret;
+
+        __sync_synchronize();
+        if (generation != c->hit_generation)
+            break;
+
+        ret = ijkio_cache_mmap_copy(c, c->hit_physical_pos + in_run, buf + copied, to_copy);
+        __sync_synchronize();
+        if (ret <= 0 || c->ijkio_app_ctx->cache_generation != generation)
+            break;
+
+        copied += ret;
+    }
+
+    if (copied < size)
+        c->hit_logical_end = 0;
+    return copied;
+}
+
 static int enu_free(void *opaque, void *elem)
 {
     free(elem);
@@ -157,6 +355,7 @@ static int ijkio_cache_file_error(IjkURLContext *h) {
         pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
         c->file_error_count++;
         if (!c->ijkio_app_ctx->shared) {
+            ijkio_cache_bump_generation(c);
             ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
             ijk_map_clear(c->cache_info_map);
             c->tree_info = NULL;
@@ -174,7 +373,8 @@ static int ijkio_cache_file_error(IjkURLContext *h) {
                 av_log(NULL, AV_LOG_WARNING, "ijkio_cache_file_error will remove file\n");
                 goto fail;
             }
-            c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | O_TRUNC, 0600);
+            // the reader may still copy from a mapping, which faults past a truncated end
+            c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | (c->cache_mmap ? 0 : O_TRUNC), 0600);
             c->ijkio_app_ctx->fd = c->fd;
             if (c->fd >= 0) {
                 c->file_handle_retry_count = 0;
@@ -207,6 +407,7 @@ static int64_t ijkio_cache_file_overrang(IjkURLContext *h, int64_t *cur_pos, int
     pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
 
     if (!c->ijkio_app_ctx->shared) {
+        ijkio_cache_bump_generation(c);
         ijk_map_remove(c->cache_info_map, (int64_t)c->cur_file_no);
         ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
         ijk_map_clear(c->cache_info_map);
@@ -306,6 +507,7 @@ static int64_t add_entry(IjkURLContext *h, const unsigned char *buf, int size)
     } else
         entry->size += ret;
 
+    ijkio_cache_journal_entry(c, entry);
     return ret;
 fail:
     //we could truncate the file to pos here if pos >=0 but ftruncate isn't available in VS so
@@ -582,6 +784,11 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
         }
     }
 
+    t = ijk_av_dict_get(*options, "cache_mmap", NULL, IJK_AV_DICT_MATCH_CASE);
+    if (t) {
+        c->cache_mmap = (int)strtol(t->value, NULL, 10) != 0 ? 1 : 0;
+    }
+
     c->cache_file_path = c->ijkio_app_ctx->cache_file_path;
 
     if (c->cache_file_path == NULL || 0 == strlen(c->cache_file_path)) {
@@ -608,13 +815,18 @@ static int ijkio_cache_open(IjkURLContext *h, const char *url, int flags, IjkAVD
                     cur_exist_file_size = lseek(c->fd, 0, SEEK_END);
                     if (cur_exist_file_size < *c->last_physical_pos) {
                         av_log(NULL, AV_LOG_WARNING, "ijkio cache exist is error, will delete last_physical_pos = %lld, cur_exist_file_size = %lld\n", *c->last_physical_pos, cur_exist_file_size);
+                        ijkio_cache_bump_generation(c);
                         ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
                         ijk_map_clear(c->cache_info_map);
                         *c->last_physical_pos    = 0;
                         c->cache_physical_pos    = 0;
                     }
+                    if (c->fd < 0) {
+                        // data file evicted by the cache manager, the map was cleared above
+                        c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | (c->cache_mmap ? 0 : O_TRUNC), 0600);
+                    }
                 } else {
-                    c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | O_TRUNC, 0600);
+                    c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | (c->cache_mmap ? 0 : O_TRUNC), 0600);
                 }
                 c->ijkio_app_ctx->fd = c->fd;
             }
@@ -750,6 +962,14 @@ static int ijkio_file_read(IjkURLContext *h, void *dest, int to_read)
         int64_t in_block_pos = c->read_logical_pos - entry->logical_pos;
         if (in_block_pos < entry->size && entry->logical_pos <= c->read_logical_pos) {
             int64_t physical_target = entry->physical_pos + in_block_pos;
+            if (c->cache_mmap) {
+                to_copy = (int)FFMIN(to_read, entry->size - in_block_pos);
+                ret = ijkio_cache_mmap_copy(c, physical_target, dest, to_copy);
+                if (ret > 0) {
+                    ijkio_cache_mmap_set_hit(c, entry);
+                    return (int)ret;
+                }
+            }
             if (c->cache_physical_pos != physical_target) {
                 ret = lseek(c->fd, physical_target, SEEK_SET);
                 if (ret < 0) {
@@ -843,6 +1063,7 @@ static int64_t sync_add_entry(IjkURLContext *h, const unsigned char *buf, int si
         entry->size += ret;
     }
 
+    ijkio_cache_journal_entry(c, entry);
     return ret;
 fail:
     //we could truncate the file to pos here if pos >=0 but ftruncate isn't available in VS so
@@ -877,6 +1098,12 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
         int64_t in_block_pos = c->read_logical_pos - entry->logical_pos;
         if (in_block_pos < entry->size && entry->logical_pos <= c->read_logical_pos) {
             int64_t physical_target = entry->physical_pos + in_block_pos;
+            if (c->cache_mmap) {
+                to_copy = (int)FFMIN(to_read, entry->size - in_block_pos);
+                ret = ijkio_cache_mmap_copy(c, physical_target, buf, to_copy);
+                if (ret > 0)
+                    return (int)ret;
+            }
             if (c->cache_physical_pos != physical_target) {
                 ret = lseek(c->fd, physical_target, SEEK_SET);
             } else {
@@ -894,15 +1121,18 @@ static int ijkio_cache_sync_read(IjkURLContext *h, unsigned char *buf, int size)
             }
 
             av_log(NULL, AV_LOG_ERROR, "%s cache file is bad, will try recreate\n", __func__);
+            ijkio_cache_bump_generation(c);
             ijk_map_traversal_handle(c->cache_info_map, NULL, tree_destroy);
             ijk_map_clear(c->cache_info_map);
             c->tree_info             = NULL;
             *c->last_physical_pos    = 0;
             c->cache_physical_pos    = 0;
             c->io_eof_reached        = 0;
+            pthread_mutex_lock(&c->ijkio_app_ctx->mutex);
             close(c->fd);
-            c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | O_TRUNC, 0600);
+            c->fd = open(c->cache_file_path, O_RDWR | O_BINARY | O_CREAT | (c->cache_mmap ? 0 : O_TRUNC), 0600);
             c->ijkio_app_ctx->fd = c->fd;
+            pthread_mutex_unlock(&c->ijkio_app_ctx->mutex);
             if (c->fd >= 0) {
                 c->tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
                 if (c->tree_info) {
@@ -976,6 +1206,23 @@ static int ijkio_cache_read(IjkURLContext *h, unsigned char *buf, int size) {
         return (int)ret;
     }
 
+    if (c->cache_mmap && c->hit_logical_end > 0) {
+        int64_t forwards = c->file_logical_pos - c->read_logical_pos;
+
+        to_copy = ijkio_cache_mmap_read_hit(c, dest, to_read);
+        if (to_copy > 0) {
+            c->read_logical_pos += to_copy;
+            // the writer sleeps while it is ahead by more than the forwards capacity
+            if (forwards > c->cache_file_forwards_capacity &&
+                forwards - to_copy <= c->cache_file_forwards_capacity) {
+                pthread_mutex_lock(&c->file_mutex);
+                pthread_cond_signal(&c->cond_wakeup_file_background);
+                pthread_mutex_unlock(&c->file_mutex);
+            }
+            return to_copy;
+        }
+    }
+
     pthread_mutex_lock(&c->file_mutex);
     while (to_read > 0) {
         if (ijkio_cache_check_interrupt(h)) {
@@ -1100,6 +1347,10 @@ static int ijkio_cache_close(IjkURLContext *h) {
     pthread_cond_destroy(&c->cond_wakeup_exit);
     pthread_mutex_destroy(&c->file_mutex);
 
+    ijkio_cache_mmap_unmap_all(c);
+    if (c->ijkio_app_ctx && c->ijkio_app_ctx->cache_journal)
+        ijkio_cache_journal_flush(c);
+
     ret = c->inner->prot->url_close(c->inner);
 
     if (c->inner_options) {
@@ -0,0 +1,573 @@
+/*
+ * ijkiocacheindex.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkiocacheindex.h"
+#include "ijkplayer/ijkavutil/ijktree.h"
+#include "ijkplayer/ijkavutil/ijkstl.h"
+#include "libavutil/log.h"
+
+#include <errno.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#   ifndef O_BINARY
+#       define O_BINARY 0
+#   endif
+
+#define INDEX_MAGIC         "IJKCIDX1"
+#define INDEX_MAGIC_SIZE    8
+#define INDEX_VERSION       1
+#define PATH_MAX_LEN        1024
+
+enum {
+    JOURNAL_RECORD_RANGE = 0x52414e47,  // 'RANG'
+    JOURNAL_RECORD_TREE  = 0x54524545,  // 'TREE'
+    JOURNAL_RECORD_RESET = 0x52534554,  // 'RSET'
+};
+
+typedef struct IndexHeader {
+    char     magic[INDEX_MAGIC_SIZE];
+    uint32_t version;
+    uint32_t tree_count;
+} IndexHeader;
+
+typedef struct IndexTree {
+    int64_t tree_index;
+    int64_t physical_init_pos;
+    int64_t physical_size;
+    int64_t file_size;
+    int64_t entry_count;
+} IndexTree;
+
+typedef struct IndexEntry {
+    int64_t logical_pos;
+    int64_t physical_pos;
+    int64_t size;
+} IndexEntry;
+
+// RANGE: logical_pos, physical_pos, size
+// TREE:  physical_init_pos, physical_size, file_size
+typedef struct JournalRecord {
+    uint32_t type;
+    uint32_t crc;
+    int64_t  tree_index;
+    int64_t  v[3];
+} JournalRecord;
+
+struct IjkIOCacheJournal {
+    char index_path[PATH_MAX_LEN];
+    char journal_path[PATH_MAX_LEN];
+    int  fd;
+    volatile int record_count;
+};
+
+typedef struct IndexWriter {
+    FILE     *fp;
+    uint32_t  crc;
+    int64_t   count;
+    int       error;
+} IndexWriter;
+
+static uint32_t       crc_table[256];
+static pthread_once_t crc_once = PTHREAD_ONCE_INIT;
+
+static void crc_init(void)
+{
+    for (uint32_t i = 0; i < 256; i++) {
+        uint32_t c = i;
+        for (int k = 0; k < 8; k++)
+            c = (c & 1) ? 0xEDB88320 ^ (c >> 1) : c >> 1;
+        crc_table[i] = c;
+    }
+}
+
+static uint32_t crc_update(uint32_t crc, const void *buf, size_t size)
+{
+    const uint8_t *p = buf;
+
+    pthread_once(&crc_once, crc_init);
+    crc = ~crc;
+    while (size--)
+        crc = crc_table[(crc ^ *p++) & 0xff] ^ (crc >> 8);
+    return ~crc;
+}
+
+static int cmp(const void *key, const void *node)
+{
+    return FFDIFFSIGN(*(const int64_t *)key, ((const IjkCacheEntry *) node)->logical_pos);
+}
+
+static int enu_free(void *opaque, void *elem)
+{
+    free(elem);
+    return 0;
+}
+
+static int tree_destroy(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    ijk_av_tree_enumerate(info->root, NULL, NULL, enu_free);
+    ijk_av_tree_destroy(info->root);
+    free(info);
+    return 0;
+}
+
+static int tree_sum_physical_size(void *parm, int64_t key, void *elem)
+{
+    IjkCacheTreeInfo *info = elem;
+    *(int64_t *)parm += info->physical_size;
+    return 0;
+}
+
+static IjkCacheTreeInfo *get_tree(void *cache_info_map, int64_t tree_index)
+{
+    IjkCacheTreeInfo *tree_info = ijk_map_get(cache_info_map, tree_index);
+
+    if (!tree_info) {
+        tree_info = calloc(1, sizeof(IjkCacheTreeInfo));
+        if (tree_info)
+            ijk_map_put(cache_info_map, tree_index, tree_info);
+    }
+    return tree_info;
+}
+
+// inserts the entry, or updates the one starting at the same logical position
+static int put_entry(IjkCacheTreeInfo *tree_info, int64_t logical_pos, int64_t physical_pos, int64_t size)
+{
+    IjkCacheEntry        *entry     = NULL;
+    IjkCacheEntry        *entry_ret = NULL;
+    struct IjkAVTreeNode *node      = NULL;
+
+    if (logical_pos < 0 || physical_pos < 0 || size <= 0)
+        return -1;
+
+    entry = ijk_av_tree_find(tree_info->root, &logical_pos, cmp, NULL);
+    if (entry) {
+        entry->physical_pos = physical_pos;
+        entry->size         = size;
+        return 0;
+    }
+
+    entry = calloc(1, sizeof(IjkCacheEntry));
+    node  = ijk_av_tree_node_alloc();
+    if (!entry || !node) {
+        free(entry);
+        free(node);
+        return -1;
+    }
+    entry->logical_pos  = logical_pos;
+    entry->physical_pos = physical_pos;
+    entry->size         = size;
+
+    entry_ret = ijk_av_tree_insert(&tree_info->root, entry, cmp, &node);
+    if (entry_ret && entry_ret != entry) {
+        free(entry);
+        free(node);
+        return -1;
+    }
+    return 0;
+}
+
+static void journal_path_of(char *dst, size_t size, const char *index_path)
+{
+    snprintf(dst, size, "%s%s", index_path, IJKIO_CACHE_JOURNAL_SUFFIX);
+}
+
+static void replay_journal(const char *index_path, void *cache_info_map)
+{
+    char          path[PATH_MAX_LEN];
+    JournalRecord record;
+    int64_t       count = 0;
+    FILE         *fp    = NULL;
+
+    journal_path_of(path, sizeof(path), index_path);
+    fp = fopen(path, "rb");
+    if (!fp)
+        return;
+
+    while (fread(&record, sizeof(record), 1, fp) == 1) {
+        IjkCacheTreeInfo *tree_info = NULL;
+        uint32_t          crc       = record.crc;
+
+        record.crc = 0;
+        if (crc_update(0, &record, sizeof(record)) != crc) {
+            // torn tail of a crashed writer
+            av_log(NULL, AV_LOG_WARNING, "ijkio cache journal %s corrupted after %lld records\n", path, count);
+            break;
+        }
+
+        switch (record.type) {
+        case JOURNAL_RECORD_RESET:
+            ijk_map_traversal_handle(cache_info_map, NULL, tree_destroy);
+            ijk_map_clear(cache_info_map);
+            break;
+        case JOURNAL_RECORD_TREE:
+            tree_info = get_tree(cache_info_map, record.tree_index);
+            if (tree_info) {
+                tree_info->physical_init_pos = record.v[0];
+                tree_info->physical_size     = record.v[1];
+                tree_info->file_size         = record.v[2];
+            }
+            break;
+        case JOURNAL_RECORD_RANGE:
+            tree_info = get_tree(cache_info_map, record.tree_index);
+            if (tree_info)
+                put_entry(tree_info, record.v[0], record.v[1], record.v[2]);
+            break;
+        default:
+            break;
+        }
+        count++;
+    }
+    fclose(fp);
+}
+
+static int parse_index(const uint8_t *buf, int64_t size, void *cache_info_map)
+{
+    IndexHeader header;
+    uint32_t    crc    = 0;
+    int64_t     offset = sizeof(IndexHeader);
+
+    if (size < (int64_t)(sizeof(IndexHeader) + sizeof(uint32_t)))
+        return -1;
+
+    memcpy(&crc, buf + size - sizeof(uint32_t), sizeof(uint32_t));
+    size -= sizeof(uint32_t);
+    if (crc_update(0, buf, size) != crc)
+        return -1;
+
+    memcpy(&header, buf, sizeof(header));
+    if (header.version != INDEX_VERSION)
+        return -1;
+
+    for (uint32_t i = 0; i < header.tree_count; i++) {
+        IjkCacheTreeInfo *tree_info = NULL;
+        IndexTree         tree;
+
+        if (offset + (int64_t)sizeof(tree) > size)
+            return -1;
+        memcpy(&tree, buf + offset, sizeof(tree));
+        offset += sizeof(tree);
+        if (tree.entry_count < 0 || tree.entry_count > (size - offset) / (int64_t)sizeof(IndexEntry))
+            return -1;
+
+        tree_info = get_tree(cache_info_map, tree.tree_index);
+        if (!tree_info)
+            return -1;
+        tree_info->physical_init_pos = tree.physical_init_pos;
+        tree_info->physical_size     = tree.physical_size;
+        tree_info->file_size         = tree.file_size;
+
+        for (int64_t j = 0; j < tree.entry_count; j++) {
+            IndexEntry entry;
+
+            memcpy(&entry, buf + offset, sizeof(entry));
+            offset += sizeof(entry);
+            if (put_entry(tree_info, entry.logical_pos, entry.physical_pos, entry.size) < 0)
+                return -1;
+        }
+    }
+    return 0;
+}
+
+int ijkio_cache_index_load(const char *path, IjkIOApplicationContext *app_ctx)
+{
+    struct stat st;
+    uint8_t    *buf   = NULL;
+    FILE       *fp    = NULL;
+    int64_t     total = 0;
+
+    if (!path || !path[0] || !app_ctx || !app_ctx->cache_info_map)
+        return -1;
+
+    fp = fopen(path, "rb");
+    if (fp) {
+        char magic[INDEX_MAGIC_SIZE];
+
+        if (fread(magic, sizeof(magic), 1, fp) != 1 || memcmp(magic, INDEX_MAGIC, INDEX_MAGIC_SIZE)) {
+            // text map of an older version
+            fclose(fp);
+            return -1;
+        }
+
+        if (fstat(fileno(fp), &st) == 0 && st.st_size > 0)
+            buf = malloc(st.st_size);
+        if (buf) {
+            rewind(fp);
+            if (fread(buf, st.st_size, 1, fp) != 1 || parse_index(buf, st.st_size, app_ctx->cache_info_map) < 0) {
+                av_log(NULL, AV_LOG_WARNING, "ijkio cache index %s is invalid, will drop it\n", path);
+                ijk_map_traversal_handle(app_ctx->cache_info_map, NULL, tree_destroy);
+                ijk_map_clear(app_ctx->cache_info_map);
+            }
+            free(buf);
+        }
+        fclose(fp);
+    }
+
+    // ranges in the journal are absolute, they are valid even without the index
+    replay_journal(path, app_ctx->cache_info_map);
+
+    ijk_map_traversal_handle(app_ctx->cache_info_map, &total, tree_sum_physical_size);
+    app_ctx->last_physical_pos = total;
+    return 0;
+}
+
+static int enu_count(void *opaque, void *elem)
+{
+    IndexWriter *writer = opaque;
+    writer->count++;
+    return 0;
+}
+
+static void writer_write(IndexWriter *writer, const void *buf, size_t size)
+{
+    if (writer->error)
+        return;
+    if (fwrite(buf, size, 1, writer->fp) != 1) {
+        writer->error = 1;
+        return;
+    }
+    writer->crc = crc_update(writer->crc, buf, size);
+}
+
+static int enu_write_entry(void *opaque, void *elem)
+{
+    IjkCacheEntry *entry = elem;
+    IndexEntry     index_entry;
+
+    index_entry.logical_pos  = entry->logical_pos;
+    index_entry.physical_pos = entry->physical_pos;
+    index_entry.size         = entry->size;
+    writer_write(opaque, &index_entry, sizeof(index_entry));
+    return 0;
+}
+
+static int write_tree(void *parm, int64_t key, void *elem)
+{
+    IndexWriter      *writer    = parm;
+    IjkCacheTreeInfo *tree_info = elem;
+    IndexTree         tree;
+
+    if (key < 0 || !tree_info)
+        return 0;
+
+    writer->count = 0;
+    ijk_av_tree_enumerate(tree_info->root, writer, NULL, enu_count);
+
+    tree.tree_index        = key;
+    tree.physical_init_pos = tree_info->physical_init_pos;
+    tree.physical_size     = tree_info->physical_size;
+    tree.file_size         = tree_info->file_size;
+    tree.entry_count       = writer->count;
+    writer_write(writer, &tree, sizeof(tree));
+    ijk_av_tree_enumerate(tree_info->root, writer, NULL, enu_write_entry);
+    return 0;
+}
+
+static int count_tree(void *parm, int64_t key, void *elem)
+{
+    if (key >= 0 && elem)
+        (*(uint32_t *)parm)++;
+    return 0;
+}
+
+/*
+ * Truncate rather than unlink, an open journal appends to the same file.
+ * If that fails the file is replaced, see ijkio_cache_journal_compact().
+ */
+static int journal_empty(const char *journal_path)
+{
+    int fd;
+
+    if (truncate(journal_path, 0) == 0 || errno == ENOENT)
+        return 0;
+
+    av_log(NULL, AV_LOG_WARNING, "ijkio cache journal %s truncate failed: %s, recreate it\n",
+           journal_path, strerror(errno));
+    if (unlink(journal_path) != 0 && errno != ENOENT)
+        return -1;
+    fd = open(journal_path, O_WRONLY | O_BINARY | O_CREAT | O_TRUNC, 0600);
+    if (fd < 0)
+        return -1;
+    close(fd);
+    return 0;
+}
+
+int ijkio_cache_index_save(const char *path, void *cache_info_map)
+{
+    char        tmp_path[PATH_MAX_LEN];
+    char        journal_path[PATH_MAX_LEN];
+    IndexHeader header;
+    IndexWriter writer = {0};
+
+    if (!path || !path[0] || !cache_info_map)
+        return -1;
+
+    snprintf(tmp_path, sizeof(tmp_path), "%s.tmp", path);
+    writer.fp = fopen(tmp_path, "wb");
+    if (!writer.fp)
+        return -1;
+
+    memset(&header, 0, sizeof(header));
+    memcpy(header.magic, INDEX_MAGIC, INDEX_MAGIC_SIZE);
+    header.version = INDEX_VERSION;
+    ijk_map_traversal_handle(cache_info_map, &header.tree_count, count_tree);
+    writer_write(&writer, &header, sizeof(header));
+
+    ijk_map_traversal_handle(cache_info_map, &writer, write_tree);
+
+    if (!writer.error && fwrite(&writer.crc, sizeof(writer.crc), 1, writer.fp) != 1)
+        writer.error = 1;
+    if (fflush(writer.fp) != 0 || fsync(fileno(writer.fp)) != 0)
+        writer.error = 1;
+    fclose(writer.fp);
+
+    if (writer.error || rename(tmp_path, path) != 0) {
+        av_log(NULL, AV_LOG_ERROR, "ijkio cache index save %s failed\n", path);
+        unlink(tmp_path);
+        return -1;
+    }
+
+    journal_path_of(journal_path, sizeof(journal_path), path);
+    if (journal_empty(journal_path) < 0) {
+        av_log(NULL, AV_LOG_ERROR, "ijkio cache journal %s not emptied: %s\n", journal_path, strerror(errno));
+        return -1;
+    }
+    return 0;
+}
+
+int ijkio_cache_journal_open(IjkIOCacheJournal **pjournal, const char *index_path)
+{
+    IjkIOCacheJournal *journal = NULL;
+    struct stat        st;
+
+    if (!pjournal || !index_path || !index_path[0])
+        return -1;
+
+    journal = calloc(1, sizeof(IjkIOCacheJournal));
+    if (!journal)
+        return -1;
+
+    snprintf(journal->index_path, sizeof(journal->index_path), "%s", index_path);
+    journal_path_of(journal->journal_path, sizeof(journal->journal_path), index_path);
+    journal->fd = open(journal->journal_path, O_WRONLY | O_BINARY | O_CREAT | O_APPEND, 0600);
+    if (journal->fd < 0) {
+        free(journal);
+        return -1;
+    }
+
+    // records left by an earlier session count towards compaction too
+    if (fstat(journal->fd, &st) == 0)
+        journal->record_count = (int)(st.st_size / sizeof(JournalRecord));
+
+    *pjournal = journal;
+    return 0;
+}
+
+void ijkio_cache_journal_closep(IjkIOCacheJournal **pjournal)
+{
+    if (!pjournal || !*pjournal)
+        return;
+
+    close((*pjournal)->fd);
+    free(*pjournal);
+    *pjournal = NULL;
+}
+
+static void journal_fill(JournalRecord *record, uint32_t type, int64_t tree_index, int64_t v0, int64_t v1, int64_t v2)
+{
+    memset(record, 0, sizeof(*record));
+    record->type       = type;
+    record->tree_index = tree_index;
+    record->v[0]       = v0;
+    record->v[1]       = v1;
+    record->v[2]       = v2;
+    record->crc        = crc_update(0, record, sizeof(*record));
+}
+
+static void journal_write(IjkIOCacheJournal *journal, const JournalRecord *records, int count)
+{
+    // one write per call, O_APPEND keeps concurrent writers from interleaving
+    if (write(journal->fd, records, sizeof(*records) * count) < 0)
+        return;
+    __sync_add_and_fetch(&journal->record_count, count);
+}
+
+void ijkio_cache_journal_append_range(IjkIOCacheJournal *journal, int64_t tree_index,
+                                      const IjkCacheTreeInfo *tree_info, const IjkCacheEntry *entry)
+{
+    JournalRecord records[2];
+
+    if (!journal || !tree_info || !entry)
+        return;
+
+    journal_fill(&records[0], JOURNAL_RECORD_TREE, tree_index,
+                 tree_info->physical_init_pos, tree_info->physical_size, tree_info->file_size);
+    journal_fill(&records[1], JOURNAL_RECORD_RANGE, tree_index,
+                 entry->logical_pos, entry->physical_pos, entry->size);
+    journal_write(journal, records, 2);
+}
+
+void ijkio_cache_journal_append_reset(IjkIOCacheJournal *journal)
+{
+    JournalRecord record;
+
+    if (!journal)
+        return;
+
+    journal_fill(&record, JOURNAL_RECORD_RESET, 0, 0, 0, 0);
+    journal_write(journal, &record, 1);
+}
+
+int ijkio_cache_journal_should_compact(IjkIOCacheJournal *journal)
+{
+    return journal && journal->record_count >= IJKIO_CACHE_JOURNAL_MAX_RECORDS;
+}
+
+int ijkio_cache_journal_compact(IjkIOCacheJournal *journal, void *cache_info_map)
+{
+    int ret = 0;
+
+    if (!journal)
+        return -1;
+
+    ret = ijkio_cache_index_save(journal->index_path, cache_info_map);
+    if (ret == 0) {
+        struct stat st;
+
+        journal->record_count = 0;
+        // journal_empty() replaced the file, stop appending to the unlinked one
+        if (fstat(journal->fd, &st) == 0 && st.st_nlink == 0) {
+            int fd = open(journal->journal_path, O_WRONLY | O_BINARY | O_CREAT | O_APPEND, 0600);
+            if (fd >= 0) {
+                close(journal->fd);
+                journal->fd = fd;
+            }
+        }
+    }
+    return ret;
+}
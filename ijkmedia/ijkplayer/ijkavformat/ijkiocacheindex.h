@@ -0,0 +1,69 @@
+/*
+ * ijkiocacheindex.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKIOCACHEINDEX_H
+#define IJKAVFORMAT_IJKIOCACHEINDEX_H
+
+#include "ijkioapplication.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+
+#include <stdint.h>
+
+/*
+ * Binary cache map.
+ *
+ * The index at cache_map_path holds every tree and entry of a cache file and
+ * ends with a crc32, it is only replaced as a whole through a rename. Ranges
+ * cached since the last save are appended to "<cache_map_path>.journal" as
+ * fixed size, checksummed records, so a crash loses at most the unjournaled
+ * tail of each range. Saving the index empties the journal.
+ */
+
+#define IJKIO_CACHE_JOURNAL_SUFFIX          ".journal"
+// an entry is journaled again once it grew by this many bytes
+#define IJKIO_CACHE_JOURNAL_INTERVAL        (512 * 1024)
+// records appended before the journal asks for compaction
+#define IJKIO_CACHE_JOURNAL_MAX_RECORDS     4096
+
+typedef struct IjkIOCacheJournal IjkIOCacheJournal;
+
+/*
+ * Loads the index at path into app_ctx and replays its journal.
+ *
+ * @return 0 on success or if neither file exists, <0 if path is not a binary index
+ */
+int  ijkio_cache_index_load(const char *path, IjkIOApplicationContext *app_ctx);
+int  ijkio_cache_index_save(const char *path, void *cache_info_map);
+
+int  ijkio_cache_journal_open(IjkIOCacheJournal **pjournal, const char *index_path);
+void ijkio_cache_journal_closep(IjkIOCacheJournal **pjournal);
+
+void ijkio_cache_journal_append_range(IjkIOCacheJournal *journal, int64_t tree_index,
+                                      const IjkCacheTreeInfo *tree_info, const IjkCacheEntry *entry);
+// records that cached data was dropped or overwritten
+void ijkio_cache_journal_append_reset(IjkIOCacheJournal *journal);
+
+int  ijkio_cache_journal_should_compact(IjkIOCacheJournal *journal);
+// saves the index and empties the journal
+int  ijkio_cache_journal_compact(IjkIOCacheJournal *journal, void *cache_info_map);
+
+#endif  // IJKAVFORMAT_IJKIOCACHEINDEX_H
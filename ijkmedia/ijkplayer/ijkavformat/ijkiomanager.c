@@ -21,6 +21,7 @@
 
 #include "ijkiomanager.h"
 #include "ijkioprotocol.h"
+#include "ijkiocacheindex.h"
 #include "ijkplayer/ijkavutil/ijkutils.h"
 #include "ijkplayer/ijkavutil/ijktree.h"
 #include "ijkplayer/ijkavutil/ijkstl.h"
@@ -30,9 +31,17 @@
 #include <string.h>
 #include <stdio.h>
 #include <unistd.h>
+#include <dirent.h>
+#include <pthread.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+#include <time.h>
 
 #define CONFIG_MAX_LINE 1024
 
+static void ijkio_cache_manager_pin(const char *path, const char *map_path);
+static void ijkio_cache_manager_unpin(const char *path);
+
 static int ijkio_manager_alloc(IjkIOManagerContext **ph, void *opaque)
 {
     IjkIOManagerContext *h = NULL;
@@ -74,73 +83,11 @@ static int tree_destroy(void *parm, int64_t key, void *elem)
     return 0;
 }
 
-static int enu_save(void *opaque, void *elem) {
-    FILE *fp = opaque;
-    IjkCacheEntry *entry = elem;
-    char string[CONFIG_MAX_LINE] = {0};
-
-    if (entry && fp) {
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_logical_pos:%lld\n", entry->logical_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_physical_pos:%lld\n", entry->physical_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry_size:%lld\n", entry->size);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "entry-info-flush\n");
-        fwrite(string, strlen(string), 1, fp);
-    }
-    return 0;
-}
-
-static int ijkio_manager_save_tree_to_file(void *parm, int64_t key, void *elem)
-{
-    IjkCacheTreeInfo *info = elem;
-    FILE *fp = parm;
-    char string[CONFIG_MAX_LINE] = {0};
-    if (key >= 0 && info) {
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_index:%lld\n", key);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_physical_init_pos:%lld\n", info->physical_init_pos);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_physical_size:%lld\n", info->physical_size);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree_file_size:%lld\n", info->file_size);
-        fwrite(string, strlen(string), 1, fp);
-
-        memset(string, 0, CONFIG_MAX_LINE);
-        snprintf(string, CONFIG_MAX_LINE, "tree-info-flush\n");
-        fwrite(string, strlen(string), 1, fp);
-
-        ijk_av_tree_enumerate(info->root, parm, NULL, enu_save);
-    }
-    return 0;
-}
-
 void ijkio_manager_destroy(IjkIOManagerContext *h)
 {
-    FILE *map_tree_info_fp = NULL;
-
     if (h->ijkio_app_ctx) {
         if (h->auto_save_map) {
-            map_tree_info_fp = fopen(h->cache_map_path, "w");
-            if (map_tree_info_fp) {
-                ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, map_tree_info_fp, ijkio_manager_save_tree_to_file);
-                fclose(map_tree_info_fp);
-            }
+            ijkio_cache_index_save(h->cache_map_path, h->ijkio_app_ctx->cache_info_map);
         }
 
         ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, NULL, tree_destroy);
@@ -150,6 +97,7 @@ void ijkio_manager_destroy(IjkIOManagerContext *h)
         if (h->ijkio_app_ctx->threadpool_ctx) {
             ijk_threadpool_destroy(h->ijkio_app_ctx->threadpool_ctx, IJK_IMMEDIATE_SHUTDOWN);
         }
+        ijkio_cache_journal_closep(&h->ijkio_app_ctx->cache_journal);
 
         if (0 != strlen(h->ijkio_app_ctx->cache_file_path)) {
             if (h->ijkio_app_ctx->fd >= 0) {
@@ -161,6 +109,10 @@ void ijkio_manager_destroy(IjkIOManagerContext *h)
         ijkio_application_closep(&h->ijkio_app_ctx);
     }
 
+    if (0 != strlen(h->pinned_cache_path)) {
+        ijkio_cache_manager_unpin(h->pinned_cache_path);
+    }
+
     ijk_map_destroy(h->ijk_ctx_map);
     h->ijk_ctx_map = NULL;
 
@@ -343,14 +295,11 @@ void ijkio_manager_will_share_cache_map(IjkIOManagerContext *h) {
     }
 
     pthread_mutex_lock(&h->ijkio_app_ctx->mutex);
-    FILE *map_tree_info_fp = fopen(h->cache_map_path, "w");
-    if (!map_tree_info_fp) {
+    if (ijkio_cache_index_save(h->cache_map_path, h->ijkio_app_ctx->cache_info_map) < 0) {
         pthread_mutex_unlock(&h->ijkio_app_ctx->mutex);
         return;
     }
     h->ijkio_app_ctx->shared = 1;
-    ijk_map_traversal_handle(h->ijkio_app_ctx->cache_info_map, map_tree_info_fp, ijkio_manager_save_tree_to_file);
-    fclose(map_tree_info_fp);
     if (h->ijkio_app_ctx->fd >= 0) {
         fsync(h->ijkio_app_ctx->fd);
     }
@@ -405,10 +354,24 @@ int ijkio_manager_io_open(IjkIOManagerContext *h, const char *url, int flags, Ij
             if (t) {
                 parse_cache_map_file = (int)strtol(t->value, NULL, 10);
                 if (parse_cache_map_file) {
-                    ijkio_manager_parse_cache_info(h->ijkio_app_ctx, h->cache_map_path);
+                    if (ijkio_cache_index_load(h->cache_map_path, h->ijkio_app_ctx) < 0)
+                        ijkio_manager_parse_cache_info(h->ijkio_app_ctx, h->cache_map_path);
                 }
             }
         }
+
+        // the replayed records stay in the journal, compaction or close folds them into the index
+        if (h->auto_save_map && !h->ijkio_app_ctx->cache_journal &&
+            ijkio_cache_journal_open(&h->ijkio_app_ctx->cache_journal, h->cache_map_path) == 0 &&
+            !ijk_map_size(h->ijkio_app_ctx->cache_info_map)) {
+            // nothing restored, older records must not be replayed under the new ranges
+            ijkio_cache_journal_append_reset(h->ijkio_app_ctx->cache_journal);
+        }
+    }
+
+    if (0 != strlen(h->ijkio_app_ctx->cache_file_path) && 0 == strlen(h->pinned_cache_path)) {
+        strcpy(h->pinned_cache_path, h->ijkio_app_ctx->cache_file_path);
+        ijkio_cache_manager_pin(h->pinned_cache_path, h->cache_map_path);
     }
 
     h->ijkio_app_ctx->ijkio_interrupt_callback = h->ijkio_interrupt_callback;
@@ -505,3 +468,277 @@ int ijkio_manager_io_close(IjkIOManagerContext *h) {
 
     return ret;
 }
+
+typedef struct IjkIOCacheFile {
+    char    path[CACHE_FILE_PATH_MAX_LEN];
+    char    map_path[CACHE_MAP_PATH_MAX_LEN];
+    char    journal_path[CACHE_MAP_PATH_MAX_LEN];
+    int64_t size;
+    int64_t last_access;
+    int     pin_count;
+    struct IjkIOCacheFile *next;
+} IjkIOCacheFile;
+
+static struct {
+    pthread_mutex_t mutex;
+    char            dir[CACHE_FILE_PATH_MAX_LEN];
+    int64_t         max_bytes;
+    IjkIOCacheFile *files;
+} g_cache_manager = {
+    .mutex = PTHREAD_MUTEX_INITIALIZER,
+};
+
+static int64_t cache_file_stat_size(const char *path, int64_t *mtime)
+{
+    struct stat st;
+
+    if (!path[0] || stat(path, &st) != 0 || !S_ISREG(st.st_mode))
+        return 0;
+    if (mtime && st.st_mtime > *mtime)
+        *mtime = st.st_mtime;
+    return st.st_size;
+}
+
+static int64_t cache_file_pair_size(IjkIOCacheFile *file)
+{
+    return cache_file_stat_size(file->path, NULL) +
+           cache_file_stat_size(file->map_path, NULL) +
+           cache_file_stat_size(file->journal_path, NULL);
+}
+
+static void cache_file_touch(const char *path)
+{
+    if (path[0])
+        utimes(path, NULL);
+}
+
+static int cache_file_is_managed_l(const char *path)
+{
+    size_t len = strlen(g_cache_manager.dir);
+
+    return len > 0 && !strncmp(path, g_cache_manager.dir, len) && path[len] == '/';
+}
+
+static IjkIOCacheFile *cache_file_find_l(const char *path)
+{
+    IjkIOCacheFile *file = g_cache_manager.files;
+
+    for (; file; file = file->next) {
+        if (!strcmp(file->path, path))
+            return file;
+    }
+    return NULL;
+}
+
+static void cache_file_remove_l(IjkIOCacheFile *file)
+{
+    IjkIOCacheFile **pp = &g_cache_manager.files;
+
+    for (; *pp; pp = &(*pp)->next) {
+        if (*pp == file) {
+            *pp = file->next;
+            free(file);
+            return;
+        }
+    }
+}
+
+static IjkIOCacheFile *cache_file_add_l(const char *path)
+{
+    IjkIOCacheFile *file = calloc(1, sizeof(IjkIOCacheFile));
+
+    if (!file)
+        return NULL;
+    snprintf(file->path, sizeof(file->path), "%s", path);
+    file->next = g_cache_manager.files;
+    g_cache_manager.files = file;
+    return file;
+}
+
+static int64_t cache_manager_usage_l(void)
+{
+    IjkIOCacheFile *file = g_cache_manager.files;
+    int64_t usage = 0;
+
+    for (; file; file = file->next) {
+        // pinned files are still growing
+        if (file->pin_count > 0)
+            file->size = cache_file_pair_size(file);
+        usage += file->size;
+    }
+    return usage;
+}
+
+static int64_t cache_manager_trim_l(int64_t max_bytes)
+{
+    int64_t usage = cache_manager_usage_l();
+    int64_t freed = 0;
+
+    while (usage > max_bytes) {
+        IjkIOCacheFile *file   = g_cache_manager.files;
+        IjkIOCacheFile *oldest = NULL;
+
+        for (; file; file = file->next) {
+            if (file->pin_count <= 0 && (!oldest || file->last_access < oldest->last_access))
+                oldest = file;
+        }
+        if (!oldest)
+            break;
+
+        av_log(NULL, AV_LOG_INFO, "ijkio cache manager evict %s, size = %lld\n", oldest->path, oldest->size);
+        unlink(oldest->path);
+        if (oldest->map_path[0])
+            unlink(oldest->map_path);
+        if (oldest->journal_path[0])
+            unlink(oldest->journal_path);
+        usage -= oldest->size;
+        freed += oldest->size;
+        cache_file_remove_l(oldest);
+    }
+    return freed;
+}
+
+int ijkio_cache_manager_set_budget(const char *dir, int64_t max_bytes)
+{
+    IjkIOCacheFile *file   = NULL;
+    IjkIOCacheFile *pinned = NULL;
+    struct dirent  *entry  = NULL;
+    DIR            *dp     = NULL;
+    char            path[CACHE_FILE_PATH_MAX_LEN];
+    size_t          len    = 0;
+
+    if (!dir || !dir[0])
+        return -1;
+
+    dp = opendir(dir);
+    if (!dp)
+        return -1;
+
+    pthread_mutex_lock(&g_cache_manager.mutex);
+    // keep pinned entries, their map pairing is not recoverable from a scan
+    while (g_cache_manager.files) {
+        file = g_cache_manager.files;
+        g_cache_manager.files = file->next;
+        if (file->pin_count > 0) {
+            file->next = pinned;
+            pinned = file;
+        } else {
+            free(file);
+        }
+    }
+    g_cache_manager.files = pinned;
+
+    snprintf(g_cache_manager.dir, sizeof(g_cache_manager.dir), "%s", dir);
+    len = strlen(g_cache_manager.dir);
+    while (len > 1 && g_cache_manager.dir[len - 1] == '/')
+        g_cache_manager.dir[--len] = '\0';
+    g_cache_manager.max_bytes = max_bytes;
+
+    while ((entry = readdir(dp)) != NULL) {
+        int64_t mtime = 0;
+        int64_t size  = 0;
+
+        if (entry->d_name[0] == '.')
+            continue;
+        snprintf(path, sizeof(path), "%s/%s", g_cache_manager.dir, entry->d_name);
+        if (cache_file_find_l(path))
+            continue;
+        for (file = g_cache_manager.files; file; file = file->next) {
+            if (!strcmp(file->map_path, path) || !strcmp(file->journal_path, path))
+                break;
+        }
+        if (file)
+            continue;
+
+        size = cache_file_stat_size(path, &mtime);
+        if (size <= 0 && mtime == 0)
+            continue;
+        file = cache_file_add_l(path);
+        if (!file)
+            break;
+        file->size        = size;
+        file->last_access = mtime;
+    }
+    closedir(dp);
+
+    if (max_bytes > 0)
+        cache_manager_trim_l(max_bytes);
+    pthread_mutex_unlock(&g_cache_manager.mutex);
+    return 0;
+}
+
+int64_t ijkio_cache_manager_get_usage(void)
+{
+    int64_t usage = 0;
+
+    pthread_mutex_lock(&g_cache_manager.mutex);
+    usage = cache_manager_usage_l();
+    pthread_mutex_unlock(&g_cache_manager.mutex);
+    return usage;
+}
+
+int64_t ijkio_cache_manager_trim(int64_t max_bytes)
+{
+    int64_t freed = 0;
+
+    pthread_mutex_lock(&g_cache_manager.mutex);
+    freed = cache_manager_trim_l(max_bytes > 0 ? max_bytes : 0);
+    pthread_mutex_unlock(&g_cache_manager.mutex);
+    return freed;
+}
+
+static void ijkio_cache_manager_pin(const char *path, const char *map_path)
+{
+    IjkIOCacheFile *file = NULL;
+
+    pthread_mutex_lock(&g_cache_manager.mutex);
+    if (!cache_file_is_managed_l(path))
+        goto end;
+
+    file = cache_file_find_l(path);
+    if (!file)
+        file = cache_file_add_l(path);
+    if (!file)
+        goto end;
+
+    if (map_path && map_path[0] && strcmp(file->map_path, map_path)) {
+        // the scan listed the map and its journal as files of their own
+        IjkIOCacheFile *map_file = NULL;
+
+        snprintf(file->map_path, sizeof(file->map_path), "%s", map_path);
+        snprintf(file->journal_path, sizeof(file->journal_path), "%s%s", map_path, IJKIO_CACHE_JOURNAL_SUFFIX);
+        map_file = cache_file_find_l(file->map_path);
+        if (map_file && map_file->pin_count <= 0)
+            cache_file_remove_l(map_file);
+        map_file = cache_file_find_l(file->journal_path);
+        if (map_file && map_file->pin_count <= 0)
+            cache_file_remove_l(map_file);
+    }
+    file->pin_count++;
+    file->last_access = time(NULL);
+    cache_file_touch(file->path);
+    cache_file_touch(file->map_path);
+end:
+    pthread_mutex_unlock(&g_cache_manager.mutex);
+}
+
+static void ijkio_cache_manager_unpin(const char *path)
+{
+    IjkIOCacheFile *file = NULL;
+
+    pthread_mutex_lock(&g_cache_manager.mutex);
+    file = cache_file_find_l(path);
+    if (!file || file->pin_count <= 0)
+        goto end;
+
+    file->pin_count--;
+    file->size        = cache_file_pair_size(file);
+    file->last_access = time(NULL);
+    cache_file_touch(file->path);
+    cache_file_touch(file->map_path);
+
+    if (g_cache_manager.max_bytes > 0)
+        cache_manager_trim_l(g_cache_manager.max_bytes);
+end:
+    pthread_mutex_unlock(&g_cache_manager.mutex);
+}
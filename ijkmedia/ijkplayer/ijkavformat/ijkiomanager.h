@@ -37,6 +37,7 @@ struct IjkIOManagerContext {
     void *ijk_ctx_map;
     void *opaque;
     char cache_map_path[CACHE_MAP_PATH_MAX_LEN];
+    char pinned_cache_path[CACHE_FILE_PATH_MAX_LEN];
 };
 
 int ijkio_manager_create(IjkIOManagerContext **ph, void *opaque);
@@ -52,4 +53,19 @@ int ijkio_manager_io_read(IjkIOManagerContext *h, unsigned char *buf, int size);
 int64_t ijkio_manager_io_seek(IjkIOManagerContext *h, int64_t offset, int whence);
 int ijkio_manager_io_close(IjkIOManagerContext *h);
 
+/*
+ * Process-wide disk cache budget, shared by all players.
+ *
+ * Files in the managed directory are evicted least recently used first when
+ * their total size exceeds the budget. The data and map files of a cache
+ * opened by a player are pinned until the player is destroyed, then evicted
+ * together.
+ */
+
+// scans dir, max_bytes <= 0 disables eviction
+int ijkio_cache_manager_set_budget(const char *dir, int64_t max_bytes);
+int64_t ijkio_cache_manager_get_usage(void);
+// evicts unpinned files until usage <= max_bytes, returns the bytes freed
+int64_t ijkio_cache_manager_trim(int64_t max_bytes);
+
 #endif  // IJKAVFORMAT_IJKIOMANAGER_H
@@ -0,0 +1,653 @@
+/*
+ * ijkioparallel.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * "parallel:" fetches the start of a progressive mp4 over several http range
+ * requests, e.g. "ijkio:cache:parallel:ffio:http://...".
+ *
+ * The head of the file is read at open and its top level boxes are walked.
+ * If mdat comes before moov, the tail of the file is fetched right away on a
+ * second connection, so the seek of the demuxer to moov is served from memory.
+ * The first bytes after the head are split into chunks fetched by
+ * parallel_connections workers, while reads still return data in order, so
+ * the cache above is filled sequentially.
+ */
+
+#include "ijkiourl.h"
+#include "ijkioprotocol.h"
+#include "ijkioapplication.h"
+#include "ijkplayer/ijkavutil/ijkutils.h"
+#include "ijkplayer/ijkavutil/ijkdict.h"
+#include "libavutil/log.h"
+
+#include <pthread.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define PARALLEL_PROBE_SIZE              (64 * 1024)
+#define PARALLEL_READ_SIZE               (64 * 1024)
+#define PARALLEL_MAX_TAIL_SIZE           (32 * 1024 * 1024)
+#define PARALLEL_MAX_RANGES              64
+#define PARALLEL_MAX_CONNECTIONS         8
+
+#define DEFAULT_PARALLEL_CONNECTIONS     3
+#define DEFAULT_PARALLEL_CHUNK_SIZE      (512 * 1024)
+#define DEFAULT_PARALLEL_PREFETCH_SIZE   (4 * 1024 * 1024)
+#define DEFAULT_PARALLEL_MAX_SIZE        (16 * 1024 * 1024)
+
+#define MKBETAG(a,b,c,d) ((d) | ((c) << 8) | ((b) << 16) | ((unsigned)(a) << 24))
+
+enum {
+    RANGE_PENDING = 0,
+    RANGE_RUNNING,
+    RANGE_DONE,
+    RANGE_FAILED,
+};
+
+typedef struct IjkIOParallelRange {
+    int64_t  start;
+    int64_t  end;
+    uint8_t *buf;
+    int64_t  filled;
+    int      state;
+} IjkIOParallelRange;
+
+typedef struct IjkIOParallelContext {
+    IjkURLContext *inner;
+    int64_t inner_pos;
+    char *inner_url;
+    int inner_flags;
+    IjkAVDictionary *inner_options;
+
+    int64_t logical_pos;
+    int64_t logical_size;
+
+    // ranges served from memory, ranges[0] is the head read at open
+    IjkIOParallelRange ranges[PARALLEL_MAX_RANGES];
+    int range_count;
+    int ranges_final;
+    int64_t prefetch_end;
+    int64_t mdat_pos;
+    int tail_range;
+
+    int connections;
+    int64_t chunk_size;
+    int64_t prefetch_size;
+    int64_t prefetch_seconds;
+    int64_t max_size;
+
+    pthread_t workers[PARALLEL_MAX_CONNECTIONS];
+    int worker_count;
+    pthread_mutex_t mutex;
+    pthread_cond_t cond;
+    int abort_request;
+
+    // workers open their urls with an app context of their own, to be interrupted on close
+    IjkAVIOInterruptCB *parent_interrupt_callback;
+    IjkAVIOInterruptCB worker_interrupt_callback;
+    IjkIOApplicationContext worker_app_ctx;
+} IjkIOParallelContext;
+
+static uint32_t rb32(const uint8_t *p)
+{
+    return ((uint32_t)p[0] << 24) | ((uint32_t)p[1] << 16) | ((uint32_t)p[2] << 8) | p[3];
+}
+
+static uint64_t rb64(const uint8_t *p)
+{
+    return ((uint64_t)rb32(p) << 32) | rb32(p + 4);
+}
+
+static int parallel_check_interrupt(void *opaque)
+{
+    IjkIOParallelContext *c = opaque;
+
+    if (c->abort_request)
+        return 1;
+    if (c->parent_interrupt_callback && c->parent_interrupt_callback->callback &&
+        c->parent_interrupt_callback->callback(c->parent_interrupt_callback->opaque))
+        return 1;
+    return 0;
+}
+
+/*
+ * Reads the box header at buf.
+ * @return header size, 0 if incomplete or invalid
+ */
+static int parallel_read_box(const uint8_t *buf, int64_t len, int64_t to_end, int64_t *size, uint32_t *type)
+{
+    int header = 8;
+
+    if (len < 8)
+        return 0;
+    *size = rb32(buf);
+    *type = rb32(buf + 4);
+    if (*size == 1) {
+        if (len < 16)
+            return 0;
+        *size  = (int64_t)rb64(buf + 8);
+        header = 16;
+    } else if (*size == 0) {
+        *size = to_end;
+    }
+    if (*size < header)
+        return 0;
+    return header;
+}
+
+/*
+ * @return duration of the mvhd in the moov at buf in seconds, 0 if unknown
+ */
+static int64_t parallel_parse_moov_duration(const uint8_t *buf, int64_t len)
+{
+    int64_t  pos    = 0;
+    int64_t  size   = 0;
+    uint32_t type   = 0;
+    int      header = 0;
+
+    while ((header = parallel_read_box(buf + pos, len - pos, len - pos, &size, &type)) > 0) {
+        if (type == MKBETAG('m', 'o', 'o', 'v')) {
+            buf += pos + header;
+            len  = FFMIN(len - pos, size) - header;
+            pos  = 0;
+            continue;
+        }
+        if (type == MKBETAG('m', 'v', 'h', 'd') && pos + size <= len && size >= header + 32) {
+            const uint8_t *p         = buf + pos + header;
+            int            version   = p[0];
+            uint32_t       timescale = 0;
+            uint64_t       duration  = 0;
+
+            if (version == 1) {
+                timescale = rb32(p + 20);
+                duration  = rb64(p + 24);
+            } else {
+                timescale = rb32(p + 12);
+                duration  = rb32(p + 16);
+            }
+            return timescale > 0 ? (int64_t)(duration / timescale) : 0;
+        }
+        pos += size;
+    }
+    return 0;
+}
+
+static IjkIOParallelRange *parallel_add_range_l(IjkIOParallelContext *c, int64_t start, int64_t end)
+{
+    IjkIOParallelRange *range = NULL;
+
+    if (c->range_count >= PARALLEL_MAX_RANGES || start >= end)
+        return NULL;
+
+    range = &c->ranges[c->range_count++];
+    memset(range, 0, sizeof(*range));
+    range->start = start;
+    range->end   = end;
+    range->state = RANGE_PENDING;
+    return range;
+}
+
+// adds chunks up to end, within max_size
+static void parallel_extend_prefetch_l(IjkIOParallelContext *c, int64_t end)
+{
+    int64_t limit = c->ranges[0].end + c->max_size;
+
+    if (c->logical_size > 0)
+        limit = FFMIN(limit, c->logical_size);
+    if (c->tail_range > 0)
+        limit = FFMIN(limit, c->ranges[c->tail_range].start);
+    end = FFMIN(end, limit);
+
+    while (c->prefetch_end < end) {
+        int64_t chunk_end = FFMIN(c->prefetch_end + c->chunk_size, end);
+        if (!parallel_add_range_l(c, c->prefetch_end, chunk_end))
+            break;
+        c->prefetch_end = chunk_end;
+    }
+    pthread_cond_broadcast(&c->cond);
+}
+
+static int64_t parallel_prefetch_end_for(IjkIOParallelContext *c, int64_t duration)
+{
+    int64_t start = c->mdat_pos > 0 ? c->mdat_pos : c->ranges[0].end;
+
+    if (c->prefetch_seconds > 0 && duration > 0 && c->logical_size > 0)
+        return start + c->logical_size / duration * c->prefetch_seconds;
+    return c->ranges[0].end + c->prefetch_size;
+}
+
+static void parallel_free_url(IjkURLContext **purl)
+{
+    IjkURLContext *url = *purl;
+
+    if (!url)
+        return;
+    if (url->prot && url->prot->url_close)
+        url->prot->url_close(url);
+    ijk_av_freep(&url->priv_data);
+    ijk_av_freep(purl);
+}
+
+static int parallel_fetch_range(IjkIOParallelContext *c, IjkIOParallelRange *range)
+{
+    IjkURLContext   *url  = NULL;
+    IjkAVDictionary *opts = NULL;
+    uint8_t         *buf  = NULL;
+    int64_t          len  = range->end - range->start;
+    int64_t          pos  = 0;
+    int64_t          done = 0;
+    int              ret  = 0;
+
+    buf = malloc(len);
+    if (!buf)
+        return IJKAVERROR(ENOMEM);
+    pthread_mutex_lock(&c->mutex);
+    range->buf = buf;
+    pthread_mutex_unlock(&c->mutex);
+
+    ijk_av_dict_copy(&opts, c->inner_options, 0);
+    ijk_av_dict_set_int(&opts, "offset", range->start, 0);
+    ijk_av_dict_set_int(&opts, "end_offset", range->end, 0);
+
+    ret = ijkio_alloc_url(&url, c->inner_url);
+    if (ret || !url) {
+        ret = -1;
+        goto end;
+    }
+    url->ijkio_app_ctx = &c->worker_app_ctx;
+    ret = url->prot->url_open2(url, c->inner_url, c->inner_flags, &opts);
+    if (ret)
+        goto end;
+
+    // offset is a http option, other protocols start at 0
+    pos = url->prot->url_seek(url, 0, SEEK_CUR);
+    if (pos != range->start)
+        pos = url->prot->url_seek(url, range->start, SEEK_SET);
+    if (pos != range->start) {
+        ret = pos < 0 ? (int)pos : -1;
+        goto end;
+    }
+
+    while (done < len) {
+        int n = url->prot->url_read(url, buf + done, (int)FFMIN(len - done, PARALLEL_READ_SIZE));
+        if (n <= 0) {
+            ret = n < 0 ? n : IJKAVERROR_EOF;
+            break;
+        }
+        done += n;
+
+        pthread_mutex_lock(&c->mutex);
+        range->filled = done;
+        pthread_cond_broadcast(&c->cond);
+        pthread_mutex_unlock(&c->mutex);
+
+        if (c->abort_request) {
+            ret = IJKAVERROR_EXIT;
+            break;
+        }
+    }
+
+end:
+    parallel_free_url(&url);
+    ijk_av_dict_free(&opts);
+    return ret;
+}
+
+static IjkIOParallelRange *parallel_next_pending_l(IjkIOParallelContext *c)
+{
+    IjkIOParallelRange *next = NULL;
+    int i;
+
+    // the tail first, then the chunk nearest to the reader
+    if (c->tail_range > 0 && c->ranges[c->tail_range].state == RANGE_PENDING)
+        return &c->ranges[c->tail_range];
+    for (i = 1; i < c->range_count; i++) {
+        IjkIOParallelRange *range = &c->ranges[i];
+        if (range->state != RANGE_PENDING || range->end <= c->logical_pos)
+            continue;
+        if (!next || range->start < next->start)
+            next = range;
+    }
+    return next;
+}
+
+static void *parallel_worker(void *arg)
+{
+    IjkIOParallelContext *c = arg;
+
+    pthread_mutex_lock(&c->mutex);
+    while (!c->abort_request) {
+        IjkIOParallelRange *range = parallel_next_pending_l(c);
+        int                 ret   = 0;
+
+        if (!range) {
+            if (c->ranges_final)
+                break;
+            pthread_cond_wait(&c->cond, &c->mutex);
+            continue;
+        }
+
+        range->state = RANGE_RUNNING;
+        pthread_mutex_unlock(&c->mutex);
+
+        ret = parallel_fetch_range(c, range);
+
+        pthread_mutex_lock(&c->mutex);
+        range->state = ret == 0 ? RANGE_DONE : RANGE_FAILED;
+        if (ret && ret != IJKAVERROR_EXIT)
+            av_log(NULL, AV_LOG_WARNING, "parallel: range %lld-%lld failed: %d\n", range->start, range->end, ret);
+
+        if (range == &c->ranges[c->tail_range] && !c->ranges_final) {
+            int64_t duration = 0;
+            if (ret == 0)
+                duration = parallel_parse_moov_duration(range->buf, range->filled);
+            parallel_extend_prefetch_l(c, parallel_prefetch_end_for(c, duration));
+            c->ranges_final = 1;
+        }
+        pthread_cond_broadcast(&c->cond);
+    }
+    pthread_mutex_unlock(&c->mutex);
+    return NULL;
+}
+
+static void parallel_plan_l(IjkIOParallelContext *c)
+{
+    const IjkIOParallelRange *head     = &c->ranges[0];
+    int64_t                   pos      = 0;
+    int64_t                   size     = 0;
+    int64_t                   duration = 0;
+    uint32_t                  type     = 0;
+    int                       header   = 0;
+    int                       has_moov = 0;
+
+    while ((header = parallel_read_box(head->buf + pos, head->filled - pos,
+                                       c->logical_size > 0 ? c->logical_size - pos : INT64_MAX, &size, &type)) > 0) {
+        if (type == MKBETAG('m', 'o', 'o', 'v')) {
+            has_moov = 1;
+            if (pos + size <= head->filled)
+                duration = parallel_parse_moov_duration(head->buf + pos, size);
+        } else if (type == MKBETAG('m', 'd', 'a', 't')) {
+            c->mdat_pos = pos + header;
+            if (!has_moov && c->logical_size > 0 && pos + size < c->logical_size &&
+                c->logical_size - (pos + size) <= PARALLEL_MAX_TAIL_SIZE) {
+                IjkIOParallelRange *tail = parallel_add_range_l(c, pos + size, c->logical_size);
+                if (tail)
+                    c->tail_range = (int)(tail - c->ranges);
+            }
+            break;
+        }
+        pos += size;
+    }
+
+    c->prefetch_end = head->end;
+    if (c->tail_range > 0) {
+        // start on the default size, adjusted once moov is known
+        parallel_extend_prefetch_l(c, c->ranges[0].end + c->prefetch_size);
+    } else {
+        parallel_extend_prefetch_l(c, parallel_prefetch_end_for(c, duration));
+        c->ranges_final = 1;
+    }
+
+    av_log(NULL, AV_LOG_INFO, "parallel: size %lld, mdat %lld, tail %lld, prefetch to %lld\n",
+           c->logical_size, c->mdat_pos, c->tail_range > 0 ? c->ranges[c->tail_range].start : -1LL, c->prefetch_end);
+}
+
+static int parallel_is_http(const char *url)
+{
+    ijk_av_strstart(url, "ffio:", &url);
+    return ijk_av_strstart(url, "http://", NULL) || ijk_av_strstart(url, "https://", NULL);
+}
+
+static int64_t parallel_get_option(IjkAVDictionary *options, const char *key, int64_t def)
+{
+    IjkAVDictionaryEntry *t = ijk_av_dict_get(options, key, NULL, IJK_AV_DICT_MATCH_CASE);
+    return t ? strtoll(t->value, NULL, 10) : def;
+}
+
+static int ijkio_parallel_open(IjkURLContext *h, const char *url, int flags, IjkAVDictionary **options)
+{
+    IjkIOParallelContext *c    = h->priv_data;
+    IjkIOParallelRange   *head = NULL;
+    int                   ret  = 0;
+    int                   i;
+
+    if (!c || !h->ijkio_app_ctx)
+        return IJKAVERROR(ENOSYS);
+
+    ijk_av_strstart(url, "parallel:", &url);
+
+    c->connections      = (int)parallel_get_option(*options, "parallel_connections", DEFAULT_PARALLEL_CONNECTIONS);
+    c->connections      = FFMIN(FFMAX(c->connections, 0), PARALLEL_MAX_CONNECTIONS);
+    c->chunk_size       = FFMAX(parallel_get_option(*options, "parallel_chunk_size", DEFAULT_PARALLEL_CHUNK_SIZE), PARALLEL_READ_SIZE);
+    c->prefetch_size    = FFMAX(parallel_get_option(*options, "parallel_prefetch_size", DEFAULT_PARALLEL_PREFETCH_SIZE), 0);
+    c->prefetch_seconds = FFMAX(parallel_get_option(*options, "parallel_prefetch_seconds", 0), 0);
+    c->max_size         = FFMAX(parallel_get_option(*options, "parallel_max_size", DEFAULT_PARALLEL_MAX_SIZE), 0);
+
+    c->inner_url = strdup(url);
+    if (!c->inner_url)
+        return IJKAVERROR(ENOMEM);
+    c->inner_flags = flags;
+    ijk_av_dict_copy(&c->inner_options, *options, 0);
+
+    ret = ijkio_alloc_url(&c->inner, url);
+    if (ret || !c->inner)
+        return -1;
+    c->inner->ijkio_app_ctx = h->ijkio_app_ctx;
+    ret = c->inner->prot->url_open2(c->inner, url, flags, options);
+    if (ret)
+        return ret;
+
+    c->logical_size = c->inner->prot->url_seek(c->inner, 0, IJKAVSEEK_SIZE);
+    if (c->connections <= 0 || c->logical_size <= PARALLEL_PROBE_SIZE || !parallel_is_http(url))
+        return 0;
+
+    // read the head through the first connection, it is served from memory afterwards
+    head = &c->ranges[0];
+    head->buf = malloc(PARALLEL_PROBE_SIZE);
+    if (!head->buf)
+        return 0;
+    while (head->filled < PARALLEL_PROBE_SIZE) {
+        int n = c->inner->prot->url_read(c->inner, head->buf + head->filled, (int)(PARALLEL_PROBE_SIZE - head->filled));
+        if (n <= 0)
+            break;
+        head->filled += n;
+    }
+    c->inner_pos    = head->filled;
+    head->end       = head->filled;
+    head->state     = RANGE_DONE;
+    c->range_count  = 1;
+
+    pthread_mutex_init(&c->mutex, NULL);
+    pthread_cond_init(&c->cond, NULL);
+
+    c->parent_interrupt_callback          = h->ijkio_app_ctx->ijkio_interrupt_callback;
+    c->worker_interrupt_callback.callback = parallel_check_interrupt;
+    c->worker_interrupt_callback.opaque   = c;
+    c->worker_app_ctx.ijkio_interrupt_callback = &c->worker_interrupt_callback;
+    c->worker_app_ctx.fd                       = -1;
+
+    pthread_mutex_lock(&c->mutex);
+    parallel_plan_l(c);
+    pthread_mutex_unlock(&c->mutex);
+
+    for (i = 0; i < c->connections; i++) {
+        if (pthread_create(&c->workers[i], NULL, parallel_worker, c))
+            break;
+        c->worker_count++;
+    }
+    if (c->worker_count == 0) {
+        // nobody to fetch them, read everything on the first connection
+        for (i = 1; i < c->range_count; i++)
+            c->ranges[i].state = RANGE_FAILED;
+    }
+    return 0;
+}
+
+static IjkIOParallelRange *parallel_find_range_l(IjkIOParallelContext *c, int64_t pos, int64_t *next_start)
+{
+    int i;
+
+    for (i = 0; i < c->range_count; i++) {
+        IjkIOParallelRange *range = &c->ranges[i];
+        if (range->state == RANGE_FAILED || (!range->buf && range->state == RANGE_DONE))
+            continue;
+        if (pos >= range->start && pos < range->end)
+            return range;
+        if (range->start > pos && range->start < *next_start)
+            *next_start = range->start;
+    }
+    return NULL;
+}
+
+static int ijkio_parallel_read(IjkURLContext *h, unsigned char *buf, int size)
+{
+    IjkIOParallelContext *c          = h->priv_data;
+    IjkIOParallelRange   *range      = NULL;
+    int64_t               next_start = INT64_MAX;
+    int                   ret        = 0;
+
+    if (!c || !c->inner)
+        return IJKAVERROR(ENOSYS);
+
+    if (c->range_count > 0) {
+        pthread_mutex_lock(&c->mutex);
+        while ((range = parallel_find_range_l(c, c->logical_pos, &next_start)) != NULL) {
+            int64_t offset = c->logical_pos - range->start;
+
+            if (range->filled > offset) {
+                ret = (int)FFMIN(size, range->filled - offset);
+                memcpy(buf, range->buf + offset, ret);
+                c->logical_pos += ret;
+                // consumed in full, the cache above keeps it from now on
+                if (c->logical_pos >= range->end && range->state == RANGE_DONE) {
+                    free(range->buf);
+                    range->buf = NULL;
+                }
+                break;
+            }
+            if (parallel_check_interrupt(c)) {
+                ret = IJKAVERROR_EXIT;
+                break;
+            }
+            pthread_cond_wait(&c->cond, &c->mutex);
+            next_start = INT64_MAX;
+        }
+        pthread_mutex_unlock(&c->mutex);
+        if (range)
+            return ret;
+    }
+
+    // not prefetched, read on the first connection up to the next prefetched range
+    if (c->inner_pos != c->logical_pos) {
+        int64_t pos = c->inner->prot->url_seek(c->inner, c->logical_pos, SEEK_SET);
+        if (pos < 0)
+            return (int)pos;
+        c->inner_pos = pos;
+    }
+    if (next_start != INT64_MAX)
+        size = (int)FFMIN(size, next_start - c->logical_pos);
+
+    ret = c->inner->prot->url_read(c->inner, buf, size);
+    if (ret > 0) {
+        c->inner_pos   += ret;
+        c->logical_pos += ret;
+    }
+    return ret;
+}
+
+static int64_t ijkio_parallel_seek(IjkURLContext *h, int64_t offset, int whence)
+{
+    IjkIOParallelContext *c   = h->priv_data;
+    int64_t               pos = 0;
+
+    if (!c || !c->inner)
+        return IJKAVERROR(ENOSYS);
+
+    if (whence == IJKAVSEEK_SIZE)
+        return c->logical_size > 0 ? c->logical_size : c->inner->prot->url_seek(c->inner, 0, IJKAVSEEK_SIZE);
+
+    if (whence == SEEK_SET) {
+        pos = offset;
+    } else if (whence == SEEK_CUR) {
+        pos = c->logical_pos + offset;
+    } else if (whence == SEEK_END && c->logical_size > 0) {
+        pos = c->logical_size + offset;
+    } else {
+        pos = c->inner->prot->url_seek(c->inner, offset, whence);
+        if (pos >= 0)
+            c->inner_pos = c->logical_pos = pos;
+        return pos;
+    }
+    if (pos < 0)
+        return IJKAVERROR(EINVAL);
+
+    // the first connection only moves when it is read from
+    c->logical_pos = pos;
+    return pos;
+}
+
+static int ijkio_parallel_close(IjkURLContext *h)
+{
+    IjkIOParallelContext *c   = h->priv_data;
+    int                   ret = 0;
+    int                   i;
+
+    if (!c)
+        return IJKAVERROR(ENOSYS);
+
+    if (c->range_count > 0) {
+        pthread_mutex_lock(&c->mutex);
+        c->abort_request = 1;
+        pthread_cond_broadcast(&c->cond);
+        pthread_mutex_unlock(&c->mutex);
+
+        for (i = 0; i < c->worker_count; i++)
+            pthread_join(c->workers[i], NULL);
+
+        for (i = 0; i < c->range_count; i++)
+            free(c->ranges[i].buf);
+        pthread_cond_destroy(&c->cond);
+        pthread_mutex_destroy(&c->mutex);
+    }
+
+    if (c->inner && c->inner->prot && c->inner->prot->url_close)
+        ret = c->inner->prot->url_close(c->inner);
+    if (c->inner)
+        ijk_av_freep(&c->inner->priv_data);
+    ijk_av_freep(&c->inner);
+
+    ijk_av_dict_free(&c->inner_options);
+    free(c->inner_url);
+    c->inner_url = NULL;
+    return ret;
+}
+
+IjkURLProtocol ijkio_parallel_protocol = {
+    .name                = "ijkioparallel",
+    .url_open2           = ijkio_parallel_open,
+    .url_read            = ijkio_parallel_read,
+    .url_seek            = ijkio_parallel_seek,
+    .url_close           = ijkio_parallel_close,
+    .priv_data_size      = sizeof(IjkIOParallelContext),
+};
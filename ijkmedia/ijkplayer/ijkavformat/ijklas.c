@@ -19,6 +19,7 @@
 #include "libavutil/opt.h"
 #include "libavutil/dict.h"
 #include "libavutil/time.h"
+#include "libavutil/application.h"
 #include "libavformat/avformat.h"
 #include "libavformat/url.h"
 #include "libavformat/avio_internal.h"
@@ -31,6 +32,7 @@
 #include "ff_ffplay_def.h"
 
 #include "ijklas.h"
+#include "ijklasabr.h"
 
 #define LAS_ERROR_BASE                        (-30000)
 #define LAS_ERROR_MUTEX_CREATE                (-1 + LAS_ERROR_BASE)
@@ -53,50 +55,18 @@
 //las 2.0 Tag based
 #define AV_TAG_HEADER_LEN 16 // 11+1+1+3, 1 bytes for av parameters, 1 bytes for AVCPacketType, 3 bytes for CompositionTime
 #define TIME_ALGO_UPDATE_INTERVAL_MS (500)
-#define INIT_BUFFER_THRESHOLD_MAX_MS (8*1000)
 #define MAX_BUFFER_TIME 10000
-#define MAX_STATE_CNT 30
 #define NALU_HEAD_LEN 4
+#define TAG_POOL_MIN_SHIFT 8            // 256 bytes
+#define TAG_POOL_CLASS_NUM 13           // up to 1 MiB, larger tags are not pooled
+#define TAG_POOL_MAX_FREE_PER_CLASS 32
+#define TAG_POOL_MAX_FREE_BYTES (4 * 1024 * 1024)
 #define H264_NAL_SPS 7
 #define H264_NAL_PPS 8
 
-typedef struct AdaptiveConfig {
-    int32_t buffer_init;
-    double stable_buffer_diff_threshold_second;
-    int32_t stable_buffer_interval_ms;
-    int32_t generate_speed_gap_ms;
-    int32_t buffer_check_interval_ms;
-    double smoothed_speed_utilization_ratio;
-    double small_speed_to_bitrate_ratio;
-    double enough_speed_to_bitrate_ratio;
-    double buffer_lower_limit_second;
-    int32_t recent_buffered_size;
-    double smoothed_speed_ratio;
-} AdaptiveConfig;
-
-typedef struct MultiRateAdaption {
-    int32_t n_bitrates;
-    int32_t bitrate_table_origin_order[MAX_STREAM_NUM];
-    int32_t disable_adaptive_table[MAX_STREAM_NUM];
-    int32_t next_expected_rep_index;
-    struct PlayList* playlist;
-    unsigned session_id;
-
-    // algorithm related
-    AdaptiveConfig conf;
-    double past_buffer[MAX_STATE_CNT];
-    int64_t buffer_index;
-    int32_t levels[MAX_STREAM_NUM];
-    int32_t current;
-    int64_t stable_buffer_start_time;
-    double generated_speed;
-    double last_check_buffer;
-    int64_t last_speed;
-    int32_t buffer_init;
-} MultiRateAdaption;
-
 typedef struct FlvTag {
     uint8_t* buf;
+    uint32_t buf_capacity;
     uint32_t tag_size;
     uint32_t buf_write_offset;
     uint32_t buf_read_offset;
@@ -122,6 +92,16 @@ typedef struct AdaptationSet {
     int n_representation;
 } AdaptationSet;
 
+// free tag buffers of the power of two sizes, shared by the reading and the demuxing threads
+typedef struct FlvTagPool {
+    uint8_t* free_bufs[TAG_POOL_CLASS_NUM][TAG_POOL_MAX_FREE_PER_CLASS];
+    int nb_free_bufs[TAG_POOL_CLASS_NUM];
+    int64_t free_bytes;
+    int64_t hits;
+    int64_t misses;
+    SDL_mutex* mutex;
+} FlvTagPool;
+
 typedef struct TagListNode {
     FlvTag tag;
     struct TagListNode* next;
@@ -135,6 +115,7 @@ typedef struct TagQueue {
     int abort_request;
     SDL_mutex* mutex;
     SDL_cond* cond;
+    FlvTagPool* pool;
 } TagQueue;
 
 typedef struct GopReader {
@@ -182,6 +163,7 @@ typedef struct PlayList {
     GopReader gop_reader;
     FlvTag reading_tag;
     TagQueue tag_queue;
+    FlvTagPool tag_pool;
 
     // cur playlist Qos
     LasStatistic* las_statistic;
@@ -207,6 +189,9 @@ typedef struct LasContext {
     int64_t network;
     char* abr_history_data;
     char* live_adapt_config;
+    char* abr_policy;
+    char* app_ctx_intptr;
+    AVApplicationContext* app_ctx;
     AVDictionary* avio_opts;
 
     // all info of las is in it
@@ -247,9 +232,6 @@ static inline void _log(unsigned session_id, const char* func_name, int av_log_l
 #define log_debug(...) log_debug_tag(playlist->session_id, AV_LOG_DEBUG, __VA_ARGS__)
 #define log_info(...) log_debug_tag(playlist->session_id, AV_LOG_INFO, __VA_ARGS__)
 #define log_error(...) log_debug_tag(playlist->session_id, AV_LOG_ERROR, __VA_ARGS__)
-#define algo_debug(...) log_debug_tag(thiz->session_id, AV_LOG_DEBUG, __VA_ARGS__)
-#define algo_info(...) log_debug_tag(thiz->session_id, AV_LOG_INFO, __VA_ARGS__)
-#define algo_error(...) log_debug_tag(thiz->session_id, AV_LOG_ERROR, __VA_ARGS__)
 
 #pragma mark PlayerControl
 int get_switch_mode(AVFormatContext* format) {
@@ -335,8 +317,86 @@ int FlvTag_get_data_from_buffer(PlayList* playlist, struct FlvTag* tag, uint8_t*
     return to_read;
 }
 
+#pragma mark FlvTagPool
+static int FlvTagPool_init(FlvTagPool* pool) {
+    memset(pool, 0, sizeof(FlvTagPool));
+    pool->mutex = SDL_CreateMutex();
+    if (!pool->mutex) {
+        return AVERROR(ENOMEM);
+    }
+    return 0;
+}
+
+static void FlvTagPool_destroy(FlvTagPool* pool) {
+    for (int i = 0; i < TAG_POOL_CLASS_NUM; i++) {
+        for (int j = 0; j < pool->nb_free_bufs[i]; j++) {
+            av_freep(&pool->free_bufs[i][j]);
+        }
+        pool->nb_free_bufs[i] = 0;
+    }
+    pool->free_bytes = 0;
+    SDL_DestroyMutexP(&pool->mutex);
+}
+
+// return -1 if size is not pooled
+static int FlvTagPool_get_class(uint32_t size) {
+    for (int i = 0; i < TAG_POOL_CLASS_NUM; i++) {
+        if (size <= (1U << (TAG_POOL_MIN_SHIFT + i))) {
+            return i;
+        }
+    }
+    return -1;
+}
+
+static uint8_t* FlvTagPool_get(FlvTagPool* pool, uint32_t size, uint32_t* capacity) {
+    int index = FlvTagPool_get_class(size);
+    uint8_t* buf = NULL;
+
+    *capacity = index < 0 ? size : 1U << (TAG_POOL_MIN_SHIFT + index);
+    if (pool && pool->mutex) {
+        SDL_LockMutex(pool->mutex);
+        if (index >= 0 && pool->nb_free_bufs[index] > 0) {
+            buf = pool->free_bufs[index][--pool->nb_free_bufs[index]];
+            pool->free_bytes -= *capacity;
+            pool->hits++;
+        } else {
+            pool->misses++;
+        }
+        SDL_UnlockMutex(pool->mutex);
+    }
+
+    return buf ? buf : av_malloc(*capacity);
+}
+
+static void FlvTagPool_put(FlvTagPool* pool, uint8_t* buf, uint32_t capacity) {
+    int index = FlvTagPool_get_class(capacity);
+
+    if (pool && pool->mutex && index >= 0 && capacity == 1U << (TAG_POOL_MIN_SHIFT + index)) {
+        SDL_LockMutex(pool->mutex);
+        if (pool->nb_free_bufs[index] < TAG_POOL_MAX_FREE_PER_CLASS
+            && pool->free_bytes + capacity <= TAG_POOL_MAX_FREE_BYTES) {
+            pool->free_bufs[index][pool->nb_free_bufs[index]++] = buf;
+            pool->free_bytes += capacity;
+            buf = NULL;
+        }
+        SDL_UnlockMutex(pool->mutex);
+    }
+
+    av_free(buf);
+}
+
+static void FlvTagPool_get_stat(FlvTagPool* pool, int64_t* hits, int64_t* misses) {
+    if (pool && pool->mutex) {
+        SDL_LockMutex(pool->mutex);
+        *hits = pool->hits;
+        *misses = pool->misses;
+        SDL_UnlockMutex(pool->mutex);
+    }
+}
+
+#pragma mark FlvTag
 int FlvTag_alloc_buffer(PlayList* playlist, struct FlvTag* tag, int32_t tag_size) {
-    tag->buf = av_malloc(tag_size);
+    tag->buf = FlvTagPool_get(&playlist->tag_pool, tag_size, &tag->buf_capacity);
     if (!tag->buf) {
         log_error("alloc tag->buf fail");
         return AVERROR(ENOMEM);
@@ -347,19 +407,21 @@ int FlvTag_alloc_buffer(PlayList* playlist, struct FlvTag* tag, int32_t tag_size
     return 0;
 }
 
-void FlvTag_dealloc(struct FlvTag* tag) {
+void FlvTag_dealloc(FlvTagPool* pool, struct FlvTag* tag) {
     if (!tag) {
         return;
     }
 
     if (tag->buf) {
-        av_freep(&tag->buf);
+        FlvTagPool_put(pool, tag->buf, tag->buf_capacity);
+        tag->buf = NULL;
     }
-    tag->tag_size = tag->buf_read_offset = tag->buf_write_offset = 0;
+    tag->buf_capacity = tag->tag_size = tag->buf_read_offset = tag->buf_write_offset = 0;
 }
 
 static int TagQueue_init(PlayList* playlist, TagQueue* q) {
     memset(q, 0, sizeof(TagQueue));
+    q->pool = &playlist->tag_pool;
     q->mutex = SDL_CreateMutex();
     if (!q->mutex) {
         log_error("SDL_CreateMutex():fail");
@@ -415,7 +477,7 @@ static int TagQueue_put(TagQueue* q, FlvTag* tag) {
     SDL_UnlockMutex(q->mutex);
 
     if (ret < 0) {
-        FlvTag_dealloc(tag);
+        FlvTag_dealloc(q->pool, tag);
     }
 
     return ret;
@@ -482,7 +544,7 @@ static void TagQueue_flush(TagQueue* q) {
     SDL_LockMutex(q->mutex);
     for (tag_node = q->first_tag; tag_node; tag_node = tag_node_next) {
         tag_node_next = tag_node->next;
-        FlvTag_dealloc(&tag_node->tag);
+        FlvTag_dealloc(q->pool, &tag_node->tag);
         av_freep(&tag_node);
     }
     q->last_tag = NULL;
@@ -531,18 +593,6 @@ static int64_t TagQueue_get_total_bytes(TagQueue* q) {
 
 
 #pragma mark LasStatistic
-int32_t get_video_bitrate(MultiRateAdaption* thiz) {
-    return thiz->levels[thiz->current];
-}
-
-int32_t get_buffer_current(MultiRateAdaption* thiz) {
-    return thiz->last_check_buffer;
-}
-
-int32_t get_bw_fragment(MultiRateAdaption* thiz) {
-    return thiz->last_speed;
-}
-
 void LasStatistic_reset(LasStatistic* stat) {
     if (stat) {
         memset(stat, 0, sizeof(LasStatistic));
@@ -624,6 +674,9 @@ void LasStatistic_on_adaption_adapted(PlayList* playlist, MultiRateAdaption* ada
     LasStatistic* stat = playlist->las_statistic;
     if (stat && adaption) {
         stat->bitrate_downloading = get_video_bitrate(adaption);
+        stat->next_rep_index = adaption->next_expected_rep_index;
+        if (adaption->policy)
+            av_strlcpy(stat->abr_policy, adaption->policy->name, sizeof(stat->abr_policy));
     }
 }
 
@@ -641,6 +694,12 @@ void LasStatistic_on_bandwidth_update(PlayList* playlist, MultiRateAdaption* ada
     }
 }
 
+void LasStatistic_on_tag_pool(LasStatistic* stat, FlvTagPool* pool) {
+    if (stat) {
+        FlvTagPool_get_stat(pool, &stat->tag_pool_hits, &stat->tag_pool_misses);
+    }
+}
+
 void LasStatistic_on_rep_switch_count(LasStatistic* stat, PlayList* playlist) {
     if (stat) {
         stat->rep_switch_cnt++;
@@ -649,254 +708,28 @@ void LasStatistic_on_rep_switch_count(LasStatistic* stat, PlayList* playlist) {
     }
 }
 
-#pragma mark MultiRateAdaption
-int32_t local_index_2_rep_index(MultiRateAdaption* thiz, int32_t local_index) {
-    int32_t rep_index = 0;
-    for (int i = 0; i < thiz->n_bitrates; i++) {
-        if (thiz->levels[local_index] == thiz->bitrate_table_origin_order[i]) {
-            rep_index = i;
-            break;
-        }
-    }
-    return rep_index;
-}
+int las_get_statistic(AVFormatContext* s, LasStatistic* stat) {
+    if (!s || !stat || !s->iformat || strcmp(s->iformat->name, "ijklas") || !s->priv_data)
+        return -1;
 
-int32_t rep_index_2_local_index(MultiRateAdaption* thiz, int32_t rep_index) {
-    int32_t local_index = 0;
-    for (int i = 0; i < thiz->n_bitrates; i++) {
-        if (thiz->levels[i] == thiz->bitrate_table_origin_order[rep_index]) {
-            local_index = i;
-            break;
-        }
-    }
-    return local_index;
+    LasContext* c = s->priv_data;
+    PlayList* playlist = &c->playlist;
+    if (!playlist->las_statistic)
+        return -1;
 
-}
+    // written by the read and algo threads without a lock, a torn value only lasts one snapshot
+    memcpy(stat, playlist->las_statistic, sizeof(LasStatistic));
+    stat->cur_playing_url[MAX_URL_SIZE - 1] = '\0';
+    stat->abr_policy[sizeof(stat->abr_policy) - 1] = '\0';
 
-int get_local_index_from_bitrate(MultiRateAdaption* thiz, int64_t bitrate) {
-    for (int32_t i = thiz->n_bitrates - 1; i > 0; --i) {
-        if (thiz->levels[i] <= bitrate) {
-            return i;
-        }
-    }
+    stat->cached_a_dur_ms = get_cache_duration_ms(playlist->audio_cache);
+    stat->cached_v_dur_ms = get_cache_duration_ms(playlist->video_cache);
+    stat->cached_tag_dur_ms = TagQueue_get_duration_ms(&playlist->tag_queue);
+    stat->next_rep_index = playlist->multi_rate_adaption.next_expected_rep_index;
+    FlvTagPool_get_stat(&playlist->tag_pool, &stat->tag_pool_hits, &stat->tag_pool_misses);
     return 0;
 }
 
-int compare(const void* a, const void* b) {
-    return (*(int32_t*)a - * (int32_t*)b);
-}
-
-void RateAdaptConfig_default_init(AdaptiveConfig* config, PlayList* playlist) {
-    config->buffer_init = 2000;
-    config->stable_buffer_diff_threshold_second = 0.15;
-    config->stable_buffer_interval_ms = 2000;
-    config->generate_speed_gap_ms = 3000;
-    config->buffer_check_interval_ms = 500;
-    config->smoothed_speed_utilization_ratio = 0.8;
-    config->small_speed_to_bitrate_ratio = 0.4;
-    config->enough_speed_to_bitrate_ratio = 0.9;
-    config->buffer_lower_limit_second = 0.6;
-    config->recent_buffered_size = 16;
-    config->smoothed_speed_ratio = 0.9;
-}
-
-
-// return index of optimized Representation
-void MultiRateAdaption_init(MultiRateAdaption* thiz, AdaptiveConfig config,
-                            struct PlayList* playlist) {
-    if (!thiz || !playlist || playlist->adaptation_set.n_representation <= 0) {
-        log_error("thiz:%p, p:%p", thiz, playlist);
-        return;
-    }
-    thiz->conf = config;
-    thiz->n_bitrates = 0;
-    thiz->playlist = playlist;
-    thiz->session_id = playlist->session_id;
-    int64_t default_select_bitrate = -1;
-    for (int i = 0; i < playlist->adaptation_set.n_representation; i++) {
-        Representation* rep = playlist->adaptation_set.representations[i];
-        thiz->bitrate_table_origin_order[i] = rep->bitrate;
-        thiz->levels[i] = rep->bitrate;
-        if (rep->default_selected) {
-            default_select_bitrate = rep->bitrate;
-        }
-        thiz->disable_adaptive_table[i] = rep->disabled_from_adaptive;
-        thiz->n_bitrates++;
-    }
-    qsort(thiz->levels, thiz->n_bitrates, sizeof(int32_t), compare);
-
-    thiz->buffer_init = config.buffer_init;
-    if (thiz->buffer_init > INIT_BUFFER_THRESHOLD_MAX_MS) {
-        thiz->buffer_init = INIT_BUFFER_THRESHOLD_MAX_MS;
-    }
-
-    if (default_select_bitrate >= 0) {
-        thiz->current = get_local_index_from_bitrate(thiz, default_select_bitrate);
-    } else {
-        thiz->current = (thiz->n_bitrates - 1) / 2;
-    }
-    while (thiz->current >= thiz->n_bitrates) {
-        thiz->current -= 1;
-    }
-
-    int switch_mode = get_switch_mode(playlist->outermost_ctx);
-    if (switch_mode >= 0 && switch_mode < thiz->n_bitrates) {
-        thiz->current = rep_index_2_local_index(thiz, switch_mode);
-    }
-
-    LasStatistic_on_adaption_adapted(thiz->playlist, thiz);
-    thiz->next_expected_rep_index = local_index_2_rep_index(thiz, thiz->current);
-    thiz->past_buffer[0] = 0.1;
-    thiz->buffer_index = 1;
-    thiz->stable_buffer_start_time = get_current_time_ms();
-    thiz->generated_speed = 0;
-    thiz->last_check_buffer = 0;
-    thiz->last_speed = 0;
-}
-
-bool update_stable_buffer(MultiRateAdaption* thiz, double buffered) {
-    double diff = buffered - thiz->last_check_buffer;
-    double diff_ratio = diff / buffered;
-    double now = get_current_time_ms();
-    if (diff < -thiz->conf.stable_buffer_diff_threshold_second || diff_ratio < -0.2) {
-        algo_info("buffer_diff_down: %.2fs, diff_ratio: %.2f", diff, diff_ratio);
-        thiz->stable_buffer_start_time = FFMAX(now, thiz->stable_buffer_start_time);
-    }
-    if (diff > thiz->conf.stable_buffer_diff_threshold_second
-        && now - thiz->stable_buffer_start_time + thiz->conf.buffer_check_interval_ms > thiz->conf.stable_buffer_interval_ms) {
-        thiz->stable_buffer_start_time = FFMAX(
-            now - thiz->conf.buffer_check_interval_ms * 2,
-            thiz->stable_buffer_start_time + thiz->conf.buffer_check_interval_ms * 2
-        );
-        algo_info("buffer_diff_up: %.2fs", diff);
-    }
-    thiz->last_check_buffer = buffered;
-    return now - thiz->stable_buffer_start_time > thiz->conf.stable_buffer_interval_ms;
-}
-
-/**
- * check buffer periodically
- */
-void check_buffer(MultiRateAdaption* thiz, PlayList* playlist) {
-    double buffered = get_cache_duration_ms(playlist->audio_cache) / 1000.0;
-    bool is_buffer_stable = update_stable_buffer(thiz, buffered);
-    if (is_buffer_stable && thiz->current + 1 < thiz->n_bitrates) {
-        thiz->generated_speed = thiz->levels[thiz->current + 1];
-    } else {
-        thiz->generated_speed = 0;
-    }
-
-    thiz->past_buffer[thiz->buffer_index % thiz->conf.recent_buffered_size] = buffered;
-    thiz->buffer_index += 1;
-}
-
-int32_t quantization(MultiRateAdaption* thiz, double speed) {
-    int32_t index = 0;
-    for (int i = thiz->n_bitrates - 1; i >= 0; i--) {
-        if (speed >= thiz->levels[i]) {
-            index = i;
-            break;
-        }
-    }
-    return index;
-}
-
-double get_past_buffer(MultiRateAdaption* thiz) {
-    double max_buffer = 0.1;
-    for (int i = 0; i < thiz->conf.recent_buffered_size && i < thiz->buffer_index; ++i) {
-        double buffered = thiz->past_buffer[(thiz->buffer_index - 1 - i) % thiz->conf.recent_buffered_size];
-        if (buffered > max_buffer) {
-            max_buffer = buffered;
-        }
-    }
-    return max_buffer;
-}
-
-double get_smoothed_speed(MultiRateAdaption* thiz, double speed) {
-    if (thiz->last_speed > 0) {
-        return speed * (1 - thiz->conf.smoothed_speed_ratio) + thiz->last_speed * thiz->conf.smoothed_speed_ratio;
-    }
-    return speed;
-}
-
-double get_predicted_buffer(MultiRateAdaption* thiz, double buffered) {
-    double past_buffer = get_past_buffer(thiz);
-    return buffered + (buffered - past_buffer);
-}
-
-double get_buffer_speed(MultiRateAdaption* thiz, double buffered) {
-    double past_buffer = get_past_buffer(thiz);
-    double buffer_speed_ratio = 1 + (buffered - past_buffer) / FFMAX(past_buffer, 0.1);
-    return buffer_speed_ratio * thiz->levels[thiz->current];
-}
-
-bool is_speed_too_small(MultiRateAdaption* thiz, double speed) {
-    return speed / thiz->levels[thiz->current] < thiz->conf.small_speed_to_bitrate_ratio;
-}
-
-bool is_speed_enough(MultiRateAdaption* thiz, double speed) {
-    return speed / thiz->levels[thiz->current] > thiz->conf.enough_speed_to_bitrate_ratio;
-}
-
-int32_t next_local_rate_index(MultiRateAdaption* thiz, double speed, double buffered) {
-    if (thiz->buffer_index <= 1 && buffered <= 0.1) {
-        algo_info("empty past buffer");
-        return thiz->current;
-    }
-    double buffer_speed = get_buffer_speed(thiz, buffered);
-    double smoothed_speed = get_smoothed_speed(thiz, speed);
-    algo_info("gop_speed: %.0f, smoothed_speed: %.0f", speed, smoothed_speed);
-
-    double predicted_buffered = get_predicted_buffer(thiz, buffered);
-    algo_info("buffer_speed: %.0f, buffered: %.1f, predicted_buffered: %.1f", buffer_speed, buffered, predicted_buffered);
-
-    int32_t next_index = thiz->current;
-    if (predicted_buffered < thiz->conf.buffer_lower_limit_second
-        || is_speed_too_small(thiz, buffer_speed)) {
-        next_index = FFMIN(thiz->current, quantization(thiz, buffer_speed));
-    } else if (is_speed_enough(thiz, buffer_speed)) {
-        if (thiz->generated_speed > 0) {
-            algo_info("generated_speed used");
-            next_index = quantization(thiz, thiz->generated_speed);
-            thiz->generated_speed = 0;
-        } else {
-            next_index = quantization(thiz, smoothed_speed * thiz->conf.smoothed_speed_utilization_ratio);
-        }
-        next_index = FFMIN(thiz->current + 1, FFMAX(next_index, thiz->current));
-    }
-    algo_info("target_index = %u", next_index);
-    return next_index;
-}
-
-int32_t next_representation_id(MultiRateAdaption* thiz, int switch_mode, double speed, double buffered) {
-    if (switch_mode >= 0 && switch_mode < thiz->n_bitrates) {
-        thiz->current = rep_index_2_local_index(thiz, switch_mode);
-        return switch_mode;
-    }
-
-    int local_index = next_local_rate_index(thiz, speed, buffered);
-    int rep_index = local_index_2_rep_index(thiz, local_index);
-    while (local_index > 0 && thiz->disable_adaptive_table[rep_index]) {
-        local_index -= 1;
-        rep_index = local_index_2_rep_index(thiz, local_index);
-    }
-
-    if (local_index != thiz->current) {
-        thiz->stable_buffer_start_time = get_current_time_ms() + thiz->conf.generate_speed_gap_ms;
-    }
-    if (local_index < thiz->current) {
-        thiz->generated_speed = 0;
-        thiz->last_speed = speed;
-        thiz->buffer_index = 1;
-        thiz->past_buffer[0] = buffered;
-    } else {
-        thiz->last_speed = get_smoothed_speed(thiz, speed);
-    }
-
-    thiz->current = local_index;
-    return rep_index;
-}
-
 #pragma mark Download
 static void update_options(char** dest, const char* name, void* src) {
     av_freep(dest);
@@ -1149,6 +982,7 @@ int64_t GopReader_download_gop(GopReader* reader, MultiRateAdaption* adaption, P
 
                 adaption->next_expected_rep_index = next_representation_id(
                         adaption,
+                        time_now,
                         get_switch_mode(playlist->outermost_ctx),
                         speed,
                         get_cache_duration_ms(playlist->audio_cache) / 1000.0);
@@ -1195,12 +1029,12 @@ int64_t GopReader_download_gop(GopReader* reader, MultiRateAdaption* adaption, P
         tag.buf_write_offset += AV_TAG_HEADER_LEN;
 
         if (playlist->read_abort_request || playlist->tag_queue.abort_request) {
-            FlvTag_dealloc(&tag);
+            FlvTag_dealloc(&playlist->tag_pool, &tag);
             return LAS_ERROR_ABORT_BY_USER;
         }
         ret = url_block_read(reader->input, tag.buf + tag.buf_write_offset, to_read, playlist);
         if (ret < 0) {
-            FlvTag_dealloc(&tag);
+            FlvTag_dealloc(&playlist->tag_pool, &tag);
             return ret;
         } else {
             tag.buf_write_offset += to_read;
@@ -1208,7 +1042,7 @@ int64_t GopReader_download_gop(GopReader* reader, MultiRateAdaption* adaption, P
 
         if (tag.buf_write_offset != tag.tag_size) {
             log_error("ERROR! tag.buf_write_offset(%d) != tag.tag_size(%d)", tag.buf_write_offset, tag.tag_size);
-            FlvTag_dealloc(&tag);
+            FlvTag_dealloc(&playlist->tag_pool, &tag);
             return LAS_ERROR_GET_WHOLE_TAG;
         }
 
@@ -1235,7 +1069,7 @@ static int PlayList_prepare_reading_tag(PlayList* playlist) {
     SDL_LockMutex(playlist->reading_tag_mutex);
     int ret = 0;
     if (FlvTag_has_consume_all_data_l(&playlist->reading_tag)) {
-        FlvTag_dealloc(&playlist->reading_tag);
+        FlvTag_dealloc(&playlist->tag_pool, &playlist->reading_tag);
         SDL_UnlockMutex(playlist->reading_tag_mutex);
 
         FlvTag tag;
@@ -1297,8 +1131,10 @@ static int PlayList_algo_statistic_thread(void* data) {
         if (tag_queue->abort_request || playlist->read_abort_request) {
             break;
         }
-        check_buffer(&playlist->multi_rate_adaption, playlist);
+        check_buffer(&playlist->multi_rate_adaption, get_current_time_ms(),
+                     get_cache_duration_ms(playlist->audio_cache) / 1000.0);
         LasStatistic_on_bandwidth_update(playlist, &playlist->multi_rate_adaption);
+        LasStatistic_on_tag_pool(playlist->las_statistic, &playlist->tag_pool);
     }
     return 0;
 }
@@ -1481,6 +1317,11 @@ int PlayList_open_read_thread(PlayList* playlist) {
         return LAS_ERROR_COND_CREATE;
     }
 
+    if (FlvTagPool_init(&playlist->tag_pool) < 0) {
+        log_error("FlvTagPool_init fail");
+        return LAS_ERROR_MUTEX_CREATE;
+    }
+
     // init and start TagQueue
     TagQueue_init(playlist, &playlist->tag_queue);
     TagQueue_start(&playlist->tag_queue);
@@ -1548,6 +1389,8 @@ void PlayList_close_read_thread(PlayList* playlist) {
     SDL_DestroyMutexP(&playlist->reading_tag_mutex);
     SDL_DestroyMutexP(&playlist->las_mutex);
     TagQueue_destroy(&playlist->tag_queue);
+    FlvTag_dealloc(&playlist->tag_pool, &playlist->reading_tag);
+    FlvTagPool_destroy(&playlist->tag_pool);
     SDL_DestroyCondP(&playlist->algo_cond);
 }
 
@@ -1686,53 +1529,6 @@ int parse_root(char* file_name, PlayList* c) {
     return 0;
 }
 
-int parse_adapt_config(char* config_string, AdaptiveConfig* config, PlayList* playlist) {
-    cJSON* root = cJSON_Parse(config_string);
-    if (!root)
-        return LAS_ERROR_ADAPT_CONFIG_JSON;
-    if (cJSON_Object == root->type) {
-        int len = cJSON_GetArraySize(root);
-        for (int i = 0; i < len; i++) {
-            cJSON* child_json = cJSON_GetArrayItem(root, i);
-            switch (child_json->type) {
-                case cJSON_Number:
-                    if (!strcmp(child_json->string, "bufferInit")) {
-                        config->buffer_init = child_json->valueint;
-                    } else if (!strcmp(child_json->string, "stableBufferDiffThresholdSecond")) {
-                        config->stable_buffer_diff_threshold_second = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "stableBufferIntervalMs")) {
-                        config->stable_buffer_interval_ms = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "generateSpeedGapMs")) {
-                        config->generate_speed_gap_ms = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "bufferCheckIntervalMs")) {
-                        config->buffer_check_interval_ms = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "smoothedSpeedUtilizationRatio")) {
-                        config->smoothed_speed_utilization_ratio = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "smallSpeedToBitrateRatio")) {
-                        config->small_speed_to_bitrate_ratio = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "enoughSpeedToBitrateRatio")) {
-                        config->enough_speed_to_bitrate_ratio = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "bufferLowerLimitSecond")) {
-                        config->buffer_lower_limit_second = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "recentBufferedSize")) {
-                        config->recent_buffered_size = child_json->valuedouble;
-                    } else if (!strcmp(child_json->string, "smoothedSpeedRatio")) {
-                        config->smoothed_speed_ratio = child_json->valuedouble;
-                    }
-                    break;
-                case cJSON_Object:
-                case cJSON_False:
-                case cJSON_NULL:
-                case cJSON_Array:
-                case cJSON_True:
-                    break;
-            }
-        }
-    }
-    cJSON_Delete(root);
-    return 0;
-}
-
 static int parse_int_from(cJSON* json, const char* key) {
     cJSON* entry = cJSON_GetObjectItemCaseSensitive(json, key);
     if (cJSON_IsNumber(entry)) {
@@ -1742,6 +1538,43 @@ static int parse_int_from(cJSON* json, const char* key) {
 }
 
 #pragma mark las
+static int las_abr_on_select(void* opaque, LasAbrDecision* decision) {
+    AVApplicationContext* app_ctx = opaque;
+    if (!app_ctx || !app_ctx->func_on_app_event)
+        return -1;
+    return app_ctx->func_on_app_event(app_ctx, LAS_ABR_CTRL_SELECT_REPRESENTATION, decision, sizeof(LasAbrDecision));
+}
+
+static int MultiRateAdaption_open(MultiRateAdaption* thiz, AdaptiveConfig config, LasContext* c, PlayList* playlist) {
+    int32_t bitrates[MAX_STREAM_NUM];
+    int32_t disabled_from_adaptive[MAX_STREAM_NUM];
+    int default_index = -1;
+    int n = playlist->adaptation_set.n_representation;
+    for (int i = 0; i < n; i++) {
+        Representation* rep = playlist->adaptation_set.representations[i];
+        bitrates[i] = rep->bitrate;
+        disabled_from_adaptive[i] = rep->disabled_from_adaptive;
+        if (rep->default_selected) {
+            default_index = i;
+        }
+    }
+
+    const LasAbrPolicy* policy = las_abr_policy_find(c->abr_policy);
+    if (!policy) {
+        log_error("unknown las_abr_policy: %s, use %s", c->abr_policy, LAS_ABR_DEFAULT_POLICY);
+        policy = las_abr_policy_find(LAS_ABR_DEFAULT_POLICY);
+    }
+    thiz->on_select = las_abr_on_select;
+    thiz->on_select_opaque = c->app_ctx;
+    if (MultiRateAdaption_init(thiz, config, policy, n, bitrates, disabled_from_adaptive, default_index,
+                               get_switch_mode(playlist->outermost_ctx), playlist->session_id, get_current_time_ms()) < 0) {
+        log_error("MultiRateAdaption_init fail, n_representation:%d", n);
+        return LAS_ERROR_INVALID_REP_INDEX;
+    }
+    LasStatistic_on_adaption_adapted(playlist, thiz);
+    return 0;
+}
+
 static int las_close(AVFormatContext* s) {
     LasContext* c = s->priv_data;
     PlayList* playlist = &c->playlist;
@@ -1753,6 +1586,7 @@ static int las_close(AVFormatContext* s) {
     av_freep(&c->server_ip);
     av_freep(&c->manifest_string);
     av_freep(&c->live_adapt_config);
+    av_freep(&c->abr_policy);
     av_dict_free(&c->avio_opts);
     return 0;
 }
@@ -1799,12 +1633,15 @@ static int las_read_header(AVFormatContext* s) {
     playlist->las_statistic = &c->las_statistic;
     LasStatistic_init(playlist->las_statistic, playlist);
 
-    RateAdaptConfig_default_init(&config, playlist);
-    if (parse_adapt_config(c->live_adapt_config, &config, playlist) < 0) {
+    RateAdaptConfig_default_init(&config);
+    if (parse_adapt_config(c->live_adapt_config, &config) < 0) {
         log_error("Illegal adaptation Configure Json String");
     }
     playlist->outermost_ctx = s;
-    MultiRateAdaption_init(&playlist->multi_rate_adaption, config, playlist);
+    c->app_ctx = (AVApplicationContext*)av_dict_strtoptr(c->app_ctx_intptr);
+    if ((ret = MultiRateAdaption_open(&playlist->multi_rate_adaption, config, c, playlist)) < 0) {
+        goto fail;
+    }
     PlayList_reset_state(playlist);
     ret = PlayList_open_read_thread(playlist);
     if (ret  != 0) {
@@ -2015,6 +1852,14 @@ static const AVOption las_options[] = {
         "liveAdaptConfig", "liveAdaptConfig",
         OFFSET(live_adapt_config), AV_OPT_TYPE_STRING, { .str = NULL }, CHAR_MIN, CHAR_MAX, FLAGS
     },
+    {
+        "las_abr_policy", "las_abr_policy",
+        OFFSET(abr_policy), AV_OPT_TYPE_STRING, { .str = LAS_ABR_DEFAULT_POLICY }, CHAR_MIN, CHAR_MAX, FLAGS
+    },
+    {
+        "ijkapplication", "AVApplicationContext",
+        OFFSET(app_ctx_intptr), AV_OPT_TYPE_STRING, { .str = NULL }, 0, 0, FLAGS
+    },
     {
         "session_id", "session_id",
         OFFSET(session_id), AV_OPT_TYPE_INT, {.i64 = 0}, INT32_MIN, INT32_MAX, FLAGS
@@ -26,6 +26,8 @@ typedef struct LasStatistic {
 
     // status
     int cur_decoding_flv_index;
+    int next_rep_index;         // picked by the rate adaptation for the next gop
+    char abr_policy[32];
     int64_t switch_point_a_buffer_ms;
     int64_t switch_point_v_buffer_ms;
     char cur_playing_url[MAX_URL_SIZE];
@@ -44,6 +46,20 @@ typedef struct LasStatistic {
     int64_t cached_a_dur_ms; // 上层播放器packet_queue长度
     int64_t cached_v_dur_ms;
     int64_t total_bytes_read;
+
+    // tag buffers reused / allocated by the gop reader
+    int64_t tag_pool_hits;
+    int64_t tag_pool_misses;
 } LasStatistic;
 
+struct AVFormatContext;
+
+/*
+ * Copies the statistics of an ijklas demuxer, with cached durations and rate
+ * adaptation state refreshed at the time of the call.
+ *
+ * @return 0 on success, -1 if s is not opened by ijklas
+ */
+int las_get_statistic(struct AVFormatContext* s, LasStatistic* stat);
+
 #endif
@@ -0,0 +1,551 @@
+/*
+ * ijklasabr.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include <math.h>
+#include <stdarg.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "libavutil/common.h"
+#include "libavutil/error.h"
+#include "libavutil/log.h"
+#include "cJSON.h"
+
+#include "ijklasabr.h"
+
+#define INIT_BUFFER_THRESHOLD_MAX_MS (8*1000)
+
+#define LOG_THREAD 1
+static inline void _log(unsigned session_id, const char* func_name, int av_log_level, ...) {
+    va_list args;
+    va_start(args, av_log_level);
+    const char* fmt = va_arg(args, const char*);
+    char tmp[1024] = {0};
+    vsnprintf(tmp, sizeof(tmp), fmt, args);
+    va_end(args);
+#if LOG_THREAD
+    av_log(NULL, av_log_level, "[%u][las][%s] %s\n", session_id, func_name, tmp);
+#endif
+}
+
+#define algo_debug(...) _log(thiz->session_id, __func__, AV_LOG_DEBUG, __VA_ARGS__)
+#define algo_info(...) _log(thiz->session_id, __func__, AV_LOG_INFO, __VA_ARGS__)
+#define algo_error(...) _log(thiz->session_id, __func__, AV_LOG_ERROR, __VA_ARGS__)
+
+#pragma mark statistic
+int32_t get_video_bitrate(MultiRateAdaption* thiz) {
+    return thiz->levels[thiz->current];
+}
+
+int32_t get_buffer_current(MultiRateAdaption* thiz) {
+    return thiz->last_check_buffer;
+}
+
+int32_t get_bw_fragment(MultiRateAdaption* thiz) {
+    return thiz->last_speed;
+}
+
+#pragma mark config
+void RateAdaptConfig_default_init(AdaptiveConfig* config) {
+    config->buffer_init = 2000;
+    config->stable_buffer_diff_threshold_second = 0.15;
+    config->stable_buffer_interval_ms = 2000;
+    config->generate_speed_gap_ms = 3000;
+    config->buffer_check_interval_ms = 500;
+    config->smoothed_speed_utilization_ratio = 0.8;
+    config->small_speed_to_bitrate_ratio = 0.4;
+    config->enough_speed_to_bitrate_ratio = 0.9;
+    config->buffer_lower_limit_second = 0.6;
+    config->recent_buffered_size = 16;
+    config->smoothed_speed_ratio = 0.9;
+
+    config->bola_min_buffer_second = 1.0;
+    config->bola_buffer_target_second = 3.0;
+    config->hybrid_buffer_low_second = 1.0;
+    config->hybrid_buffer_high_second = 2.0;
+}
+
+int parse_adapt_config(const char* config_string, AdaptiveConfig* config) {
+    cJSON* root = cJSON_Parse(config_string);
+    if (!root)
+        return AVERROR_INVALIDDATA;
+    if (cJSON_Object == root->type) {
+        int len = cJSON_GetArraySize(root);
+        for (int i = 0; i < len; i++) {
+            cJSON* child_json = cJSON_GetArrayItem(root, i);
+            switch (child_json->type) {
+                case cJSON_Number:
+                    if (!strcmp(child_json->string, "bufferInit")) {
+                        config->buffer_init = child_json->valueint;
+                    } else if (!strcmp(child_json->string, "stableBufferDiffThresholdSecond")) {
+                        config->stable_buffer_diff_threshold_second = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "stableBufferIntervalMs")) {
+                        config->stable_buffer_interval_ms = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "generateSpeedGapMs")) {
+                        config->generate_speed_gap_ms = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "bufferCheckIntervalMs")) {
+                        config->buffer_check_interval_ms = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "smoothedSpeedUtilizationRatio")) {
+                        config->smoothed_speed_utilization_ratio = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "smallSpeedToBitrateRatio")) {
+                        config->small_speed_to_bitrate_ratio = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "enoughSpeedToBitrateRatio")) {
+                        config->enough_speed_to_bitrate_ratio = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "bufferLowerLimitSecond")) {
+                        config->buffer_lower_limit_second = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "recentBufferedSize")) {
+                        config->recent_buffered_size = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "smoothedSpeedRatio")) {
+                        config->smoothed_speed_ratio = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "bolaMinBufferSecond")) {
+                        config->bola_min_buffer_second = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "bolaBufferTargetSecond")) {
+                        config->bola_buffer_target_second = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "hybridBufferLowSecond")) {
+                        config->hybrid_buffer_low_second = child_json->valuedouble;
+                    } else if (!strcmp(child_json->string, "hybridBufferHighSecond")) {
+                        config->hybrid_buffer_high_second = child_json->valuedouble;
+                    }
+                    break;
+                case cJSON_Object:
+                case cJSON_False:
+                case cJSON_NULL:
+                case cJSON_Array:
+                case cJSON_True:
+                    break;
+            }
+        }
+    }
+    cJSON_Delete(root);
+
+    // past_buffer is a ring of LAS_ABR_MAX_STATE_CNT
+    config->recent_buffered_size = av_clip(config->recent_buffered_size, 1, LAS_ABR_MAX_STATE_CNT);
+    return 0;
+}
+
+#pragma mark MultiRateAdaption
+static int32_t local_index_2_rep_index(MultiRateAdaption* thiz, int32_t local_index) {
+    int32_t rep_index = 0;
+    for (int i = 0; i < thiz->n_bitrates; i++) {
+        if (thiz->levels[local_index] == thiz->bitrate_table_origin_order[i]) {
+            rep_index = i;
+            break;
+        }
+    }
+    return rep_index;
+}
+
+static int32_t rep_index_2_local_index(MultiRateAdaption* thiz, int32_t rep_index) {
+    int32_t local_index = 0;
+    for (int i = 0; i < thiz->n_bitrates; i++) {
+        if (thiz->levels[i] == thiz->bitrate_table_origin_order[rep_index]) {
+            local_index = i;
+            break;
+        }
+    }
+    return local_index;
+
+}
+
+static int get_local_index_from_bitrate(MultiRateAdaption* thiz, int64_t bitrate) {
+    for (int32_t i = thiz->n_bitrates - 1; i > 0; --i) {
+        if (thiz->levels[i] <= bitrate) {
+            return i;
+        }
+    }
+    return 0;
+}
+
+static int compare(const void* a, const void* b) {
+    return (*(int32_t*)a - * (int32_t*)b);
+}
+
+int MultiRateAdaption_init(MultiRateAdaption* thiz, AdaptiveConfig config, const LasAbrPolicy* policy,
+                           int n_bitrates, const int32_t* bitrates, const int32_t* disabled_from_adaptive,
+                           int default_index, int switch_mode, unsigned session_id, int64_t now_ms) {
+    if (!thiz || !bitrates || n_bitrates <= 0 || n_bitrates > MAX_STREAM_NUM) {
+        av_log(NULL, AV_LOG_ERROR, "[%u][las][%s] thiz:%p, n_bitrates:%d\n", session_id, __func__, thiz, n_bitrates);
+        return AVERROR(EINVAL);
+    }
+    thiz->conf = config;
+    thiz->n_bitrates = 0;
+    thiz->session_id = session_id;
+    thiz->policy = policy ? policy : las_abr_policy_find(LAS_ABR_DEFAULT_POLICY);
+    thiz->now_ms = now_ms;
+    for (int i = 0; i < n_bitrates; i++) {
+        thiz->bitrate_table_origin_order[i] = bitrates[i];
+        thiz->levels[i] = bitrates[i];
+        thiz->disable_adaptive_table[i] = disabled_from_adaptive ? disabled_from_adaptive[i] : 0;
+        thiz->n_bitrates++;
+    }
+    qsort(thiz->levels, thiz->n_bitrates, sizeof(int32_t), compare);
+
+    thiz->buffer_init = config.buffer_init;
+    if (thiz->buffer_init > INIT_BUFFER_THRESHOLD_MAX_MS) {
+        thiz->buffer_init = INIT_BUFFER_THRESHOLD_MAX_MS;
+    }
+
+    if (default_index >= 0 && default_index < thiz->n_bitrates) {
+        thiz->current = get_local_index_from_bitrate(thiz, bitrates[default_index]);
+    } else {
+        thiz->current = (thiz->n_bitrates - 1) / 2;
+    }
+    while (thiz->current >= thiz->n_bitrates) {
+        thiz->current -= 1;
+    }
+
+    if (switch_mode >= 0 && switch_mode < thiz->n_bitrates) {
+        thiz->current = rep_index_2_local_index(thiz, switch_mode);
+    }
+
+    thiz->next_expected_rep_index = local_index_2_rep_index(thiz, thiz->current);
+    thiz->past_buffer[0] = 0.1;
+    thiz->buffer_index = 1;
+    thiz->stable_buffer_start_time = now_ms;
+    thiz->generated_speed = 0;
+    thiz->last_check_buffer = 0;
+    thiz->last_speed = 0;
+    thiz->hybrid_use_bola = 0;
+    algo_info("policy: %s, n_bitrates: %d, current: %d", thiz->policy->name, thiz->n_bitrates, thiz->current);
+    return 0;
+}
+
+static bool update_stable_buffer(MultiRateAdaption* thiz, double buffered) {
+    double diff = buffered - thiz->last_check_buffer;
+    double diff_ratio = diff / buffered;
+    double now = thiz->now_ms;
+    if (diff < -thiz->conf.stable_buffer_diff_threshold_second || diff_ratio < -0.2) {
+        algo_info("buffer_diff_down: %.2fs, diff_ratio: %.2f", diff, diff_ratio);
+        thiz->stable_buffer_start_time = FFMAX(now, thiz->stable_buffer_start_time);
+    }
+    if (diff > thiz->conf.stable_buffer_diff_threshold_second
+        && now - thiz->stable_buffer_start_time + thiz->conf.buffer_check_interval_ms > thiz->conf.stable_buffer_interval_ms) {
+        thiz->stable_buffer_start_time = FFMAX(
+            now - thiz->conf.buffer_check_interval_ms * 2,
+            thiz->stable_buffer_start_time + thiz->conf.buffer_check_interval_ms * 2
+        );
+        algo_info("buffer_diff_up: %.2fs", diff);
+    }
+    thiz->last_check_buffer = buffered;
+    return now - thiz->stable_buffer_start_time > thiz->conf.stable_buffer_interval_ms;
+}
+
+void check_buffer(MultiRateAdaption* thiz, int64_t now_ms, double buffered) {
+    thiz->now_ms = now_ms;
+    bool is_buffer_stable = update_stable_buffer(thiz, buffered);
+    if (is_buffer_stable && thiz->current + 1 < thiz->n_bitrates) {
+        thiz->generated_speed = thiz->levels[thiz->current + 1];
+    } else {
+        thiz->generated_speed = 0;
+    }
+
+    thiz->past_buffer[thiz->buffer_index % thiz->conf.recent_buffered_size] = buffered;
+    thiz->buffer_index += 1;
+}
+
+static int32_t quantization(MultiRateAdaption* thiz, double speed) {
+    int32_t index = 0;
+    for (int i = thiz->n_bitrates - 1; i >= 0; i--) {
+        if (speed >= thiz->levels[i]) {
+            index = i;
+            break;
+        }
+    }
+    return index;
+}
+
+static double get_past_buffer(MultiRateAdaption* thiz) {
+    double max_buffer = 0.1;
+    for (int i = 0; i < thiz->conf.recent_buffered_size && i < thiz->buffer_index; ++i) {
+        double buffered = thiz->past_buffer[(thiz->buffer_index - 1 - i) % thiz->conf.recent_buffered_size];
+        if (buffered > max_buffer) {
+            max_buffer = buffered;
+        }
+    }
+    return max_buffer;
+}
+
+static double get_smoothed_speed(MultiRateAdaption* thiz, double speed) {
+    if (thiz->last_speed > 0) {
+        return speed * (1 - thiz->conf.smoothed_speed_ratio) + thiz->last_speed * thiz->conf.smoothed_speed_ratio;
+    }
+    return speed;
+}
+
+static double get_predicted_buffer(MultiRateAdaption* thiz, double buffered) {
+    double past_buffer = get_past_buffer(thiz);
+    return buffered + (buffered - past_buffer);
+}
+
+static double get_buffer_speed(MultiRateAdaption* thiz, double buffered) {
+    double past_buffer = get_past_buffer(thiz);
+    double buffer_speed_ratio = 1 + (buffered - past_buffer) / FFMAX(past_buffer, 0.1);
+    return buffer_speed_ratio * thiz->levels[thiz->current];
+}
+
+static bool is_speed_too_small(MultiRateAdaption* thiz, double speed) {
+    return speed / thiz->levels[thiz->current] < thiz->conf.small_speed_to_bitrate_ratio;
+}
+
+static bool is_speed_enough(MultiRateAdaption* thiz, double speed) {
+    return speed / thiz->levels[thiz->current] > thiz->conf.enough_speed_to_bitrate_ratio;
+}
+
+#pragma mark policy las
+static int32_t las_next_local_index(MultiRateAdaption* thiz, double speed, double buffered) {
+    if (thiz->buffer_index <= 1 && buffered <= 0.1) {
+        algo_info("empty past buffer");
+        return thiz->current;
+    }
+    double buffer_speed = get_buffer_speed(thiz, buffered);
+    double smoothed_speed = get_smoothed_speed(thiz, speed);
+    algo_info("gop_speed: %.0f, smoothed_speed: %.0f", speed, smoothed_speed);
+
+    double predicted_buffered = get_predicted_buffer(thiz, buffered);
+    algo_info("buffer_speed: %.0f, buffered: %.1f, predicted_buffered: %.1f", buffer_speed, buffered, predicted_buffered);
+
+    int32_t next_index = thiz->current;
+    if (predicted_buffered < thiz->conf.buffer_lower_limit_second
+        || is_speed_too_small(thiz, buffer_speed)) {
+        next_index = FFMIN(thiz->current, quantization(thiz, buffer_speed));
+    } else if (is_speed_enough(thiz, buffer_speed)) {
+        if (thiz->generated_speed > 0) {
+            algo_info("generated_speed used");
+            next_index = quantization(thiz, thiz->generated_speed);
+            thiz->generated_speed = 0;
+        } else {
+            next_index = quantization(thiz, smoothed_speed * thiz->conf.smoothed_speed_utilization_ratio);
+        }
+        next_index = FFMIN(thiz->current + 1, FFMAX(next_index, thiz->current));
+    }
+    algo_info("target_index = %u", next_index);
+    return next_index;
+}
+
+static const LasAbrPolicy las_abr_policy_las = {
+    .name               = "las",
+    .next_local_index   = las_next_local_index,
+};
+
+#pragma mark policy throughput
+/*
+ * At the live edge a gop is received no faster than it is produced, so the
+ * measured speed never exceeds the current bitrate by much. Probe one level
+ * up once check_buffer() has seen the buffer stable, as "las" does.
+ */
+static int32_t get_throughput_index(MultiRateAdaption* thiz, double speed) {
+    double smoothed_speed = get_smoothed_speed(thiz, speed);
+    int32_t index = quantization(thiz, smoothed_speed * thiz->conf.smoothed_speed_utilization_ratio);
+    if (index <= thiz->current && thiz->generated_speed > 0) {
+        algo_info("generated_speed used");
+        index = quantization(thiz, thiz->generated_speed);
+        thiz->generated_speed = 0;
+    }
+    return index;
+}
+
+/*
+ * Highest level below the smoothed throughput, switching down at once and up
+ * one level per gop.
+ */
+static int32_t throughput_next_local_index(MultiRateAdaption* thiz, double speed, double buffered) {
+    double smoothed_speed = get_smoothed_speed(thiz, speed);
+    int32_t next_index = get_throughput_index(thiz, speed);
+    next_index = FFMIN(next_index, thiz->current + 1);
+    algo_info("gop_speed: %.0f, smoothed_speed: %.0f, target_index = %d", speed, smoothed_speed, next_index);
+    return next_index;
+}
+
+static const LasAbrPolicy las_abr_policy_throughput = {
+    .name               = "throughput",
+    .next_local_index   = throughput_next_local_index,
+};
+
+#pragma mark policy bola
+/*
+ * BOLA-BASIC: maximizes (V * (u_m + gp) - Q) / S_m, with utilities
+ * u_m = ln(S_m / S_0) + 1 and V, gp chosen so that the lowest level is kept
+ * below bola_min_buffer_second and the highest one above
+ * bola_buffer_target_second.
+ */
+static int32_t bola_local_index(MultiRateAdaption* thiz, double buffered) {
+    if (thiz->n_bitrates <= 1)
+        return 0;
+
+    double lowest = FFMAX(thiz->levels[0], 1);
+    double u_max = log(FFMAX(thiz->levels[thiz->n_bitrates - 1], 1) / lowest) + 1;
+    double min_buffer = FFMAX(thiz->conf.bola_min_buffer_second, 0.1);
+    double target = FFMAX(thiz->conf.bola_buffer_target_second, min_buffer + 0.1);
+    double gp = (u_max - 1) / (target / min_buffer - 1);
+    if (gp <= 0)
+        return thiz->current;
+    double vp = min_buffer / gp;
+
+    int32_t index = 0;
+    double best_score = 0;
+    for (int i = 0; i < thiz->n_bitrates; i++) {
+        double u = log(FFMAX(thiz->levels[i], 1) / lowest) + 1;
+        double score = (vp * (u + gp) - buffered) / FFMAX(thiz->levels[i], 1);
+        if (i == 0 || score >= best_score) {
+            best_score = score;
+            index = i;
+        }
+    }
+    return index;
+}
+
+static int32_t bola_next_local_index(MultiRateAdaption* thiz, double speed, double buffered) {
+    int32_t next_index = bola_local_index(thiz, buffered);
+    if (next_index > thiz->current) {
+        // never switch up beyond what the throughput sustains
+        int32_t safe_index = get_throughput_index(thiz, speed);
+        next_index = FFMAX(thiz->current, FFMIN(next_index, safe_index));
+    }
+    algo_info("gop_speed: %.0f, buffered: %.1f, target_index = %d", speed, buffered, next_index);
+    return next_index;
+}
+
+static const LasAbrPolicy las_abr_policy_bola = {
+    .name               = "bola",
+    .next_local_index   = bola_next_local_index,
+};
+
+#pragma mark policy hybrid
+/*
+ * Throughput based while the buffer is short, buffer based once it is long
+ * enough, with hysteresis between hybrid_buffer_low_second and
+ * hybrid_buffer_high_second.
+ */
+static int32_t hybrid_next_local_index(MultiRateAdaption* thiz, double speed, double buffered) {
+    if (buffered < thiz->conf.hybrid_buffer_low_second) {
+        thiz->hybrid_use_bola = 0;
+    } else if (buffered > thiz->conf.hybrid_buffer_high_second) {
+        thiz->hybrid_use_bola = 1;
+    }
+
+    if (thiz->hybrid_use_bola)
+        return bola_next_local_index(thiz, speed, buffered);
+    return throughput_next_local_index(thiz, speed, buffered);
+}
+
+static const LasAbrPolicy las_abr_policy_hybrid = {
+    .name               = "hybrid",
+    .next_local_index   = hybrid_next_local_index,
+};
+
+#pragma mark policy callback
+static int32_t callback_next_local_index(MultiRateAdaption* thiz, double speed, double buffered) {
+    int32_t next_index = las_next_local_index(thiz, speed, buffered);
+    if (!thiz->on_select)
+        return next_index;
+
+    LasAbrDecision decision;
+    memset(&decision, 0, sizeof(decision));
+    decision.size        = sizeof(decision);
+    decision.n_bitrates  = thiz->n_bitrates;
+    for (int i = 0; i < thiz->n_bitrates; i++) {
+        decision.bitrates[i] = thiz->levels[i];
+    }
+    decision.current     = thiz->current;
+    decision.speed_kbps  = (int)speed;
+    decision.buffered_ms = (int)(buffered * 1000);
+    decision.next        = next_index;
+
+    if (thiz->on_select(thiz->on_select_opaque, &decision) == 0 && decision.is_handled) {
+        if (decision.next >= 0 && decision.next < thiz->n_bitrates) {
+            next_index = decision.next;
+        } else {
+            algo_error("invalid index from callback: %d", decision.next);
+        }
+    }
+    return next_index;
+}
+
+static const LasAbrPolicy las_abr_policy_callback = {
+    .name               = "callback",
+    .next_local_index   = callback_next_local_index,
+};
+
+#pragma mark decision
+int32_t next_representation_id(MultiRateAdaption* thiz, int64_t now_ms, int switch_mode, double speed, double buffered) {
+    thiz->now_ms = now_ms;
+    if (switch_mode >= 0 && switch_mode < thiz->n_bitrates) {
+        thiz->current = rep_index_2_local_index(thiz, switch_mode);
+        return switch_mode;
+    }
+
+    int local_index = thiz->policy->next_local_index(thiz, speed, buffered);
+    local_index = av_clip(local_index, 0, thiz->n_bitrates - 1);
+    int rep_index = local_index_2_rep_index(thiz, local_index);
+    while (local_index > 0 && thiz->disable_adaptive_table[rep_index]) {
+        local_index -= 1;
+        rep_index = local_index_2_rep_index(thiz, local_index);
+    }
+
+    if (local_index != thiz->current) {
+        thiz->stable_buffer_start_time = now_ms + thiz->conf.generate_speed_gap_ms;
+    }
+    if (local_index < thiz->current) {
+        thiz->generated_speed = 0;
+        thiz->last_speed = speed;
+        thiz->buffer_index = 1;
+        thiz->past_buffer[0] = buffered;
+    } else {
+        thiz->last_speed = get_smoothed_speed(thiz, speed);
+    }
+
+    thiz->current = local_index;
+    return rep_index;
+}
+
+#pragma mark registry
+static const LasAbrPolicy* g_las_abr_policies[LAS_ABR_POLICY_MAX_COUNT] = {
+    &las_abr_policy_las,
+    &las_abr_policy_throughput,
+    &las_abr_policy_bola,
+    &las_abr_policy_hybrid,
+    &las_abr_policy_callback,
+};
+
+int las_abr_policy_register(const LasAbrPolicy* policy) {
+    if (!policy || !policy->name || !policy->next_local_index)
+        return AVERROR(EINVAL);
+
+    for (int i = 0; i < LAS_ABR_POLICY_MAX_COUNT; i++) {
+        if (!g_las_abr_policies[i] || !strcmp(g_las_abr_policies[i]->name, policy->name)) {
+            g_las_abr_policies[i] = policy;
+            return 0;
+        }
+    }
+    return AVERROR(ENOSPC);
+}
+
+const LasAbrPolicy* las_abr_policy_find(const char* name) {
+    if (!name || !*name)
+        name = LAS_ABR_DEFAULT_POLICY;
+
+    for (int i = 0; i < LAS_ABR_POLICY_MAX_COUNT && g_las_abr_policies[i]; i++) {
+        if (!strcmp(g_las_abr_policies[i]->name, name))
+            return g_las_abr_policies[i];
+    }
+    return NULL;
+}
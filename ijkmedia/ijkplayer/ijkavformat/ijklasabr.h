@@ -0,0 +1,151 @@
+/*
+ * ijklasabr.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKLASABR_H
+#define IJKAVFORMAT_IJKLASABR_H
+
+#include <stdint.h>
+#include <stdbool.h>
+#include "ijklas.h"
+
+/*
+ * Rate adaptation of the LAS demuxer.
+ *
+ * The demuxer asks for the representation of the next gop at every key frame
+ * and reports the buffer level every buffer_check_interval_ms, the policy
+ * selected with the "las_abr_policy" option answers. Nothing here touches the
+ * network or the clock, so the same code runs in ijklas and in the offline
+ * simulator (linux/ijklassim.c).
+ */
+
+#define LAS_ABR_POLICY_MAX_COUNT        8
+#define LAS_ABR_DEFAULT_POLICY          "las"
+
+/*
+ * Sent through AVApplicationContext.func_on_app_event with a LasAbrDecision
+ * by the "callback" policy, the receiver may overwrite next and set
+ * is_handled.
+ */
+#define LAS_ABR_CTRL_SELECT_REPRESENTATION  0x20101
+
+#define LAS_ABR_MAX_STATE_CNT 30
+
+typedef struct AdaptiveConfig {
+    int32_t buffer_init;
+    double stable_buffer_diff_threshold_second;
+    int32_t stable_buffer_interval_ms;
+    int32_t generate_speed_gap_ms;
+    int32_t buffer_check_interval_ms;
+    double smoothed_speed_utilization_ratio;
+    double small_speed_to_bitrate_ratio;
+    double enough_speed_to_bitrate_ratio;
+    double buffer_lower_limit_second;
+    int32_t recent_buffered_size;
+    double smoothed_speed_ratio;
+
+    // bola / hybrid
+    double bola_min_buffer_second;
+    double bola_buffer_target_second;
+    double hybrid_buffer_low_second;
+    double hybrid_buffer_high_second;
+} AdaptiveConfig;
+
+typedef struct LasAbrDecision {
+    int     size;                       // sizeof(LasAbrDecision)
+    int     n_bitrates;
+    int     bitrates[MAX_STREAM_NUM];   // kbps, ascending
+    int     current;                    // index in bitrates
+    int     speed_kbps;
+    int     buffered_ms;
+    int     next;                       // choice of the "las" policy, may be overwritten
+    int     is_handled;
+} LasAbrDecision;
+
+typedef struct MultiRateAdaption MultiRateAdaption;
+
+typedef struct LasAbrPolicy {
+    const char* name;
+    /*
+     * @param speed     kbps downloaded during the last gop
+     * @param buffered  seconds of audio buffered by the player
+     * @return index in levels of the next gop
+     */
+    int32_t (*next_local_index)(MultiRateAdaption* thiz, double speed, double buffered);
+} LasAbrPolicy;
+
+struct MultiRateAdaption {
+    int32_t n_bitrates;
+    int32_t bitrate_table_origin_order[MAX_STREAM_NUM];
+    int32_t disable_adaptive_table[MAX_STREAM_NUM];
+    int32_t next_expected_rep_index;
+    unsigned session_id;
+    const LasAbrPolicy* policy;
+
+    // used by the "callback" policy
+    int (*on_select)(void* opaque, LasAbrDecision* decision);
+    void* on_select_opaque;
+
+    // algorithm related
+    AdaptiveConfig conf;
+    double past_buffer[LAS_ABR_MAX_STATE_CNT];
+    int64_t buffer_index;
+    int32_t levels[MAX_STREAM_NUM];
+    int32_t current;
+    int64_t now_ms;
+    int64_t stable_buffer_start_time;
+    double generated_speed;
+    double last_check_buffer;
+    int64_t last_speed;
+    int32_t buffer_init;
+    int32_t hybrid_use_bola;
+};
+
+void RateAdaptConfig_default_init(AdaptiveConfig* config);
+int  parse_adapt_config(const char* config_string, AdaptiveConfig* config);
+
+/*
+ * @param bitrates                  kbps, in representation order
+ * @param disabled_from_adaptive    may be NULL
+ * @param default_index             representation selected if switch_mode is LAS_AUTO_MODE, -1 for the middle one
+ */
+int  MultiRateAdaption_init(MultiRateAdaption* thiz, AdaptiveConfig config, const LasAbrPolicy* policy,
+                            int n_bitrates, const int32_t* bitrates, const int32_t* disabled_from_adaptive,
+                            int default_index, int switch_mode, unsigned session_id, int64_t now_ms);
+
+// check buffer periodically
+void    check_buffer(MultiRateAdaption* thiz, int64_t now_ms, double buffered);
+// @return representation index of the next gop
+int32_t next_representation_id(MultiRateAdaption* thiz, int64_t now_ms, int switch_mode, double speed, double buffered);
+
+int32_t get_video_bitrate(MultiRateAdaption* thiz);
+int32_t get_buffer_current(MultiRateAdaption* thiz);
+int32_t get_bw_fragment(MultiRateAdaption* thiz);
+
+/*
+ * Built in policies are "las", "throughput", "bola", "hybrid" and "callback".
+ * Policies registered later must stay valid for the lifetime of the process,
+ * register them before any playback starts.
+ */
+int                 las_abr_policy_register(const LasAbrPolicy* policy);
+const LasAbrPolicy* las_abr_policy_find(const char* name);
+
+#endif  // IJKAVFORMAT_IJKLASABR_H
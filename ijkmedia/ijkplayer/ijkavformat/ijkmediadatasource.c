@@ -32,6 +32,7 @@
 #include "ijkplayer/ijkavutil/opt.h"
 
 #include "j4a/class/tv/danmaku/ijk/media/player/misc/IMediaDataSource.h"
+#include "j4a/class/tv/danmaku/ijk/media/player/misc/IDirectMediaDataSource.h"
 #include "ijksdl/android/ijksdl_android_jni.h"
 
 typedef struct Context {
@@ -45,6 +46,9 @@ typedef struct Context {
     jobject         media_data_source;
     jbyteArray      jbuffer;
     int             jbuffer_capacity;
+
+    /* IDirectMediaDataSource: java writes into av buffer, no jbuffer */
+    int             direct;
 } Context;
 
 static int ijkmds_open(URLContext *h, const char *arg, int flags, AVDictionary **options)
@@ -55,6 +59,8 @@ static int ijkmds_open(URLContext *h, const char *arg, int flags, AVDictionary *
     char *final = NULL;
 
     av_strstart(arg, "ijkmediadatasource:", &arg);
+    if (av_strstart(arg, "direct:", &arg))
+        c->direct = 1;
 
     media_data_source = (jobject) (intptr_t) strtoll(arg, &final, 10);
     if (!media_data_source)
@@ -123,6 +129,27 @@ static jobject jbuffer_grow(JNIEnv *env, URLContext *h, int new_capacity) {
     return c->jbuffer;
 }
 
+/*
+ * wrap the av buffer itself, java side writes into it without any copy
+ */
+static int direct_read_at(JNIEnv *env, URLContext *h, int64_t position, unsigned char *buf, int size, jint *nread)
+{
+    Context *c = h->priv_data;
+    static unsigned char dummy_buf[1];
+    jobject  jdirect_buffer = NULL;
+
+    jdirect_buffer = (*env)->NewDirectByteBuffer(env, buf ? buf : dummy_buf, size);
+    if (J4A_ExceptionCheck__catchAll(env) || !jdirect_buffer)
+        return AVERROR(ENOMEM);
+
+    *nread = J4AC_IDirectMediaDataSource__readAt(env, c->media_data_source, position, jdirect_buffer);
+    J4A_DeleteLocalRef__p(env, &jdirect_buffer);
+    if (J4A_ExceptionCheck__catchAll(env))
+        return AVERROR(EIO);
+
+    return 0;
+}
+
 static int ijkmds_read(URLContext *h, unsigned char *buf, int size)
 {
     Context    *c = h->priv_data;
@@ -138,6 +165,21 @@ static int ijkmds_read(URLContext *h, unsigned char *buf, int size)
         return AVERROR(EINVAL);
     }
 
+    if (c->direct) {
+        int err = direct_read_at(env, h, c->logical_pos, buf, size, &ret);
+        if (err < 0)
+            return err;
+        else if (ret < 0)
+            return AVERROR_EOF;
+        else if (ret == 0)
+            return AVERROR(EAGAIN);
+        else if (ret > size)
+            return AVERROR(EIO);
+
+        c->logical_pos += ret;
+        return ret;
+    }
+
     jbuffer = jbuffer_grow(env, h, size);
     if (!jbuffer)
         return AVERROR(ENOMEM);
@@ -189,15 +231,24 @@ static int64_t ijkmds_seek(URLContext *h, int64_t pos, int whence)
     if (new_logical_pos < 0)
         return AVERROR(EINVAL);
 
-    jbuffer = jbuffer_grow(env, h, 0);
-    if (!jbuffer)
-        return AVERROR(ENOMEM);
-
-    ret = J4AC_IMediaDataSource__readAt(env, c->media_data_source, new_logical_pos, jbuffer, 0, 0);
-    if (J4A_ExceptionCheck__catchAll(env))
-        return AVERROR(EIO);
-    else if (ret < 0)
-        return AVERROR_EOF;
+    if (c->direct) {
+        jint nread = 0;
+        int  err   = direct_read_at(env, h, new_logical_pos, NULL, 0, &nread);
+        if (err < 0)
+            return err;
+        else if (nread < 0)
+            return AVERROR_EOF;
+    } else {
+        jbuffer = jbuffer_grow(env, h, 0);
+        if (!jbuffer)
+            return AVERROR(ENOMEM);
+
+        ret = J4AC_IMediaDataSource__readAt(env, c->media_data_source, new_logical_pos, jbuffer, 0, 0);
+        if (J4A_ExceptionCheck__catchAll(env))
+            return AVERROR(EIO);
+        else if (ret < 0)
+            return AVERROR_EOF;
+    }
 
     c->logical_pos = new_logical_pos;
     return c->logical_pos;
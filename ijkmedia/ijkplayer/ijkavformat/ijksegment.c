@@ -27,14 +27,17 @@
 #include "libavutil/opt.h"
 
 #include "libavutil/application.h"
+#include "ijksegmentprefetch.h"
 
 typedef struct Context {
     AVClass        *class;
     URLContext     *inner;
+    IjkSegmentPrefetch *prefetch;
 
     /* options */
     char           *http_hook;
     char *         app_ctx_intptr;
+    char *         prefetcher_intptr;
 } Context;
 
 static int ijksegment_open(URLContext *h, const char *arg, int flags, AVDictionary **options)
@@ -42,6 +45,7 @@ static int ijksegment_open(URLContext *h, const char *arg, int flags, AVDictiona
     Context *c = h->priv_data;
     AVAppIOControl io_control = {0};
     AVApplicationContext *app_ctx = (AVApplicationContext *)av_dict_strtoptr(c->app_ctx_intptr);
+    IjkSegmentPrefetcher *prefetcher = c->prefetcher_intptr ? (IjkSegmentPrefetcher *)av_dict_strtoptr(c->prefetcher_intptr) : NULL;
     int ret = -1;
     int segment_index = -1;
 
@@ -59,6 +63,14 @@ static int ijksegment_open(URLContext *h, const char *arg, int flags, AVDictiona
         ret = AVERROR_EXTERNAL;
         goto fail;
     }
+
+    if (prefetcher) {
+        c->prefetch = ijksegment_prefetcher_take(prefetcher, segment_index, &h->interrupt_callback);
+        ijksegment_prefetcher_schedule(prefetcher, app_ctx, segment_index, flags, &h->interrupt_callback, *options,
+                                       h->protocol_whitelist, h->protocol_blacklist);
+        if (c->prefetch)
+            return 0;
+    }
     ret = av_application_on_io_control(app_ctx, AVAPP_CTRL_WILL_CONCAT_SEGMENT_OPEN, &io_control);
     if (ret || !io_control.url[0]) {
         ret = AVERROR_EXIT;
@@ -88,6 +100,10 @@ static int ijksegment_close(URLContext *h)
 {
     Context *c = h->priv_data;
 
+    if (c->prefetch) {
+        ijksegment_prefetch_freep(&c->prefetch);
+        return 0;
+    }
     return ffurl_close(c->inner);
 }
 
@@ -95,6 +111,8 @@ static int ijksegment_read(URLContext *h, unsigned char *buf, int size)
 {
     Context *c = h->priv_data;
 
+    if (c->prefetch)
+        return ijksegment_prefetch_read(c->prefetch, buf, size);
     return ffurl_read(c->inner, buf, size);
 }
 
@@ -102,6 +120,8 @@ static int64_t ijksegment_seek(URLContext *h, int64_t pos, int whence)
 {
     Context *c = h->priv_data;
 
+    if (c->prefetch)
+        return ijksegment_prefetch_seek(c->prefetch, pos, whence);
     return ffurl_seek(c->inner, pos, whence);
 }
 
@@ -110,6 +130,7 @@ static int64_t ijksegment_seek(URLContext *h, int64_t pos, int whence)
 
 static const AVOption options[] = {
     { "ijkapplication", "AVApplicationContext", OFFSET(app_ctx_intptr), AV_OPT_TYPE_INT64, { .i64 = 0 }, INT64_MIN, INT64_MAX, .flags = D },
+    { "ijksegment-prefetcher", "IjkSegmentPrefetcher", OFFSET(prefetcher_intptr), AV_OPT_TYPE_STRING, { .str = NULL }, 0, 0, .flags = D },
     { NULL }
 };
 
@@ -0,0 +1,518 @@
+/*
+ * ijksegmentprefetch.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijksegmentprefetch.h"
+
+#include <pthread.h>
+#include <string.h>
+#include "libavformat/avformat.h"
+#include "libavformat/url.h"
+#include "libavutil/avstring.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "libavutil/time.h"
+
+#define IJKSEGMENT_PREFETCH_READ_SIZE   (32 * 1024)
+// bytes the rate budget may run ahead, in 1/n of a second
+#define IJKSEGMENT_PREFETCH_BURST_DIV   10
+
+enum {
+    SEGMENT_PENDING = 0,
+    SEGMENT_RUNNING,
+    SEGMENT_DONE,
+    SEGMENT_FAILED,
+};
+
+struct IjkSegmentPrefetch {
+    int                  segment_index;
+    int                  state;
+    int                  taken;     // a reader waits for the worker to hand it over
+    int                  dropped;   // unscheduled while running, freed by its worker
+    IjkSegmentPrefetch  *next;
+
+    URLContext          *inner;
+    int64_t              inner_pos;
+    int                  reopened;
+
+    uint8_t             *buf;
+    int64_t              filled;
+    int                  eof;
+    int64_t              pos;
+
+    // inner is interrupted by the prefetcher, then by the reader it is handed to
+    AVIOInterruptCB      int_cb;
+    volatile int         abort_request;
+    AVIOInterruptCB      owner_cb;
+};
+
+struct IjkSegmentPrefetcher {
+    pthread_mutex_t       mutex;
+    pthread_cond_t        cond;
+    pthread_t             workers[IJKSEGMENT_PREFETCH_MAX_COUNT];
+    int                   worker_count;
+    int                   abort_request;
+
+    int                   count;
+    int64_t               size;
+    int64_t               max_rate;
+
+    IjkSegmentPrefetch   *segments;  // by segment_index
+
+    // from the last scheduling segment
+    AVApplicationContext *app_ctx;
+    int                   flags;
+    AVIOInterruptCB       int_cb;
+    AVDictionary         *options;
+    char                 *whitelist;
+    char                 *blacklist;
+
+    int64_t               rate_start;
+    int64_t               rate_bytes;
+};
+
+static int segment_interrupt_cb(void *opaque)
+{
+    IjkSegmentPrefetch *s = opaque;
+
+    if (s->abort_request)
+        return 1;
+    if (s->owner_cb.callback)
+        return s->owner_cb.callback(s->owner_cb.opaque);
+    return 0;
+}
+
+static IjkSegmentPrefetch *segment_alloc(int segment_index)
+{
+    IjkSegmentPrefetch *s = av_mallocz(sizeof(IjkSegmentPrefetch));
+    if (!s)
+        return NULL;
+
+    s->segment_index   = segment_index;
+    s->state           = SEGMENT_PENDING;
+    s->int_cb.callback = segment_interrupt_cb;
+    s->int_cb.opaque   = s;
+    return s;
+}
+
+static void segment_free(IjkSegmentPrefetch *s)
+{
+    if (!s)
+        return;
+
+    s->abort_request = 1;
+    if (s->inner)
+        ffurl_closep(&s->inner);
+    av_freep(&s->buf);
+    av_free(s);
+}
+
+/*
+ * Waits until the rate budget allows another read.
+ * @return <0 if aborted
+ */
+static int prefetcher_throttle(IjkSegmentPrefetcher *p, IjkSegmentPrefetch *s, int64_t bytes)
+{
+    if (p->max_rate <= 0)
+        return 0;
+
+    for (;;) {
+        int64_t now     = av_gettime_relative();
+        int64_t allowed = 0;
+        int     ready   = 0;
+
+        pthread_mutex_lock(&p->mutex);
+        allowed = (now - p->rate_start) * p->max_rate / 1000000;
+        if (allowed - p->rate_bytes > p->max_rate) {
+            // idle for a while, do not let the unused budget pile up
+            p->rate_start = now;
+            p->rate_bytes = 0;
+            allowed       = 0;
+        }
+        if (p->rate_bytes <= allowed + p->max_rate / IJKSEGMENT_PREFETCH_BURST_DIV) {
+            p->rate_bytes += bytes;
+            ready = 1;
+        }
+        pthread_mutex_unlock(&p->mutex);
+
+        if (ready)
+            return 0;
+        if (s->taken || segment_interrupt_cb(s))
+            return AVERROR_EXIT;
+        av_usleep(10 * 1000);
+    }
+}
+
+static int prefetcher_run(IjkSegmentPrefetcher *p, IjkSegmentPrefetch *s, AVApplicationContext *app_ctx, int flags,
+                          AVDictionary **options, const char *whitelist, const char *blacklist)
+{
+    AVAppIOControl io_control = {0};
+    int            ret        = 0;
+
+    io_control.size          = sizeof(io_control);
+    io_control.segment_index = s->segment_index;
+    snprintf(io_control.url, sizeof(io_control.url), "%d", s->segment_index);
+
+    ret = av_application_on_io_control(app_ctx, AVAPP_CTRL_WILL_CONCAT_SEGMENT_OPEN, &io_control);
+    if (ret || !io_control.url[0])
+        return AVERROR_EXIT;
+
+    av_dict_set_intptr(options, "ijkapplication", (uintptr_t)app_ctx, 0);
+    av_dict_set_int(options, "ijkinject-segment-index", s->segment_index, 0);
+
+    ret = ffurl_open_whitelist(&s->inner, io_control.url, flags, &s->int_cb, options, whitelist, blacklist, NULL);
+    if (ret)
+        return ret;
+
+    // the open connection is what matters most, the buffer is a bonus
+    s->buf = av_malloc(p->size);
+    if (!s->buf)
+        return 0;
+
+    while (s->filled < p->size && !s->taken) {
+        int size = (int)FFMIN(p->size - s->filled, IJKSEGMENT_PREFETCH_READ_SIZE);
+
+        if (prefetcher_throttle(p, s, size) < 0)
+            break;
+
+        ret = ffurl_read(s->inner, s->buf + s->filled, size);
+        if (ret == 0 || ret == AVERROR_EOF) {
+            s->eof = 1;
+            break;
+        } else if (ret < 0) {
+            // reconnected from inner_pos once read
+            av_log(NULL, AV_LOG_WARNING, "segment prefetch %d: read error %d\n", s->segment_index, ret);
+            break;
+        }
+        s->filled += ret;
+    }
+    s->inner_pos = s->filled;
+    return 0;
+}
+
+static IjkSegmentPrefetch *prefetcher_next_pending_l(IjkSegmentPrefetcher *p)
+{
+    IjkSegmentPrefetch *s = p->segments;
+
+    while (s && s->state != SEGMENT_PENDING)
+        s = s->next;
+    return s;
+}
+
+static void *prefetcher_worker(void *arg)
+{
+    IjkSegmentPrefetcher *p = arg;
+
+    pthread_mutex_lock(&p->mutex);
+    while (!p->abort_request) {
+        IjkSegmentPrefetch   *s         = prefetcher_next_pending_l(p);
+        AVApplicationContext *app_ctx   = NULL;
+        AVDictionary         *options   = NULL;
+        char                 *whitelist = NULL;
+        char                 *blacklist = NULL;
+        int                   flags     = 0;
+        int                   ret       = 0;
+
+        if (!s) {
+            pthread_cond_wait(&p->cond, &p->mutex);
+            continue;
+        }
+
+        s->state    = SEGMENT_RUNNING;
+        s->owner_cb = p->int_cb;
+        app_ctx     = p->app_ctx;
+        flags       = p->flags;
+        av_dict_copy(&options, p->options, 0);
+        whitelist   = av_strdup(p->whitelist);
+        blacklist   = av_strdup(p->blacklist);
+        pthread_mutex_unlock(&p->mutex);
+
+        ret = prefetcher_run(p, s, app_ctx, flags, &options, whitelist, blacklist);
+        av_dict_free(&options);
+        av_freep(&whitelist);
+        av_freep(&blacklist);
+
+        pthread_mutex_lock(&p->mutex);
+        if (ret && ret != AVERROR_EXIT)
+            av_log(NULL, AV_LOG_WARNING, "segment prefetch %d: open error %d\n", s->segment_index, ret);
+        s->state = ret ? SEGMENT_FAILED : SEGMENT_DONE;
+        pthread_cond_broadcast(&p->cond);
+        if (s->dropped) {
+            pthread_mutex_unlock(&p->mutex);
+            segment_free(s);
+            pthread_mutex_lock(&p->mutex);
+        }
+    }
+    pthread_mutex_unlock(&p->mutex);
+    return NULL;
+}
+
+int ijksegment_prefetcher_create(IjkSegmentPrefetcher **pp, int count, int64_t size, int64_t max_rate)
+{
+    IjkSegmentPrefetcher *p = NULL;
+    int                   i = 0;
+
+    if (!pp || count <= 0)
+        return AVERROR(EINVAL);
+
+    p = av_mallocz(sizeof(IjkSegmentPrefetcher));
+    if (!p)
+        return AVERROR(ENOMEM);
+
+    p->count      = FFMIN(count, IJKSEGMENT_PREFETCH_MAX_COUNT);
+    p->size       = size > 0 ? size : IJKSEGMENT_PREFETCH_DEFAULT_SIZE;
+    p->max_rate   = FFMAX(max_rate, 0);
+    p->rate_start = av_gettime_relative();
+    pthread_mutex_init(&p->mutex, NULL);
+    pthread_cond_init(&p->cond, NULL);
+
+    for (i = 0; i < p->count; i++) {
+        if (pthread_create(&p->workers[i], NULL, prefetcher_worker, p))
+            break;
+        p->worker_count++;
+    }
+    if (!p->worker_count) {
+        ijksegment_prefetcher_destroyp(&p);
+        return AVERROR(ENOMEM);
+    }
+
+    *pp = p;
+    return 0;
+}
+
+void ijksegment_prefetcher_destroyp(IjkSegmentPrefetcher **pp)
+{
+    IjkSegmentPrefetcher *p = NULL;
+    IjkSegmentPrefetch   *s = NULL;
+    int                   i = 0;
+
+    if (!pp || !*pp)
+        return;
+    p = *pp;
+
+    pthread_mutex_lock(&p->mutex);
+    p->abort_request = 1;
+    for (s = p->segments; s; s = s->next)
+        s->abort_request = 1;
+    pthread_cond_broadcast(&p->cond);
+    pthread_mutex_unlock(&p->mutex);
+
+    for (i = 0; i < p->worker_count; i++)
+        pthread_join(p->workers[i], NULL);
+
+    while (p->segments) {
+        s = p->segments;
+        p->segments = s->next;
+        segment_free(s);
+    }
+
+    av_dict_free(&p->options);
+    av_freep(&p->whitelist);
+    av_freep(&p->blacklist);
+    pthread_cond_destroy(&p->cond);
+    pthread_mutex_destroy(&p->mutex);
+    av_freep(pp);
+}
+
+void ijksegment_prefetcher_schedule(IjkSegmentPrefetcher *p, AVApplicationContext *app_ctx, int segment_index,
+                                    int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                                    const char *whitelist, const char *blacklist)
+{
+    IjkSegmentPrefetch **ps      = NULL;
+    IjkSegmentPrefetch  *dropped = NULL;
+    IjkSegmentPrefetch  *s       = NULL;
+    int                  i       = 0;
+
+    if (!p || segment_index < 0)
+        return;
+
+    pthread_mutex_lock(&p->mutex);
+    p->app_ctx = app_ctx;
+    p->flags   = flags;
+    if (int_cb)
+        p->int_cb = *int_cb;
+    else
+        memset(&p->int_cb, 0, sizeof(p->int_cb));
+    av_dict_free(&p->options);
+    av_dict_copy(&p->options, options, 0);
+    av_freep(&p->whitelist);
+    av_freep(&p->blacklist);
+    p->whitelist = av_strdup(whitelist);
+    p->blacklist = av_strdup(blacklist);
+
+    // drop what is not ahead of segment_index anymore, after a seek
+    ps = &p->segments;
+    while ((s = *ps) != NULL) {
+        if (s->segment_index > segment_index && s->segment_index <= segment_index + p->count) {
+            ps = &s->next;
+            continue;
+        }
+        *ps = s->next;
+        s->abort_request = 1;
+        if (s->state == SEGMENT_RUNNING) {
+            s->dropped = 1;
+        } else {
+            s->next = dropped;
+            dropped = s;
+        }
+    }
+
+    ps = &p->segments;
+    for (i = segment_index + 1; i <= segment_index + p->count; i++) {
+        while (*ps && (*ps)->segment_index < i)
+            ps = &(*ps)->next;
+        if (*ps && (*ps)->segment_index == i)
+            continue;
+        s = segment_alloc(i);
+        if (!s)
+            break;
+        s->next = *ps;
+        *ps = s;
+    }
+    pthread_cond_broadcast(&p->cond);
+    pthread_mutex_unlock(&p->mutex);
+
+    while (dropped) {
+        s = dropped;
+        dropped = s->next;
+        segment_free(s);
+    }
+}
+
+IjkSegmentPrefetch *ijksegment_prefetcher_take(IjkSegmentPrefetcher *p, int segment_index, const AVIOInterruptCB *int_cb)
+{
+    IjkSegmentPrefetch **ps = NULL;
+    IjkSegmentPrefetch  *s  = NULL;
+
+    if (!p)
+        return NULL;
+
+    pthread_mutex_lock(&p->mutex);
+    for (ps = &p->segments; *ps; ps = &(*ps)->next) {
+        if ((*ps)->segment_index == segment_index)
+            break;
+    }
+    s = *ps;
+    if (!s) {
+        pthread_mutex_unlock(&p->mutex);
+        return NULL;
+    }
+
+    // a connection being opened is still closer than a new one
+    if (s->state == SEGMENT_RUNNING) {
+        s->taken = 1;
+        while (s->state == SEGMENT_RUNNING && !p->abort_request)
+            pthread_cond_wait(&p->cond, &p->mutex);
+    }
+    *ps = s->next;
+    s->next = NULL;
+    if (s->state != SEGMENT_DONE) {
+        s->abort_request = 1;
+        if (s->state == SEGMENT_RUNNING)
+            s->dropped = 1;
+        else
+            segment_free(s);
+        pthread_mutex_unlock(&p->mutex);
+        return NULL;
+    }
+    pthread_mutex_unlock(&p->mutex);
+
+    if (int_cb)
+        s->owner_cb = *int_cb;
+    else
+        memset(&s->owner_cb, 0, sizeof(s->owner_cb));
+    s->pos = 0;
+
+    av_log(NULL, AV_LOG_INFO, "segment prefetch %d: taken with %"PRId64" bytes%s\n",
+           segment_index, s->filled, s->eof ? ", complete" : "");
+    return s;
+}
+
+int ijksegment_prefetch_read(IjkSegmentPrefetch *s, unsigned char *buf, int size)
+{
+    int ret = 0;
+
+    if (s->pos < s->filled) {
+        ret = (int)FFMIN(size, s->filled - s->pos);
+        memcpy(buf, s->buf + s->pos, ret);
+        s->pos += ret;
+        return ret;
+    }
+    if (s->eof)
+        return AVERROR_EOF;
+
+    if (s->inner_pos != s->pos) {
+        int64_t pos = ffurl_seek(s->inner, s->pos, SEEK_SET);
+        if (pos < 0)
+            return (int)pos;
+        s->inner_pos = pos;
+    }
+
+    ret = ffurl_read(s->inner, buf, size);
+    if (ret < 0 && ret != AVERROR_EOF && ret != AVERROR_EXIT && !s->reopened) {
+        // the connection may have been idle since it was prefetched
+        s->reopened = 1;
+        if (ffurl_seek(s->inner, s->pos, SEEK_SET) == s->pos)
+            ret = ffurl_read(s->inner, buf, size);
+    }
+    if (ret > 0) {
+        s->pos       += ret;
+        s->inner_pos  = s->pos;
+    }
+    return ret;
+}
+
+int64_t ijksegment_prefetch_seek(IjkSegmentPrefetch *s, int64_t pos, int whence)
+{
+    int64_t target = 0;
+
+    whence &= ~AVSEEK_FORCE;
+    if (whence == AVSEEK_SIZE)
+        return s->eof ? s->filled : ffurl_seek(s->inner, 0, AVSEEK_SIZE);
+
+    if (whence == SEEK_SET) {
+        target = pos;
+    } else if (whence == SEEK_CUR) {
+        target = s->pos + pos;
+    } else if (whence == SEEK_END && s->eof) {
+        target = s->filled + pos;
+    } else {
+        target = ffurl_seek(s->inner, pos, whence);
+        if (target >= 0)
+            s->pos = s->inner_pos = target;
+        return target;
+    }
+    if (target < 0)
+        return AVERROR(EINVAL);
+
+    // the connection only moves once read past the buffer
+    s->pos = target;
+    return target;
+}
+
+void ijksegment_prefetch_freep(IjkSegmentPrefetch **ps)
+{
+    if (!ps || !*ps)
+        return;
+
+    segment_free(*ps);
+    *ps = NULL;
+}
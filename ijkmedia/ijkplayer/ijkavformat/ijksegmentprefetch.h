@@ -0,0 +1,76 @@
+/*
+ * ijksegmentprefetch.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKAVFORMAT_IJKSEGMENTPREFETCH_H
+#define IJKAVFORMAT_IJKSEGMENTPREFETCH_H
+
+#include <stdint.h>
+#include "libavformat/avio.h"
+#include "libavutil/application.h"
+
+/*
+ * Prefetcher of concat segments, owned by one playback.
+ *
+ * When ijksegment opens segment N, the urls of segments N+1 .. N+count are
+ * resolved with AVAPP_CTRL_WILL_CONCAT_SEGMENT_OPEN on worker threads, their
+ * connections are opened and the head of each segment is buffered, within
+ * a shared byte rate budget. Opening one of those segments then takes over
+ * the connection instead of resolving and connecting again.
+ */
+
+#define IJKSEGMENT_PREFETCH_MAX_COUNT       8
+#define IJKSEGMENT_PREFETCH_DEFAULT_SIZE    (2 * 1024 * 1024)
+
+typedef struct IjkSegmentPrefetcher IjkSegmentPrefetcher;
+typedef struct IjkSegmentPrefetch   IjkSegmentPrefetch;
+
+/*
+ * @param count     segments prefetched ahead of the one being played
+ * @param size      bytes buffered per segment
+ * @param max_rate  bytes per second downloaded by all workers, 0 for no limit
+ */
+int  ijksegment_prefetcher_create(IjkSegmentPrefetcher **pp, int count, int64_t size, int64_t max_rate);
+void ijksegment_prefetcher_destroyp(IjkSegmentPrefetcher **pp);
+
+/*
+ * Schedules the segments after segment_index and drops the others.
+ *
+ * int_cb must stay valid until ijksegment_prefetcher_destroyp(), options and
+ * the protocol lists are copied.
+ */
+void ijksegment_prefetcher_schedule(IjkSegmentPrefetcher *p, AVApplicationContext *app_ctx, int segment_index,
+                                    int flags, const AVIOInterruptCB *int_cb, AVDictionary *options,
+                                    const char *whitelist, const char *blacklist);
+
+/*
+ * Takes over segment_index if its connection is open, it is interrupted by
+ * int_cb from now on.
+ *
+ * @return NULL if segment_index was not prefetched
+ */
+IjkSegmentPrefetch *ijksegment_prefetcher_take(IjkSegmentPrefetcher *p, int segment_index, const AVIOInterruptCB *int_cb);
+
+int     ijksegment_prefetch_read(IjkSegmentPrefetch *s, unsigned char *buf, int size);
+int64_t ijksegment_prefetch_seek(IjkSegmentPrefetch *s, int64_t pos, int whence);
+void    ijksegment_prefetch_freep(IjkSegmentPrefetch **ps);
+
+#endif  // IJKAVFORMAT_IJKSEGMENTPREFETCH_H
@@ -27,10 +27,13 @@
 #include "libavutil/opt.h"
 
 #include "libavutil/application.h"
+#include "ijkdns.h"
+#include "ijkhttppool.h"
 
 typedef struct Context {
     AVClass        *class;
     URLContext     *inner;
+    IjkHttpConn    *http_conn;
 
     int64_t         logical_pos;
     int64_t         logical_size;
@@ -46,6 +49,9 @@ typedef struct Context {
     int             segment_index;
     int64_t         test_fail_point;
     int64_t         test_fail_point_next;
+    int             dns_cache;
+    int             dns_timeout;
+    int             keepalive;
     char*         app_ctx_intptr;
     AVApplicationContext *app_ctx;
 } Context;
@@ -88,12 +94,136 @@ fail:
     return ret;
 }
 
+/*
+ * Replaces the host of a plain http url with its address from ijkdns,
+ * the original host is kept in the Host header.
+ * https is left alone, as the host name is needed for SNI and certificate check,
+ * and so are hosts known to redirect, see ijkurlhook_is_redirected().
+ */
+static int ijkurlhook_resolve_url(URLContext *h, char *url, size_t url_size, char *host, size_t host_size, AVDictionary **options)
+{
+    Context *c = h->priv_data;
+    char proto[16];
+    char path[sizeof(c->app_io_ctrl.url)];
+    char ip[64];
+    char hoststr[320];
+    int  port = -1;
+    int  ret;
+    AVDictionaryEntry *headers;
+    char *new_headers = NULL;
+
+    av_url_split(proto, sizeof(proto), NULL, 0, host, host_size, &port, path, sizeof(path), c->app_io_ctrl.url);
+    if (strcmp(proto, "http") || !host[0] || ijkdns_is_redirecting(host))
+        return AVERROR(ENOSYS);
+
+    ret = ijkdns_resolve(host, c->dns_timeout, &h->interrupt_callback, ip, sizeof(ip));
+    if (ret < 0) {
+        av_log(h, AV_LOG_WARNING, "%s: dns cache miss for %s: %s\n", __func__, host, av_err2str(ret));
+        return ret;
+    }
+    if (!strcmp(ip, host))
+        return AVERROR(ENOSYS);
+
+    if (port > 0)
+        snprintf(hoststr, sizeof(hoststr), "%s:%d", host, port);
+    else
+        snprintf(hoststr, sizeof(hoststr), "%s", host);
+
+    headers = av_dict_get(*options, "headers", NULL, 0);
+    if (!headers || !av_stristr(headers->value, "Host:")) {
+        new_headers = av_asprintf("%sHost: %s\r\n", headers ? headers->value : "", hoststr);
+        if (!new_headers)
+            return AVERROR(ENOMEM);
+        av_dict_set(options, "headers", new_headers, AV_DICT_DONT_STRDUP_VAL);
+    }
+
+    ff_url_join(url, url_size, proto, NULL, ip, port, "%s", path);
+    return 0;
+}
+
+/*
+ * http.c sends a user supplied Host header with every request, redirects included,
+ * so a request sent to a cached address must not have been redirected to another host.
+ */
+static int ijkurlhook_is_redirected(URLContext *inner, const char *url)
+{
+    uint8_t *location = NULL;
+    char     host[256];
+    char     location_host[256];
+    int      redirected;
+
+    if (av_opt_get(inner->priv_data, "location", 0, &location) < 0 || !location)
+        return 0;
+
+    av_url_split(NULL, 0, NULL, 0, host, sizeof(host), NULL, NULL, 0, url);
+    av_url_split(NULL, 0, NULL, 0, location_host, sizeof(location_host), NULL, NULL, 0, (const char *) location);
+    redirected = strcmp(host, location_host) != 0;
+    av_free(location);
+    return redirected;
+}
+
+static int ijkurlhook_close_inner(URLContext *h)
+{
+    Context *c = h->priv_data;
+    int64_t remaining = -1;
+
+    if (!c->http_conn)
+        return ffurl_closep(&c->inner);
+
+    // only a response read to the end can carry the next request
+    if ((!c->io_error || c->io_error == AVERROR_EOF) && c->logical_size > 0 && c->logical_pos <= c->logical_size)
+        remaining = c->logical_size - c->logical_pos;
+
+    c->inner = NULL;
+    ijkhttppool_release(&c->http_conn, remaining);
+    return 0;
+}
+
+static int ijkurlhook_open_inner(URLContext *h, const char *url, AVDictionary **inner_options,
+                                 URLContext **new_url, IjkHttpConn **new_conn)
+{
+    Context *c = h->priv_data;
+    int ret;
+
+    if (c->keepalive) {
+        AVDictionaryEntry *offset = av_dict_get(*inner_options, "offset", NULL, 0);
+
+        // hand the current connection back first, so that a seek may reuse it
+        ijkurlhook_close_inner(h);
+        ret = ijkhttppool_open(new_conn,
+                               url,
+                               c->inner_flags,
+                               offset ? strtoll(offset->value, NULL, 10) : 0,
+                               &h->interrupt_callback,
+                               c->app_ctx,
+                               inner_options,
+                               h->protocol_whitelist,
+                               h->protocol_blacklist,
+                               h);
+        *new_url = ijkhttppool_get_url(*new_conn);
+        return ret;
+    }
+
+    return ffurl_open_whitelist(new_url,
+                                url,
+                                c->inner_flags,
+                                &h->interrupt_callback,
+                                inner_options,
+                                h->protocol_whitelist,
+                                h->protocol_blacklist,
+                                h);
+}
+
 static int ijkurlhook_reconnect(URLContext *h, AVDictionary *extra)
 {
     Context *c = h->priv_data;
     int ret = 0;
     URLContext *new_url = NULL;
+    IjkHttpConn *new_conn = NULL;
     AVDictionary *inner_options = NULL;
+    const char *url = c->app_io_ctrl.url;
+    char resolved_url[sizeof(c->app_io_ctrl.url)];
+    char host[256];
 
     c->test_fail_point_next += c->test_fail_point;
 
@@ -102,20 +232,40 @@ static int ijkurlhook_reconnect(URLContext *h, AVDictionary *extra)
     if (extra)
         av_dict_copy(&inner_options, extra, 0);
 
-    ret = ffurl_open_whitelist(&new_url,
-                               c->app_io_ctrl.url,
-                               c->inner_flags,
-                               &h->interrupt_callback,
-                               &inner_options,
-                               h->protocol_whitelist,
-                               h->protocol_blacklist,
-                               h);
-    if (ret)
+    host[0] = '\0';
+    if (c->dns_cache &&
+        !ijkurlhook_resolve_url(h, resolved_url, sizeof(resolved_url), host, sizeof(host), &inner_options))
+        url = resolved_url;
+
+    ret = ijkurlhook_open_inner(h, url, &inner_options, &new_url, &new_conn);
+    if (!ret && url == resolved_url && ijkurlhook_is_redirected(new_url, resolved_url)) {
+        // the redirect went out with our Host header, ask again by name without it
+        av_log(h, AV_LOG_INFO, "%s: %s redirects, not using its cached address\n", __func__, host);
+        ijkdns_set_redirecting(host);
+        if (new_conn)
+            ijkhttppool_release(&new_conn, -1);
+        else
+            ffurl_closep(&new_url);
+        new_url = NULL;
+
+        av_dict_free(&inner_options);
+        av_dict_copy(&inner_options, c->inner_options, 0);
+        if (extra)
+            av_dict_copy(&inner_options, extra, 0);
+        url = c->app_io_ctrl.url;
+        ret = ijkurlhook_open_inner(h, url, &inner_options, &new_url, &new_conn);
+    }
+    if (ret) {
+        // the cached address may be gone, look it up again next time
+        if (url == resolved_url)
+            ijkdns_invalidate(host);
         goto fail;
+    }
 
-    ffurl_closep(&c->inner);
+    ijkurlhook_close_inner(h);
 
     c->inner        = new_url;
+    c->http_conn    = new_conn;
     h->is_streamed  = c->inner->is_streamed;
     c->logical_pos  = ffurl_seek(c->inner, 0, SEEK_CUR);
     if (c->inner->is_streamed)
@@ -182,7 +332,7 @@ static int ijkurlhook_close(URLContext *h)
     Context *c = h->priv_data;
 
     av_dict_free(&c->inner_options);
-    return ffurl_closep(&c->inner);
+    return ijkurlhook_close_inner(h);
 }
 
 static int ijkurlhook_read(URLContext *h, unsigned char *buf, int size)
@@ -192,6 +342,8 @@ static int ijkurlhook_read(URLContext *h, unsigned char *buf, int size)
 
     if (c->io_error < 0)
         return c->io_error;
+    if (!c->inner)
+        return AVERROR(EIO);
 
     if (c->test_fail_point_next > 0 && c->logical_pos >= c->test_fail_point_next) {
         av_log(h, AV_LOG_ERROR, "test fail point:%"PRId64"\n", c->test_fail_point_next);
@@ -212,6 +364,8 @@ static int ijkurlhook_write(URLContext *h, const unsigned char *buf, int size)
 {
     Context *c = h->priv_data;
 
+    if (!c->inner)
+        return AVERROR(EIO);
     return ffurl_write(c->inner, buf, size);
 }
 
@@ -220,6 +374,8 @@ static int64_t ijkurlhook_seek(URLContext *h, int64_t pos, int whence)
     Context *c = h->priv_data;
     int64_t seek_ret = 0;
 
+    if (!c->inner)
+        return AVERROR(EIO);
     seek_ret = ffurl_seek(c->inner, pos, whence);
     if (seek_ret < 0) {
         c->io_error = (int)seek_ret;
@@ -380,7 +536,7 @@ static int64_t ijkhttphook_seek(URLContext *h, int64_t pos, int whence)
         goto fail;
     }
 
-    seek_ret = ijkhttphook_reseek_at(h, pos, whence, c->app_io_ctrl.is_url_changed);
+    seek_ret = ijkhttphook_reseek_at(h, pos, whence, c->app_io_ctrl.is_url_changed || c->keepalive);
     while (seek_ret < 0) {
         switch (seek_ret) {
             case AVERROR_EXIT:
@@ -399,7 +555,7 @@ static int64_t ijkhttphook_seek(URLContext *h, int64_t pos, int whence)
             goto fail;
 
         av_log(h, AV_LOG_INFO, "%s: will reseek(%d) at pos=%"PRId64", whence=%d\n", __func__, c->app_io_ctrl.retry_counter, pos, whence);
-        seek_ret = ijkhttphook_reseek_at(h, pos, whence, c->app_io_ctrl.is_url_changed);
+        seek_ret = ijkhttphook_reseek_at(h, pos, whence, c->app_io_ctrl.is_url_changed || c->keepalive);
         av_log(h, AV_LOG_INFO, "%s: did reseek(%d) at pos=%"PRId64", whence=%d: %"PRId64"\n", __func__, c->app_io_ctrl.retry_counter, pos, whence, seek_ret);
     }
 
@@ -427,6 +583,12 @@ static const AVOption ijkhttphook_options[] = {
         OFFSET(segment_index),          AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         INT_MAX, D },
     { "ijkhttphook-test-fail-point",    "test fail point, in bytes",
         OFFSET(test_fail_point),        AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         INT_MAX, D },
+    { "ijkhttphook-dns-cache",          "resolve http hosts through the shared dns cache",
+        OFFSET(dns_cache),              AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         1,       D },
+    { "ijkhttphook-dns-timeout",        "dns cache lookup timeout, in ms, falls back to tcp resolving",
+        OFFSET(dns_timeout),            AV_OPT_TYPE_INT,   {.i64 = IJKDNS_DEFAULT_TIMEOUT_MS}, 0, INT_MAX, D },
+    { "ijkhttphook-keepalive",          "reuse idle connections of the shared http pool",
+        OFFSET(keepalive),              AV_OPT_TYPE_INT,   {.i64 = 0}, 0,         1,       D },
     { "ijkapplication", "AVApplicationContext", OFFSET(app_ctx_intptr), AV_OPT_TYPE_STRING, { .str = NULL }, 0, 0, .flags = D },
     { NULL }
 };
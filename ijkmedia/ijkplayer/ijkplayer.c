@@ -44,6 +44,7 @@ inline static void ijkmp_destroy(IjkMediaPlayer *mp)
     if (!mp)
         return;
 
+    ijkmp_dec_ref_p(&mp->next_mp);
     ffp_destroy_p(&mp->ffplayer);
     if (mp->msg_thread) {
         SDL_WaitThread(mp->msg_thread, NULL);
@@ -188,6 +189,48 @@ void ijkmp_set_option_int(IjkMediaPlayer *mp, int opt_category, const char *name
     // MPTRACE("%s()=void\n", __func__);
 }
 
+static const char *ijkmp_next_option_field(const char *field, const char *end)
+{
+    const char *nul = memchr(field, 0, end - field);
+    return nul ? nul + 1 : NULL;
+}
+
+int ijkmp_set_options(IjkMediaPlayer *mp, const char *options, size_t size)
+{
+    assert(mp);
+    assert(options || !size);
+
+    const char *end   = options + size;
+    const char *p     = options;
+    int         count = 0;
+
+    MPTRACE("%s(%d)\n", __func__, (int)size);
+    pthread_mutex_lock(&mp->mutex);
+    while (p < end) {
+        const char *category = p;
+        const char *name     = ijkmp_next_option_field(category, end);
+        const char *value    = name  ? ijkmp_next_option_field(name, end) : NULL;
+        const char *next     = value ? ijkmp_next_option_field(value, end) : NULL;
+        if (!next) {
+            count = -1;
+            break;
+        }
+
+        int opt_category = atoi(category);
+        if (opt_category < FFP_OPT_CATEGORY_FORMAT || opt_category > FFP_OPT_CATEGORY_SWR) {
+            count = -1;
+            break;
+        }
+
+        ffp_set_option(mp->ffplayer, opt_category, name, value);
+        count++;
+        p = next;
+    }
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=%d\n", __func__, count);
+    return count;
+}
+
 int ijkmp_get_video_codec_info(IjkMediaPlayer *mp, char **codec_info)
 {
     assert(mp);
@@ -284,6 +327,32 @@ void ijkmp_set_property_int64(IjkMediaPlayer *mp, int id, int64_t value)
     pthread_mutex_unlock(&mp->mutex);
 }
 
+void ijkmp_get_property_snapshot(IjkMediaPlayer *mp,
+                                 const int *int64_ids, int64_t *int64_values, int int64_count,
+                                 const int *float_ids, float *float_values, int float_count)
+{
+    assert(mp);
+
+    pthread_mutex_lock(&mp->mutex);
+    for (int i = 0; i < int64_count; ++i) {
+        int64_values[i] = ffp_get_property_int64(mp->ffplayer, int64_ids[i], int64_values[i]);
+    }
+    for (int i = 0; i < float_count; ++i) {
+        float_values[i] = ffp_get_property_float(mp->ffplayer, float_ids[i], float_values[i]);
+    }
+    pthread_mutex_unlock(&mp->mutex);
+}
+
+int ijkmp_get_las_statistic(IjkMediaPlayer *mp, struct LasStatistic *stat)
+{
+    assert(mp);
+
+    pthread_mutex_lock(&mp->mutex);
+    int ret = ffp_get_las_statistic(mp->ffplayer, stat);
+    pthread_mutex_unlock(&mp->mutex);
+    return ret;
+}
+
 IjkMediaMeta *ijkmp_get_meta_l(IjkMediaPlayer *mp)
 {
     assert(mp);
@@ -311,6 +380,33 @@ void ijkmp_shutdown(IjkMediaPlayer *mp)
     return ijkmp_shutdown_l(mp);
 }
 
+void ijkmp_reset(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    MPTRACE("ijkmp_reset()\n");
+    ijkmp_shutdown(mp);
+
+    // msg_loop exits once msg_queue is aborted
+    if (mp->msg_thread) {
+        SDL_WaitThread(mp->msg_thread, NULL);
+        mp->msg_thread = NULL;
+    }
+
+    ijkmp_set_next_player(mp, NULL);
+
+    pthread_mutex_lock(&mp->mutex);
+    ffp_reset(mp->ffplayer);
+    freep((void**)&mp->data_source);
+    mp->restart                = 0;
+    mp->restart_from_beginning = 0;
+    mp->seek_req               = 0;
+    mp->seek_msec              = 0;
+    ijkmp_change_state_l(mp, MP_STATE_IDLE);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("ijkmp_reset()=void\n");
+}
+
 void ijkmp_inc_ref(IjkMediaPlayer *mp)
 {
     assert(mp);
@@ -430,6 +526,64 @@ int ijkmp_prepare_async(IjkMediaPlayer *mp)
     return retval;
 }
 
+static int ijkmp_prepare_as_next_l(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    switch (mp->mp_state) {
+    case MP_STATE_INITIALIZED:
+        ffp_set_option_int(mp->ffplayer, FFP_OPT_CATEGORY_PLAYER, "start-on-prepared", 0);
+        return ijkmp_prepare_async_l(mp);
+    case MP_STATE_ASYNC_PREPARING:
+        // start-on-prepared has been applied in ffp_prepare_async_l()
+        return mp->ffplayer->start_on_prepared ? EIJK_INVALID_STATE : 0;
+    case MP_STATE_PAUSED:
+        return 0;
+    default:
+        return EIJK_INVALID_STATE;
+    }
+}
+
+int ijkmp_set_next_player(IjkMediaPlayer *mp, IjkMediaPlayer *next)
+{
+    assert(mp);
+    MPTRACE("ijkmp_set_next_player(%p)\n", next);
+    if (next == mp)
+        return EIJK_INVALID_STATE;
+
+    if (next) {
+        pthread_mutex_lock(&next->mutex);
+        int retval = ijkmp_prepare_as_next_l(next);
+        pthread_mutex_unlock(&next->mutex);
+        if (retval) {
+            MPTRACE("ijkmp_set_next_player(%p)=%d\n", next, retval);
+            return retval;
+        }
+
+        ijkmp_inc_ref(next);
+    }
+
+    pthread_mutex_lock(&mp->mutex);
+    IjkMediaPlayer *prev = mp->next_mp;
+    mp->next_mp = next;
+    pthread_mutex_unlock(&mp->mutex);
+
+    ijkmp_dec_ref_p(&prev);
+    MPTRACE("ijkmp_set_next_player(%p)=0\n", next);
+    return 0;
+}
+
+IjkMediaPlayer *ijkmp_take_next_player(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    pthread_mutex_lock(&mp->mutex);
+    IjkMediaPlayer *next = mp->next_mp;
+    mp->next_mp = NULL;
+    pthread_mutex_unlock(&mp->mutex);
+    return next;
+}
+
 static int ikjmp_chkst_start_l(int mp_state)
 {
     MPST_RET_IF_EQ(mp_state, MP_STATE_IDLE);
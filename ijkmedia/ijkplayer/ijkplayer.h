@@ -169,6 +169,8 @@ void*            ijkmp_set_ijkio_inject_opaque(IjkMediaPlayer *mp, void *opaque)
 
 void            ijkmp_set_option(IjkMediaPlayer *mp, int opt_category, const char *name, const char *value);
 void            ijkmp_set_option_int(IjkMediaPlayer *mp, int opt_category, const char *name, int64_t value);
+// "category\0name\0value\0" repeated, return number of options set, or -1 if malformed
+int             ijkmp_set_options(IjkMediaPlayer *mp, const char *options, size_t size);
 
 int             ijkmp_get_video_codec_info(IjkMediaPlayer *mp, char **codec_info);
 int             ijkmp_get_audio_codec_info(IjkMediaPlayer *mp, char **codec_info);
@@ -181,14 +183,26 @@ float           ijkmp_get_property_float(IjkMediaPlayer *mp, int id, float defau
 void            ijkmp_set_property_float(IjkMediaPlayer *mp, int id, float value);
 int64_t         ijkmp_get_property_int64(IjkMediaPlayer *mp, int id, int64_t default_value);
 void            ijkmp_set_property_int64(IjkMediaPlayer *mp, int id, int64_t value);
+// values are read as defaults and overwritten, all under a single lock
+void            ijkmp_get_property_snapshot(IjkMediaPlayer *mp,
+                                            const int *int64_ids, int64_t *int64_values, int int64_count,
+                                            const int *float_ids, float *float_values, int float_count);
 
 // must be freed with free();
 IjkMediaMeta   *ijkmp_get_meta_l(IjkMediaPlayer *mp);
 
+// copies LasStatistic of an ijklas input, returns -1 for any other input
+struct LasStatistic;
+int             ijkmp_get_las_statistic(IjkMediaPlayer *mp, struct LasStatistic *stat);
+
 // preferred to be called explicity, can be called multiple times
 // NOTE: ijkmp_shutdown may block thread
 void            ijkmp_shutdown(IjkMediaPlayer *mp);
 
+// back to MP_STATE_IDLE, keep ffplayer, vout, aout and pipeline for reuse
+// NOTE: ijkmp_reset may block thread
+void            ijkmp_reset(IjkMediaPlayer *mp);
+
 void            ijkmp_inc_ref(IjkMediaPlayer *mp);
 
 // call close at last release, also free memory
@@ -210,6 +224,12 @@ long            ijkmp_get_playable_duration(IjkMediaPlayer *mp);
 void            ijkmp_set_loop(IjkMediaPlayer *mp, int loop);
 int             ijkmp_get_loop(IjkMediaPlayer *mp);
 
+// prepare next paused (if not yet), to be started at completion of mp
+// NULL to clear
+int             ijkmp_set_next_player(IjkMediaPlayer *mp, IjkMediaPlayer *next);
+// must be freed with ijkmp_dec_ref_p()
+IjkMediaPlayer *ijkmp_take_next_player(IjkMediaPlayer *mp);
+
 void           *ijkmp_get_weak_thiz(IjkMediaPlayer *mp);
 void           *ijkmp_set_weak_thiz(IjkMediaPlayer *mp, void *weak_thiz);
 
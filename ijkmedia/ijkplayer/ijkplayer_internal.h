@@ -47,6 +47,9 @@ struct IjkMediaPlayer {
     int restart_from_beginning;
     int seek_req;
     long seek_msec;
+
+    // started on completion, see ijkmp_set_next_player()
+    IjkMediaPlayer *next_mp;
 };
 
 #endif
@@ -0,0 +1,435 @@
+/*
+ * ijkprobecache.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkprobecache.h"
+
+#include <stdio.h>
+#include <string.h>
+#include "libavutil/avstring.h"
+#include "libavutil/md5.h"
+
+#define PROBE_CACHE_TAG             MKTAG('I', 'J', 'K', 'P')
+#define PROBE_CACHE_VERSION         1
+#define PROBE_CACHE_MAX_STREAMS     32
+#define PROBE_CACHE_MAX_EXTRADATA   (1 << 20)
+
+typedef struct ProbeCacheStream {
+    AVCodecParameters *par;
+    AVRational         avg_frame_rate;
+    AVRational         r_frame_rate;
+    int64_t            start_time;
+    int64_t            duration;
+} ProbeCacheStream;
+
+typedef struct ProbeCacheEntry {
+    char               format_name[64];
+    int64_t            start_time;
+    int64_t            duration;
+    int64_t            bit_rate;
+    unsigned int       nb_streams;
+    ProbeCacheStream   streams[PROBE_CACHE_MAX_STREAMS];
+} ProbeCacheEntry;
+
+static void probe_cache_entry_free(ProbeCacheEntry *entry)
+{
+    unsigned int i;
+    for (i = 0; i < entry->nb_streams; ++i)
+        avcodec_parameters_free(&entry->streams[i].par);
+    entry->nb_streams = 0;
+}
+
+static char *probe_cache_path(const char *dir, const char *key)
+{
+    uint8_t md5[16];
+    char    hex[sizeof(md5) * 2 + 1];
+    int     i;
+
+    if (!dir || !*dir || !key || !*key)
+        return NULL;
+
+    av_md5_sum(md5, (const uint8_t *) key, (int) strlen(key));
+    for (i = 0; i < sizeof(md5); ++i)
+        snprintf(hex + i * 2, 3, "%02x", md5[i]);
+
+    return av_asprintf("%s/%s.probe", dir, hex);
+}
+
+// demuxers creating streams on the fly are probed by reading packets, nothing to reuse
+static int probe_cache_supported(AVFormatContext *ic)
+{
+    return ic && ic->iformat && ic->nb_streams > 0 &&
+           ic->nb_streams <= PROBE_CACHE_MAX_STREAMS &&
+           !(ic->ctx_flags & AVFMTCTX_NOHEADER);
+}
+
+static void write_stream(AVIOContext *pb, AVStream *st)
+{
+    AVCodecParameters *par = st->codecpar;
+
+    avio_wl32(pb, par->codec_type);
+    avio_wl32(pb, par->codec_id);
+    avio_wl32(pb, par->codec_tag);
+    avio_wl32(pb, par->format);
+    avio_wl64(pb, par->bit_rate);
+    avio_wl32(pb, par->bits_per_coded_sample);
+    avio_wl32(pb, par->bits_per_raw_sample);
+    avio_wl32(pb, par->profile);
+    avio_wl32(pb, par->level);
+    avio_wl32(pb, par->width);
+    avio_wl32(pb, par->height);
+    avio_wl32(pb, par->sample_aspect_ratio.num);
+    avio_wl32(pb, par->sample_aspect_ratio.den);
+    avio_wl32(pb, par->field_order);
+    avio_wl32(pb, par->color_range);
+    avio_wl32(pb, par->color_primaries);
+    avio_wl32(pb, par->color_trc);
+    avio_wl32(pb, par->color_space);
+    avio_wl32(pb, par->chroma_location);
+    avio_wl32(pb, par->video_delay);
+    avio_wl64(pb, par->channel_layout);
+    avio_wl32(pb, par->channels);
+    avio_wl32(pb, par->sample_rate);
+    avio_wl32(pb, par->block_align);
+    avio_wl32(pb, par->frame_size);
+    avio_wl32(pb, par->initial_padding);
+    avio_wl32(pb, st->avg_frame_rate.num);
+    avio_wl32(pb, st->avg_frame_rate.den);
+    avio_wl32(pb, st->r_frame_rate.num);
+    avio_wl32(pb, st->r_frame_rate.den);
+    avio_wl64(pb, st->start_time);
+    avio_wl64(pb, st->duration);
+    avio_wl32(pb, par->extradata_size);
+    if (par->extradata_size > 0)
+        avio_write(pb, par->extradata, par->extradata_size);
+}
+
+static int read_stream(AVIOContext *pb, ProbeCacheStream *cs)
+{
+    AVCodecParameters *par = avcodec_parameters_alloc();
+    if (!par)
+        return AVERROR(ENOMEM);
+    cs->par = par;
+
+    par->codec_type             = (int) avio_rl32(pb);
+    par->codec_id               = (int) avio_rl32(pb);
+    par->codec_tag              = avio_rl32(pb);
+    par->format                 = (int) avio_rl32(pb);
+    par->bit_rate               = (int64_t) avio_rl64(pb);
+    par->bits_per_coded_sample  = (int) avio_rl32(pb);
+    par->bits_per_raw_sample    = (int) avio_rl32(pb);
+    par->profile                = (int) avio_rl32(pb);
+    par->level                  = (int) avio_rl32(pb);
+    par->width                  = (int) avio_rl32(pb);
+    par->height                 = (int) avio_rl32(pb);
+    par->sample_aspect_ratio.num = (int) avio_rl32(pb);
+    par->sample_aspect_ratio.den = (int) avio_rl32(pb);
+    par->field_order            = (int) avio_rl32(pb);
+    par->color_range            = (int) avio_rl32(pb);
+    par->color_primaries        = (int) avio_rl32(pb);
+    par->color_trc              = (int) avio_rl32(pb);
+    par->color_space            = (int) avio_rl32(pb);
+    par->chroma_location        = (int) avio_rl32(pb);
+    par->video_delay            = (int) avio_rl32(pb);
+    par->channel_layout         = avio_rl64(pb);
+    par->channels               = (int) avio_rl32(pb);
+    par->sample_rate            = (int) avio_rl32(pb);
+    par->block_align            = (int) avio_rl32(pb);
+    par->frame_size             = (int) avio_rl32(pb);
+    par->initial_padding        = (int) avio_rl32(pb);
+    cs->avg_frame_rate.num      = (int) avio_rl32(pb);
+    cs->avg_frame_rate.den      = (int) avio_rl32(pb);
+    cs->r_frame_rate.num        = (int) avio_rl32(pb);
+    cs->r_frame_rate.den        = (int) avio_rl32(pb);
+    cs->start_time              = (int64_t) avio_rl64(pb);
+    cs->duration                = (int64_t) avio_rl64(pb);
+    par->extradata_size         = (int) avio_rl32(pb);
+
+    if (par->extradata_size < 0 || par->extradata_size > PROBE_CACHE_MAX_EXTRADATA) {
+        par->extradata_size = 0;
+        return AVERROR_INVALIDDATA;
+    }
+    if (par->extradata_size > 0) {
+        par->extradata = av_mallocz(par->extradata_size + AV_INPUT_BUFFER_PADDING_SIZE);
+        if (!par->extradata) {
+            par->extradata_size = 0;
+            return AVERROR(ENOMEM);
+        }
+        if (avio_read(pb, par->extradata, par->extradata_size) != par->extradata_size)
+            return AVERROR_INVALIDDATA;
+    }
+
+    return pb->eof_reached ? AVERROR_INVALIDDATA : 0;
+}
+
+static int probe_cache_load(const char *path, ProbeCacheEntry *entry)
+{
+    AVIOContext *pb = NULL;
+    unsigned int i;
+    int          ret;
+
+    ret = avio_open(&pb, path, AVIO_FLAG_READ);
+    if (ret < 0)
+        return ret;
+
+    if (avio_rl32(pb) != PROBE_CACHE_TAG || avio_rl32(pb) != PROBE_CACHE_VERSION) {
+        ret = AVERROR_INVALIDDATA;
+        goto end;
+    }
+
+    avio_get_str(pb, INT_MAX, entry->format_name, sizeof(entry->format_name));
+    entry->start_time = (int64_t) avio_rl64(pb);
+    entry->duration   = (int64_t) avio_rl64(pb);
+    entry->bit_rate   = (int64_t) avio_rl64(pb);
+    entry->nb_streams = avio_rl32(pb);
+    if (entry->nb_streams > PROBE_CACHE_MAX_STREAMS) {
+        entry->nb_streams = 0;
+        ret = AVERROR_INVALIDDATA;
+        goto end;
+    }
+
+    for (i = 0; i < entry->nb_streams; ++i) {
+        ret = read_stream(pb, &entry->streams[i]);
+        if (ret < 0)
+            goto end;
+    }
+    ret = 0;
+end:
+    avio_closep(&pb);
+    return ret;
+}
+
+static int probe_cache_match(const ProbeCacheEntry *entry, AVFormatContext *ic)
+{
+    unsigned int i;
+
+    if (strcmp(entry->format_name, ic->iformat->name) || entry->nb_streams != ic->nb_streams)
+        return 0;
+
+    for (i = 0; i < ic->nb_streams; ++i) {
+        const AVCodecParameters *cached = entry->streams[i].par;
+        const AVCodecParameters *par    = ic->streams[i]->codecpar;
+
+        if (cached->codec_type != par->codec_type)
+            return 0;
+        if (par->codec_id != AV_CODEC_ID_NONE && cached->codec_id != par->codec_id)
+            return 0;
+        // headers carrying codec config tell whether the content was replaced
+        if (par->extradata_size > 0 &&
+            (cached->extradata_size != par->extradata_size ||
+             memcmp(cached->extradata, par->extradata, par->extradata_size)))
+            return 0;
+    }
+    return 1;
+}
+
+// what avformat_find_stream_info() would have failed without
+static int probe_cache_par_complete(const AVCodecParameters *par)
+{
+    if (par->codec_id == AV_CODEC_ID_NONE)
+        return 0;
+
+    switch (par->codec_type) {
+    case AVMEDIA_TYPE_VIDEO:
+        return par->width > 0 && par->height > 0;
+    case AVMEDIA_TYPE_AUDIO:
+        return par->sample_rate > 0 && par->channels > 0;
+    default:
+        return 1;
+    }
+}
+
+static int probe_cache_apply_stream(const ProbeCacheStream *cs, AVStream *st)
+{
+    const AVCodecParameters *cached = cs->par;
+    AVCodecParameters       *par    = st->codecpar;
+
+#define FILL_IF_UNSET(field, unset) \
+    if (par->field == (unset)) par->field = cached->field
+
+    FILL_IF_UNSET(codec_id,              AV_CODEC_ID_NONE);
+    FILL_IF_UNSET(codec_tag,             0);
+    FILL_IF_UNSET(format,                -1);
+    FILL_IF_UNSET(bit_rate,              0);
+    FILL_IF_UNSET(bits_per_coded_sample, 0);
+    FILL_IF_UNSET(bits_per_raw_sample,   0);
+    FILL_IF_UNSET(profile,               FF_PROFILE_UNKNOWN);
+    FILL_IF_UNSET(level,                 FF_LEVEL_UNKNOWN);
+    FILL_IF_UNSET(width,                 0);
+    FILL_IF_UNSET(height,                0);
+    FILL_IF_UNSET(field_order,           AV_FIELD_UNKNOWN);
+    FILL_IF_UNSET(color_range,           AVCOL_RANGE_UNSPECIFIED);
+    FILL_IF_UNSET(color_primaries,       AVCOL_PRI_UNSPECIFIED);
+    FILL_IF_UNSET(color_trc,             AVCOL_TRC_UNSPECIFIED);
+    FILL_IF_UNSET(color_space,           AVCOL_SPC_UNSPECIFIED);
+    FILL_IF_UNSET(chroma_location,       AVCHROMA_LOC_UNSPECIFIED);
+    FILL_IF_UNSET(video_delay,           0);
+    FILL_IF_UNSET(channel_layout,        0);
+    FILL_IF_UNSET(channels,              0);
+    FILL_IF_UNSET(sample_rate,           0);
+    FILL_IF_UNSET(block_align,           0);
+    FILL_IF_UNSET(frame_size,            0);
+    FILL_IF_UNSET(initial_padding,       0);
+#undef FILL_IF_UNSET
+
+    if (par->sample_aspect_ratio.num == 0)
+        par->sample_aspect_ratio = cached->sample_aspect_ratio;
+
+    if (par->extradata_size <= 0 && cached->extradata_size > 0) {
+        av_freep(&par->extradata);
+        par->extradata = av_mallocz(cached->extradata_size + AV_INPUT_BUFFER_PADDING_SIZE);
+        if (!par->extradata)
+            return AVERROR(ENOMEM);
+        memcpy(par->extradata, cached->extradata, cached->extradata_size);
+        par->extradata_size = cached->extradata_size;
+    }
+
+    if (st->avg_frame_rate.num == 0)
+        st->avg_frame_rate = cs->avg_frame_rate;
+    if (st->r_frame_rate.num == 0)
+        st->r_frame_rate = cs->r_frame_rate;
+    if (st->start_time == AV_NOPTS_VALUE)
+        st->start_time = cs->start_time;
+    if (st->duration == AV_NOPTS_VALUE)
+        st->duration = cs->duration;
+
+    return 0;
+}
+
+int ijkprobecache_restore(const char *dir, const char *key, AVFormatContext *ic)
+{
+    ProbeCacheEntry entry;
+    char           *path = NULL;
+    unsigned int    i;
+    int             ret;
+
+    if (!probe_cache_supported(ic))
+        return AVERROR(ENOSYS);
+
+    path = probe_cache_path(dir, key);
+    if (!path)
+        return AVERROR(EINVAL);
+
+    memset(&entry, 0, sizeof(entry));
+    ret = probe_cache_load(path, &entry);
+    if (ret == AVERROR(ENOENT))
+        goto end;
+    if (ret < 0 || !probe_cache_match(&entry, ic)) {
+        av_log(NULL, AV_LOG_WARNING, "ijkprobecache: drop stale entry %s\n", path);
+        remove(path);
+        ret = AVERROR_INVALIDDATA;
+        goto end;
+    }
+
+    // check all streams before touching ic, the caller probes it again on failure
+    for (i = 0; i < ic->nb_streams; ++i) {
+        if (!probe_cache_par_complete(entry.streams[i].par)) {
+            av_log(NULL, AV_LOG_WARNING, "ijkprobecache: stream %u has no codec parameters in %s\n", i, path);
+            remove(path);
+            ret = AVERROR_INVALIDDATA;
+            goto end;
+        }
+    }
+
+    for (i = 0; i < ic->nb_streams; ++i) {
+        ret = probe_cache_apply_stream(&entry.streams[i], ic->streams[i]);
+        if (ret < 0)
+            goto end;
+    }
+
+    if (ic->start_time == AV_NOPTS_VALUE)
+        ic->start_time = entry.start_time;
+    if (ic->duration == AV_NOPTS_VALUE)
+        ic->duration = entry.duration;
+    if (ic->bit_rate <= 0)
+        ic->bit_rate = entry.bit_rate;
+    ret = 0;
+end:
+    probe_cache_entry_free(&entry);
+    av_free(path);
+    return ret;
+}
+
+int ijkprobecache_store(const char *dir, const char *key, AVFormatContext *ic)
+{
+    AVIOContext *pb       = NULL;
+    char        *path     = NULL;
+    char        *tmp_path = NULL;
+    unsigned int i;
+    int          ret;
+
+    if (!probe_cache_supported(ic))
+        return AVERROR(ENOSYS);
+
+    // find_stream_info() only warns about the streams it could not probe
+    for (i = 0; i < ic->nb_streams; ++i) {
+        if (!probe_cache_par_complete(ic->streams[i]->codecpar))
+            return AVERROR(EINVAL);
+    }
+
+    path = probe_cache_path(dir, key);
+    if (!path)
+        return AVERROR(EINVAL);
+    tmp_path = av_asprintf("%s.tmp", path);
+    if (!tmp_path) {
+        ret = AVERROR(ENOMEM);
+        goto end;
+    }
+
+    ret = avio_open(&pb, tmp_path, AVIO_FLAG_WRITE);
+    if (ret < 0)
+        goto end;
+
+    avio_wl32(pb, PROBE_CACHE_TAG);
+    avio_wl32(pb, PROBE_CACHE_VERSION);
+    avio_put_str(pb, ic->iformat->name);
+    avio_wl64(pb, ic->start_time);
+    avio_wl64(pb, ic->duration);
+    avio_wl64(pb, ic->bit_rate);
+    avio_wl32(pb, ic->nb_streams);
+    for (i = 0; i < ic->nb_streams; ++i)
+        write_stream(pb, ic->streams[i]);
+    avio_flush(pb);
+    ret = pb->error;
+    avio_closep(&pb);
+
+    // readers never see a partial entry
+    if (ret < 0 || rename(tmp_path, path)) {
+        remove(tmp_path);
+        if (ret >= 0)
+            ret = AVERROR(EIO);
+        goto end;
+    }
+    ret = 0;
+end:
+    av_free(tmp_path);
+    av_free(path);
+    return ret;
+}
+
+void ijkprobecache_remove(const char *dir, const char *key)
+{
+    char *path = probe_cache_path(dir, key);
+    if (path) {
+        remove(path);
+        av_free(path);
+    }
+}
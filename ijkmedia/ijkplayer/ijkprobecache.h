@@ -0,0 +1,54 @@
+/*
+ * ijkprobecache.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKPLAYER__IJKPROBECACHE_H
+#define IJKPLAYER__IJKPROBECACHE_H
+
+#include "libavformat/avformat.h"
+
+/*
+ * Persistent result of avformat_find_stream_info(), one file per key in dir.
+ * Only for inputs whose demuxer creates all streams while reading the header,
+ * in practice mp4/mov. Demuxers setting AVFMTCTX_NOHEADER, flv and mpegts
+ * among them, add streams while reading packets and are never cached.
+ *
+ * Only AVCodecParameters and the stream timing are restored, no packet is
+ * parsed or decoded ahead: the demuxer must deliver whole frames and the codec
+ * config by itself.
+ */
+
+/*
+ * Fills the parameters the demuxer left unset from the entry of key.
+ * An entry whose stream layout does not match ic, or with a stream lacking
+ * codec parameters, is removed.
+ * @return 0 if ic is ready to play without avformat_find_stream_info(), or AVERROR
+ */
+int     ijkprobecache_restore(const char *dir, const char *key, AVFormatContext *ic);
+
+/*
+ * Saves the probed parameters of ic, call after avformat_find_stream_info() succeeded.
+ */
+int     ijkprobecache_store(const char *dir, const char *key, AVFormatContext *ic);
+
+void    ijkprobecache_remove(const char *dir, const char *key);
+
+#endif
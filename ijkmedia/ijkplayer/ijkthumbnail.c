@@ -0,0 +1,256 @@
+/*
+ * ijkthumbnail.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkthumbnail.h"
+
+#include "ff_ffinc.h"
+
+struct IjkThumbnail {
+    AVFormatContext   *fmt_ctx;
+    AVCodecContext    *avctx;
+    AVFrame           *frame;
+    struct SwsContext *sws_ctx;
+    int                video_stream;
+    int                video_width;
+    int                video_height;
+
+    volatile int       abort_request;
+};
+
+static int thumb_interrupt_cb(void *opaque)
+{
+    IjkThumbnail *th = opaque;
+    return th->abort_request;
+}
+
+IjkThumbnail *ijkthumb_create(void)
+{
+    IjkThumbnail *th = av_mallocz(sizeof(IjkThumbnail));
+    if (!th)
+        return NULL;
+
+    th->video_stream = -1;
+    return th;
+}
+
+void ijkthumb_destroy_p(IjkThumbnail **pth)
+{
+    IjkThumbnail *th;
+    if (!pth || !*pth)
+        return;
+
+    th = *pth;
+    sws_freeContext(th->sws_ctx);
+    av_frame_free(&th->frame);
+    avcodec_free_context(&th->avctx);
+    avformat_close_input(&th->fmt_ctx);
+    av_freep(pth);
+}
+
+void ijkthumb_interrupt(IjkThumbnail *th, int abort)
+{
+    if (th)
+        th->abort_request = abort;
+}
+
+int ijkthumb_open(IjkThumbnail *th, const char *url)
+{
+    AVFormatContext *fmt_ctx = NULL;
+    AVCodecContext  *avctx   = NULL;
+    AVCodec         *codec   = NULL;
+    AVStream        *st      = NULL;
+    AVRational       sar;
+    int              ret     = 0;
+    int              i;
+
+    if (!th || !url)
+        return AVERROR(EINVAL);
+    if (th->fmt_ctx)
+        return 0;
+
+    fmt_ctx = avformat_alloc_context();
+    if (!fmt_ctx)
+        return AVERROR(ENOMEM);
+    fmt_ctx->interrupt_callback.callback = thumb_interrupt_cb;
+    fmt_ctx->interrupt_callback.opaque   = th;
+
+    ret = avformat_open_input(&fmt_ctx, url, NULL, NULL);
+    if (ret < 0) {
+        av_log(NULL, AV_LOG_ERROR, "ijkthumb: open %s failed: %s\n", url, av_err2str(ret));
+        goto fail;
+    }
+
+    ret = avformat_find_stream_info(fmt_ctx, NULL);
+    if (ret < 0)
+        goto fail;
+
+    ret = av_find_best_stream(fmt_ctx, AVMEDIA_TYPE_VIDEO, -1, -1, &codec, 0);
+    if (ret < 0) {
+        av_log(NULL, AV_LOG_ERROR, "ijkthumb: no video stream in %s\n", url);
+        goto fail;
+    }
+    th->video_stream = ret;
+    st = fmt_ctx->streams[th->video_stream];
+
+    // only keyframes of the video stream are of interest
+    for (i = 0; i < fmt_ctx->nb_streams; ++i) {
+        if (i != th->video_stream)
+            fmt_ctx->streams[i]->discard = AVDISCARD_ALL;
+    }
+
+    avctx = avcodec_alloc_context3(codec);
+    if (!avctx) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    ret = avcodec_parameters_to_context(avctx, st->codecpar);
+    if (ret < 0)
+        goto fail;
+    avctx->skip_frame = AVDISCARD_NONKEY;
+
+    ret = avcodec_open2(avctx, codec, NULL);
+    if (ret < 0)
+        goto fail;
+
+    th->frame = av_frame_alloc();
+    if (!th->frame) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    th->video_width  = st->codecpar->width;
+    th->video_height = st->codecpar->height;
+    sar = av_guess_sample_aspect_ratio(fmt_ctx, st, NULL);
+    if (sar.num > 0 && sar.den > 0 && sar.num != sar.den)
+        th->video_width = (int) av_rescale(th->video_width, sar.num, sar.den);
+
+    th->fmt_ctx = fmt_ctx;
+    th->avctx   = avctx;
+    return 0;
+fail:
+    avcodec_free_context(&avctx);
+    avformat_close_input(&fmt_ctx);
+    th->video_stream = -1;
+    return ret;
+}
+
+int ijkthumb_get_video_width(IjkThumbnail *th)
+{
+    return (th && th->fmt_ctx) ? th->video_width : 0;
+}
+
+int ijkthumb_get_video_height(IjkThumbnail *th)
+{
+    return (th && th->fmt_ctx) ? th->video_height : 0;
+}
+
+static int thumb_decode_keyframe(IjkThumbnail *th)
+{
+    AVPacket pkt;
+    int      eof = 0;
+    int      ret = 0;
+
+    for (;;) {
+        if (th->abort_request)
+            return AVERROR_EXIT;
+
+        ret = avcodec_receive_frame(th->avctx, th->frame);
+        if (ret != AVERROR(EAGAIN))
+            return ret;
+        if (eof)
+            return AVERROR_EOF;
+
+        ret = av_read_frame(th->fmt_ctx, &pkt);
+        if (ret == AVERROR_EOF) {
+            eof = 1;
+            avcodec_send_packet(th->avctx, NULL);
+            continue;
+        } else if (ret < 0) {
+            return ret;
+        }
+
+        if (pkt.stream_index == th->video_stream && (pkt.flags & AV_PKT_FLAG_KEY)) {
+            ret = avcodec_send_packet(th->avctx, &pkt);
+            if (ret < 0 && ret != AVERROR(EAGAIN)) {
+                av_packet_unref(&pkt);
+                return ret;
+            }
+        }
+        av_packet_unref(&pkt);
+    }
+}
+
+int64_t ijkthumb_get_frame_at_time(IjkThumbnail *th, int64_t time_ms, int width, int height, uint8_t *dst, int dst_linesize)
+{
+    AVStream *st;
+    AVFrame  *frame;
+    int64_t   ts;
+    int64_t   start_time;
+    int64_t   pts;
+    uint8_t  *dst_data[4]     = {dst, NULL, NULL, NULL};
+    int       dst_linesizes[4] = {dst_linesize, 0, 0, 0};
+    int       ret;
+
+    if (!th || !th->fmt_ctx)
+        return AVERROR(EINVAL);
+    if (width <= 0 || height <= 0 || !dst || dst_linesize < width * 4)
+        return AVERROR(EINVAL);
+
+    st         = th->fmt_ctx->streams[th->video_stream];
+    start_time = st->start_time != AV_NOPTS_VALUE ? st->start_time : 0;
+    ts         = start_time + av_rescale_q(FFMAX(time_ms, 0), (AVRational){1, 1000}, st->time_base);
+
+    // keyframe at or before ts, the first keyframe when ts is before it
+    ret = avformat_seek_file(th->fmt_ctx, th->video_stream, INT64_MIN, ts, ts, 0);
+    if (ret < 0)
+        ret = avformat_seek_file(th->fmt_ctx, th->video_stream, INT64_MIN, ts, INT64_MAX, 0);
+    if (ret < 0)
+        return ret;
+    avcodec_flush_buffers(th->avctx);
+
+    ret = thumb_decode_keyframe(th);
+    if (ret < 0)
+        return ret;
+    frame = th->frame;
+
+    th->sws_ctx = sws_getCachedContext(th->sws_ctx,
+        frame->width, frame->height, frame->format,
+        width, height, AV_PIX_FMT_RGBA,
+        SWS_BILINEAR, NULL, NULL, NULL);
+    if (!th->sws_ctx) {
+        av_frame_unref(frame);
+        return AVERROR(ENOMEM);
+    }
+
+    ret = sws_scale(th->sws_ctx, (const uint8_t * const *) frame->data, frame->linesize,
+        0, frame->height, dst_data, dst_linesizes);
+
+    pts = frame->best_effort_timestamp;
+    av_frame_unref(frame);
+    if (ret <= 0)
+        return AVERROR(EINVAL);
+
+    if (pts == AV_NOPTS_VALUE)
+        return time_ms;
+    return FFMAX(av_rescale_q(pts - start_time, st->time_base, (AVRational){1, 1000}), 0);
+}
@@ -0,0 +1,52 @@
+/*
+ * ijkthumbnail.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKPLAYER__IJKTHUMBNAIL_H
+#define IJKPLAYER__IJKTHUMBNAIL_H
+
+#include <stdint.h>
+
+/*
+ * Keyframe-only frame grabber, independent of any player.
+ * Not thread safe, except ijkthumb_interrupt().
+ */
+typedef struct IjkThumbnail IjkThumbnail;
+
+IjkThumbnail   *ijkthumb_create(void);
+void            ijkthumb_destroy_p(IjkThumbnail **pth);
+
+int             ijkthumb_open(IjkThumbnail *th, const char *url);
+
+// aborts current and following blocking calls, until called with abort = 0
+void            ijkthumb_interrupt(IjkThumbnail *th, int abort);
+
+// display size, with sample aspect ratio applied
+int             ijkthumb_get_video_width(IjkThumbnail *th);
+int             ijkthumb_get_video_height(IjkThumbnail *th);
+
+/*
+ * Decodes the nearest keyframe at or before time_ms, scaled to width x height RGBA.
+ * @return pts of the keyframe in ms, or AVERROR
+ */
+int64_t         ijkthumb_get_frame_at_time(IjkThumbnail *th, int64_t time_ms, int width, int height, uint8_t *dst, int dst_linesize);
+
+#endif
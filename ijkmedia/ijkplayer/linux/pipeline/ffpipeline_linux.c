@@ -0,0 +1,65 @@
+/*
+ * ffpipeline_linux.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ffpipeline_linux.h"
+#include "../../ff_ffplay.h"
+#include "../../pipeline/ffpipenode_ffplay_vdec.h"
+#include "ijksdl/dummy/ijksdl_aout_dummy.h"
+
+static SDL_Class g_pipeline_class = {
+    .name = "ffpipeline_linux",
+};
+
+struct IJKFF_Pipeline_Opaque {
+    FFPlayer *ffp;
+};
+
+static void func_destroy(IJKFF_Pipeline *pipeline)
+{
+    // do nothing
+}
+
+static IJKFF_Pipenode *func_open_video_decoder(IJKFF_Pipeline *pipeline, FFPlayer *ffp)
+{
+    return ffpipenode_create_video_decoder_from_ffplay(ffp);
+}
+
+static SDL_Aout *func_open_audio_output(IJKFF_Pipeline *pipeline, FFPlayer *ffp)
+{
+    return SDL_AoutDummy_Create(!ffp->max_speed);
+}
+
+IJKFF_Pipeline *ffpipeline_create_from_linux(FFPlayer *ffp)
+{
+    IJKFF_Pipeline *pipeline = ffpipeline_alloc(&g_pipeline_class, sizeof(IJKFF_Pipeline_Opaque));
+    if (!pipeline)
+        return pipeline;
+
+    IJKFF_Pipeline_Opaque *opaque = pipeline->opaque;
+    opaque->ffp                   = ffp;
+
+    pipeline->func_destroy            = func_destroy;
+    pipeline->func_open_video_decoder = func_open_video_decoder;
+    pipeline->func_open_audio_output  = func_open_audio_output;
+
+    return pipeline;
+}
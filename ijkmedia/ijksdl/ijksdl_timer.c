@@ -60,7 +60,7 @@ void SDL_Delay(Uint32 ms)
 Uint64 SDL_GetTickHR(void)
 {
     Uint64 clock;
-#if defined(__ANDROID__)
+#if defined(__ANDROID__) || defined(__linux__)
     struct timespec now;
 #ifdef CLOCK_MONOTONIC_COARSE
     clock_gettime(CLOCK_MONOTONIC_COARSE, &now);
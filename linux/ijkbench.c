@@ -0,0 +1,312 @@
+/*
+ * ijkbench.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Headless playback benchmark.
+ *
+ * Prepares a url, plays it through with display disabled and, unless -r is
+ * given, as fast as it can be demuxed and decoded, then prints demux, decode
+ * and queue figures in "key: value" lines, one per metric, for CI to diff.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <getopt.h>
+#include <pthread.h>
+#include "ijksdl/ijksdl.h"
+#include "ijkplayer/ff_ffplay.h"
+#include "ijkplayer/ff_ffplay_def.h"
+#include "ijkplayer/ijkplayer_internal.h"
+#include "ijkplayer/linux/ijkplayer_linux.h"
+
+#define SAMPLE_INTERVAL_MS 100
+
+typedef struct QueueSample {
+    int64_t count;
+    int64_t sum_packets;
+    int64_t max_packets;
+    int64_t sum_duration;
+    int64_t max_duration;
+} QueueSample;
+
+typedef struct Bench {
+    pthread_mutex_t mutex;
+    pthread_cond_t  cond;
+    int             done;
+    int             error;
+
+    int64_t         start_us;
+    int64_t         prepared_us;
+    int64_t         first_video_us;
+    int64_t         first_audio_us;
+    int64_t         end_us;
+} Bench;
+
+static Bench g_bench = {
+    .mutex = PTHREAD_MUTEX_INITIALIZER,
+    .cond  = PTHREAD_COND_INITIALIZER,
+};
+
+static void bench_finish(int error)
+{
+    pthread_mutex_lock(&g_bench.mutex);
+    if (!g_bench.done) {
+        g_bench.done   = 1;
+        g_bench.error  = error;
+        g_bench.end_us = av_gettime_relative();
+    }
+    pthread_cond_signal(&g_bench.cond);
+    pthread_mutex_unlock(&g_bench.mutex);
+}
+
+static int message_loop(void *arg)
+{
+    IjkMediaPlayer *mp = arg;
+
+    while (1) {
+        AVMessage msg;
+
+        int retval = ijkmp_get_msg(mp, &msg, 1);
+        if (retval < 0)
+            break;
+
+        switch (msg.what) {
+        case FFP_MSG_PREPARED:
+            g_bench.prepared_us = av_gettime_relative();
+            break;
+        case FFP_MSG_VIDEO_DECODED_START:
+            g_bench.first_video_us = av_gettime_relative();
+            break;
+        case FFP_MSG_AUDIO_DECODED_START:
+            g_bench.first_audio_us = av_gettime_relative();
+            break;
+        case FFP_MSG_COMPLETED:
+            bench_finish(0);
+            break;
+        case FFP_MSG_ERROR:
+            fprintf(stderr, "ijkbench: error %d\n", msg.arg1);
+            bench_finish(msg.arg1 ? msg.arg1 : -1);
+            break;
+        default:
+            break;
+        }
+        msg_free_res(&msg);
+    }
+
+    ijkmp_dec_ref_p(&mp);
+    return 0;
+}
+
+static void sample_queue(QueueSample *sample, int64_t packets, int64_t duration)
+{
+    sample->count++;
+    sample->sum_packets  += packets;
+    sample->sum_duration += duration;
+    sample->max_packets   = FFMAX(sample->max_packets, packets);
+    sample->max_duration  = FFMAX(sample->max_duration, duration);
+}
+
+static void print_queue(const char *name, const QueueSample *sample)
+{
+    int64_t count = FFMAX(sample->count, 1);
+
+    printf("%s_queue_avg_packets: %"PRId64"\n",     name, sample->sum_packets / count);
+    printf("%s_queue_max_packets: %"PRId64"\n",     name, sample->max_packets);
+    printf("%s_queue_avg_duration_ms: %"PRId64"\n", name, sample->sum_duration / count);
+    printf("%s_queue_max_duration_ms: %"PRId64"\n", name, sample->max_duration);
+}
+
+static void usage(const char *name)
+{
+    fprintf(stderr,
+        "usage: %s [options] <url>\n"
+        "  -o cat:name=value  set option, cat is one of format, codec, sws, player, swr\n"
+        "  -r                 play at realtime speed\n"
+        "  -t seconds         stop after seconds of wall time\n"
+        "  -v                 verbose log\n", name);
+}
+
+static int parse_option(IjkMediaPlayer *mp, char *arg)
+{
+    static const struct {
+        const char *name;
+        int         category;
+    } categories[] = {
+        { "format", IJKMP_OPT_CATEGORY_FORMAT },
+        { "codec",  IJKMP_OPT_CATEGORY_CODEC },
+        { "sws",    IJKMP_OPT_CATEGORY_SWS },
+        { "player", IJKMP_OPT_CATEGORY_PLAYER },
+        { "swr",    IJKMP_OPT_CATEGORY_SWR },
+    };
+    char *name  = strchr(arg, ':');
+    char *value = name ? strchr(name, '=') : NULL;
+    int   i;
+
+    if (!name || !value)
+        return -1;
+    *name++  = '\0';
+    *value++ = '\0';
+
+    for (i = 0; i < NELEM(categories); ++i) {
+        if (!strcmp(arg, categories[i].name)) {
+            ijkmp_set_option(mp, categories[i].category, name, value);
+            return 0;
+        }
+    }
+    return -1;
+}
+
+int main(int argc, char **argv)
+{
+    IjkMediaPlayer *mp          = NULL;
+    QueueSample     video_queue = {0};
+    QueueSample     audio_queue = {0};
+    int64_t         limit_us    = 0;
+    int64_t         play_us     = 0;
+    int64_t         bytes_read  = 0;
+    int             realtime    = 0;
+    int             verbose     = 0;
+    int             ret         = 0;
+    int             opt;
+
+    ijkmp_global_init();
+
+    mp = ijkmp_linux_create(message_loop);
+    if (!mp) {
+        fprintf(stderr, "ijkbench: failed to create player\n");
+        return 1;
+    }
+
+    ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "nodisp",            1);
+    ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "framedrop",         0);
+    ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "packet-buffering",  0);
+    ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "start-on-prepared", 1);
+    ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "max-speed",         1);
+
+    while ((opt = getopt(argc, argv, "o:rt:vh")) != -1) {
+        switch (opt) {
+        case 'o':
+            if (parse_option(mp, optarg) < 0) {
+                fprintf(stderr, "ijkbench: invalid option %s\n", optarg);
+                ret = 1;
+                goto end;
+            }
+            break;
+        case 'r':
+            realtime = 1;
+            ijkmp_set_option_int(mp, IJKMP_OPT_CATEGORY_PLAYER, "max-speed", 0);
+            break;
+        case 't':
+            limit_us = (int64_t)(atof(optarg) * 1000000);
+            break;
+        case 'v':
+            verbose = 1;
+            break;
+        default:
+            usage(argv[0]);
+            ret = opt == 'h' ? 0 : 1;
+            goto end;
+        }
+    }
+    if (optind >= argc) {
+        usage(argv[0]);
+        ret = 1;
+        goto end;
+    }
+
+    ijkmp_global_set_log_level(verbose ? IJK_LOG_DEBUG : IJK_LOG_WARN);
+
+    g_bench.start_us = av_gettime_relative();
+    if (ijkmp_set_data_source(mp, argv[optind]) || ijkmp_prepare_async(mp)) {
+        fprintf(stderr, "ijkbench: failed to prepare %s\n", argv[optind]);
+        ret = 1;
+        goto end;
+    }
+
+    pthread_mutex_lock(&g_bench.mutex);
+    while (!g_bench.done) {
+        struct timespec ts;
+        clock_gettime(CLOCK_REALTIME, &ts);
+        ts.tv_nsec += SAMPLE_INTERVAL_MS * 1000000;
+        ts.tv_sec  += ts.tv_nsec / 1000000000;
+        ts.tv_nsec %= 1000000000;
+        pthread_cond_timedwait(&g_bench.cond, &g_bench.mutex, &ts);
+        if (g_bench.done)
+            break;
+        pthread_mutex_unlock(&g_bench.mutex);
+
+        if (g_bench.prepared_us) {
+            sample_queue(&video_queue,
+                ijkmp_get_property_int64(mp, FFP_PROP_INT64_VIDEO_CACHED_PACKETS, 0),
+                ijkmp_get_property_int64(mp, FFP_PROP_INT64_VIDEO_CACHED_DURATION, 0));
+            sample_queue(&audio_queue,
+                ijkmp_get_property_int64(mp, FFP_PROP_INT64_AUDIO_CACHED_PACKETS, 0),
+                ijkmp_get_property_int64(mp, FFP_PROP_INT64_AUDIO_CACHED_DURATION, 0));
+        }
+        if (limit_us > 0 && av_gettime_relative() - g_bench.start_us > limit_us)
+            bench_finish(0);
+
+        pthread_mutex_lock(&g_bench.mutex);
+    }
+    pthread_mutex_unlock(&g_bench.mutex);
+
+    // read before stop, stream_close() frees the input
+    pthread_mutex_lock(&mp->mutex);
+    if (mp->ffplayer->is && mp->ffplayer->is->ic && mp->ffplayer->is->ic->pb)
+        bytes_read = mp->ffplayer->is->ic->pb->bytes_read;
+    pthread_mutex_unlock(&mp->mutex);
+
+    play_us = g_bench.prepared_us ? g_bench.end_us - g_bench.prepared_us : 0;
+
+    printf("url: %s\n", argv[optind]);
+    printf("mode: %s\n", realtime ? "realtime" : "max-speed");
+    printf("result: %s\n", g_bench.error ? "error" : "ok");
+    printf("prepare_ms: %"PRId64"\n", g_bench.prepared_us ? (g_bench.prepared_us - g_bench.start_us) / 1000 : -1);
+    printf("first_video_decoded_ms: %"PRId64"\n", g_bench.first_video_us ? (g_bench.first_video_us - g_bench.start_us) / 1000 : -1);
+    printf("first_audio_decoded_ms: %"PRId64"\n", g_bench.first_audio_us ? (g_bench.first_audio_us - g_bench.start_us) / 1000 : -1);
+    printf("play_ms: %"PRId64"\n", play_us / 1000);
+    printf("media_position_ms: %ld\n", ijkmp_get_current_position(mp));
+    printf("media_duration_ms: %ld\n", ijkmp_get_duration(mp));
+    if (play_us > 0)
+        printf("speed: %.2f\n", ijkmp_get_current_position(mp) * 1000.0 / play_us);
+
+    printf("demux_bytes: %"PRId64"\n", bytes_read);
+    if (play_us > 0)
+        printf("demux_kbytes_per_second: %.1f\n", bytes_read * 1000.0 / play_us);
+    printf("network_bytes: %"PRId64"\n", ijkmp_get_property_int64(mp, FFP_PROP_INT64_TRAFFIC_STATISTIC_BYTE_COUNT, 0));
+
+    printf("video_decoded_frames: %d\n", mp->ffplayer->stat.decode_frame_count);
+    printf("video_dropped_frames: %d\n", mp->ffplayer->stat.drop_frame_count);
+    if (play_us > 0)
+        printf("video_decode_fps: %.1f\n", mp->ffplayer->stat.decode_frame_count * 1000000.0 / play_us);
+
+    print_queue("video", &video_queue);
+    print_queue("audio", &audio_queue);
+
+    ret = g_bench.error ? 2 : 0;
+end:
+    ijkmp_shutdown(mp);
+    ijkmp_dec_ref_p(&mp);
+    ijkmp_global_uninit();
+    return ret;
+}
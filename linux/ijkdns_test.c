@@ -0,0 +1,219 @@
+/*
+ * ijkdns_test.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Host name cache of ijkdns, driven through a stub resolver.
+ *
+ * Each host of the stub answers with its current address, counts its lookups,
+ * and can be held until released, as a resolver that never answers.
+ * Exits non zero on failure.
+ */
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <string.h>
+#include <pthread.h>
+#include "libavutil/error.h"
+#include "libavutil/log.h"
+#include "libavutil/time.h"
+#include "ijkplayer/ijkavformat/ijkdns.h"
+
+#define TTL_MS              200
+#define LOOKUP_TIMEOUT_MS   300
+#define WAIT_MS             1000
+
+typedef struct StubHost {
+    const char *host;
+    char        ip[64];
+    int         lookups;
+    int         hold;
+} StubHost;
+
+static pthread_mutex_t g_mutex = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t  g_cond  = PTHREAD_COND_INITIALIZER;
+static StubHost        g_hosts[] = {
+    { "ttl.test",      "10.0.0.1" },
+    { "slow.test",     "10.0.0.2" },
+    { "prefetch.test", "10.0.0.3" },
+};
+static int             g_failed;
+
+static StubHost *stub_find(const char *host)
+{
+    int i;
+    for (i = 0; i < sizeof(g_hosts) / sizeof(g_hosts[0]); ++i) {
+        if (!strcmp(g_hosts[i].host, host))
+            return &g_hosts[i];
+    }
+    return NULL;
+}
+
+static int stub_resolve(void *opaque, const char *host, char *ip, size_t ip_size)
+{
+    StubHost *stub;
+    int       ret = AVERROR(EIO);
+
+    pthread_mutex_lock(&g_mutex);
+    stub = stub_find(host);
+    if (stub) {
+        stub->lookups++;
+        while (stub->hold)
+            pthread_cond_wait(&g_cond, &g_mutex);
+        snprintf(ip, ip_size, "%s", stub->ip);
+        ret = 0;
+    }
+    pthread_mutex_unlock(&g_mutex);
+    return ret;
+}
+
+static void stub_set(const char *host, const char *ip, int hold)
+{
+    StubHost *stub;
+
+    pthread_mutex_lock(&g_mutex);
+    stub = stub_find(host);
+    snprintf(stub->ip, sizeof(stub->ip), "%s", ip);
+    stub->hold = hold;
+    pthread_cond_broadcast(&g_cond);
+    pthread_mutex_unlock(&g_mutex);
+}
+
+static int stub_lookups(const char *host)
+{
+    int lookups;
+
+    pthread_mutex_lock(&g_mutex);
+    lookups = stub_find(host)->lookups;
+    pthread_mutex_unlock(&g_mutex);
+    return lookups;
+}
+
+static int interrupt_always(void *opaque)
+{
+    return 1;
+}
+
+static void expect(int cond, const char *what)
+{
+    printf("%s: %s\n", cond ? "ok" : "FAILED", what);
+    if (!cond)
+        g_failed = 1;
+}
+
+// resolves host and checks the result against expected_ip, NULL for an error
+static int resolve(const char *host, int timeout_ms, const AVIOInterruptCB *int_cb, const char *expected_ip)
+{
+    char ip[64] = {0};
+    int  ret    = ijkdns_resolve(host, timeout_ms, int_cb, ip, sizeof(ip));
+
+    if (expected_ip && (ret < 0 || strcmp(ip, expected_ip))) {
+        printf("%s -> %s (%s), expected %s\n", host, ret < 0 ? "error" : ip, av_err2str(ret), expected_ip);
+        g_failed = 1;
+    }
+    return ret;
+}
+
+static void test_ttl(void)
+{
+    resolve("ttl.test", WAIT_MS, NULL, "10.0.0.1");
+    resolve("ttl.test", WAIT_MS, NULL, "10.0.0.1");
+    expect(stub_lookups("ttl.test") == 1, "second resolve is served from the cache");
+
+    stub_set("ttl.test", "10.0.0.11", 0);
+    av_usleep((TTL_MS + 100) * 1000);
+    resolve("ttl.test", WAIT_MS, NULL, "10.0.0.11");
+    expect(stub_lookups("ttl.test") == 2, "expired entry is looked up again");
+}
+
+static void test_invalidate(void)
+{
+    stub_set("ttl.test", "10.0.0.12", 0);
+    ijkdns_set_redirecting("ttl.test");
+    expect(ijkdns_is_redirecting("ttl.test"), "host marked as redirecting");
+
+    // as ijkurlhook does after a failed connect on the cached address
+    ijkdns_invalidate("ttl.test");
+    expect(!ijkdns_is_redirecting("ttl.test"), "invalidate forgets the redirect mark");
+    resolve("ttl.test", WAIT_MS, NULL, "10.0.0.12");
+    expect(stub_lookups("ttl.test") == 3, "invalidated entry is looked up again");
+}
+
+static void test_timeout(void)
+{
+    AVIOInterruptCB int_cb = { interrupt_always, NULL };
+    int64_t         begin;
+    int             ret;
+
+    stub_set("slow.test", "10.0.0.2", 1);
+
+    begin = av_gettime_relative();
+    ret = resolve("slow.test", 100, NULL, NULL);
+    expect(ret == AVERROR(ETIMEDOUT), "unanswered resolve times out");
+    expect(av_gettime_relative() - begin < WAIT_MS * 1000LL, "timeout is kept");
+
+    ret = resolve("slow.test", WAIT_MS, &int_cb, NULL);
+    expect(ret == AVERROR_EXIT, "interrupt stops the wait");
+
+    // the first lookup is still held, a resolve after the lookup timeout starts another one
+    av_usleep((LOOKUP_TIMEOUT_MS + 100) * 1000);
+    resolve("slow.test", 100, NULL, NULL);
+    expect(stub_lookups("slow.test") == 2, "pending lookup is given up after the lookup timeout");
+
+    stub_set("slow.test", "10.0.0.2", 0);
+    resolve("slow.test", WAIT_MS, NULL, "10.0.0.2");
+}
+
+static void test_prefetch(void)
+{
+    int64_t deadline = av_gettime_relative() + WAIT_MS * 1000LL;
+
+    ijkdns_prefetch("prefetch.test");
+    while (stub_lookups("prefetch.test") == 0 && av_gettime_relative() < deadline)
+        av_usleep(10 * 1000);
+    expect(stub_lookups("prefetch.test") == 1, "prefetch starts a lookup");
+
+    resolve("prefetch.test", WAIT_MS, NULL, "10.0.0.3");
+    expect(stub_lookups("prefetch.test") == 1, "resolve after prefetch reuses its lookup");
+
+    resolve("127.0.0.1", WAIT_MS, NULL, "127.0.0.1");
+    expect(resolve("unknown.test", WAIT_MS, NULL, NULL) < 0, "resolver error is returned");
+}
+
+int main(int argc, char **argv)
+{
+    av_log_set_level(argc > 1 && !strcmp(argv[1], "-v") ? AV_LOG_DEBUG : AV_LOG_ERROR);
+
+    ijkdns_set_resolver(stub_resolve, NULL);
+    ijkdns_set_ttl(TTL_MS);
+    ijkdns_set_lookup_timeout(LOOKUP_TIMEOUT_MS);
+
+    test_ttl();
+    test_invalidate();
+    test_timeout();
+    test_prefetch();
+
+    ijkdns_clear();
+    ijkdns_set_resolver(NULL, NULL);
+
+    printf("%s\n", g_failed ? "FAIL" : "PASS");
+    return g_failed;
+}
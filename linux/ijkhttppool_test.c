@@ -0,0 +1,275 @@
+/*
+ * ijkhttppool_test.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Connection reuse of ijkhttppool.
+ *
+ * Serves a fixed body over http/1.1 keep-alive on 127.0.0.1, opens it twice
+ * through the pool, each time read to the end and released, and checks the
+ * second request went out on the connection accepted for the first one.
+ *
+ * The first owner sends its own user agent and gets a session cookie back,
+ * the second owner must send neither on the reused connection.
+ * Exits non zero on failure.
+ */
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <unistd.h>
+#include <arpa/inet.h>
+#include <netinet/in.h>
+#include <sys/socket.h>
+#include "libavformat/avformat.h"
+#include "libavformat/url.h"
+#include "libavutil/dict.h"
+#include "libavutil/log.h"
+#include "ijkplayer/ijkavformat/ijkhttppool.h"
+
+#define BODY_SIZE       (32 * 1024)
+#define REQUEST_COUNT   2
+#define OWNER_AGENT     "ijkhttppool-test-owner"
+#define OWNER_COOKIE    "ijkhttppool_session=owner"
+
+typedef struct Server {
+    int             listen_fd;
+    int             port;
+    pthread_mutex_t mutex;
+    int             accept_count;
+    int             request_count;
+    int             leak_count;     // later requests carrying state of the first owner
+} Server;
+
+typedef struct Connection {
+    Server *server;
+    int     fd;
+} Connection;
+
+static char g_body[BODY_SIZE];
+
+static int send_all(int fd, const char *buf, size_t size)
+{
+    while (size > 0) {
+        ssize_t ret = send(fd, buf, size, MSG_NOSIGNAL);
+        if (ret <= 0)
+            return -1;
+        buf  += ret;
+        size -= ret;
+    }
+    return 0;
+}
+
+// requests on a connection are answered in order, until the client closes it
+static void *serve_connection(void *arg)
+{
+    Connection *c   = arg;
+    char        buf[4096];
+    size_t      len = 0;
+
+    for (;;) {
+        char    header[256];
+        int     first;
+        char   *end;
+        ssize_t ret;
+
+        buf[len] = '\0';
+        end = strstr(buf, "\r\n\r\n");
+        if (!end) {
+            if (len >= sizeof(buf) - 1)
+                break;
+            ret = recv(c->fd, buf + len, sizeof(buf) - 1 - len, 0);
+            if (ret <= 0)
+                break;
+            len += ret;
+            continue;
+        }
+
+        *end = '\0';
+        pthread_mutex_lock(&c->server->mutex);
+        first = c->server->request_count++ == 0;
+        if (!first && (strstr(buf, OWNER_AGENT) || strstr(buf, OWNER_COOKIE)))
+            c->server->leak_count++;
+        pthread_mutex_unlock(&c->server->mutex);
+
+        // a "Range: bytes=0-" from ffmpeg is answered with the whole body
+        snprintf(header, sizeof(header),
+                 "HTTP/1.1 200 OK\r\n"
+                 "Content-Type: application/octet-stream\r\n"
+                 "Content-Length: %d\r\n"
+                 "%s"
+                 "\r\n", BODY_SIZE, first ? "Set-Cookie: " OWNER_COOKIE "; path=/\r\n" : "");
+        if (send_all(c->fd, header, strlen(header)) < 0 ||
+            send_all(c->fd, g_body, sizeof(g_body)) < 0)
+            break;
+
+        end += 4;
+        len -= end - buf;
+        memmove(buf, end, len);
+    }
+
+    close(c->fd);
+    free(c);
+    return NULL;
+}
+
+static void *serve(void *arg)
+{
+    Server *server = arg;
+
+    for (;;) {
+        Connection *c;
+        pthread_t   tid;
+        int         fd = accept(server->listen_fd, NULL, NULL);
+
+        if (fd < 0)
+            break;
+
+        pthread_mutex_lock(&server->mutex);
+        server->accept_count++;
+        pthread_mutex_unlock(&server->mutex);
+
+        c = calloc(1, sizeof(*c));
+        if (!c) {
+            close(fd);
+            continue;
+        }
+        c->server = server;
+        c->fd     = fd;
+        if (pthread_create(&tid, NULL, serve_connection, c)) {
+            close(fd);
+            free(c);
+            continue;
+        }
+        pthread_detach(tid);
+    }
+    return NULL;
+}
+
+static int server_start(Server *server)
+{
+    struct sockaddr_in addr;
+    socklen_t          addr_len = sizeof(addr);
+    pthread_t          tid;
+
+    memset(&addr, 0, sizeof(addr));
+    addr.sin_family      = AF_INET;
+    addr.sin_addr.s_addr = htonl(INADDR_LOOPBACK);
+    addr.sin_port        = 0;
+
+    server->listen_fd = socket(AF_INET, SOCK_STREAM, 0);
+    if (server->listen_fd < 0 ||
+        bind(server->listen_fd, (struct sockaddr *) &addr, sizeof(addr)) < 0 ||
+        listen(server->listen_fd, 8) < 0 ||
+        getsockname(server->listen_fd, (struct sockaddr *) &addr, &addr_len) < 0)
+        return -1;
+    server->port = ntohs(addr.sin_port);
+
+    if (pthread_create(&tid, NULL, serve, server))
+        return -1;
+    pthread_detach(tid);
+    return 0;
+}
+
+// reads the response to the end, so that the connection can be parked
+static int64_t read_body(URLContext *h)
+{
+    unsigned char buf[4096];
+    int64_t       total = 0;
+    int           ret;
+
+    while ((ret = ffurl_read(h, buf, sizeof(buf))) > 0)
+        total += ret;
+    return ret == 0 || ret == AVERROR_EOF ? total : ret;
+}
+
+int main(int argc, char **argv)
+{
+    Server  server;
+    char    url[64];
+    int     reused[REQUEST_COUNT];
+    int     accept_count;
+    int     request_count;
+    int     leak_count;
+    int     failed = 0;
+    int     i;
+
+    memset(&server, 0, sizeof(server));
+    pthread_mutex_init(&server.mutex, NULL);
+    memset(g_body, 'x', sizeof(g_body));
+
+    av_log_set_level(argc > 1 && !strcmp(argv[1], "-v") ? AV_LOG_DEBUG : AV_LOG_WARNING);
+    av_register_all();
+    avformat_network_init();
+
+    if (server_start(&server) < 0) {
+        perror("server_start");
+        return 1;
+    }
+    snprintf(url, sizeof(url), "http://127.0.0.1:%d/ijkhttppool_test", server.port);
+
+    for (i = 0; i < REQUEST_COUNT; ++i) {
+        IjkHttpConn  *conn    = NULL;
+        AVDictionary *options = NULL;
+        int64_t       size;
+        int           ret;
+
+        if (i == 0)
+            av_dict_set(&options, "user_agent", OWNER_AGENT, 0);
+        ret = ijkhttppool_open(&conn, url, AVIO_FLAG_READ, 0, NULL, NULL, &options, NULL, NULL, NULL);
+        av_dict_free(&options);
+        if (ret < 0) {
+            fprintf(stderr, "open #%d %s: %s\n", i, url, av_err2str(ret));
+            return 1;
+        }
+
+        size = read_body(ijkhttppool_get_url(conn));
+        if (size != BODY_SIZE) {
+            fprintf(stderr, "read #%d: %"PRId64" bytes, expected %d\n", i, size, BODY_SIZE);
+            failed = 1;
+        }
+
+        reused[i] = ijkhttppool_is_reused(conn);
+        ijkhttppool_release(&conn, size == BODY_SIZE ? 0 : -1);
+    }
+    ijkhttppool_clear();
+
+    pthread_mutex_lock(&server.mutex);
+    accept_count  = server.accept_count;
+    request_count = server.request_count;
+    leak_count    = server.leak_count;
+    pthread_mutex_unlock(&server.mutex);
+
+    printf("accepts: %d\n", accept_count);
+    printf("requests: %d\n", request_count);
+    printf("leaks: %d\n", leak_count);
+    for (i = 0; i < REQUEST_COUNT; ++i)
+        printf("reused_%d: %d\n", i, reused[i]);
+
+    if (accept_count != 1 || request_count != REQUEST_COUNT || leak_count || reused[0] || !reused[1])
+        failed = 1;
+
+    printf("%s\n", failed ? "FAIL" : "PASS");
+    avformat_network_deinit();
+    return failed;
+}
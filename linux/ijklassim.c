@@ -0,0 +1,332 @@
+/*
+ * ijklassim.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Offline LAS rate adaptation simulator.
+ *
+ * Replays a bandwidth trace against the LAS rate adaptation in virtual time:
+ * gops of gop_ms are published at the live edge, downloaded one after the
+ * other at the bandwidth of the trace and played out of a buffer, the policy
+ * picks the representation of every gop and sees the buffer every
+ * bufferCheckIntervalMs, as in ijklas. Bitrate, rebuffer and switch figures
+ * are printed in "key: value" lines, one per metric.
+ *
+ * The trace has one "time_ms kbps" pair per line, each bandwidth holding until
+ * the time of the next line, and the simulation ends with the last line.
+ * Lines starting with '#' are ignored.
+ */
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <getopt.h>
+#include "libavutil/common.h"
+#include "libavutil/log.h"
+#include "libavutil/mem.h"
+#include "ijkplayer/ijkavformat/ijklasabr.h"
+
+#define TICK_MS 10
+
+typedef struct TracePoint {
+    int64_t time_ms;
+    double  kbps;
+} TracePoint;
+
+typedef struct Trace {
+    TracePoint *points;
+    int         nb_points;
+    int         cursor;
+} Trace;
+
+typedef struct Outcome {
+    int64_t duration_ms;
+    int64_t startup_ms;
+    int64_t gop_count;
+    int64_t sum_bitrate;
+    int64_t switch_count;
+    int64_t rebuffer_count;
+    int64_t rebuffer_ms;
+    int64_t sum_buffer_ms;
+    int64_t buffer_samples;
+} Outcome;
+
+static int trace_load(Trace *trace, const char *path)
+{
+    FILE   *file  = fopen(path, "r");
+    char    line[256];
+    int     capacity = 0;
+
+    if (!file) {
+        fprintf(stderr, "ijklassim: failed to open %s\n", path);
+        return -1;
+    }
+
+    while (fgets(line, sizeof(line), file)) {
+        int64_t time_ms;
+        double  kbps;
+
+        if (line[0] == '#' || sscanf(line, "%"SCNd64" %lf", &time_ms, &kbps) != 2)
+            continue;
+        if (trace->nb_points >= capacity) {
+            capacity = FFMAX(capacity * 2, 64);
+            if (av_reallocp_array(&trace->points, capacity, sizeof(TracePoint)) < 0) {
+                fclose(file);
+                return -1;
+            }
+        }
+        trace->points[trace->nb_points].time_ms = time_ms;
+        trace->points[trace->nb_points].kbps    = FFMAX(kbps, 0);
+        trace->nb_points++;
+    }
+    fclose(file);
+
+    if (trace->nb_points < 2) {
+        fprintf(stderr, "ijklassim: %s needs at least 2 points\n", path);
+        return -1;
+    }
+    return 0;
+}
+
+static double trace_kbps(Trace *trace, int64_t time_ms)
+{
+    while (trace->cursor + 1 < trace->nb_points && trace->points[trace->cursor + 1].time_ms <= time_ms)
+        trace->cursor++;
+    return trace->points[trace->cursor].kbps;
+}
+
+static char *read_file(const char *path)
+{
+    FILE *file = fopen(path, "r");
+    char *buf  = NULL;
+    long  size;
+
+    if (!file)
+        return NULL;
+    if (fseek(file, 0, SEEK_END) == 0 && (size = ftell(file)) >= 0 && fseek(file, 0, SEEK_SET) == 0) {
+        buf = av_mallocz(size + 1);
+        if (buf && fread(buf, 1, size, file) != (size_t)size)
+            av_freep(&buf);
+    }
+    fclose(file);
+    return buf;
+}
+
+static int parse_bitrates(const char *arg, int32_t *bitrates)
+{
+    int n = 0;
+
+    while (*arg && n < MAX_STREAM_NUM) {
+        char *end;
+        long  kbps = strtol(arg, &end, 10);
+
+        if (end == arg || kbps <= 0)
+            return -1;
+        bitrates[n++] = (int32_t)kbps;
+        arg = *end == ',' ? end + 1 : end;
+    }
+    return n;
+}
+
+/*
+ * The live edge starts buffer_init ahead of the first gop, ijklas starts that
+ * far behind it, and then moves at realtime. Tags are received as soon as
+ * they are both published and allowed by the bandwidth, a new representation
+ * is picked at every gop boundary.
+ */
+static void simulate(MultiRateAdaption *adaption, Trace *trace, int gop_ms, int startup_ms, Outcome *outcome)
+{
+    int64_t end_ms          = trace->points[trace->nb_points - 1].time_ms;
+    int64_t next_check_ms   = adaption->conf.buffer_check_interval_ms;
+    int64_t next_gop_ms     = 0;
+    double  received_ms     = 0;
+    double  buffer_ms       = 0;
+    double  bits_since      = 0;
+    int64_t decision_ms     = 0;
+    int     rep_index       = adaption->next_expected_rep_index;
+    int     bitrate         = 0;
+    int     playing         = 0;
+    int     started         = 0;
+
+    for (int64_t now = 0; now < end_ms; now += TICK_MS) {
+        double kbps         = trace_kbps(trace, now);
+        double live_edge_ms = now + adaption->buffer_init;
+
+        if (now >= next_check_ms) {
+            check_buffer(adaption, now, buffer_ms / 1000.0);
+            next_check_ms += adaption->conf.buffer_check_interval_ms;
+        }
+
+        if (received_ms >= next_gop_ms) {
+            if (next_gop_ms > 0) {
+                int64_t speed = (int64_t)bits_since / FFMAX(now - decision_ms, 50);
+                int     index = next_representation_id(adaption, now, LAS_AUTO_MODE, speed, buffer_ms / 1000.0);
+                if (index != rep_index)
+                    outcome->switch_count++;
+                rep_index   = index;
+                bits_since  = 0;
+                decision_ms = now;
+            }
+            bitrate      = adaption->bitrate_table_origin_order[rep_index];
+            next_gop_ms += gop_ms;
+            outcome->gop_count++;
+            outcome->sum_bitrate += bitrate;
+        }
+
+        // kbps * ms = bits, bits / kbps = ms of media
+        double media_ms = FFMIN(kbps * TICK_MS / FFMAX(bitrate, 1), live_edge_ms - received_ms);
+        media_ms = FFMAX(FFMIN(media_ms, next_gop_ms - received_ms), 0);
+        received_ms += media_ms;
+        buffer_ms   += media_ms;
+        bits_since  += media_ms * bitrate;
+
+        if (playing) {
+            buffer_ms -= TICK_MS;
+            if (buffer_ms <= 0) {
+                buffer_ms = 0;
+                playing   = 0;
+                outcome->rebuffer_count++;
+            }
+        } else if (buffer_ms >= startup_ms) {
+            playing = 1;
+            if (!started) {
+                started = 1;
+                outcome->startup_ms = now;
+            }
+        } else if (started) {
+            outcome->rebuffer_ms += TICK_MS;
+        }
+
+        outcome->sum_buffer_ms += (int64_t)buffer_ms;
+        outcome->buffer_samples++;
+    }
+    outcome->duration_ms = end_ms;
+    if (!started)
+        outcome->startup_ms = -1;
+}
+
+static void usage(const char *name)
+{
+    fprintf(stderr,
+        "usage: %s [options] -r kbps,kbps,... <trace>\n"
+        "  -r kbps,kbps,...   bitrates of the representations, in manifest order\n"
+        "  -p policy          las_abr_policy, default " LAS_ABR_DEFAULT_POLICY "\n"
+        "  -c file            liveAdaptConfig json\n"
+        "  -g ms              gop duration, default 2000\n"
+        "  -s ms              buffer needed to start or resume playback, default 500\n"
+        "  -v                 verbose log\n", name);
+}
+
+int main(int argc, char **argv)
+{
+    MultiRateAdaption   adaption;
+    AdaptiveConfig      config;
+    const LasAbrPolicy *policy      = NULL;
+    const char         *policy_name = LAS_ABR_DEFAULT_POLICY;
+    char               *config_json = NULL;
+    Trace               trace       = {0};
+    Outcome             outcome     = {0};
+    int32_t             bitrates[MAX_STREAM_NUM];
+    int                 n_bitrates  = 0;
+    int                 gop_ms      = 2000;
+    int                 startup_ms  = 500;
+    int                 verbose     = 0;
+    int                 ret         = 0;
+    int                 opt;
+
+    RateAdaptConfig_default_init(&config);
+
+    while ((opt = getopt(argc, argv, "r:p:c:g:s:vh")) != -1) {
+        switch (opt) {
+        case 'r':
+            n_bitrates = parse_bitrates(optarg, bitrates);
+            break;
+        case 'p':
+            policy_name = optarg;
+            break;
+        case 'c':
+            av_freep(&config_json);
+            config_json = read_file(optarg);
+            if (!config_json || parse_adapt_config(config_json, &config) < 0) {
+                fprintf(stderr, "ijklassim: invalid config %s\n", optarg);
+                ret = 1;
+                goto end;
+            }
+            break;
+        case 'g':
+            gop_ms = atoi(optarg);
+            break;
+        case 's':
+            startup_ms = atoi(optarg);
+            break;
+        case 'v':
+            verbose = 1;
+            break;
+        default:
+            usage(argv[0]);
+            ret = opt == 'h' ? 0 : 1;
+            goto end;
+        }
+    }
+    if (optind >= argc || n_bitrates <= 0 || gop_ms <= 0) {
+        usage(argv[0]);
+        ret = 1;
+        goto end;
+    }
+
+    av_log_set_level(verbose ? AV_LOG_DEBUG : AV_LOG_WARNING);
+
+    policy = las_abr_policy_find(policy_name);
+    if (!policy) {
+        fprintf(stderr, "ijklassim: unknown policy %s\n", policy_name);
+        ret = 1;
+        goto end;
+    }
+    if (trace_load(&trace, argv[optind]) < 0) {
+        ret = 1;
+        goto end;
+    }
+
+    memset(&adaption, 0, sizeof(adaption));
+    if (MultiRateAdaption_init(&adaption, config, policy, n_bitrates, bitrates, NULL, -1, LAS_AUTO_MODE, 0, 0) < 0) {
+        ret = 1;
+        goto end;
+    }
+
+    simulate(&adaption, &trace, gop_ms, startup_ms, &outcome);
+
+    printf("trace: %s\n", argv[optind]);
+    printf("policy: %s\n", policy->name);
+    printf("duration_ms: %"PRId64"\n", outcome.duration_ms);
+    printf("startup_ms: %"PRId64"\n", outcome.startup_ms);
+    printf("gop_count: %"PRId64"\n", outcome.gop_count);
+    printf("avg_bitrate_kbps: %"PRId64"\n", outcome.sum_bitrate / FFMAX(outcome.gop_count, 1));
+    printf("switch_count: %"PRId64"\n", outcome.switch_count);
+    printf("rebuffer_count: %"PRId64"\n", outcome.rebuffer_count);
+    printf("rebuffer_ms: %"PRId64"\n", outcome.rebuffer_ms);
+    printf("avg_buffer_ms: %"PRId64"\n", outcome.sum_buffer_ms / FFMAX(outcome.buffer_samples, 1));
+
+end:
+    av_freep(&config_json);
+    av_freep(&trace.points);
+    return ret;
+}
@@ -0,0 +1,49 @@
+/*
+ * ijklinux_compat.h
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Included in front of every source of the host build,
+ * for the bionic extensions ijkmedia relies on.
+ */
+
+#ifndef IJKLINUX__IJKLINUX_COMPAT_H
+#define IJKLINUX__IJKLINUX_COMPAT_H
+
+#include <stddef.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/types.h>
+
+#if defined(__GLIBC__) && !__GLIBC_PREREQ(2, 38)
+#define strlcpy ijk_linux_strlcpy
+#ifdef __cplusplus
+extern "C"
+#endif
+size_t ijk_linux_strlcpy(char *dst, const char *src, size_t size);
+#endif
+
+#if defined(__GLIBC__) && !__GLIBC_PREREQ(2, 30)
+#include <sys/syscall.h>
+#define gettid() ((pid_t)syscall(SYS_gettid))
+#endif
+
+#endif
@@ -0,0 +1,267 @@
+/*
+ * ijkprobecache_test.c
+ *
+ * Copyright (c) 2017 Bilibili
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+/*
+ * Save and load of ijkprobecache.
+ *
+ * Muxes small pcm files into a temporary directory, stores the probe result
+ * of one, restores it on a fresh open, then replaces the media and the entry
+ * to check a stale entry is dropped and the caller can probe again.
+ * flv must never be cached, its demuxer adds streams while reading packets.
+ * Exits non zero on failure.
+ */
+
+#include <dirent.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include "libavformat/avformat.h"
+#include "libavutil/channel_layout.h"
+#include "libavutil/mathematics.h"
+#include "ijkplayer/ijkprobecache.h"
+
+#define SAMPLE_RATE     22050
+#define FRAME_SAMPLES   1024
+#define FRAME_COUNT     20
+#define CACHE_KEY       "ijkprobecache_test"
+
+static int g_failed;
+
+static void expect(int cond, const char *what)
+{
+    printf("%s: %s\n", cond ? "ok" : "FAILED", what);
+    if (!cond)
+        g_failed = 1;
+}
+
+// pcm_s16le silence, one mono stream per nb_streams
+static int write_media(const char *path, const char *format, int nb_streams)
+{
+    AVFormatContext *oc = NULL;
+    AVPacket         pkt;
+    int              ret;
+    int              i, n;
+
+    ret = avformat_alloc_output_context2(&oc, NULL, format, path);
+    if (ret < 0)
+        return ret;
+
+    for (i = 0; i < nb_streams; ++i) {
+        AVStream *st = avformat_new_stream(oc, NULL);
+        if (!st) {
+            ret = AVERROR(ENOMEM);
+            goto end;
+        }
+        st->time_base                       = (AVRational) {1, SAMPLE_RATE};
+        st->codecpar->codec_type            = AVMEDIA_TYPE_AUDIO;
+        st->codecpar->codec_id              = AV_CODEC_ID_PCM_S16LE;
+        st->codecpar->sample_rate           = SAMPLE_RATE;
+        st->codecpar->channels              = 1;
+        st->codecpar->channel_layout        = AV_CH_LAYOUT_MONO;
+        st->codecpar->bits_per_coded_sample = 16;
+        st->codecpar->block_align           = 2;
+    }
+
+    ret = avio_open(&oc->pb, path, AVIO_FLAG_WRITE);
+    if (ret < 0)
+        goto end;
+    ret = avformat_write_header(oc, NULL);
+    if (ret < 0)
+        goto end;
+
+    for (n = 0; n < FRAME_COUNT; ++n) {
+        for (i = 0; i < nb_streams; ++i) {
+            AVRational time_base = oc->streams[i]->time_base;
+
+            ret = av_new_packet(&pkt, FRAME_SAMPLES * 2);
+            if (ret < 0)
+                goto end;
+            memset(pkt.data, 0, pkt.size);
+            pkt.stream_index = i;
+            pkt.pts          = av_rescale_q(n * FRAME_SAMPLES, (AVRational) {1, SAMPLE_RATE}, time_base);
+            pkt.dts          = pkt.pts;
+            pkt.duration     = (int) av_rescale_q(FRAME_SAMPLES, (AVRational) {1, SAMPLE_RATE}, time_base);
+            ret = av_interleaved_write_frame(oc, &pkt);
+            av_packet_unref(&pkt);
+            if (ret < 0)
+                goto end;
+        }
+    }
+    ret = av_write_trailer(oc);
+end:
+    if (oc)
+        avio_closep(&oc->pb);
+    avformat_free_context(oc);
+    return ret;
+}
+
+static int open_media(const char *path, int find_stream_info, AVFormatContext **pic)
+{
+    int ret = avformat_open_input(pic, path, NULL, NULL);
+    if (ret < 0) {
+        fprintf(stderr, "open %s: %s\n", path, av_err2str(ret));
+        return ret;
+    }
+    if (find_stream_info) {
+        ret = avformat_find_stream_info(*pic, NULL);
+        if (ret < 0) {
+            fprintf(stderr, "find_stream_info %s: %s\n", path, av_err2str(ret));
+            avformat_close_input(pic);
+        }
+    }
+    return ret;
+}
+
+// number of entries in dir, the path of the last one in entry_path
+static int list_entries(const char *dir, char *entry_path, size_t entry_path_size)
+{
+    DIR           *d = opendir(dir);
+    struct dirent *de;
+    int            count = 0;
+
+    if (!d)
+        return -1;
+    while ((de = readdir(d))) {
+        size_t len = strlen(de->d_name);
+        if (len > 6 && !strcmp(de->d_name + len - 6, ".probe")) {
+            if (entry_path)
+                snprintf(entry_path, entry_path_size, "%s/%s", dir, de->d_name);
+            count++;
+        }
+    }
+    closedir(d);
+    return count;
+}
+
+static void test_round_trip(const char *media, const char *cache_dir)
+{
+    AVFormatContext *ic = NULL;
+    int64_t          duration;
+
+    expect(write_media(media, "mov", 1) >= 0, "mux mov");
+    if (open_media(media, 1, &ic) < 0) {
+        g_failed = 1;
+        return;
+    }
+    duration = ic->duration;
+    expect(ijkprobecache_store(cache_dir, CACHE_KEY, ic) == 0, "store probed mov");
+    expect(list_entries(cache_dir, NULL, 0) == 1, "one entry saved");
+    avformat_close_input(&ic);
+
+    if (open_media(media, 0, &ic) < 0) {
+        g_failed = 1;
+        return;
+    }
+    expect(ijkprobecache_restore(cache_dir, CACHE_KEY, ic) == 0, "restore on a fresh open");
+    expect(ic->nb_streams == 1 &&
+           ic->streams[0]->codecpar->codec_id == AV_CODEC_ID_PCM_S16LE &&
+           ic->streams[0]->codecpar->sample_rate == SAMPLE_RATE &&
+           ic->streams[0]->codecpar->channels == 1, "restored codec parameters");
+    expect(ic->duration == duration, "restored duration");
+    avformat_close_input(&ic);
+}
+
+static void test_stale(const char *media, const char *cache_dir)
+{
+    AVFormatContext *ic = NULL;
+    char             entry_path[1024];
+    FILE            *f;
+
+    // the content behind the key changed: two streams instead of one
+    expect(write_media(media, "mov", 2) >= 0, "mux replaced mov");
+    if (open_media(media, 0, &ic) < 0) {
+        g_failed = 1;
+        return;
+    }
+    expect(ijkprobecache_restore(cache_dir, CACHE_KEY, ic) < 0, "stale entry is not restored");
+    expect(list_entries(cache_dir, NULL, 0) == 0, "stale entry is dropped");
+    expect(avformat_find_stream_info(ic, NULL) >= 0 && ic->nb_streams == 2, "probe again after the miss");
+    expect(ijkprobecache_store(cache_dir, CACHE_KEY, ic) == 0, "store the new probe result");
+    avformat_close_input(&ic);
+
+    // a damaged entry
+    if (list_entries(cache_dir, entry_path, sizeof(entry_path)) != 1 || !(f = fopen(entry_path, "wb"))) {
+        expect(0, "damage the entry");
+        return;
+    }
+    fputs("not a probe cache entry", f);
+    fclose(f);
+
+    if (open_media(media, 0, &ic) < 0) {
+        g_failed = 1;
+        return;
+    }
+    expect(ijkprobecache_restore(cache_dir, CACHE_KEY, ic) < 0, "damaged entry is not restored");
+    expect(list_entries(cache_dir, NULL, 0) == 0, "damaged entry is dropped");
+    avformat_close_input(&ic);
+}
+
+static void test_flv(const char *media, const char *cache_dir)
+{
+    AVFormatContext *ic = NULL;
+
+    expect(write_media(media, "flv", 1) >= 0, "mux flv");
+    if (open_media(media, 1, &ic) < 0) {
+        g_failed = 1;
+        return;
+    }
+    expect(ijkprobecache_store(cache_dir, CACHE_KEY, ic) == AVERROR(ENOSYS), "flv is not stored");
+    expect(ijkprobecache_restore(cache_dir, CACHE_KEY, ic) == AVERROR(ENOSYS), "flv is not restored");
+    avformat_close_input(&ic);
+}
+
+int main(int argc, char **argv)
+{
+    char dir[] = "/tmp/ijkprobecache_test.XXXXXX";
+    char cache_dir[64];
+    char mov[64];
+    char flv[64];
+
+    av_log_set_level(argc > 1 && !strcmp(argv[1], "-v") ? AV_LOG_DEBUG : AV_LOG_ERROR);
+    av_register_all();
+
+    if (!mkdtemp(dir)) {
+        perror("mkdtemp");
+        return 1;
+    }
+    snprintf(cache_dir, sizeof(cache_dir), "%s/cache", dir);
+    snprintf(mov, sizeof(mov), "%s/media.mov", dir);
+    snprintf(flv, sizeof(flv), "%s/media.flv", dir);
+    if (mkdir(cache_dir, 0700) < 0) {
+        perror("mkdir");
+        return 1;
+    }
+
+    test_round_trip(mov, cache_dir);
+    test_stale(mov, cache_dir);
+    test_flv(flv, cache_dir);
+
+    ijkprobecache_remove(cache_dir, CACHE_KEY);
+    remove(mov);
+    remove(flv);
+    rmdir(cache_dir);
+    rmdir(dir);
+
+    printf("%s\n", g_failed ? "FAIL" : "PASS");
+    return g_failed;
+}